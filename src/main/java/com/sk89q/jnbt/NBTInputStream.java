@@ -100,7 +100,22 @@ public NBTInputStream(InputStream is) throws IOException {
      *             if an I/O error occurs.
      */
     public Tag readTag() throws IOException {
-        return readTag(0);
+        return readTag(0, NBTSelection.ALL);
+    }
+
+    /**
+     * Reads an NBT tag from the stream, with only the selected children.
+     * Tags that are not selected are skipped by their length, without being
+     * created.
+     * 
+     * @param selection
+     *            The selection of the children of the tag.
+     * @return The tag that was read.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public Tag readTag(NBTSelection selection) throws IOException {
+        return readTag(0, selection);
     }
 
     /**
@@ -108,24 +123,56 @@ public Tag readTag() throws IOException {
      * 
      * @param depth
      *            The depth of this tag.
+     * @param selection
+     *            The selection of the children of this tag.
      * @return The tag that was read.
      * @throws IOException
      *             if an I/O error occurs.
      */
-    private Tag readTag(int depth) throws IOException {
+    private Tag readTag(int depth, NBTSelection selection) throws IOException {
         int type = is.readByte() & 0xFF;
 
         String name;
         if (type != NBTConstants.TYPE_END) {
-            int nameLength = is.readShort() & 0xFFFF;
-            byte[] nameBytes = new byte[nameLength];
-            is.readFully(nameBytes);
-            name = new String(nameBytes, NBTConstants.CHARSET);
+            name = readName();
         } else {
             name = "";
         }
 
-        return readTagPayload(type, name, depth);
+        return readTagPayload(type, name, depth, selection);
+    }
+
+    /**
+     * Reads the name of a tag.
+     * 
+     * @return The name.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    private String readName() throws IOException {
+        int nameLength = is.readShort() & 0xFFFF;
+        byte[] nameBytes = new byte[nameLength];
+        is.readFully(nameBytes);
+        return new String(nameBytes, NBTConstants.CHARSET);
+    }
+
+    /**
+     * Reads the payload of a tag whose type and name have already been read
+     * from the underlying stream.
+     * 
+     * @param type
+     *            The type.
+     * @param name
+     *            The name.
+     * @return The tag.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public Tag readTagPayload(int type, String name) throws IOException {
+        if (type == NBTConstants.TYPE_END) {
+            throw new IOException("TAG_End has no payload.");
+        }
+        return readTagPayload(type, name, 1, NBTSelection.ALL);
     }
 
     /**
@@ -137,11 +184,13 @@ private Tag readTag(int depth) throws IOException {
      *            The name.
      * @param depth
      *            The depth.
+     * @param selection
+     *            The selection of the children of the tag.
      * @return The tag.
      * @throws IOException
      *             if an I/O error occurs.
      */
-    private Tag readTagPayload(int type, String name, int depth)
+    private Tag readTagPayload(int type, String name, int depth, NBTSelection selection)
             throws IOException {
         switch (type) {
         case NBTConstants.TYPE_END:
@@ -179,7 +228,7 @@ private Tag readTagPayload(int type, String name, int depth)
 
             List<Tag> tagList = new ArrayList<Tag>();
             for (int i = 0; i < length; ++i) {
-                Tag tag = readTagPayload(childType, "", depth + 1);
+                Tag tag = readTagPayload(childType, "", depth + 1, selection);
                 if (tag instanceof EndTag) {
                     throw new IOException("TAG_End not permitted in a list.");
                 }
@@ -190,11 +239,17 @@ private Tag readTagPayload(int type, String name, int depth)
         case NBTConstants.TYPE_COMPOUND:
             Map<String, Tag> tagMap = new HashMap<String, Tag>();
             while (true) {
-                Tag tag = readTag(depth + 1);
-                if (tag instanceof EndTag) {
+                int tagType = is.readByte() & 0xFF;
+                if (tagType == NBTConstants.TYPE_END) {
                     break;
+                }
+
+                String tagName = readName();
+                NBTSelection tagSelection = selection.getChild(tagName);
+                if (tagSelection == null) {
+                    skipTagPayload(tagType);
                 } else {
-                    tagMap.put(tag.getName(), tag);
+                    tagMap.put(tagName, readTagPayload(tagType, tagName, depth + 1, tagSelection));
                 }
             }
 
@@ -202,8 +257,16 @@ private Tag readTagPayload(int type, String name, int depth)
         case NBTConstants.TYPE_INT_ARRAY:
             length = is.readInt();
             int[] data = new int[length];
-            for (int i = 0; i < length; i++) {
-                data[i] = is.readInt();
+
+            // Read in blocks rather than calling readInt() for every value
+            bytes = new byte[Math.min(length, 1024) * 4];
+            for (int i = 0; i < length;) {
+                int count = Math.min(length - i, bytes.length / 4);
+                is.readFully(bytes, 0, count * 4);
+                for (int j = 0; j < count * 4; j += 4) {
+                    data[i++] = (bytes[j] & 0xFF) << 24 | (bytes[j + 1] & 0xFF) << 16
+                            | (bytes[j + 2] & 0xFF) << 8 | (bytes[j + 3] & 0xFF);
+                }
             }
             return new IntArrayTag(name, data);
         default:
@@ -211,6 +274,108 @@ private Tag readTagPayload(int type, String name, int depth)
         }
     }
 
+    /**
+     * Skips the payload of a tag, given the type.
+     * 
+     * @param type
+     *            The type.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    private void skipTagPayload(int type) throws IOException {
+        switch (type) {
+        case NBTConstants.TYPE_BYTE_ARRAY:
+            skipFully(is.readInt());
+            break;
+        case NBTConstants.TYPE_STRING:
+            skipFully(is.readShort() & 0xFFFF);
+            break;
+        case NBTConstants.TYPE_LIST:
+            int childType = is.readByte();
+            int length = is.readInt();
+            if (length > 0 && childType == NBTConstants.TYPE_END) {
+                throw new IOException("TAG_End not permitted in a list.");
+            }
+
+            int size = getPayloadSize(childType);
+            if (size > 0) {
+                skipFully((long) size * length);
+            } else {
+                for (int i = 0; i < length; ++i) {
+                    skipTagPayload(childType);
+                }
+            }
+            break;
+        case NBTConstants.TYPE_COMPOUND:
+            while (true) {
+                int tagType = is.readByte() & 0xFF;
+                if (tagType == NBTConstants.TYPE_END) {
+                    break;
+                }
+                skipFully(is.readShort() & 0xFFFF);
+                skipTagPayload(tagType);
+            }
+            break;
+        case NBTConstants.TYPE_INT_ARRAY:
+            skipFully(4L * is.readInt());
+            break;
+        default:
+            int fixedSize = getPayloadSize(type);
+            if (fixedSize <= 0) {
+                throw new IOException("Invalid tag type: " + type + ".");
+            }
+            skipFully(fixedSize);
+        }
+    }
+
+    /**
+     * Gets the size of the payload of a tag type that always has the same
+     * size.
+     * 
+     * @param type
+     *            The type.
+     * @return The size in bytes, or -1 if the size varies.
+     */
+    private static int getPayloadSize(int type) {
+        switch (type) {
+        case NBTConstants.TYPE_BYTE:
+            return 1;
+        case NBTConstants.TYPE_SHORT:
+            return 2;
+        case NBTConstants.TYPE_INT:
+        case NBTConstants.TYPE_FLOAT:
+            return 4;
+        case NBTConstants.TYPE_LONG:
+        case NBTConstants.TYPE_DOUBLE:
+            return 8;
+        default:
+            return -1;
+        }
+    }
+
+    /**
+     * Skips a number of bytes of the underlying stream.
+     * 
+     * @param length
+     *            The number of bytes.
+     * @throws IOException
+     *             if an I/O error occurs, or the stream ends first.
+     */
+    private void skipFully(long length) throws IOException {
+        if (length < 0) {
+            throw new IOException("Negative length: " + length + ".");
+        }
+        while (length > 0) {
+            int skipped = is.skipBytes((int) Math.min(length, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                // Throws at the end of the stream
+                is.readByte();
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+
     public void close() throws IOException {
         is.close();
     }
@@ -86,7 +86,22 @@ public final class NBTOutputStream implements Closeable {
      *             if an I/O error occurs.
      */
     public NBTOutputStream(OutputStream os) throws IOException {
-        this.os = new DataOutputStream(new GZIPOutputStream(os));
+        this(os, true);
+    }
+
+    /**
+     * Creates a new <code>NBTOutputStream</code>, which will write data to the
+     * specified underlying output stream, optionally without compressing it.
+     * 
+     * @param os
+     *            The output stream.
+     * @param compressed
+     *            Whether to gzip the data written to the stream.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public NBTOutputStream(OutputStream os, boolean compressed) throws IOException {
+        this.os = new DataOutputStream(compressed ? new GZIPOutputStream(os) : os);
     }
 
     /**
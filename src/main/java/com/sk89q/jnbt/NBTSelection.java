@@ -0,0 +1,124 @@
+package com.sk89q.jnbt;
+
+/*
+ * JNBT License
+ * 
+ * Copyright (c) 2010 Graham Edgecombe
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *       
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *       
+ *     * Neither the name of the JNBT team nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * A set of paths to the tags that {@link NBTInputStream#readTag(NBTSelection)}
+ * should read. A path is made of the names of the tags below the root tag,
+ * separated by slashes, such as <code>Level/Sections/Blocks</code>. The
+ * elements of a list have the path of the list itself.
+ * </p>
+ * 
+ * <p>
+ * A selected tag is read with all of its children. Compound tags on the way
+ * to a selected tag are read with only their selected children, and all
+ * other tags are skipped without being created.
+ * </p>
+ */
+public final class NBTSelection {
+
+    /**
+     * A selection of all tags.
+     */
+    public static final NBTSelection ALL = new NBTSelection(true);
+
+    /**
+     * The selections of the children, by name.
+     */
+    private final Map<String, NBTSelection> children = new HashMap<String, NBTSelection>();
+
+    /**
+     * Whether all children are selected.
+     */
+    private boolean all;
+
+    /**
+     * Creates the selection.
+     * 
+     * @param paths
+     *            The paths of the selected tags.
+     */
+    public NBTSelection(String... paths) {
+        for (String path : paths) {
+            add(path.split("/"), 0);
+        }
+    }
+
+    private NBTSelection(boolean all) {
+        this.all = all;
+    }
+
+    private void add(String[] names, int index) {
+        if (all) {
+            return;
+        }
+        if (index == names.length) {
+            all = true;
+            children.clear();
+            return;
+        }
+
+        NBTSelection child = children.get(names[index]);
+        if (child == null) {
+            child = new NBTSelection(false);
+            children.put(names[index], child);
+        }
+        child.add(names, index + 1);
+    }
+
+    /**
+     * Returns whether all children of the tag are selected.
+     * 
+     * @return true if the tag is read as a whole
+     */
+    public boolean isAll() {
+        return all;
+    }
+
+    /**
+     * Gets the selection of the children of a child tag.
+     * 
+     * @param name
+     *            The name of the child.
+     * @return The selection, or null if the child is not selected.
+     */
+    public NBTSelection getChild(String name) {
+        return all ? this : children.get(name);
+    }
+
+}
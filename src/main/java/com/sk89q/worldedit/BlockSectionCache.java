@@ -0,0 +1,256 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit;
+
+import com.sk89q.worldedit.blocks.BlockID;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the type IDs and data values of recently read 16x16x16 chunk
+ * sections of a world.
+ * </p>
+ * The sections of a chunk column that aren't cached yet are copied from the
+ * world with {@link LocalWorld#copySections(int, int, short[][], byte[][])}
+ * the first time one of their blocks is read, and the least recently used
+ * section is dropped once the cache is full. Blocks set through the owner of the cache
+ * without physics must be passed to {@link #update(int, int, int, int, int)}.
+ * Blocks set with physics may change their neighbours too, so they must be
+ * passed to {@link #invalidate(int, int, int)}.
+ */
+class BlockSectionCache {
+
+    private static final int MAX_SECTIONS = 64;
+
+    /**
+     * Block types that may have a tile entity, which must be read from the
+     * world as a whole.
+     */
+    private static final boolean[] tileEntityTypes = new boolean[BlockID.DOUBLE_PLANT + 1];
+
+    static {
+        final int[] types = {
+            BlockID.DISPENSER, BlockID.NOTE_BLOCK, BlockID.PISTON_MOVING_PIECE,
+            BlockID.MOB_SPAWNER, BlockID.CHEST, BlockID.FURNACE, BlockID.BURNING_FURNACE,
+            BlockID.SIGN_POST, BlockID.WALL_SIGN, BlockID.JUKEBOX,
+            95, // BlockID.LOCKED_CHEST, which is deprecated
+            BlockID.ENCHANTMENT_TABLE, BlockID.BREWING_STAND, BlockID.END_PORTAL,
+            BlockID.ENDER_CHEST, BlockID.COMMAND_BLOCK, BlockID.BEACON, BlockID.FLOWER_POT,
+            BlockID.HEAD, BlockID.TRAPPED_CHEST, BlockID.COMPARATOR_OFF, BlockID.COMPARATOR_ON,
+            BlockID.DAYLIGHT_SENSOR, BlockID.HOPPER, BlockID.DROPPER,
+        };
+        for (int type : types) {
+            tileEntityTypes[type] = true;
+        }
+    }
+
+    private final LocalWorld world;
+    private final int maxSectionY;
+    private final Map<Long, Section> sections = new LinkedHashMap<Long, Section>(MAX_SECTIONS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Section> eldest) {
+            return size() > MAX_SECTIONS;
+        }
+    };
+    private boolean supported = true;
+    private Section last;
+
+    BlockSectionCache(LocalWorld world) {
+        this.world = world;
+        this.maxSectionY = world.getMaxY() >> 4;
+    }
+
+    /**
+     * Returns whether a block type may have a tile entity.
+     *
+     * @param type the type ID
+     * @return true if the block must be read from the world to get all of its state
+     */
+    static boolean mayHaveTileEntity(int type) {
+        return type < 0 || type >= tileEntityTypes.length || tileEntityTypes[type];
+    }
+
+    /**
+     * Get the type of a block.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     * @return the type ID, or -1 if the block's section can't be cached
+     */
+    int getType(int x, int y, int z) {
+        final Section section = getSection(x >> 4, y >> 4, z >> 4);
+        return section == null ? -1 : section.types[index(x, y, z)];
+    }
+
+    /**
+     * Get the data value of a block.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     * @return the data value, or -1 if the block's section can't be cached
+     */
+    int getData(int x, int y, int z) {
+        final Section section = getSection(x >> 4, y >> 4, z >> 4);
+        return section == null ? -1 : section.data[index(x, y, z)];
+    }
+
+    /**
+     * Update a block, if its section is cached.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     * @param type the new type ID
+     * @param data the new data value
+     */
+    void update(int x, int y, int z, int type, int data) {
+        if (last == null || y < 0 || (y >> 4) > maxSectionY) {
+            return;
+        }
+
+        // The last section may already have been dropped from the map
+        Section section = last;
+        if (section.chunkX != x >> 4 || section.sectionY != y >> 4 || section.chunkZ != z >> 4) {
+            section = sections.get(key(x >> 4, y >> 4, z >> 4));
+        }
+        if (section != null) {
+            section.types[index(x, y, z)] = (short) type;
+            section.data[index(x, y, z)] = (byte) data;
+        }
+    }
+
+    /**
+     * Drop the section of a block that was set with physics, and the
+     * sections next to the block, whose blocks may have been changed by
+     * physics as well.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     */
+    void invalidate(int x, int y, int z) {
+        if (sections.isEmpty()) {
+            return;
+        }
+
+        for (int chunkX = (x - 1) >> 4; chunkX <= (x + 1) >> 4; ++chunkX) {
+            for (int sectionY = (y - 1) >> 4; sectionY <= (y + 1) >> 4; ++sectionY) {
+                for (int chunkZ = (z - 1) >> 4; chunkZ <= (z + 1) >> 4; ++chunkZ) {
+                    sections.remove(key(chunkX, sectionY, chunkZ));
+                }
+            }
+        }
+        last = null;
+    }
+
+    /**
+     * Drop all sections.
+     */
+    void clear() {
+        sections.clear();
+        last = null;
+    }
+
+    private Section getSection(int chunkX, int sectionY, int chunkZ) {
+        final Section last = this.last;
+        if (last != null && last.chunkX == chunkX && last.sectionY == sectionY && last.chunkZ == chunkZ) {
+            return last;
+        }
+
+        if (!supported || sectionY < 0 || sectionY > maxSectionY) {
+            return null;
+        }
+
+        Section section = sections.get(key(chunkX, sectionY, chunkZ));
+        if (section == null) {
+            section = copyColumn(chunkX, sectionY, chunkZ);
+            if (section == null) {
+                supported = false;
+                return null;
+            }
+        }
+
+        return this.last = section;
+    }
+
+    /**
+     * Copy the sections of a chunk column that aren't cached yet, as the
+     * world has to copy the whole column anyway.
+     *
+     * @param chunkX the X coordinate of the chunk
+     * @param sectionY the section that is needed
+     * @param chunkZ the Z coordinate of the chunk
+     * @return the section that is needed, or null if the world can't copy sections
+     */
+    private Section copyColumn(int chunkX, int sectionY, int chunkZ) {
+        final Section[] column = new Section[maxSectionY + 1];
+        final short[][] types = new short[column.length][];
+        final byte[][] data = new byte[column.length][];
+        for (int y = 0; y < column.length; ++y) {
+            if (y == sectionY || !sections.containsKey(key(chunkX, y, chunkZ))) {
+                column[y] = new Section(chunkX, y, chunkZ);
+                types[y] = column[y].types;
+                data[y] = column[y].data;
+            }
+        }
+
+        if (!world.copySections(chunkX, chunkZ, types, data)) {
+            return null;
+        }
+
+        // The section that is needed goes in last, so it is used most recently
+        for (int y = 0; y < column.length; ++y) {
+            if (column[y] != null && y != sectionY) {
+                sections.put(key(chunkX, y, chunkZ), column[y]);
+            }
+        }
+        sections.put(key(chunkX, sectionY, chunkZ), column[sectionY]);
+        return column[sectionY];
+    }
+
+    private static long key(int chunkX, int sectionY, int chunkZ) {
+        return ((long) chunkX << 36) ^ ((chunkZ & 0xFFFFFFFL) << 8) ^ (sectionY & 0xFF);
+    }
+
+    private static int index(int x, int y, int z) {
+        return (y & 0xF) << 8 | (z & 0xF) << 4 | (x & 0xF);
+    }
+
+    /**
+     * The blocks of one chunk section.
+     */
+    private static class Section {
+        private final int chunkX;
+        private final int sectionY;
+        private final int chunkZ;
+        private final short[] types = new short[4096];
+        private final byte[] data = new byte[4096];
+
+        private Section(int chunkX, int sectionY, int chunkZ) {
+            this.chunkX = chunkX;
+            this.sectionY = sectionY;
+            this.chunkZ = chunkZ;
+        }
+    }
+
+}
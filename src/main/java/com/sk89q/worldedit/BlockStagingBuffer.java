@@ -0,0 +1,193 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit;
+
+import com.sk89q.worldedit.blocks.BaseBlock;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Holds the blocks read from a cuboid area of a world until they are written
+ * somewhere else, as when a region is moved or stacked.
+ * </p>
+ * Type IDs and data values are kept in flat arrays, using three bytes per
+ * block of the area. Blocks that carry extra state, such as chests and signs,
+ * are kept as they are in a separate map.
+ */
+class BlockStagingBuffer {
+
+    private static final short EMPTY = -1;
+
+    private final int minX;
+    private final int minY;
+    private final int minZ;
+    private final int width;
+    private final int height;
+    private final int length;
+    private final short[] types;
+    private final byte[] data;
+    private final Map<Integer, BaseBlock> blocks = new HashMap<Integer, BaseBlock>();
+    private final BaseBlock[][] plainBlocks = new BaseBlock[4096][];
+    private int size = 0;
+
+    /**
+     * Create a new, empty buffer for a cuboid area.
+     *
+     * @param min the minimum point of the area
+     * @param max the maximum point of the area
+     */
+    BlockStagingBuffer(Vector min, Vector max) {
+        minX = min.getBlockX();
+        minY = min.getBlockY();
+        minZ = min.getBlockZ();
+        width = max.getBlockX() - minX + 1;
+        height = max.getBlockY() - minY + 1;
+        length = max.getBlockZ() - minZ + 1;
+
+        final long volume = (long) width * height * length;
+        if (volume > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Area is too large to be staged: " + volume + " blocks");
+        }
+
+        types = new short[(int) volume];
+        data = new byte[(int) volume];
+        Arrays.fill(types, EMPTY);
+    }
+
+    int getMinX() {
+        return minX;
+    }
+
+    int getMinY() {
+        return minY;
+    }
+
+    int getMinZ() {
+        return minZ;
+    }
+
+    int getMaxX() {
+        return minX + width - 1;
+    }
+
+    int getMaxY() {
+        return minY + height - 1;
+    }
+
+    int getMaxZ() {
+        return minZ + length - 1;
+    }
+
+    /**
+     * Get the number of blocks in the buffer.
+     *
+     * @return the number of blocks
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Get the index of a position in the area, which must be within it.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     * @return the index
+     */
+    int index(int x, int y, int z) {
+        return ((y - minY) * length + (z - minZ)) * width + (x - minX);
+    }
+
+    /**
+     * Put a block without extra state.
+     *
+     * @param index the index of the position
+     * @param type the type ID
+     * @param data the data value
+     */
+    void put(int index, int type, int data) {
+        if (types[index] == EMPTY) {
+            ++size;
+        }
+        types[index] = (short) type;
+        this.data[index] = (byte) data;
+        blocks.remove(index);
+    }
+
+    /**
+     * Put a block, keeping its extra state if it has any.
+     *
+     * @param index the index of the position
+     * @param block the block
+     */
+    void put(int index, BaseBlock block) {
+        put(index, block.getType(), block.getData());
+        if (block.getClass() != BaseBlock.class || block.getNbtData() != null) {
+            blocks.put(index, block);
+        }
+    }
+
+    /**
+     * Returns whether a block was put at a position.
+     *
+     * @param index the index of the position
+     * @return true if there is a block
+     */
+    boolean contains(int index) {
+        return types[index] != EMPTY;
+    }
+
+    /**
+     * Get the block at a position. Blocks without extra state are shared
+     * between positions and must not be modified.
+     *
+     * @param index the index of the position
+     * @return the block, or null if there is none
+     */
+    BaseBlock get(int index) {
+        final int type = types[index];
+        if (type == EMPTY) {
+            return null;
+        }
+
+        final BaseBlock block = blocks.get(index);
+        if (block != null) {
+            return block;
+        }
+
+        final int data = this.data[index];
+        if (type >= plainBlocks.length || data < 0 || data > 15) {
+            return new BaseBlock(type, data);
+        }
+
+        BaseBlock[] byData = plainBlocks[type];
+        if (byData == null) {
+            byData = plainBlocks[type] = new BaseBlock[16];
+        }
+        if (byData[data] == null) {
+            byData[data] = new BaseBlock(type, data);
+        }
+        return byData[data];
+    }
+
+}
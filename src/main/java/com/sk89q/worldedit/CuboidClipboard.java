@@ -29,13 +29,20 @@
 import java.util.Map;
 
 import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockData;
 import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.blocks.PalettedBlockArray;
 import com.sk89q.worldedit.data.DataException;
 import com.sk89q.worldedit.regions.Region;
 import com.sk89q.worldedit.schematic.SchematicFormat;
 
 /**
  * The clipboard remembers the state of a cuboid region.
+ * </p>
+ * Blocks are kept as palette indices in a flat array, so block objects are
+ * only created when they are asked for. Blocks returned by
+ * {@link #getBlock(Vector)} are not backed by the clipboard; changes to them
+ * are stored with {@link #setBlock(Vector, BaseBlock)}.
  *
  * @author sk89q
  */
@@ -49,7 +56,7 @@ public enum FlipDirection {
         UP_DOWN
     }
 
-    private BaseBlock[][][] data;
+    private PalettedBlockArray data;
     private Vector offset;
     private Vector origin;
     private Vector size;
@@ -62,7 +69,7 @@ public enum FlipDirection {
      */
     public CuboidClipboard(Vector size) {
         this.size = size;
-        data = new BaseBlock[size.getBlockX()][size.getBlockY()][size.getBlockZ()];
+        data = new PalettedBlockArray(getVolume(size));
         origin = new Vector();
         offset = new Vector();
     }
@@ -75,7 +82,7 @@ public CuboidClipboard(Vector size) {
      */
     public CuboidClipboard(Vector size, Vector origin) {
         this.size = size;
-        data = new BaseBlock[size.getBlockX()][size.getBlockY()][size.getBlockZ()];
+        data = new PalettedBlockArray(getVolume(size));
         this.origin = origin;
         offset = new Vector();
     }
@@ -89,7 +96,7 @@ public CuboidClipboard(Vector size, Vector origin) {
      */
     public CuboidClipboard(Vector size, Vector origin, Vector offset) {
         this.size = size;
-        data = new BaseBlock[size.getBlockX()][size.getBlockY()][size.getBlockZ()];
+        data = new PalettedBlockArray(getVolume(size));
         this.origin = origin;
         this.offset = offset;
     }
@@ -141,10 +148,12 @@ public void rotate2D(int angle) {
         final int shiftX = sizeRotated.getX() < 0 ? -sizeRotated.getBlockX() - 1 : 0;
         final int shiftZ = sizeRotated.getZ() < 0 ? -sizeRotated.getBlockZ() - 1 : 0;
 
-        final BaseBlock newData[][][] = new BaseBlock
-                [Math.abs(sizeRotated.getBlockX())]
-                [Math.abs(sizeRotated.getBlockY())]
-                [Math.abs(sizeRotated.getBlockZ())];
+        final Vector newSize = new Vector(Math.abs(sizeRotated.getBlockX()),
+                                          Math.abs(sizeRotated.getBlockY()),
+                                          Math.abs(sizeRotated.getBlockZ()));
+        final int newWidth = newSize.getBlockX();
+        final int newLength = newSize.getBlockZ();
+        final PalettedBlockArray newData = new PalettedBlockArray(data.getVolume(), data);
 
         for (int x = 0; x < width; ++x) {
             for (int z = 0; z < length; ++z) {
@@ -152,30 +161,35 @@ public void rotate2D(int angle) {
                 final int newX = v.getBlockX();
                 final int newZ = v.getBlockZ();
                 for (int y = 0; y < height; ++y) {
-                    final BaseBlock block = data[x][y][z];
-                    newData[newX][y][newZ] = block;
+                    newData.copyCell(data, (y * length + z) * width + x, (y * newLength + newZ) * newWidth + newX);
+                }
+            }
+        }
 
-                    if (block == null) {
-                        continue;
-                    }
+        // Rotate each distinct type and data value once instead of every block
+        for (int index = 1; index < newData.getPaletteSize(); ++index) {
+            final int type = newData.getPaletteType(index);
+            int blockData = newData.getPaletteData(index);
+            for (int i = 0; i < numRotations; ++i) {
+                blockData = reverse ? BlockData.rotate90Reverse(type, blockData) : BlockData.rotate90(type, blockData);
+            }
+            newData.setPaletteData(index, blockData);
+        }
 
-                    if (reverse) {
-                        for (int i = 0; i < numRotations; ++i) {
-                            block.rotate90Reverse();
-                        }
-                    } else {
-                        for (int i = 0; i < numRotations; ++i) {
-                            block.rotate90();
-                        }
-                    }
+        for (BaseBlock block : newData.getTileBlocks().values()) {
+            if (reverse) {
+                for (int i = 0; i < numRotations; ++i) {
+                    block.rotate90Reverse();
+                }
+            } else {
+                for (int i = 0; i < numRotations; ++i) {
+                    block.rotate90();
                 }
             }
         }
 
         data = newData;
-        size = new Vector(Math.abs(sizeRotated.getBlockX()),
-                          Math.abs(sizeRotated.getBlockY()),
-                          Math.abs(sizeRotated.getBlockZ()));
+        size = newSize;
         offset = offset.transform2D(angle, 0, 0, 0, 0)
                 .subtract(shiftX, 0, shiftZ);
     }
@@ -200,29 +214,22 @@ public void flip(FlipDirection dir, boolean aroundPlayer) {
         final int length = getLength();
         final int height = getHeight();
 
+        for (int index = 1; index < data.getPaletteSize(); ++index) {
+            data.setPaletteData(index, BlockData.flip(data.getPaletteType(index), data.getPaletteData(index), dir));
+        }
+
+        for (BaseBlock block : data.getTileBlocks().values()) {
+            block.flip(dir);
+        }
+
         switch (dir) {
         case WEST_EAST:
-            final int wid = (int) Math.ceil(width / 2.0f);
-            for (int xs = 0; xs < wid; ++xs) {
+            final int wid = width / 2;
+            for (int y = 0; y < height; ++y) {
                 for (int z = 0; z < length; ++z) {
-                    for (int y = 0; y < height; ++y) {
-                        final BaseBlock block1 = data[xs][y][z];
-                        if (block1 != null) {
-                            block1.flip(dir);
-                        }
-
-                        // Skip the center plane
-                        if (xs == width - xs - 1) {
-                            continue;
-                        }
-
-                        final BaseBlock block2 = data[width - xs - 1][y][z];
-                        if (block2 != null) {
-                            block2.flip(dir);
-                        }
-
-                        data[xs][y][z] = block2;
-                        data[width - xs - 1][y][z] = block1;
+                    final int row = (y * length + z) * width;
+                    for (int xs = 0; xs < wid; ++xs) {
+                        data.swap(row + xs, row + width - xs - 1);
                     }
                 }
             }
@@ -234,27 +241,13 @@ public void flip(FlipDirection dir, boolean aroundPlayer) {
             break;
 
         case NORTH_SOUTH:
-            final int len = (int) Math.ceil(length / 2.0f);
-            for (int zs = 0; zs < len; ++zs) {
-                for (int x = 0; x < width; ++x) {
-                    for (int y = 0; y < height; ++y) {
-                        final BaseBlock block1 = data[x][y][zs];
-                        if (block1 != null) {
-                            block1.flip(dir);
-                        }
-
-                        // Skip the center plane
-                        if (zs == length - zs - 1) {
-                            continue;
-                        }
-
-                        final BaseBlock block2 = data[x][y][length - zs - 1];
-                        if (block2 != null) {
-                            block2.flip(dir);
-                        }
-
-                        data[x][y][zs] = block2;
-                        data[x][y][length - zs - 1] = block1;
+            final int len = length / 2;
+            for (int y = 0; y < height; ++y) {
+                for (int zs = 0; zs < len; ++zs) {
+                    final int row1 = (y * length + zs) * width;
+                    final int row2 = (y * length + length - zs - 1) * width;
+                    for (int x = 0; x < width; ++x) {
+                        data.swap(row1 + x, row2 + x);
                     }
                 }
             }
@@ -266,28 +259,13 @@ public void flip(FlipDirection dir, boolean aroundPlayer) {
             break;
 
         case UP_DOWN:
-            final int hei = (int) Math.ceil(height / 2.0f);
+            final int hei = height / 2;
+            final int area = width * length;
             for (int ys = 0; ys < hei; ++ys) {
-                for (int x = 0; x < width; ++x) {
-                    for (int z = 0; z < length; ++z) {
-                        final BaseBlock block1 = data[x][ys][z];
-                        if (block1 != null) {
-                            block1.flip(dir);
-                        }
-
-                        // Skip the center plane
-                        if (ys == height - ys - 1) {
-                            continue;
-                        }
-
-                        final BaseBlock block2 = data[x][height - ys - 1][z];
-                        if (block2 != null) {
-                            block2.flip(dir);
-                        }
-
-                        data[x][ys][z] = block2;
-                        data[x][height - ys - 1][z] = block1;
-                    }
+                final int layer1 = ys * area;
+                final int layer2 = (height - ys - 1) * area;
+                for (int i = 0; i < area; ++i) {
+                    data.swap(layer1 + i, layer2 + i);
                 }
             }
 
@@ -305,11 +283,11 @@ public void flip(FlipDirection dir, boolean aroundPlayer) {
      * @param editSession The EditSession from which to take the blocks
      */
     public void copy(EditSession editSession) {
-        for (int x = 0; x < size.getBlockX(); ++x) {
-            for (int y = 0; y < size.getBlockY(); ++y) {
-                for (int z = 0; z < size.getBlockZ(); ++z) {
-                    data[x][y][z] =
-                            editSession.getBlock(new Vector(x, y, z).add(getOrigin()));
+        int cell = 0;
+        for (int y = 0; y < size.getBlockY(); ++y) {
+            for (int z = 0; z < size.getBlockZ(); ++z) {
+                for (int x = 0; x < size.getBlockX(); ++x) {
+                    data.set(cell++, editSession.getBlock(new Vector(x, y, z).add(getOrigin())));
                 }
             }
         }
@@ -322,14 +300,15 @@ public void copy(EditSession editSession) {
      * @param region A region that further constrains which blocks to take.
      */
     public void copy(EditSession editSession, Region region) {
-        for (int x = 0; x < size.getBlockX(); ++x) {
-            for (int y = 0; y < size.getBlockY(); ++y) {
-                for (int z = 0; z < size.getBlockZ(); ++z) {
+        int cell = 0;
+        for (int y = 0; y < size.getBlockY(); ++y) {
+            for (int z = 0; z < size.getBlockZ(); ++z) {
+                for (int x = 0; x < size.getBlockX(); ++x) {
                     final Vector pt = new Vector(x, y, z).add(getOrigin());
                     if (region.contains(pt)) {
-                        data[x][y][z] = editSession.getBlock(pt);
+                        data.set(cell++, editSession.getBlock(pt));
                     } else {
-                        data[x][y][z] = null;
+                        data.set(cell++, null);
                     }
                 }
             }
@@ -366,18 +345,30 @@ public void paste(EditSession editSession, Vector newOrigin, boolean noAir, bool
      * @throws MaxChangedBlocksException
      */
     public void place(EditSession editSession, Vector pos, boolean noAir) throws MaxChangedBlocksException {
-        for (int x = 0; x < size.getBlockX(); ++x) {
-            for (int y = 0; y < size.getBlockY(); ++y) {
-                for (int z = 0; z < size.getBlockZ(); ++z) {
-                    final BaseBlock block = data[x][y][z];
-                    if (block == null) {
+        // One shared block per palette entry; blocks with extra state are stored as they are
+        final BaseBlock[] blocks = new BaseBlock[data.getPaletteSize()];
+        int cell = 0;
+        for (int y = 0; y < size.getBlockY(); ++y) {
+            for (int z = 0; z < size.getBlockZ(); ++z) {
+                for (int x = 0; x < size.getBlockX(); ++x, ++cell) {
+                    final int index = data.getIndex(cell);
+                    if (index == 0) {
                         continue;
                     }
 
-                    if (noAir && block.isAir()) {
+                    if (noAir && data.getPaletteType(index) == BlockID.AIR) {
                         continue;
                     }
 
+                    BaseBlock block = data.getTileBlock(cell);
+                    if (block == null) {
+                        block = blocks[index];
+                        if (block == null) {
+                            block = new BaseBlock(data.getPaletteType(index), data.getPaletteData(index));
+                            blocks[index] = block;
+                        }
+                    }
+
                     editSession.setBlock(new Vector(x, y, z).add(pos), block);
                 }
             }
@@ -400,7 +391,8 @@ public void storeEntity(LocalEntity entity) {
     }
 
     /**
-     * Get one point in the copy. 
+     * Get one point in the copy. The block should be treated as read-only;
+     * see {@link #getBlock(Vector)}.
      *
      * @param The point, relative to the origin of the copy (0, 0, 0) and not to the actual copy origin.
      * @return air, if this block was outside the (non-cuboid) selection while copying
@@ -418,23 +410,32 @@ public BaseBlock getPoint(Vector pos) throws ArrayIndexOutOfBoundsException {
 
     /**
      * Get one point in the copy. 
+     * </p>
+     * Blocks that are only a type and data value are created from the
+     * palette on every call, so changing the returned block doesn't change
+     * the clipboard. Blocks with extra state, such as signs, are the stored
+     * instances and must not be changed either, as their type and data
+     * would no longer match the palette entry of the point. Use {@link #setBlock(Vector, BaseBlock)}
+     * to change a point.
      *
      * @param The point, relative to the origin of the copy (0, 0, 0) and not to the actual copy origin.
      * @return null, if this block was outside the (non-cuboid) selection while copying
      * @throws ArrayIndexOutOfBoundsException if the position is outside the bounds of the CuboidClipboard
      */
     public BaseBlock getBlock(Vector pos) throws ArrayIndexOutOfBoundsException {
-        return data[pos.getBlockX()][pos.getBlockY()][pos.getBlockZ()];
+        return data.get(getCell(pos));
     }
 
     /**
-     * Set one point in the copy. Pass null to remove the block.
+     * Set one point in the copy. Pass null to remove the block. Blocks with
+     * extra state, such as signs, are stored as they are and should not be
+     * changed afterwards.
      *
      * @param The point, relative to the origin of the copy (0, 0, 0) and not to the actual copy origin. 
      * @throws ArrayIndexOutOfBoundsException if the position is outside the bounds of the CuboidClipboard
      */
     public void setBlock(Vector pt, BaseBlock block) {
-        data[pt.getBlockX()][pt.getBlockY()][pt.getBlockZ()] = block;
+        data.set(getCell(pt), block);
     }
 
     /**
@@ -446,6 +447,32 @@ public Vector getSize() {
         return size;
     }
 
+    /**
+     * Get the backing block storage. A point is stored in cell
+     * (y * length + z) * width + x, the order used by .schematic files.
+     *
+     * @return the block storage
+     */
+    public PalettedBlockArray getBlockArray() {
+        return data;
+    }
+
+    private int getCell(Vector pt) throws ArrayIndexOutOfBoundsException {
+        final int x = pt.getBlockX();
+        final int y = pt.getBlockY();
+        final int z = pt.getBlockZ();
+        final int width = getWidth();
+        final int length = getLength();
+        if (x < 0 || x >= width || y < 0 || y >= getHeight() || z < 0 || z >= length) {
+            throw new ArrayIndexOutOfBoundsException("Point " + pt + " is outside of the clipboard");
+        }
+        return (y * length + z) * width + x;
+    }
+
+    private static int getVolume(Vector size) {
+        return size.getBlockX() * size.getBlockY() * size.getBlockZ();
+    }
+
     /**
      * Saves the clipboard data to a .schematic-format file.
      *
@@ -518,28 +545,21 @@ public List<Countable<Integer>> getBlockDistribution() {
         List<Countable<Integer>> distribution = new ArrayList<Countable<Integer>>();
         Map<Integer, Countable<Integer>> map = new HashMap<Integer, Countable<Integer>>();
 
-        int maxX = getWidth();
-        int maxY = getHeight();
-        int maxZ = getLength();
-
-        for (int x = 0; x < maxX; ++x) {
-            for (int y = 0; y < maxY; ++y) {
-                for (int z = 0; z < maxZ; ++z) {
-                    final BaseBlock block = data[x][y][z];
-                    if (block == null) {
-                        continue;
-                    }
+        final int[] counts = countPaletteIndices();
+        for (int index = 1; index < counts.length; ++index) {
+            if (counts[index] == 0) {
+                continue;
+            }
 
-                    int id = block.getId();
+            int id = data.getPaletteType(index);
 
-                    if (map.containsKey(id)) {
-                        map.get(id).increment();
-                    } else {
-                        Countable<Integer> c = new Countable<Integer>(id, 1);
-                        map.put(id, c);
-                        distribution.add(c);
-                    }
-                }
+            if (map.containsKey(id)) {
+                final Countable<Integer> c = map.get(id);
+                c.setAmount(c.getAmount() + counts[index]);
+            } else {
+                Countable<Integer> c = new Countable<Integer>(id, counts[index]);
+                map.put(id, c);
+                distribution.add(c);
             }
         }
 
@@ -554,34 +574,25 @@ public List<Countable<Integer>> getBlockDistribution() {
      *
      * @return
      */
-    // TODO reduce code duplication
     public List<Countable<BaseBlock>> getBlockDistributionWithData() {
         List<Countable<BaseBlock>> distribution = new ArrayList<Countable<BaseBlock>>();
         Map<BaseBlock, Countable<BaseBlock>> map = new HashMap<BaseBlock, Countable<BaseBlock>>();
 
-        int maxX = getWidth();
-        int maxY = getHeight();
-        int maxZ = getLength();
-
-        for (int x = 0; x < maxX; ++x) {
-            for (int y = 0; y < maxY; ++y) {
-                for (int z = 0; z < maxZ; ++z) {
-                    final BaseBlock block = data[x][y][z];
-                    if (block == null) {
-                        continue;
-                    }
+        final int[] counts = countPaletteIndices();
+        for (int index = 1; index < counts.length; ++index) {
+            if (counts[index] == 0) {
+                continue;
+            }
 
-                    // Strip the block from metadata that is not part of our key
-                    final BaseBlock bareBlock = new BaseBlock(block.getId(), block.getData());
+            final BaseBlock bareBlock = new BaseBlock(data.getPaletteType(index), data.getPaletteData(index));
 
-                    if (map.containsKey(bareBlock)) {
-                        map.get(bareBlock).increment();
-                    } else {
-                        Countable<BaseBlock> c = new Countable<BaseBlock>(bareBlock, 1);
-                        map.put(bareBlock, c);
-                        distribution.add(c);
-                    }
-                }
+            if (map.containsKey(bareBlock)) {
+                final Countable<BaseBlock> c = map.get(bareBlock);
+                c.setAmount(c.getAmount() + counts[index]);
+            } else {
+                Countable<BaseBlock> c = new Countable<BaseBlock>(bareBlock, counts[index]);
+                map.put(bareBlock, c);
+                distribution.add(c);
             }
         }
 
@@ -590,4 +601,17 @@ public List<Countable<BaseBlock>> getBlockDistributionWithData() {
 
         return distribution;
     }
+
+    /**
+     * Count how many cells use each palette index.
+     *
+     * @return counts by palette index
+     */
+    private int[] countPaletteIndices() {
+        final int[] counts = new int[data.getPaletteSize()];
+        for (int cell = 0; cell < data.getVolume(); ++cell) {
+            ++counts[data.getIndex(cell)];
+        }
+        return counts;
+    }
 }
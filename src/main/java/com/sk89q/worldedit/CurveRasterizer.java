@@ -0,0 +1,255 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.sk89q.worldedit;
+
+import com.sk89q.worldedit.patterns.Pattern;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Rasterizes thick lines and curves into blocks, for
+ * {@link EditSession#drawLine(Pattern, Vector, Vector, double, boolean)} and
+ * {@link EditSession#drawSpline(Pattern, java.util.List, double, double, double, double, double, boolean)}.
+ * </p>
+ * Every point on the center of the curve adds a ball of the given radius.
+ * The ball is added as one run of blocks along the X axis for each of its
+ * rows, so no distance is computed per block and point. Blocks are recorded
+ * in a bit set for each 16x16x16 section that the curve passes through, so
+ * a block that is covered by many balls is only recorded once and the memory
+ * used grows with the volume of the curve rather than with the number of
+ * points times the volume of a ball.
+ */
+class CurveRasterizer {
+
+    private final int radius;
+    private final int[] halfWidths;
+    private final Map<Long, long[]> sections = new HashMap<Long, long[]>();
+    private long[] lastSection;
+    private long lastKey;
+    private boolean hasPoint = false;
+    private int pointX;
+    private int pointY;
+    private int pointZ;
+
+    /**
+     * Create a new rasterizer.
+     *
+     * @param radius the radius of the ball around every point
+     */
+    CurveRasterizer(double radius) {
+        this.radius = Math.max(0, (int) Math.ceil(radius));
+        final int size = 2 * this.radius + 1;
+
+        // A ball is convex, so every row of it is a single run around the center
+        halfWidths = new int[size * size];
+        for (int dy = -this.radius; dy <= this.radius; ++dy) {
+            for (int dz = -this.radius; dz <= this.radius; ++dz) {
+                int halfWidth = -1;
+                for (int dx = 0; dx <= this.radius; ++dx) {
+                    if (Math.sqrt(dx * dx + dy * dy + dz * dz) > radius) {
+                        break;
+                    }
+                    halfWidth = dx;
+                }
+                halfWidths[(dy + this.radius) * size + dz + this.radius] = halfWidth;
+            }
+        }
+    }
+
+    /**
+     * Add the ball around a point on the curve. A point that is the same as
+     * the one added before it is skipped.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     */
+    void addPoint(int x, int y, int z) {
+        if (hasPoint && x == pointX && y == pointY && z == pointZ) {
+            return;
+        }
+        hasPoint = true;
+        pointX = x;
+        pointY = y;
+        pointZ = z;
+
+        final int size = 2 * radius + 1;
+        for (int dy = -radius; dy <= radius; ++dy) {
+            for (int dz = -radius; dz <= radius; ++dz) {
+                final int halfWidth = halfWidths[(dy + radius) * size + dz + radius];
+                if (halfWidth >= 0) {
+                    addRun(x - halfWidth, x + halfWidth, y + dy, z + dz);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the points of a straight line between two blocks, stepping one
+     * block at a time along the axis on which the line is longest.
+     *
+     * @param x1 the X coordinate of the first block
+     * @param y1 the Y coordinate of the first block
+     * @param z1 the Z coordinate of the first block
+     * @param x2 the X coordinate of the second block
+     * @param y2 the Y coordinate of the second block
+     * @param z2 the Z coordinate of the second block
+     */
+    void addLine(int x1, int y1, int z1, int x2, int y2, int z2) {
+        final int dx = Math.abs(x2 - x1), dy = Math.abs(y2 - y1), dz = Math.abs(z2 - z1);
+        final int steps = Math.max(Math.max(dx, dy), dz);
+        if (steps == 0) {
+            addPoint(x1, y1, z1);
+            return;
+        }
+
+        final int signX = x2 - x1 > 0 ? 1 : -1;
+        final int signY = y2 - y1 > 0 ? 1 : -1;
+        final int signZ = z2 - z1 > 0 ? 1 : -1;
+        for (int step = 0; step <= steps; ++step) {
+            addPoint((int) Math.round(x1 + step * ((double) dx) / steps * signX),
+                    (int) Math.round(y1 + step * ((double) dy) / steps * signY),
+                    (int) Math.round(z1 + step * ((double) dz) / steps * signZ));
+        }
+    }
+
+    /**
+     * Returns whether a block has been covered by a ball.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     * @return true if the block is part of the curve
+     */
+    boolean contains(int x, int y, int z) {
+        final long[] section = getSection(x >> 4, y >> 4, z >> 4, false);
+        return section != null && (section[index(x, y, z) >> 6] & 1L << index(x, y, z)) != 0;
+    }
+
+    /**
+     * Set the blocks of the curve.
+     *
+     * @param editSession the edit session to set the blocks with
+     * @param pattern the pattern to set the blocks to
+     * @param filled false to only set the blocks on the surface of the curve
+     * @return the number of blocks that changed
+     * @throws MaxChangedBlocksException
+     */
+    int apply(EditSession editSession, Pattern pattern, boolean filled) throws MaxChangedBlocksException {
+        int affected = 0;
+        for (Map.Entry<Long, long[]> entry : sections.entrySet()) {
+            final long key = entry.getKey();
+            final long[] section = entry.getValue();
+            final int baseX = (int) (key >> 40) << 4;
+            final int baseY = (short) key << 4;
+            final int baseZ = (int) (key << 24 >> 40) << 4;
+
+            for (int word = 0; word < section.length; ++word) {
+                long bits = section[word];
+                while (bits != 0) {
+                    final int index = word << 6 | Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+
+                    final int x = baseX + (index & 0xF);
+                    final int y = baseY + (index >> 8);
+                    final int z = baseZ + (index >> 4 & 0xF);
+                    if (!filled && isInside(section, index, x, y, z)) {
+                        continue;
+                    }
+
+                    if (editSession.setBlock(x, y, z, pattern.next(x, y, z))) {
+                        ++affected;
+                    }
+                }
+            }
+        }
+
+        return affected;
+    }
+
+    /**
+     * Returns whether all six blocks next to a block of the curve are part of
+     * the curve as well.
+     *
+     * @param section the section of the block
+     * @param index the index of the block in its section
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     * @return true if the block is not on the surface
+     */
+    private boolean isInside(long[] section, int index, int x, int y, int z) {
+        final int localX = x & 0xF, localY = y & 0xF, localZ = z & 0xF;
+        return (localX < 15 ? isSet(section, index + 1) : contains(x + 1, y, z))
+                && (localX > 0 ? isSet(section, index - 1) : contains(x - 1, y, z))
+                && (localZ < 15 ? isSet(section, index + 16) : contains(x, y, z + 1))
+                && (localZ > 0 ? isSet(section, index - 16) : contains(x, y, z - 1))
+                && (localY < 15 ? isSet(section, index + 256) : contains(x, y + 1, z))
+                && (localY > 0 ? isSet(section, index - 256) : contains(x, y - 1, z));
+    }
+
+    private static boolean isSet(long[] section, int index) {
+        return (section[index >> 6] & 1L << index) != 0;
+    }
+
+    /**
+     * Add a run of blocks along the X axis.
+     *
+     * @param minX the X coordinate of the first block of the run
+     * @param maxX the X coordinate of the last block of the run
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     */
+    private void addRun(int minX, int maxX, int y, int z) {
+        for (int chunkX = minX >> 4; chunkX <= maxX >> 4; ++chunkX) {
+            final long[] section = getSection(chunkX, y >> 4, z >> 4, true);
+            final int from = Math.max(minX, chunkX << 4) & 0xF;
+            final int to = Math.min(maxX, chunkX << 4 | 0xF) & 0xF;
+
+            // A row of a section is 16 bits of one word
+            final int index = index(0, y, z);
+            section[index >> 6] |= (-1L >>> (63 - to + from)) << ((index & 63) + from);
+        }
+    }
+
+    private long[] getSection(int chunkX, int sectionY, int chunkZ, boolean create) {
+        final long key = (long) chunkX << 40 | (chunkZ & 0xFFFFFFL) << 16 | (sectionY & 0xFFFF);
+        if (lastSection != null && lastKey == key) {
+            return lastSection;
+        }
+
+        long[] section = sections.get(key);
+        if (section == null) {
+            if (!create) {
+                return null;
+            }
+            section = new long[64];
+            sections.put(key, section);
+        }
+
+        lastKey = key;
+        return lastSection = section;
+    }
+
+    private static int index(int x, int y, int z) {
+        return (y & 0xF) << 8 | (z & 0xF) << 4 | (x & 0xF);
+    }
+
+}
@@ -22,24 +22,36 @@
 import com.sk89q.worldedit.bags.BlockBagException;
 import com.sk89q.worldedit.bags.UnplaceableBlockException;
 import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BaseItem;
 import com.sk89q.worldedit.blocks.BlockID;
 import com.sk89q.worldedit.blocks.BlockType;
 import com.sk89q.worldedit.expression.Expression;
 import com.sk89q.worldedit.expression.ExpressionException;
+import com.sk89q.worldedit.expression.ParallelExpression;
 import com.sk89q.worldedit.expression.runtime.RValue;
+import com.sk89q.worldedit.floodfill.BlockPositionQueue;
+import com.sk89q.worldedit.floodfill.BlockPositionSet;
+import com.sk89q.worldedit.floodfill.FloodFill;
+import com.sk89q.worldedit.floodfill.FloodFill.Connectivity;
 import com.sk89q.worldedit.generator.ForestGenerator;
 import com.sk89q.worldedit.generator.GardenPatchGenerator;
+import com.sk89q.worldedit.history.BlockChangeList;
 import com.sk89q.worldedit.operation.GroundScatterFunction;
 import com.sk89q.worldedit.interpolation.Interpolation;
 import com.sk89q.worldedit.interpolation.KochanekBartelsInterpolation;
 import com.sk89q.worldedit.interpolation.Node;
+import com.sk89q.worldedit.lighting.RelightOperation;
 import com.sk89q.worldedit.masks.Mask;
 import com.sk89q.worldedit.operation.FlatRegionApplicator;
+import com.sk89q.worldedit.operation.Operation;
 import com.sk89q.worldedit.operation.OperationHelper;
+import com.sk89q.worldedit.operation.ProgressiveOperation;
 import com.sk89q.worldedit.patterns.Pattern;
+import com.sk89q.worldedit.patterns.SingleBlockPattern;
 import com.sk89q.worldedit.regions.CuboidRegion;
 import com.sk89q.worldedit.regions.Region;
 import com.sk89q.worldedit.regions.RegionOperationException;
+import com.sk89q.worldedit.regions.SpanCursor;
 import com.sk89q.worldedit.shape.ArbitraryBiomeShape;
 import com.sk89q.worldedit.shape.ArbitraryShape;
 import com.sk89q.worldedit.shape.RegionShape;
@@ -47,6 +59,8 @@
 import com.sk89q.worldedit.util.TreeGenerator;
 
 import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * This class can wrap all block editing operations into one "edit session" that
@@ -60,6 +74,8 @@
  */
 public class EditSession {
 
+    private static final Logger logger = Logger.getLogger("Minecraft.WorldEdit");
+
     /**
      * Random number generator.
      */
@@ -73,32 +89,27 @@ public class EditSession {
     /**
      * Stores the original blocks before modification.
      */
-    private DoubleArrayList<BlockVector, BaseBlock> original =
-            new DoubleArrayList<BlockVector, BaseBlock>(true);
+    private BlockChangeList original = new BlockChangeList(true);
 
     /**
      * Stores the current blocks.
      */
-    private DoubleArrayList<BlockVector, BaseBlock> current =
-            new DoubleArrayList<BlockVector, BaseBlock>(false);
+    private BlockChangeList current = new BlockChangeList(false);
 
     /**
      * Blocks that should be placed before last.
      */
-    private DoubleArrayList<BlockVector, BaseBlock> queueAfter =
-            new DoubleArrayList<BlockVector, BaseBlock>(false);
+    private BlockChangeList queueAfter = new BlockChangeList(false);
 
     /**
      * Blocks that should be placed last.
      */
-    private DoubleArrayList<BlockVector, BaseBlock> queueLast =
-            new DoubleArrayList<BlockVector, BaseBlock>(false);
+    private BlockChangeList queueLast = new BlockChangeList(false);
 
     /**
      * Blocks that should be placed after all other blocks.
      */
-    private DoubleArrayList<BlockVector, BaseBlock> queueFinal =
-            new DoubleArrayList<BlockVector, BaseBlock>(false);
+    private BlockChangeList queueFinal = new BlockChangeList(false);
 
     /**
      * The maximum number of blocks to change at a time. If this number is
@@ -107,6 +118,13 @@ public class EditSession {
      */
     private int maxBlocks = -1;
 
+    /**
+     * The maximum number of blocks a flood fill may visit. If this number is
+     * exceeded, a MaxFloodFillBlocksException exception will be raised. -1
+     * indicates no limit.
+     */
+    private int floodFillLimit = -1;
+
     /**
      * Indicates whether some types of blocks should be queued for best
      * reproduction.
@@ -133,6 +151,11 @@ public class EditSession {
      */
     private Mask mask;
 
+    /**
+     * Chunk sections read from the world, created on first read.
+     */
+    private BlockSectionCache readCache;
+
     /**
      * Construct the object with a maximum number of blocks.
      *
@@ -232,6 +255,14 @@ public boolean rawSetBlock(Vector pt, BaseBlock block) {
         } else {
             result = world.setBlock(pt, block, !fastMode);
         }
+
+        if (result && readCache != null) {
+            if (fastMode) {
+                readCache.update(pt.getBlockX(), y, pt.getBlockZ(), type, type == 0 ? 0 : block.getData());
+            } else {
+                readCache.invalidate(pt.getBlockX(), y, pt.getBlockZ());
+            }
+        }
         
         return result;
     }
@@ -248,14 +279,27 @@ public boolean rawSetBlock(Vector pt, BaseBlock block) {
      */
     public boolean setBlock(Vector pt, BaseBlock block)
             throws MaxChangedBlocksException {
-        BlockVector blockPt = pt.toBlockVector();
-
         if (mask != null) {
-            if (!mask.matches(this, blockPt)) {
+            if (!mask.matches(this, pt.toBlockVector())) {
                 return false;
             }
         }
 
+        return setBlockUnmasked(pt, block);
+    }
+
+    /**
+     * Sets a block without testing the mask.
+     *
+     * @param pt
+     * @param block
+     * @return Whether the block changed -- not entirely dependable
+     * @throws MaxChangedBlocksException
+     */
+    private boolean setBlockUnmasked(Vector pt, BaseBlock block)
+            throws MaxChangedBlocksException {
+        BlockVector blockPt = pt.toBlockVector();
+
         // if (!original.containsKey(blockPt)) {
         original.put(blockPt, getBlock(pt));
 
@@ -269,6 +313,75 @@ public boolean setBlock(Vector pt, BaseBlock block)
         return smartSetBlock(pt, block);
     }
 
+    /**
+     * Sets the block at position x, y, z like
+     * {@link #setBlock(Vector, BaseBlock)}. If queue mode is enabled and no
+     * mask is set, the block is queued without creating a vector for it.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     * @param block the block
+     * @return Whether the block changed -- not entirely dependable
+     * @throws MaxChangedBlocksException
+     */
+    public boolean setBlock(int x, int y, int z, BaseBlock block)
+            throws MaxChangedBlocksException {
+        if (mask != null) {
+            return setBlock(new Vector(x, y, z), block);
+        }
+
+        return setBlockUnmasked(x, y, z, block);
+    }
+
+    /**
+     * Sets a block without testing the mask. If queue mode is enabled, the
+     * block is queued without creating a vector for it.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     * @param block the block
+     * @return Whether the block changed -- not entirely dependable
+     * @throws MaxChangedBlocksException
+     */
+    private boolean setBlockUnmasked(int x, int y, int z, BaseBlock block)
+            throws MaxChangedBlocksException {
+        if (!queued) {
+            return setBlockUnmasked(new Vector(x, y, z), block);
+        }
+
+        final int existingType = getBlockType(x, y, z);
+        final int existingData = getBlockData(x, y, z);
+        if (BlockSectionCache.mayHaveTileEntity(existingType)) {
+            original.put(x, y, z, rawGetBlock(new Vector(x, y, z)));
+        } else {
+            original.put(x, y, z, existingType, existingData);
+        }
+
+        if (maxBlocks != -1 && original.size() > maxBlocks) {
+            throw new MaxChangedBlocksException(maxBlocks);
+        }
+
+        current.put(x, y, z, block);
+
+        // Same as smartSetBlock()
+        final int type = block.getType();
+        if (BlockType.shouldPlaceLast(type)) {
+            queueLast.put(x, y, z, block);
+        } else if (BlockType.shouldPlaceFinal(type)) {
+            queueFinal.put(x, y, z, block);
+        } else if (BlockType.shouldPlaceLast(existingType)) {
+            final Vector pt = new Vector(x, y, z);
+            rawSetBlock(pt, new BaseBlock(BlockID.AIR));
+            return rawSetBlock(pt, block);
+        } else {
+            queueAfter.put(x, y, z, block);
+        }
+
+        return !(existingType == type && existingData == block.getData());
+    }
+
     /**
      * Insert a contrived block change into the history.
      *
@@ -280,7 +393,27 @@ public void rememberChange(Vector pt, BaseBlock existing, BaseBlock block) {
         BlockVector blockPt = pt.toBlockVector();
 
         original.put(blockPt, existing);
-        current.put(pt.toBlockVector(), block);
+        current.put(blockPt, block);
+    }
+
+    /**
+     * Insert contrived changes to blocks of a chunk column into the history
+     * at once. Blocks are given as indices into the arrays of the column,
+     * laid out as <code>y &lt;&lt; 8 | z &lt;&lt; 4 | x</code>.
+     *
+     * @param chunkX the X coordinate of the chunk
+     * @param chunkZ the Z coordinate of the chunk
+     * @param indices the indices of the changed blocks
+     * @param count the number of indices to use
+     * @param existingTypes the type IDs before the change
+     * @param existingData the data values before the change
+     * @param types the type IDs after the change
+     * @param data the data values after the change
+     */
+    public void rememberChanges(int chunkX, int chunkZ, int[] indices, int count,
+            int[] existingTypes, byte[] existingData, int[] types, byte[] data) {
+        original.putAll(chunkX, chunkZ, indices, count, existingTypes, existingData);
+        current.putAll(chunkX, chunkZ, indices, count, types, data);
     }
 
     /**
@@ -324,17 +457,17 @@ public boolean smartSetBlock(Vector pt, BaseBlock block) {
         if (queued) {
             if (BlockType.shouldPlaceLast(block.getType())) {
                 // Place torches, etc. last
-                queueLast.put(pt.toBlockVector(), block);
+                queueLast.put(pt, block);
                 return !(getBlockType(pt) == block.getType() && getBlockData(pt) == block.getData());
             } else if (BlockType.shouldPlaceFinal(block.getType())) {
                 // Place signs, reed, etc even later
-                queueFinal.put(pt.toBlockVector(), block);
+                queueFinal.put(pt, block);
                 return !(getBlockType(pt) == block.getType() && getBlockData(pt) == block.getData());
             } else if (BlockType.shouldPlaceLast(getBlockType(pt))) {
                 // Destroy torches, etc. first
                 rawSetBlock(pt, new BaseBlock(BlockID.AIR));
             } else {
-                queueAfter.put(pt.toBlockVector(), block);
+                queueAfter.put(pt, block);
                 return !(getBlockType(pt) == block.getType() && getBlockData(pt) == block.getData());
             }
         }
@@ -360,7 +493,12 @@ public BaseBlock getBlock(Vector pt) {
              */
         }
 
-        return rawGetBlock(pt);
+        final int type = getBlockType(pt);
+        if (BlockSectionCache.mayHaveTileEntity(type)) {
+            return rawGetBlock(pt);
+        }
+
+        return new BaseBlock(type, getBlockData(pt));
     }
 
     /**
@@ -381,6 +519,12 @@ public int getBlockType(Vector pt) {
              */
         }
 
+        if (isReadCacheUsed()) {
+            final int type = getReadCache().getType(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+            if (type != -1) {
+                return type;
+            }
+        }
         return world.getBlockType(pt);
     }
 
@@ -396,9 +540,92 @@ public int getBlockData(Vector pt) {
              */
         }
 
+        if (isReadCacheUsed()) {
+            final int data = getReadCache().getData(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+            if (data != -1) {
+                return data;
+            }
+        }
         return world.getBlockData(pt);
     }
 
+    /**
+     * Gets the block type at a position x, y, z, without creating a vector
+     * if the block's chunk section is cached.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     * @return Block type
+     */
+    public int getBlockType(int x, int y, int z) {
+        if (isReadCacheUsed()) {
+            final int type = getReadCache().getType(x, y, z);
+            if (type != -1) {
+                return type;
+            }
+        }
+        return world.getBlockType(new Vector(x, y, z));
+    }
+
+    /**
+     * Gets the data value of the block at a position x, y, z, without
+     * creating a vector if the block's chunk section is cached.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     * @return the data value
+     */
+    public int getBlockData(int x, int y, int z) {
+        if (isReadCacheUsed()) {
+            final int data = getReadCache().getData(x, y, z);
+            if (data != -1) {
+                return data;
+            }
+        }
+        return world.getBlockData(new Vector(x, y, z));
+    }
+
+    /**
+     * Returns whether blocks are read through the cache of chunk sections.
+     * Blocks set with physics may change other blocks right away, so the
+     * cache is only used when blocks are queued, which keeps such blocks
+     * few, or set without physics. Otherwise every block set would drop
+     * the sections that were just read.
+     *
+     * @return true if the cache is used
+     */
+    private boolean isReadCacheUsed() {
+        return queued || fastMode;
+    }
+
+    /**
+     * Get the cache of the chunk sections read by this edit session,
+     * creating it on first use.
+     *
+     * @return the cache
+     */
+    private BlockSectionCache getReadCache() {
+        if (readCache == null) {
+            readCache = new BlockSectionCache(world);
+        }
+        return readCache;
+    }
+
+    /**
+     * Drop the chunk sections that this edit session has cached. This must
+     * be called if the world has been changed other than through this edit
+     * session, while the edit session is still being read from, and by
+     * operations spread over ticks at the start of each tick, since the
+     * world may have changed in between.
+     */
+    public void clearReadCache() {
+        if (readCache != null) {
+            readCache.clear();
+        }
+    }
+
     /**
      * Gets the block type at a position x, y, z.
      *
@@ -415,9 +642,9 @@ public BaseBlock rawGetBlock(Vector pt) {
      * @param sess
      */
     public void undo(EditSession sess) {
-        for (Map.Entry<BlockVector, BaseBlock> entry : original) {
-            BlockVector pt = entry.getKey();
-            sess.smartSetBlock(pt, entry.getValue());
+        BlockChangeList.ChangeCursor cursor = original.cursor();
+        while (cursor.next()) {
+            sess.smartSetBlock(cursor.getPosition(), cursor.getBlock());
         }
         sess.flushQueue();
     }
@@ -428,13 +655,48 @@ public void undo(EditSession sess) {
      * @param sess
      */
     public void redo(EditSession sess) {
-        for (Map.Entry<BlockVector, BaseBlock> entry : current) {
-            BlockVector pt = entry.getKey();
-            sess.smartSetBlock(pt, entry.getValue());
+        BlockChangeList.ChangeCursor cursor = current.cursor();
+        while (cursor.next()) {
+            sess.smartSetBlock(cursor.getPosition(), cursor.getBlock());
         }
         sess.flushQueue();
     }
 
+    /**
+     * Get the blocks as they were before this session changed them, in the
+     * order they are restored by {@link #undo(EditSession)}.
+     *
+     * @return the original blocks
+     */
+    public BlockChangeList getOriginalChanges() {
+        return original;
+    }
+
+    /**
+     * Get the blocks as this session set them, in the order they are
+     * placed by {@link #redo(EditSession)}.
+     *
+     * @return the new blocks
+     */
+    public BlockChangeList getCurrentChanges() {
+        return current;
+    }
+
+    /**
+     * Replace the history of this session, such as with one that was read
+     * back from a journal.
+     *
+     * @param original the original blocks, visited in reverse
+     * @param current the new blocks
+     */
+    public void setChanges(BlockChangeList original, BlockChangeList current) {
+        if (!original.isReversed() || current.isReversed()) {
+            throw new IllegalArgumentException("The original blocks must be reversed and the new blocks must not be");
+        }
+        this.original = original;
+        this.current = current;
+    }
+
     /**
      * Get the number of changed blocks.
      *
@@ -466,6 +728,28 @@ public void setBlockChangeLimit(int maxBlocks) {
         this.maxBlocks = maxBlocks;
     }
 
+    /**
+     * Get the maximum number of blocks a flood fill may visit. -1 will be
+     * returned if disabled.
+     *
+     * @return flood fill limit
+     */
+    public int getFloodFillLimit() {
+        return floodFillLimit;
+    }
+
+    /**
+     * Set the maximum number of blocks a flood fill may visit.
+     *
+     * @param floodFillLimit -1 to disable
+     */
+    public void setFloodFillLimit(int floodFillLimit) {
+        if (floodFillLimit < -1) {
+            throw new IllegalArgumentException("Flood fill limit must be >= -1");
+        }
+        this.floodFillLimit = floodFillLimit;
+    }
+
     /**
      * Returns queue status.
      *
@@ -543,42 +827,58 @@ public int countBlock(Region region, Set<Integer> searchIDs) {
      * @return
      */
     public int countBlocks(Region region, Set<BaseBlock> searchBlocks) {
+        final int[] dataMasks = getDataMasks(searchBlocks);
         int count = 0;
 
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
+        final SpanCursor spans = region.spans();
+        while (spans.next()) {
+            final int y = spans.getY();
+            final int z = spans.getZ();
+            for (int x = spans.getMinX(); x <= spans.getMaxX(); ++x) {
+                if (matchesData(dataMasks, getBlockType(x, y, z), getBlockData(x, y, z))) {
+                    ++count;
+                }
+            }
+        }
 
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
+        return count;
+    }
 
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
+    /**
+     * Get the data values of a set of blocks as a table of bit masks indexed
+     * by type ID, where bit n is set if data value n is in the set. Blocks
+     * with a data value of -1 match all data values.
+     *
+     * @param blocks the blocks
+     * @return the table
+     */
+    private static int[] getDataMasks(Set<BaseBlock> blocks) {
+        int maxType = -1;
+        for (BaseBlock block : blocks) {
+            maxType = Math.max(maxType, block.getType());
+        }
 
-                        BaseBlock compare = new BaseBlock(getBlockType(pt), getBlockData(pt));
-                        if (BaseBlock.containsFuzzy(searchBlocks, compare)) {
-                            ++count;
-                        }
-                    }
-                }
+        final int[] dataMasks = new int[maxType + 1];
+        for (BaseBlock block : blocks) {
+            final int type = block.getType();
+            final int data = block.getData();
+            if (type < 0) {
+                continue;
             }
-        } else {
-            for (Vector pt : region) {
-                BaseBlock compare = new BaseBlock(getBlockType(pt), getBlockData(pt));
-                if (BaseBlock.containsFuzzy(searchBlocks, compare)) {
-                    ++count;
-                }
+
+            if (data == -1) {
+                dataMasks[type] = 0xFFFF;
+            } else if (data >= 0 && data < 16) {
+                dataMasks[type] |= 1 << data;
             }
         }
 
-        return count;
+        return dataMasks;
+    }
+
+    private static boolean matchesData(int[] dataMasks, int type, int data) {
+        return type >= 0 && type < dataMasks.length && data >= 0 && data < 16
+                && (dataMasks[type] & (1 << data)) != 0;
     }
 
     /**
@@ -606,9 +906,8 @@ public int getHighestTerrainBlock(int x, int z, int minY, int maxY) {
      */
     public int getHighestTerrainBlock(int x, int z, int minY, int maxY, boolean naturalOnly) {
         for (int y = maxY; y >= minY; --y) {
-            Vector pt = new Vector(x, y, z);
-            int id = getBlockType(pt);
-            int data = getBlockData(pt);
+            int id = getBlockType(x, y, z);
+            int data = getBlockData(x, y, z);
             if (naturalOnly ? BlockType.isNaturalTerrainBlock(id, data) : !BlockType.canPassThrough(id, data)) {
                 return y;
             }
@@ -686,39 +985,257 @@ public void flushQueue() {
             return;
         }
 
-        final Set<BlockVector2D> dirtyChunks = new HashSet<BlockVector2D>();
+        final QueueFlush flush = new QueueFlush();
+        while (flush.resume() != null) {
+        }
+    }
 
-        for (Map.Entry<BlockVector, BaseBlock> entry : queueAfter) {
-            BlockVector pt = entry.getKey();
-            rawSetBlock(pt, entry.getValue());
+    /**
+     * Get an operation that finishes off the queue a batch of blocks at a
+     * time, so the blocks can be placed over several ticks. Blocks must not
+     * be set through this edit session until the operation is done.
+     *
+     * @return the operation, or null if queueing is disabled
+     */
+    public ProgressiveOperation createFlushOperation() {
+        if (!queued) {
+            return null;
+        }
 
-            // TODO: use ChunkStore.toChunk(pt) after optimizing it.
-            if (fastMode) {
-                dirtyChunks.add(new BlockVector2D(pt.getBlockX() >> 4, pt.getBlockZ() >> 4));
+        return new QueueFlush();
+    }
+
+    /**
+     * Places the queued blocks: first the regular blocks, then the blocks
+     * that must be placed last, then the attached blocks in an order that
+     * places the blocks they're attached to first.
+     * </p>
+     * In fast mode, regular blocks without extra state are collected per
+     * chunk and written at once with {@link LocalWorld#setBlocks}, which
+     * refreshes the chunk once instead of setting the blocks one by one. A
+     * batch may stay pending across steps until its chunk is done. As fast
+     * mode skips lighting updates, the changed chunks are relit at the end.
+     */
+    private class QueueFlush implements ProgressiveOperation {
+        private static final int BLOCKS_PER_STEP = 4096;
+
+        private final Set<BlockVector2D> dirtyChunks = new HashSet<BlockVector2D>();
+        private final boolean batched = fastMode && blockBag == null;
+        private BlockChangeList.ChangeCursor cursor = queueAfter.cursor();
+        private int stage = 0;
+        private int placed = 0;
+        private List<BlockVector> finalOrder;
+        private Map<BlockVector, BaseBlock> finalTypes;
+        private int finalIndex = 0;
+        private RelightOperation relight;
+
+        private int[] batchIndices;
+        private int[] batchTypes;
+        private byte[] batchData;
+        private int batchCount = 0;
+        private int batchChunkX;
+        private int batchChunkZ;
+
+        @Override
+        public Operation resume() {
+            // The world may have changed since the last tick
+            clearReadCache();
+
+            switch (stage) {
+            case 0:
+                if (placeFromCursor()) {
+                    return this;
+                }
+
+                if (fastMode && !batched) {
+                    dirtyChunks.addAll(queueAfter.getChunks());
+                }
+
+                // We don't want to place these blocks if other blocks were missing
+                // because it might cause the items to drop
+                if (blockBag != null && missingBlocks.size() != 0) {
+                    finish();
+                    return null;
+                }
+
+                cursor = queueLast.cursor();
+                stage = 1;
+                return this;
+
+            case 1:
+                if (placeFromCursor()) {
+                    return this;
+                }
+
+                if (fastMode) {
+                    dirtyChunks.addAll(queueLast.getChunks());
+                }
+
+                orderFinalBlocks();
+                stage = 2;
+                return this;
+
+            case 2:
+                final int end = Math.min(finalOrder.size(), finalIndex + BLOCKS_PER_STEP);
+                for (; finalIndex < end; ++finalIndex) {
+                    final BlockVector pt = finalOrder.get(finalIndex);
+                    rawSetBlock(pt, finalTypes.get(pt));
+                    ++placed;
+
+                    // TODO: use ChunkStore.toChunk(pt) after optimizing it.
+                    if (fastMode) {
+                        dirtyChunks.add(new BlockVector2D(pt.getBlockX() >> 4, pt.getBlockZ() >> 4));
+                    }
+                }
+
+                if (finalIndex < finalOrder.size()) {
+                    return this;
+                }
+
+                // Fast mode skipped the lighting updates; the relight sends
+                // the changed chunks, so they aren't sent twice
+                if (fastMode && current.size() > 0) {
+                    flushBatch();
+                    relight = new RelightOperation(world, current.getChunks(), dirtyChunks);
+                    dirtyChunks.clear();
+                    finish();
+                    stage = 3;
+                    return this;
+                }
+
+                finish();
+                return null;
+
+            default:
+                return relight.resume() != null ? this : null;
             }
         }
 
-        // We don't want to place these blocks if other blocks were missing
-        // because it might cause the items to drop
-        if (blockBag == null || missingBlocks.size() == 0) {
-            for (Map.Entry<BlockVector, BaseBlock> entry : queueLast) {
-                BlockVector pt = entry.getKey();
-                rawSetBlock(pt, entry.getValue());
+        @Override
+        public void cancel() {
+            if (relight != null) {
+                relight.cancel();
+            } else {
+                finish();
+            }
+        }
 
-                // TODO: use ChunkStore.toChunk(pt) after optimizing it.
-                if (fastMode) {
-                    dirtyChunks.add(new BlockVector2D(pt.getBlockX() >> 4, pt.getBlockZ() >> 4));
+        @Override
+        public double getProgress() {
+            if (stage > 2) {
+                return 1;
+            }
+
+            // Blocks may still be queued while the flush runs
+            final int total = queueAfter.size() + queueLast.size() + queueFinal.size();
+            return total == 0 ? 1 : Math.min(1, (double) placed / total);
+        }
+
+        /**
+         * Place the next batch of blocks of the current cursor.
+         *
+         * @return true if there are blocks left
+         */
+        private boolean placeFromCursor() {
+            for (int i = 0; i < BLOCKS_PER_STEP; ++i) {
+                if (!cursor.next()) {
+                    flushBatch();
+                    return false;
+                }
+                ++placed;
+
+                if (stage == 0 && batched) {
+                    if (addToBatch()) {
+                        continue;
+                    }
+
+                    // Keep the order of changes to the same block
+                    flushBatch();
+                    dirtyChunks.add(new BlockVector2D(cursor.getX() >> 4, cursor.getZ() >> 4));
                 }
+
+                rawSetBlock(cursor.getPosition(), cursor.getBlock());
+            }
+            return true;
+        }
+
+        /**
+         * Add the block at the cursor to the batch of its chunk, if it can be
+         * set without the checks of {@link EditSession#rawSetBlock}.
+         *
+         * @return true if the block was added
+         */
+        private boolean addToBatch() {
+            if (cursor.hasExtraState()) {
+                return false;
+            }
+
+            final int x = cursor.getX();
+            final int y = cursor.getY();
+            final int z = cursor.getZ();
+            final int type = cursor.getType();
+            final int data = type == 0 ? 0 : cursor.getData();
+            if (y < 0 || y > world.getMaxY() || data < 0 || !world.isValidBlockType(type)) {
+                return false;
+            }
+
+            // Containers have to be emptied and ice removed first
+            final int existing = getReadCache().getType(x, y, z);
+            if (existing == -1 || existing == BlockID.ICE || BlockType.isContainerBlock(existing)) {
+                return false;
+            }
+
+            final int chunkX = x >> 4;
+            final int chunkZ = z >> 4;
+            if (batchIndices == null) {
+                final int columnSize = (world.getMaxY() + 1) << 8;
+                batchIndices = new int[columnSize];
+                batchTypes = new int[columnSize];
+                batchData = new byte[columnSize];
+            } else if (batchCount > 0 && (chunkX != batchChunkX || chunkZ != batchChunkZ
+                    || batchCount == batchIndices.length)) {
+                flushBatch();
             }
 
+            final int index = y << 8 | (z & 0xF) << 4 | (x & 0xF);
+            batchChunkX = chunkX;
+            batchChunkZ = chunkZ;
+            batchIndices[batchCount++] = index;
+            batchTypes[index] = type;
+            batchData[index] = (byte) data;
+            return true;
+        }
+
+        private void flushBatch() {
+            if (batchCount == 0) {
+                return;
+            }
+
+            world.setBlocks(batchChunkX, batchChunkZ, batchIndices, batchCount, batchTypes, batchData);
+
+            final int baseX = batchChunkX << 4;
+            final int baseZ = batchChunkZ << 4;
+            for (int i = 0; i < batchCount; ++i) {
+                final int index = batchIndices[i];
+                readCache.update(baseX + (index & 0xF), index >> 8, baseZ + ((index >> 4) & 0xF),
+                        batchTypes[index], batchData[index]);
+            }
+            batchCount = 0;
+        }
+
+        private void orderFinalBlocks() {
             final Set<BlockVector> blocks = new HashSet<BlockVector>();
             final Map<BlockVector, BaseBlock> blockTypes = new HashMap<BlockVector, BaseBlock>();
-            for (Map.Entry<BlockVector, BaseBlock> entry : queueFinal) {
-                final BlockVector pt = entry.getKey();
+            cursor = queueFinal.cursor();
+            while (cursor.next()) {
+                final BlockVector pt = cursor.getPosition();
                 blocks.add(pt);
-                blockTypes.put(pt, entry.getValue());
+                blockTypes.put(pt, cursor.getBlock());
             }
 
+            finalOrder = new ArrayList<BlockVector>(blocks.size());
+            finalTypes = blockTypes;
+
             while (!blocks.isEmpty()) {
                 BlockVector current = blocks.iterator().next();
                 if (!blocks.contains(current)) {
@@ -782,22 +1299,21 @@ public void flushQueue() {
                 }
 
                 for (BlockVector pt : walked) {
-                    rawSetBlock(pt, blockTypes.get(pt));
+                    finalOrder.add(pt);
                     blocks.remove(pt);
-
-                    // TODO: use ChunkStore.toChunk(pt) after optimizing it.
-                    if (fastMode) {
-                        dirtyChunks.add(new BlockVector2D(pt.getBlockX() >> 4, pt.getBlockZ() >> 4));
-                    }
                 }
             }
         }
 
-        if (!dirtyChunks.isEmpty()) world.fixAfterFastMode(dirtyChunks);
+        private void finish() {
+            flushBatch();
+            if (!dirtyChunks.isEmpty()) world.fixAfterFastMode(dirtyChunks);
+            dirtyChunks.clear();
 
-        queueAfter.clear();
-        queueLast.clear();
-        queueFinal.clear();
+            queueAfter.clear();
+            queueLast.clear();
+            queueFinal.clear();
+        }
     }
 
     /**
@@ -813,96 +1329,7 @@ public void flushQueue() {
      */
     public int fillXZ(Vector origin, BaseBlock block, double radius, int depth,
             boolean recursive) throws MaxChangedBlocksException {
-
-        int affected = 0;
-        int originX = origin.getBlockX();
-        int originY = origin.getBlockY();
-        int originZ = origin.getBlockZ();
-
-        HashSet<BlockVector> visited = new HashSet<BlockVector>();
-        Stack<BlockVector> queue = new Stack<BlockVector>();
-
-        queue.push(new BlockVector(originX, originY, originZ));
-
-        while (!queue.empty()) {
-            BlockVector pt = queue.pop();
-            int cx = pt.getBlockX();
-            int cy = pt.getBlockY();
-            int cz = pt.getBlockZ();
-
-            if (cy < 0 || cy > originY || visited.contains(pt)) {
-                continue;
-            }
-
-            visited.add(pt);
-
-            if (recursive) {
-                if (origin.distance(pt) > radius) {
-                    continue;
-                }
-
-                if (getBlock(pt).isAir()) {
-                    if (setBlock(pt, block)) {
-                        ++affected;
-                    }
-                } else {
-                    continue;
-                }
-
-                queue.push(new BlockVector(cx, cy - 1, cz));
-                queue.push(new BlockVector(cx, cy + 1, cz));
-            } else {
-                double dist = Math.sqrt(Math.pow(originX - cx, 2)
-                        + Math.pow(originZ - cz, 2));
-                int minY = originY - depth + 1;
-
-                if (dist > radius) {
-                    continue;
-                }
-
-                if (getBlock(pt).isAir()) {
-                    affected += fillY(cx, originY, cz, block, minY);
-                } else {
-                    continue;
-                }
-            }
-
-            queue.push(new BlockVector(cx + 1, cy, cz));
-            queue.push(new BlockVector(cx - 1, cy, cz));
-            queue.push(new BlockVector(cx, cy, cz + 1));
-            queue.push(new BlockVector(cx, cy, cz - 1));
-        }
-
-        return affected;
-    }
-
-    /**
-     * Recursively fills a block and below until it hits another block.
-     *
-     * @param x
-     * @param cy
-     * @param z
-     * @param block
-     * @param minY
-     * @throws MaxChangedBlocksException
-     * @return
-     */
-    private int fillY(int x, int cy, int z, BaseBlock block, int minY)
-            throws MaxChangedBlocksException {
-        int affected = 0;
-
-        for (int y = cy; y >= minY; --y) {
-            Vector pt = new Vector(x, y, z);
-
-            if (getBlock(pt).isAir()) {
-                setBlock(pt, block);
-                ++affected;
-            } else {
-                break;
-            }
-        }
-
-        return affected;
+        return fillXZ(origin, new SingleBlockPattern(block), radius, depth, recursive);
     }
 
     /**
@@ -916,69 +1343,55 @@ private int fillY(int x, int cy, int z, BaseBlock block, int minY)
      * @return number of blocks affected
      * @throws MaxChangedBlocksException
      */
-    public int fillXZ(Vector origin, Pattern pattern, double radius, int depth,
-            boolean recursive) throws MaxChangedBlocksException {
-
-        int affected = 0;
-        int originX = origin.getBlockX();
-        int originY = origin.getBlockY();
-        int originZ = origin.getBlockZ();
+    public int fillXZ(final Vector origin, final Pattern pattern, final double radius, int depth,
+            final boolean recursive) throws MaxChangedBlocksException {
 
-        HashSet<BlockVector> visited = new HashSet<BlockVector>();
-        Stack<BlockVector> queue = new Stack<BlockVector>();
+        final int originX = origin.getBlockX();
+        final int originY = origin.getBlockY();
+        final int originZ = origin.getBlockZ();
+        final int minY = originY - depth + 1;
+        final int[] affected = new int[1];
 
-        queue.push(new BlockVector(originX, originY, originZ));
-
-        while (!queue.empty()) {
-            BlockVector pt = queue.pop();
-            int cx = pt.getBlockX();
-            int cy = pt.getBlockY();
-            int cz = pt.getBlockZ();
-
-            if (cy < 0 || cy > originY || visited.contains(pt)) {
-                continue;
-            }
+        final FloodFill fill = new FloodFill(recursive ? Connectivity.FACES : Connectivity.HORIZONTAL) {
+            @Override
+            protected boolean visit(int x, int y, int z) throws MaxChangedBlocksException {
+                if (y < 0 || y > originY) {
+                    return false;
+                }
 
-            visited.add(pt);
+                if (recursive) {
+                    if (distance(origin, x, y, z) > radius) {
+                        return false;
+                    }
 
-            if (recursive) {
-                if (origin.distance(pt) > radius) {
-                    continue;
-                }
+                    if (getBlockType(x, y, z) != BlockID.AIR) {
+                        return false;
+                    }
 
-                if (getBlock(pt).isAir()) {
-                    if (setBlock(pt, pattern.next(pt))) {
-                        ++affected;
+                    if (setBlock(x, y, z, pattern.next(x, y, z))) {
+                        ++affected[0];
                     }
                 } else {
-                    continue;
-                }
-
-                queue.push(new BlockVector(cx, cy - 1, cz));
-                queue.push(new BlockVector(cx, cy + 1, cz));
-            } else {
-                double dist = Math.sqrt(Math.pow(originX - cx, 2)
-                        + Math.pow(originZ - cz, 2));
-                int minY = originY - depth + 1;
+                    final int dx = originX - x;
+                    final int dz = originZ - z;
+                    if (Math.sqrt(dx * dx + dz * dz) > radius) {
+                        return false;
+                    }
 
-                if (dist > radius) {
-                    continue;
-                }
+                    if (getBlockType(x, y, z) != BlockID.AIR) {
+                        return false;
+                    }
 
-                if (getBlock(pt).isAir()) {
-                    affected += fillY(cx, originY, cz, pattern, minY);
-                } else {
-                    continue;
+                    affected[0] += fillY(x, originY, z, pattern, minY);
                 }
+                return true;
             }
+        };
+        fill.setMaxVisited(floodFillLimit);
+        fill.add(originX, originY, originZ);
+        fill.run();
 
-            queue.push(new BlockVector(cx + 1, cy, cz));
-            queue.push(new BlockVector(cx - 1, cy, cz));
-            queue.push(new BlockVector(cx, cy, cz + 1));
-            queue.push(new BlockVector(cx, cy, cz - 1));
-        }
-
-        return affected;
+        return affected[0];
     }
 
     /**
@@ -997,10 +1410,8 @@ private int fillY(int x, int cy, int z, Pattern pattern, int minY)
         int affected = 0;
 
         for (int y = cy; y >= minY; --y) {
-            Vector pt = new Vector(x, y, z);
-
-            if (getBlock(pt).isAir()) {
-                setBlock(pt, pattern.next(pt));
+            if (getBlockType(x, y, z) == BlockID.AIR) {
+                setBlock(x, y, z, pattern.next(x, y, z));
                 ++affected;
             } else {
                 break;
@@ -1128,34 +1539,24 @@ public int removeNear(Vector pos, int blockType, int size)
      */
     public int setBlocks(Region region, BaseBlock block)
             throws MaxChangedBlocksException {
-        int affected = 0;
-
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
+        if (!checkMaterialBill(region, block)) {
+            return 0;
+        }
 
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
+        int affected = 0;
 
-                        if (setBlock(pt, block)) {
-                            ++affected;
-                        }
-                    }
+        final BitSet matched = new BitSet();
+        final SpanCursor spans = region.spans();
+        while (spans.next()) {
+            final int y = spans.getY();
+            final int z = spans.getZ();
+            final boolean masked = matchMask(spans, matched);
+            for (int x = spans.getMinX(); x <= spans.getMaxX(); ++x) {
+                if (masked && !matched.get(x - spans.getMinX())) {
+                    continue;
                 }
-            }
-        } else {
-            for (Vector pt : region) {
-                if (setBlock(pt, block)) {
+
+                if (setBlockUnmasked(x, y, z, block)) {
                     ++affected;
                 }
             }
@@ -1176,32 +1577,18 @@ public int setBlocks(Region region, Pattern pattern)
             throws MaxChangedBlocksException {
         int affected = 0;
 
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
-
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
-
-                        if (setBlock(pt, pattern.next(pt))) {
-                            ++affected;
-                        }
-                    }
+        final BitSet matched = new BitSet();
+        final SpanCursor spans = region.spans();
+        while (spans.next()) {
+            final int y = spans.getY();
+            final int z = spans.getZ();
+            final boolean masked = matchMask(spans, matched);
+            for (int x = spans.getMinX(); x <= spans.getMaxX(); ++x) {
+                if (masked && !matched.get(x - spans.getMinX())) {
+                    continue;
                 }
-            }
-        } else {
-            for (Vector pt : region) {
-                if (setBlock(pt, pattern.next(pt))) {
+
+                if (setBlockUnmasked(x, y, z, pattern.next(x, y, z))) {
                     ++affected;
                 }
             }
@@ -1220,74 +1607,35 @@ public int setBlocks(Region region, Pattern pattern)
      * @throws MaxChangedBlocksException
      */
     public int replaceBlocks(Region region, Set<BaseBlock> fromBlockTypes, BaseBlock toBlock) throws MaxChangedBlocksException {
-        Set<BaseBlock> definiteBlockTypes = new HashSet<BaseBlock>();
-        Set<Integer> fuzzyBlockTypes = new HashSet<Integer>();
-
-        if (fromBlockTypes != null) {
-            for (BaseBlock block : fromBlockTypes) {
-                if (block.getData() == -1) {
-                    fuzzyBlockTypes.add(block.getType());
-                } else {
-                    definiteBlockTypes.add(block);
-                }
-            }
-        }
-
+        final int[] dataMasks = fromBlockTypes == null ? null : getDataMasks(fromBlockTypes);
         int affected = 0;
 
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
-
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
-                        BaseBlock curBlockType = getBlock(pt);
-
-                        if (fromBlockTypes == null) {
-                            //replace <to-block>
-                            if (curBlockType.isAir()) {
-                                continue;
-                            }
-                        } else {
-                            //replace <from-block> <to-block>
-                            if (!definiteBlockTypes.contains(curBlockType) && !fuzzyBlockTypes.contains(curBlockType.getType())) {
-                                continue;
-                            }
-                        }
-
-                        if (setBlock(pt, toBlock)) {
-                            ++affected;
-                        }
-                    }
+        final BitSet matched = new BitSet();
+        final SpanCursor spans = region.spans();
+        while (spans.next()) {
+            final int y = spans.getY();
+            final int z = spans.getZ();
+            final boolean masked = matchMask(spans, matched);
+            for (int x = spans.getMinX(); x <= spans.getMaxX(); ++x) {
+                if (masked && !matched.get(x - spans.getMinX())) {
+                    continue;
                 }
-            }
-        } else {
-            for (Vector pt : region) {
-                BaseBlock curBlockType = getBlock(pt);
 
-                if (fromBlockTypes == null) {
+                final int type = getBlockType(x, y, z);
+
+                if (dataMasks == null) {
                     //replace <to-block>
-                    if (curBlockType.isAir()) {
+                    if (type == BlockID.AIR) {
                         continue;
                     }
                 } else {
                     //replace <from-block> <to-block>
-                    if (!definiteBlockTypes.contains(curBlockType) && !fuzzyBlockTypes.contains(curBlockType.getType())) {
+                    if (!matchesData(dataMasks, type, getBlockData(x, y, z))) {
                         continue;
                     }
                 }
 
-                if (setBlock(pt, toBlock)) {
+                if (setBlockUnmasked(x, y, z, toBlock)) {
                     ++affected;
                 }
             }
@@ -1306,73 +1654,35 @@ public int replaceBlocks(Region region, Set<BaseBlock> fromBlockTypes, BaseBlock
      * @throws MaxChangedBlocksException
      */
     public int replaceBlocks(Region region, Set<BaseBlock> fromBlockTypes, Pattern pattern) throws MaxChangedBlocksException {
-        Set<BaseBlock> definiteBlockTypes = new HashSet<BaseBlock>();
-        Set<Integer> fuzzyBlockTypes = new HashSet<Integer>();
-        if (fromBlockTypes != null) {
-            for (BaseBlock block : fromBlockTypes) {
-                if (block.getData() == -1) {
-                    fuzzyBlockTypes.add(block.getType());
-                } else {
-                    definiteBlockTypes.add(block);
-                }
-            }
-        }
-
+        final int[] dataMasks = fromBlockTypes == null ? null : getDataMasks(fromBlockTypes);
         int affected = 0;
 
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
-
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
-                        BaseBlock curBlockType = getBlock(pt);
-
-                        if (fromBlockTypes == null) {
-                            //replace <to-block>
-                            if (curBlockType.isAir()) {
-                                continue;
-                            }
-                        } else {
-                            //replace <from-block> <to-block>
-                            if (!definiteBlockTypes.contains(curBlockType) && !fuzzyBlockTypes.contains(curBlockType.getType())) {
-                                continue;
-                            }
-                        }
-
-                        if (setBlock(pt, pattern.next(pt))) {
-                            ++affected;
-                        }
-                    }
+        final BitSet matched = new BitSet();
+        final SpanCursor spans = region.spans();
+        while (spans.next()) {
+            final int y = spans.getY();
+            final int z = spans.getZ();
+            final boolean masked = matchMask(spans, matched);
+            for (int x = spans.getMinX(); x <= spans.getMaxX(); ++x) {
+                if (masked && !matched.get(x - spans.getMinX())) {
+                    continue;
                 }
-            }
-        } else {
-            for (Vector pt : region) {
-                BaseBlock curBlockType = getBlock(pt);
 
-                if (fromBlockTypes == null) {
+                final int type = getBlockType(x, y, z);
+
+                if (dataMasks == null) {
                     //replace <to-block>
-                    if (curBlockType.isAir()) {
+                    if (type == BlockID.AIR) {
                         continue;
                     }
                 } else {
                     //replace <from-block> <to-block>
-                    if (!definiteBlockTypes.contains(curBlockType) && !fuzzyBlockTypes.contains(curBlockType.getType())) {
+                    if (!matchesData(dataMasks, type, getBlockData(x, y, z))) {
                         continue;
                     }
                 }
 
-                if (setBlock(pt, pattern.next(pt))) {
+                if (setBlockUnmasked(x, y, z, pattern.next(x, y, z))) {
                     ++affected;
                 }
             }
@@ -1381,6 +1691,90 @@ public int replaceBlocks(Region region, Set<BaseBlock> fromBlockTypes, Pattern p
         return affected;
     }
 
+    /**
+     * Check that the block bag holds enough items to set a block at every
+     * position of a region, counting the blocks that would be broken and
+     * stored in the bag. If it doesn't, the missing blocks are recorded
+     * and nothing should be set.
+     *
+     * @param region the region
+     * @param block the block
+     * @return false if the block bag can't possibly hold enough items
+     */
+    private boolean checkMaterialBill(Region region, BaseBlock block) {
+        final int type = block.getType();
+        if (blockBag == null || type <= 0 || !world.isValidBlockType(type)) {
+            return true;
+        }
+
+        final int placeable = blockBag.getPlaceableCount(type, 0);
+        if (placeable == -1) {
+            return true;
+        }
+
+        final BaseItem fallback = BlockType.getBlockBagItem(type, 0);
+        int needed = 0;
+        int supplied = 0;
+
+        final BitSet matched = new BitSet();
+        final SpanCursor spans = region.spans();
+        while (spans.next()) {
+            final int y = spans.getY();
+            final int z = spans.getZ();
+            if (y < 0 || y > world.getMaxY()) {
+                continue;
+            }
+
+            final boolean masked = matchMask(spans, matched);
+            for (int x = spans.getMinX(); x <= spans.getMaxX(); ++x) {
+                if (masked && !matched.get(x - spans.getMinX())) {
+                    continue;
+                }
+
+                ++needed;
+
+                final int existing = getBlockType(x, y, z);
+                if (existing <= 0) {
+                    continue;
+                }
+
+                final BaseItem dropped = BlockType.getBlockBagItem(existing, getBlockData(x, y, z));
+                if (dropped != null && (BlockBag.isSameItem(dropped, type, 0) || (fallback != null
+                        && BlockBag.isSameItem(dropped, fallback.getType(), fallback.getData())))) {
+                    ++supplied;
+                }
+            }
+        }
+
+        final int missing = needed - placeable - supplied;
+        if (missing <= 0) {
+            return true;
+        }
+
+        final Integer alreadyMissing = missingBlocks.get(type);
+        missingBlocks.put(type, alreadyMissing == null ? missing : alreadyMissing + missing);
+        return false;
+    }
+
+    /**
+     * Test the mask against the current span of a cursor, if there is a mask.
+     * Bit i of the result is set if the block at the minimum X of the span
+     * plus i matches.
+     *
+     * @param spans the cursor
+     * @param result the bit set to store the results in
+     * @return true if there is a mask and the result must be used
+     */
+    private boolean matchMask(SpanCursor spans, BitSet result) {
+        if (mask == null) {
+            return false;
+        }
+
+        mask.matchesRun(this, spans.getMinX(), spans.getY(), spans.getZ(),
+                spans.getMaxX() - spans.getMinX() + 1, result);
+        return true;
+    }
+
     public int center(Region region, Pattern pattern)
             throws MaxChangedBlocksException {
         Vector center = region.getCenter();
@@ -1835,40 +2229,24 @@ public int stackCuboidRegion(Region region, Vector dir, int count,
             boolean copyAir) throws MaxChangedBlocksException {
         int affected = 0;
 
-        Vector min = region.getMinimumPoint();
-        Vector max = region.getMaximumPoint();
-
-        int minX = min.getBlockX();
-        int minY = min.getBlockY();
-        int minZ = min.getBlockZ();
-        int maxX = max.getBlockX();
-        int maxY = max.getBlockY();
-        int maxZ = max.getBlockZ();
-
-        int xs = region.getWidth();
-        int ys = region.getHeight();
-        int zs = region.getLength();
-
-        for (int x = minX; x <= maxX; ++x) {
-            for (int z = minZ; z <= maxZ; ++z) {
-                for (int y = minY; y <= maxY; ++y) {
-                    BaseBlock block = getBlock(new Vector(x, y, z));
-
-                    if (!block.isAir() || copyAir) {
-                        for (int i = 1; i <= count; ++i) {
-                            Vector pos = new Vector(x + xs * dir.getBlockX()
-                                    * i, y + ys * dir.getBlockY() * i, z + zs
-                                    * dir.getBlockZ() * i);
-
-                            if (setBlock(pos, block)) {
-                                ++affected;
-                            }
-                        }
-                    }
+        final BlockStagingBuffer buffer = new BlockStagingBuffer(region.getMinimumPoint(), region.getMaximumPoint());
+        for (int y = buffer.getMinY(); y <= buffer.getMaxY(); ++y) {
+            for (int z = buffer.getMinZ(); z <= buffer.getMaxZ(); ++z) {
+                for (int x = buffer.getMinX(); x <= buffer.getMaxX(); ++x) {
+                    stageBlock(buffer, x, y, z, copyAir);
                 }
             }
         }
 
+        final int xs = region.getWidth();
+        final int ys = region.getHeight();
+        final int zs = region.getLength();
+
+        for (int i = 1; i <= count; ++i) {
+            affected += writeStaged(buffer, xs * dir.getBlockX() * i,
+                    ys * dir.getBlockY() * i, zs * dir.getBlockZ() * i);
+        }
+
         return affected;
     }
 
@@ -1887,37 +2265,51 @@ public int stackCuboidRegion(Region region, Vector dir, int count,
     public int moveRegion(Region region, Vector dir, int distance,
             boolean copyAir, BaseBlock replace)
             throws MaxChangedBlocksException, RegionOperationException {
-        int affected = 0;
-
         final Vector shift = dir.multiply(distance);
+        final int shiftX = shift.getBlockX();
+        final int shiftY = shift.getBlockY();
+        final int shiftZ = shift.getBlockZ();
+
+        final BlockStagingBuffer buffer = new BlockStagingBuffer(region.getMinimumPoint(), region.getMaximumPoint());
+        final BitSet inRegion = new BitSet();
+
+        SpanCursor spans = region.spans();
+        while (spans.next()) {
+            final int y = spans.getY();
+            final int z = spans.getZ();
+            for (int x = spans.getMinX(); x <= spans.getMaxX(); ++x) {
+                inRegion.set(buffer.index(x, y, z));
+                stageBlock(buffer, x, y, z, copyAir);
+            }
+        }
+
+        // Don't want to replace the old blocks that are in the new area
+        spans = region.spans();
+        while (spans.next()) {
+            final int y = spans.getY();
+            final int z = spans.getZ();
+            for (int x = spans.getMinX(); x <= spans.getMaxX(); ++x) {
+                if (!buffer.contains(buffer.index(x, y, z))) {
+                    continue;
+                }
 
-        final Region newRegion = region.clone();
-        newRegion.shift(shift);
-
-        final Map<Vector, BaseBlock> delayed = new LinkedHashMap<Vector, BaseBlock>();
-
-        for (Vector pos : region) {
-            final BaseBlock block = getBlock(pos);
-
-            if (!block.isAir() || copyAir) {
-                final Vector newPos = pos.add(shift);
-
-                delayed.put(newPos, getBlock(pos));
-
-                // Don't want to replace the old block if it's in
-                // the new area
-                if (!newRegion.contains(pos)) {
-                    setBlock(pos, replace);
+                final int oldX = x - shiftX;
+                final int oldY = y - shiftY;
+                final int oldZ = z - shiftZ;
+                if (oldX >= buffer.getMinX() && oldX <= buffer.getMaxX()
+                        && oldY >= buffer.getMinY() && oldY <= buffer.getMaxY()
+                        && oldZ >= buffer.getMinZ() && oldZ <= buffer.getMaxZ()
+                        && inRegion.get(buffer.index(oldX, oldY, oldZ))) {
+                    continue;
                 }
+
+                setBlock(x, y, z, replace);
             }
         }
 
-        for (Map.Entry<Vector, BaseBlock> entry : delayed.entrySet()) {
-            setBlock(entry.getKey(), entry.getValue());
-            ++affected;
-        }
+        writeStaged(buffer, shiftX, shiftY, shiftZ);
 
-        return affected;
+        return buffer.size();
     }
 
     /**
@@ -1934,55 +2326,107 @@ public int moveRegion(Region region, Vector dir, int distance,
     public int moveCuboidRegion(Region region, Vector dir, int distance,
             boolean copyAir, BaseBlock replace)
             throws MaxChangedBlocksException {
-        int affected = 0;
+        final Vector shift = dir.multiply(distance);
+        final int shiftX = shift.getBlockX();
+        final int shiftY = shift.getBlockY();
+        final int shiftZ = shift.getBlockZ();
 
-        Vector shift = dir.multiply(distance);
-        Vector min = region.getMinimumPoint();
-        Vector max = region.getMaximumPoint();
+        final BlockStagingBuffer buffer = new BlockStagingBuffer(region.getMinimumPoint(), region.getMaximumPoint());
+        for (int y = buffer.getMinY(); y <= buffer.getMaxY(); ++y) {
+            for (int z = buffer.getMinZ(); z <= buffer.getMaxZ(); ++z) {
+                for (int x = buffer.getMinX(); x <= buffer.getMaxX(); ++x) {
+                    stageBlock(buffer, x, y, z, copyAir);
+                }
+            }
+        }
 
-        int minX = min.getBlockX();
-        int minY = min.getBlockY();
-        int minZ = min.getBlockZ();
-        int maxX = max.getBlockX();
-        int maxY = max.getBlockY();
-        int maxZ = max.getBlockZ();
+        // Old blocks in the new area are replaced too, as the moved blocks
+        // may not cover them if air isn't copied
+        for (int y = buffer.getMinY(); y <= buffer.getMaxY(); ++y) {
+            for (int z = buffer.getMinZ(); z <= buffer.getMaxZ(); ++z) {
+                for (int x = buffer.getMinX(); x <= buffer.getMaxX(); ++x) {
+                    if (buffer.contains(buffer.index(x, y, z))) {
+                        setBlock(x, y, z, replace);
+                    }
+                }
+            }
+        }
 
-        Vector newMin = min.add(shift);
-        Vector newMax = min.add(shift);
+        writeStaged(buffer, shiftX, shiftY, shiftZ);
 
-        Map<Vector, BaseBlock> delayed = new LinkedHashMap<Vector, BaseBlock>();
+        return buffer.size();
+    }
 
-        for (int x = minX; x <= maxX; ++x) {
-            for (int z = minZ; z <= maxZ; ++z) {
-                for (int y = minY; y <= maxY; ++y) {
-                    Vector pos = new Vector(x, y, z);
-                    BaseBlock block = getBlock(pos);
+    /**
+     * Read a block into a staging buffer.
+     *
+     * @param buffer the buffer
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     * @param copyAir whether to stage air
+     */
+    private void stageBlock(BlockStagingBuffer buffer, int x, int y, int z, boolean copyAir) {
+        final int type = getBlockType(x, y, z);
+        if (type == BlockID.AIR && !copyAir) {
+            return;
+        }
+
+        if (BlockSectionCache.mayHaveTileEntity(type)) {
+            buffer.put(buffer.index(x, y, z), rawGetBlock(new Vector(x, y, z)));
+        } else {
+            buffer.put(buffer.index(x, y, z), type, getBlockData(x, y, z));
+        }
+    }
+
+    /**
+     * Write the blocks of a staging buffer at an offset, one chunk column
+     * of the destination at a time.
+     *
+     * @param buffer the buffer
+     * @param offsetX the offset on the X axis
+     * @param offsetY the offset on the Y axis
+     * @param offsetZ the offset on the Z axis
+     * @return the number of blocks changed
+     * @throws MaxChangedBlocksException
+     */
+    private int writeStaged(BlockStagingBuffer buffer, int offsetX, int offsetY, int offsetZ)
+            throws MaxChangedBlocksException {
+        int affected = 0;
 
-                    if (!block.isAir() || copyAir) {
-                        Vector newPos = pos.add(shift);
+        final int minX = buffer.getMinX() + offsetX;
+        final int maxX = buffer.getMaxX() + offsetX;
+        final int minZ = buffer.getMinZ() + offsetZ;
+        final int maxZ = buffer.getMaxZ() + offsetZ;
+
+        final BitSet matched = new BitSet();
+        for (int chunkX = minX >> 4; chunkX <= maxX >> 4; ++chunkX) {
+            final int fromX = Math.max(minX, chunkX << 4);
+            final int toX = Math.min(maxX, (chunkX << 4) + 15);
+            for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; ++chunkZ) {
+                final int fromZ = Math.max(minZ, chunkZ << 4);
+                final int toZ = Math.min(maxZ, (chunkZ << 4) + 15);
+                for (int y = buffer.getMinY(); y <= buffer.getMaxY(); ++y) {
+                    for (int z = fromZ; z <= toZ; ++z) {
+                        if (mask != null) {
+                            mask.matchesRun(this, fromX, y + offsetY, z, toX - fromX + 1, matched);
+                        }
 
-                        delayed.put(newPos, getBlock(pos));
+                        for (int x = fromX; x <= toX; ++x) {
+                            if (mask != null && !matched.get(x - fromX)) {
+                                continue;
+                            }
 
-                        // Don't want to replace the old block if it's in
-                        // the new area
-                        if (x >= newMin.getBlockX() && x <= newMax.getBlockX()
-                                && y >= newMin.getBlockY()
-                                && y <= newMax.getBlockY()
-                                && z >= newMin.getBlockZ()
-                                && z <= newMax.getBlockZ()) {
-                        } else {
-                            setBlock(pos, replace);
+                            final BaseBlock block = buffer.get(buffer.index(x - offsetX, y, z - offsetZ));
+                            if (block != null && setBlockUnmasked(x, y + offsetY, z, block)) {
+                                ++affected;
+                            }
                         }
                     }
                 }
             }
         }
 
-        for (Map.Entry<Vector, BaseBlock> entry : delayed.entrySet()) {
-            setBlock(entry.getKey(), entry.getValue());
-            ++affected;
-        }
-
         return affected;
     }
 
@@ -1994,62 +2438,45 @@ public int moveCuboidRegion(Region region, Vector dir, int distance,
      * @return number of blocks affected
      * @throws MaxChangedBlocksException
      */
-    public int drainArea(Vector pos, double radius)
+    public int drainArea(final Vector pos, final double radius)
             throws MaxChangedBlocksException {
-        int affected = 0;
+        final int[] affected = new int[1];
+        final BaseBlock air = new BaseBlock(BlockID.AIR);
 
-        HashSet<BlockVector> visited = new HashSet<BlockVector>();
-        Stack<BlockVector> queue = new Stack<BlockVector>();
+        final FloodFill fill = new FloodFill(Connectivity.CORNERS) {
+            @Override
+            protected boolean visit(int x, int y, int z) throws MaxChangedBlocksException {
+                final int type = getBlockType(x, y, z);
 
-        for (int x = pos.getBlockX() - 1; x <= pos.getBlockX() + 1; ++x) {
-            for (int z = pos.getBlockZ() - 1; z <= pos.getBlockZ() + 1; ++z) {
-                for (int y = pos.getBlockY() - 1; y <= pos.getBlockY() + 1; ++y) {
-                    queue.push(new BlockVector(x, y, z));
+                // Check block type
+                if (type != BlockID.WATER && type != BlockID.STATIONARY_WATER
+                        && type != BlockID.LAVA && type != BlockID.STATIONARY_LAVA) {
+                    return false;
                 }
-            }
-        }
-
-        while (!queue.empty()) {
-            BlockVector cur = queue.pop();
-
-            int type = getBlockType(cur);
-
-            // Check block type
-            if (type != BlockID.WATER && type != BlockID.STATIONARY_WATER
-                    && type != BlockID.LAVA && type != BlockID.STATIONARY_LAVA) {
-                continue;
-            }
-
-            // Don't want to revisit
-            if (visited.contains(cur)) {
-                continue;
-            }
-
-            visited.add(cur);
-
-            // Check radius
-            if (pos.distance(cur) > radius) {
-                continue;
-            }
 
-            for (int x = cur.getBlockX() - 1; x <= cur.getBlockX() + 1; ++x) {
-                for (int z = cur.getBlockZ() - 1; z <= cur.getBlockZ() + 1; ++z) {
-                    for (int y = cur.getBlockY() - 1; y <= cur.getBlockY() + 1; ++y) {
-                        BlockVector newPos = new BlockVector(x, y, z);
+                // Check radius
+                if (distance(pos, x, y, z) > radius) {
+                    return false;
+                }
 
-                        if (!cur.equals(newPos)) {
-                            queue.push(newPos);
-                        }
-                    }
+                if (setBlock(x, y, z, air)) {
+                    ++affected[0];
                 }
+                return true;
             }
+        };
+        fill.setMaxVisited(floodFillLimit);
 
-            if (setBlock(cur, new BaseBlock(BlockID.AIR))) {
-                ++affected;
+        for (int x = pos.getBlockX() - 1; x <= pos.getBlockX() + 1; ++x) {
+            for (int z = pos.getBlockZ() - 1; z <= pos.getBlockZ() + 1; ++z) {
+                for (int y = pos.getBlockY() - 1; y <= pos.getBlockY() + 1; ++y) {
+                    fill.add(x, y, z);
+                }
             }
         }
+        fill.run();
 
-        return affected;
+        return affected[0];
     }
 
     /**
@@ -2062,61 +2489,62 @@ public int drainArea(Vector pos, double radius)
      * @return number of blocks affected
      * @throws MaxChangedBlocksException
      */
-    public int fixLiquid(Vector pos, double radius, int moving, int stationary)
+    public int fixLiquid(final Vector pos, final double radius, final int moving, final int stationary)
             throws MaxChangedBlocksException {
-        int affected = 0;
+        final int[] affected = new int[1];
+        final BaseBlock stationaryBlock = new BaseBlock(stationary);
+
+        final FloodFill fill = new FloodFill(Connectivity.HORIZONTAL) {
+            @Override
+            protected boolean visit(int x, int y, int z) throws MaxChangedBlocksException {
+                final int type = getBlockType(x, y, z);
+
+                // Check block type
+                if (type != moving && type != stationary && type != BlockID.AIR) {
+                    return false;
+                }
+
+                if (setBlock(x, y, z, stationaryBlock)) {
+                    ++affected[0];
+                }
 
-        HashSet<BlockVector> visited = new HashSet<BlockVector>();
-        Stack<BlockVector> queue = new Stack<BlockVector>();
+                // Check radius
+                return distance(pos, x, y, z) <= radius;
+            }
+        };
+        fill.setMaxVisited(floodFillLimit);
 
         for (int x = pos.getBlockX() - 1; x <= pos.getBlockX() + 1; ++x) {
             for (int z = pos.getBlockZ() - 1; z <= pos.getBlockZ() + 1; ++z) {
                 for (int y = pos.getBlockY() - 1; y <= pos.getBlockY() + 1; ++y) {
-                    int type = getBlock(new Vector(x, y, z)).getType();
+                    final int type = getBlockType(x, y, z);
 
                     // Check block type
                     if (type == moving || type == stationary) {
-                        queue.push(new BlockVector(x, y, z));
+                        fill.add(x, y, z);
                     }
                 }
             }
         }
+        fill.run();
 
-        BaseBlock stationaryBlock = new BaseBlock(stationary);
-
-        while (!queue.empty()) {
-            BlockVector cur = queue.pop();
-
-            int type = getBlockType(cur);
-
-            // Check block type
-            if (type != moving && type != stationary && type != BlockID.AIR) {
-                continue;
-            }
-
-            // Don't want to revisit
-            if (visited.contains(cur)) {
-                continue;
-            }
-
-            visited.add(cur);
-
-            if (setBlock(cur, stationaryBlock)) {
-                ++affected;
-            }
-
-            // Check radius
-            if (pos.distance(cur) > radius) {
-                continue;
-            }
-
-            queue.push(cur.add(1, 0, 0).toBlockVector());
-            queue.push(cur.add(-1, 0, 0).toBlockVector());
-            queue.push(cur.add(0, 0, 1).toBlockVector());
-            queue.push(cur.add(0, 0, -1).toBlockVector());
-        }
+        return affected[0];
+    }
 
-        return affected;
+    /**
+     * Get the distance between a point and a block position.
+     *
+     * @param pos the point
+     * @param x the X coordinate of the block
+     * @param y the Y coordinate of the block
+     * @param z the Z coordinate of the block
+     * @return the distance
+     */
+    private static double distance(Vector pos, int x, int y, int z) {
+        final double dx = x - pos.getX();
+        final double dy = y - pos.getY();
+        final double dz = z - pos.getZ();
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
     }
 
     /**
@@ -2806,7 +3234,11 @@ public int makeShape(final Region region, final Vector zero, final Vector unit,
         final WorldEditExpressionEnvironment environment = new WorldEditExpressionEnvironment(this, unit, zero);
         expression.setEnvironment(environment);
 
+        final ParallelExpression parallel = new ParallelExpression(expression, "type", "data");
+
         final ArbitraryShape shape = new ArbitraryShape(region) {
+            private boolean errorLogged = false;
+
             @Override
             protected BaseBlock getMaterial(int x, int y, int z, BaseBlock defaultMaterial) {
                 final Vector current = new Vector(x, y, z);
@@ -2820,52 +3252,108 @@ protected BaseBlock getMaterial(int x, int y, int z, BaseBlock defaultMaterial)
 
                     return new BaseBlock((int) typeVariable.getValue(), (int) dataVariable.getValue());
                 } catch (Exception e) {
-                    e.printStackTrace();
+                    logError(e);
                     return null;
                 }
             }
+
+            private void logError(Exception e) {
+                if (!errorLogged) {
+                    errorLogged = true;
+                    logger.log(Level.WARNING, "WorldEdit: Failed to evaluate " + expressionString, e);
+                }
+            }
+
+            @Override
+            protected void getMaterials(int[] positions, BaseBlock[] materials, int count) {
+                // Expressions that query the world need the current block
+                // and have to run on this thread, one block at a time, and so
+                // do expressions that keep values in their variables
+                if (!expression.isThreadSafe()) {
+                    super.getMaterials(positions, materials, count);
+                    return;
+                }
+
+                final int inputStride = parallel.getInputStride();
+                final int outputStride = parallel.getOutputStride();
+                final double[] inputs = new double[count * inputStride];
+                final double[] outputs = new double[count * outputStride];
+                for (int i = 0; i < count; ++i) {
+                    inputs[i * inputStride] = (positions[i * 3] - zero.getX()) / unit.getX();
+                    inputs[i * inputStride + 1] = (positions[i * 3 + 1] - zero.getY()) / unit.getY();
+                    inputs[i * inputStride + 2] = (positions[i * 3 + 2] - zero.getZ()) / unit.getZ();
+                    inputs[i * inputStride + 3] = materials[i].getType();
+                    inputs[i * inputStride + 4] = materials[i].getData();
+                }
+
+                try {
+                    parallel.evaluate(inputs, outputs, count);
+                } catch (Exception e) {
+                    // Find the blocks that fail one at a time; the expression keeps no state
+                    logError(e);
+                    super.getMaterials(positions, materials, count);
+                    return;
+                }
+
+                for (int i = 0; i < count; ++i) {
+                    if (outputs[i * outputStride] <= 0) {
+                        materials[i] = null;
+                    } else {
+                        materials[i] = new BaseBlock((int) outputs[i * outputStride + 1], (int) outputs[i * outputStride + 2]);
+                    }
+                }
+            }
         };
 
-        return shape.generate(this, pattern, hollow);
+        try {
+            return shape.generate(this, pattern, hollow);
+        } finally {
+            parallel.shutdown();
+        }
     }
 
     public int deformRegion(final Region region, final Vector zero, final Vector unit, final String expressionString) throws ExpressionException, MaxChangedBlocksException {
         final Expression expression = Expression.compile(expressionString, "x", "y", "z");
         expression.optimize();
 
-        final RValue x = expression.getVariable("x", false);
-        final RValue y = expression.getVariable("y", false);
-        final RValue z = expression.getVariable("z", false);
-
         final WorldEditExpressionEnvironment environment = new WorldEditExpressionEnvironment(this, unit, zero);
         expression.setEnvironment(environment);
 
-        final DoubleArrayList<BlockVector, BaseBlock> queue = new DoubleArrayList<BlockVector, BaseBlock>(false);
+        final ParallelExpression parallel = new ParallelExpression(expression, "x", "y", "z");
+        final int batchSize = 16384;
+        final int[] positions = new int[batchSize * 3];
+        final double[] inputs = new double[batchSize * parallel.getInputStride()];
+        final double[] outputs = new double[batchSize * parallel.getOutputStride()];
 
-        for (BlockVector position : region) {
-            // offset, scale
-            final Vector scaled = position.subtract(zero).divide(unit);
+        final BlockChangeList queue = new BlockChangeList(false);
 
-            // transform
-            expression.evaluate(scaled.getX(), scaled.getY(), scaled.getZ());
+        try {
+            int count = 0;
+            for (BlockVector position : region) {
+                positions[count * 3] = position.getBlockX();
+                positions[count * 3 + 1] = position.getBlockY();
+                positions[count * 3 + 2] = position.getBlockZ();
 
-            final BlockVector sourcePosition = environment.toWorld(x.getValue(), y.getValue(), z.getValue());
+                // offset, scale
+                inputs[count * 3] = (position.getX() - zero.getX()) / unit.getX();
+                inputs[count * 3 + 1] = (position.getY() - zero.getY()) / unit.getY();
+                inputs[count * 3 + 2] = (position.getZ() - zero.getZ()) / unit.getZ();
 
-            // read block from world
-            // TODO: use getBlock here once the reflection is out of the way
-            final BaseBlock material = new BaseBlock(world.getBlockType(sourcePosition), world.getBlockData(sourcePosition));
-
-            // queue operation
-            queue.put(position, material);
+                if (++count == batchSize) {
+                    deformBatch(parallel, environment, positions, inputs, outputs, count, queue);
+                    count = 0;
+                }
+            }
+            deformBatch(parallel, environment, positions, inputs, outputs, count, queue);
+        } finally {
+            parallel.shutdown();
         }
 
         int affected = 0;
-        for (Map.Entry<BlockVector, BaseBlock> entry : queue) {
-            BlockVector position = entry.getKey();
-            BaseBlock material = entry.getValue();
-
+        BlockChangeList.ChangeCursor cursor = queue.cursor();
+        while (cursor.next()) {
             // set at new position
-            if (setBlock(position, material)) {
+            if (setBlock(cursor.getPosition(), cursor.getBlock())) {
                 ++affected;
             }
         }
@@ -2873,14 +3361,27 @@ public int deformRegion(final Region region, final Vector zero, final Vector uni
         return affected;
     }
 
-    private static final Vector[] recurseDirections = {
-        PlayerDirection.NORTH.vector(),
-        PlayerDirection.EAST.vector(),
-        PlayerDirection.SOUTH.vector(),
-        PlayerDirection.WEST.vector(),
-        PlayerDirection.UP.vector(),
-        PlayerDirection.DOWN.vector(),
-    };
+    private void deformBatch(ParallelExpression parallel, WorldEditExpressionEnvironment environment, int[] positions, double[] inputs, double[] outputs, int count, BlockChangeList queue) throws ExpressionException {
+        if (count == 0) {
+            return;
+        }
+
+        // transform
+        parallel.evaluate(inputs, outputs, count);
+
+        final int outputStride = parallel.getOutputStride();
+        for (int i = 0; i < count; ++i) {
+            final BlockVector sourcePosition = environment.toWorld(outputs[i * outputStride + 1], outputs[i * outputStride + 2], outputs[i * outputStride + 3]);
+
+            // read block from world
+            // TODO: use getBlock here once the reflection is out of the way
+            final int type = world.getBlockType(sourcePosition);
+            final int data = world.getBlockData(sourcePosition);
+
+            // queue operation
+            queue.put(positions[i * 3], positions[i * 3 + 1], positions[i * 3 + 2], type, data);
+        }
+    }
 
     /**
      * Hollows out the region (Semi-well-defined for non-cuboid selections).
@@ -2892,10 +3393,10 @@ public int deformRegion(final Region region, final Vector zero, final Vector uni
      * @return number of blocks affected
      * @throws MaxChangedBlocksException
      */
-    public int hollowOutRegion(Region region, int thickness, Pattern pattern) throws MaxChangedBlocksException {
+    public int hollowOutRegion(final Region region, int thickness, Pattern pattern) throws MaxChangedBlocksException {
         int affected = 0;
 
-        final Set<BlockVector> outside = new HashSet<BlockVector>();
+        final BlockPositionSet outside = new BlockPositionSet();
 
         final Vector min = region.getMinimumPoint();
         final Vector max = region.getMaximumPoint();
@@ -2907,60 +3408,94 @@ public int hollowOutRegion(Region region, int thickness, Pattern pattern) throws
         final int maxY = max.getBlockY();
         final int maxZ = max.getBlockZ();
 
+        // Everything passable that can be reached from the faces of the bounding box
+        final FloodFill fill = new FloodFill(Connectivity.FACES) {
+            @Override
+            protected boolean visit(int x, int y, int z) {
+                if (!BlockType.canPassThrough(getBlockType(x, y, z), getBlockData(x, y, z))) {
+                    return false;
+                }
+
+                outside.add(x, y, z);
+                return region.contains(new Vector(x, y, z));
+            }
+        };
+        fill.setMaxVisited(floodFillLimit);
+
         for (int x = minX; x <= maxX; ++x) {
             for (int y = minY; y <= maxY; ++y) {
-                recurseHollow(region, new BlockVector(x, y, minZ), outside);
-                recurseHollow(region, new BlockVector(x, y, maxZ), outside);
+                fill.add(x, y, minZ);
+                fill.add(x, y, maxZ);
             }
         }
 
         for (int y = minY; y <= maxY; ++y) {
             for (int z = minZ; z <= maxZ; ++z) {
-                recurseHollow(region, new BlockVector(minX, y, z), outside);
-                recurseHollow(region, new BlockVector(maxX, y, z), outside);
+                fill.add(minX, y, z);
+                fill.add(maxX, y, z);
             }
         }
 
         for (int z = minZ; z <= maxZ; ++z) {
             for (int x = minX; x <= maxX; ++x) {
-                recurseHollow(region, new BlockVector(x, minY, z), outside);
-                recurseHollow(region, new BlockVector(x, maxY, z), outside);
+                fill.add(x, minY, z);
+                fill.add(x, maxY, z);
             }
         }
 
+        fill.run();
+
         for (int i = 1; i < thickness; ++i) {
-            final Set<BlockVector> newOutside = new HashSet<BlockVector>();
-            outer: for (BlockVector position : region) {
-                for (Vector recurseDirection: recurseDirections) {
-                    BlockVector neighbor = position.add(recurseDirection).toBlockVector();
-
-                    if (outside.contains(neighbor)) {
-                        newOutside.add(position);
-                        continue outer;
+            final BlockPositionQueue newOutside = new BlockPositionQueue();
+            final SpanCursor spans = region.spans();
+            while (spans.next()) {
+                final int y = spans.getY();
+                final int z = spans.getZ();
+                for (int x = spans.getMinX(); x <= spans.getMaxX(); ++x) {
+                    if (hasNeighborIn(outside, x, y, z)) {
+                        newOutside.add(BlockPositionSet.pack(x, y, z));
                     }
                 }
             }
 
-            outside.addAll(newOutside);
+            while (!newOutside.isEmpty()) {
+                outside.add(newOutside.poll());
+            }
         }
 
-        outer: for (BlockVector position : region) {
-            for (Vector recurseDirection: recurseDirections) {
-                BlockVector neighbor = position.add(recurseDirection).toBlockVector();
-
-                if (outside.contains(neighbor)) {
-                    continue outer;
+        final SpanCursor spans = region.spans();
+        while (spans.next()) {
+            final int y = spans.getY();
+            final int z = spans.getZ();
+            for (int x = spans.getMinX(); x <= spans.getMaxX(); ++x) {
+                if (hasNeighborIn(outside, x, y, z)) {
+                    continue;
                 }
-            }
 
-            if (setBlock(position, pattern.next(position))) {
-                ++affected;
+                if (setBlock(x, y, z, pattern.next(x, y, z))) {
+                    ++affected;
+                }
             }
         }
 
         return affected;
     }
 
+    /**
+     * Returns whether one of the six neighbours of a block is in a set.
+     *
+     * @param positions the set
+     * @param x the X coordinate of the block
+     * @param y the Y coordinate of the block
+     * @param z the Z coordinate of the block
+     * @return true if a neighbour is in the set
+     */
+    private static boolean hasNeighborIn(BlockPositionSet positions, int x, int y, int z) {
+        return positions.contains(x + 1, y, z) || positions.contains(x - 1, y, z)
+                || positions.contains(x, y + 1, z) || positions.contains(x, y - 1, z)
+                || positions.contains(x, y, z + 1) || positions.contains(x, y, z - 1);
+    }
+
     /**
      * Draws a line (out of blocks) between two vectors.
      *
@@ -2976,57 +3511,10 @@ public int hollowOutRegion(Region region, int thickness, Pattern pattern) throws
     public int drawLine(Pattern pattern, Vector pos1, Vector pos2, double radius, boolean filled)
             throws MaxChangedBlocksException {
 
-        Set<Vector> vset = new HashSet<Vector>();
-        boolean notdrawn = true;
-
-        int x1 = pos1.getBlockX(), y1 = pos1.getBlockY(), z1 = pos1.getBlockZ();
-        int x2 = pos2.getBlockX(), y2 = pos2.getBlockY(), z2 = pos2.getBlockZ();
-        int tipx = x1, tipy = y1, tipz = z1;
-        int dx = Math.abs(x2 - x1), dy = Math.abs(y2 - y1), dz = Math.abs(z2 - z1);
-
-        if (dx + dy + dz == 0) {
-            vset.add(new Vector(tipx, tipy, tipz));
-            notdrawn = false;
-        }
-
-        if (Math.max(Math.max(dx, dy), dz) == dx && notdrawn) {
-            for (int domstep = 0; domstep <= dx; domstep++) {
-                tipx = x1 + domstep * (x2 - x1 > 0 ? 1 : -1);
-                tipy = (int) Math.round(y1 + domstep * ((double) dy) / ((double) dx) * (y2 - y1 > 0 ? 1 : -1));
-                tipz = (int) Math.round(z1 + domstep * ((double) dz) / ((double) dx) * (z2 - z1 > 0 ? 1 : -1));
-
-                vset.add(new Vector(tipx, tipy, tipz));
-            }
-            notdrawn = false;
-        }
-
-        if (Math.max(Math.max(dx, dy), dz) == dy && notdrawn) {
-            for (int domstep = 0; domstep <= dy; domstep++) {
-                tipy = y1 + domstep * (y2 - y1 > 0 ? 1 : -1);
-                tipx = (int) Math.round(x1 + domstep * ((double) dx) / ((double) dy) * (x2 - x1 > 0 ? 1 : -1));
-                tipz = (int) Math.round(z1 + domstep * ((double) dz) / ((double) dy) * (z2 - z1 > 0 ? 1 : -1));
-
-                vset.add(new Vector(tipx, tipy, tipz));
-            }
-            notdrawn = false;
-        }
-
-        if (Math.max(Math.max(dx, dy), dz) == dz && notdrawn) {
-            for (int domstep = 0; domstep <= dz; domstep++) {
-                tipz = z1 + domstep * (z2 - z1 > 0 ? 1 : -1);
-                tipy = (int) Math.round(y1 + domstep * ((double) dy) / ((double) dz) * (y2-y1>0 ? 1 : -1));
-                tipx = (int) Math.round(x1 + domstep * ((double) dx) / ((double) dz) * (x2-x1>0 ? 1 : -1));
-
-                vset.add(new Vector(tipx, tipy, tipz));
-            }
-            notdrawn = false;
-        }
-
-        vset = getBallooned(vset, radius);
-        if (!filled) {
-            vset = getHollowed(vset);
-        }
-        return setBlocks(vset, pattern);
+        final CurveRasterizer rasterizer = new CurveRasterizer(radius);
+        rasterizer.addLine(pos1.getBlockX(), pos1.getBlockY(), pos1.getBlockZ(),
+                pos2.getBlockX(), pos2.getBlockY(), pos2.getBlockZ());
+        return rasterizer.apply(this, pattern, filled);
     }
 
     /**
@@ -3047,7 +3535,7 @@ public int drawLine(Pattern pattern, Vector pos1, Vector pos2, double radius, bo
     public int drawSpline(Pattern pattern, List<Vector> nodevectors, double tension, double bias, double continuity, double quality, double radius, boolean filled)
             throws MaxChangedBlocksException {
 
-        Set<Vector> vset = new HashSet<Vector>();
+        final CurveRasterizer rasterizer = new CurveRasterizer(radius);
         List<Node> nodes = new ArrayList(nodevectors.size());
 
         Interpolation interpol = new KochanekBartelsInterpolation();
@@ -3064,96 +3552,10 @@ public int drawSpline(Pattern pattern, List<Vector> nodevectors, double tension,
         double splinelength = interpol.arcLength(0, 1);
         for (double loop = 0; loop <= 1; loop += 1D / splinelength / quality) {
             Vector tipv = interpol.getPosition(loop);
-            int tipx = (int) Math.round(tipv.getX());
-            int tipy = (int) Math.round(tipv.getY());
-            int tipz = (int) Math.round(tipv.getZ());
-
-            vset.add(new Vector(tipx, tipy, tipz));
-        }
-
-        vset = getBallooned(vset, radius);
-        if (!filled) {
-            vset = getHollowed(vset);
-        }
-        return setBlocks(vset, pattern);
-    }
-
-    private static double hypot(double... pars) {
-        double sum = 0;
-        for (double d : pars) {
-            sum += Math.pow(d, 2);
-        }
-        return Math.sqrt(sum);
-    }
-
-    private static Set<Vector> getBallooned(Set<Vector> vset, double radius) {
-        Set<Vector> returnset = new HashSet<Vector>();
-        int ceilrad = (int) Math.ceil(radius);
-
-        for (Vector v : vset) {
-            int tipx = v.getBlockX(), tipy = v.getBlockY(), tipz = v.getBlockZ();
-
-            for (int loopx = tipx - ceilrad; loopx <= tipx + ceilrad; loopx++) {
-                for (int loopy = tipy - ceilrad; loopy <= tipy + ceilrad; loopy++) {
-                    for (int loopz = tipz - ceilrad; loopz <= tipz + ceilrad; loopz++) {
-                        if (hypot(loopx - tipx, loopy - tipy, loopz - tipz) <= radius) {
-                            returnset.add(new Vector(loopx, loopy, loopz));
-                        }
-                    }
-                }
-            }
-        }
-        return returnset;
-    }
-
-    private static Set<Vector> getHollowed(Set<Vector> vset) {
-        Set<Vector> returnset = new HashSet<Vector>();
-        for (Vector v : vset) {
-            double x = v.getX(), y = v.getY(), z = v.getZ();
-            if (!(vset.contains(new Vector(x + 1, y, z)) &&
-            vset.contains(new Vector(x - 1, y, z)) &&
-            vset.contains(new Vector(x, y + 1, z)) &&
-            vset.contains(new Vector(x, y - 1, z)) &&
-            vset.contains(new Vector(x, y, z + 1)) &&
-            vset.contains(new Vector(x, y, z - 1)))) {
-                returnset.add(v);
-            }
-        }
-        return returnset;
-    }
-
-    private int setBlocks(Set<Vector> vset, Pattern pattern)
-        throws MaxChangedBlocksException {
-
-        int affected = 0;
-        for (Vector v : vset) {
-            affected += setBlock(v, pattern) ? 1 : 0;
+            rasterizer.addPoint((int) Math.round(tipv.getX()), (int) Math.round(tipv.getY()), (int) Math.round(tipv.getZ()));
         }
-        return affected;
-    }
-
-    private void recurseHollow(Region region, BlockVector origin, Set<BlockVector> outside) {
-        final LinkedList<BlockVector> queue = new LinkedList<BlockVector>();
-        queue.addLast(origin);
-
-        while (!queue.isEmpty()) {
-            final BlockVector current = queue.removeFirst();
-            if (!BlockType.canPassThrough(getBlockType(current), getBlockData(current))) {
-                continue;
-            }
-
-            if (!outside.add(current)) {
-                continue;
-            }
 
-            if (!region.contains(current)) {
-                continue;
-            }
-
-            for (Vector recurseDirection: recurseDirections) {
-                queue.addLast(current.add(recurseDirection).toBlockVector());
-            }
-        } // while
+        return rasterizer.apply(this, pattern, filled);
     }
 
     public int makeBiomeShape(final Region region, final Vector zero, final Vector unit, final BiomeType biomeType, final String expressionString, final boolean hollow) throws ExpressionException, MaxChangedBlocksException {
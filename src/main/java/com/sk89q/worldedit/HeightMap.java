@@ -24,6 +24,8 @@
 import com.sk89q.worldedit.filtering.HeightMapFilter;
 import com.sk89q.worldedit.regions.Region;
 
+import java.util.Arrays;
+
 /**
  * Allows applications of Kernels onto the region's heightmap.
  * Currently only used for smoothing (with a GaussianKernel).
@@ -68,17 +70,23 @@ public HeightMap(EditSession session, Region region, boolean naturalOnly) {
         int minZ = region.getMinimumPoint().getBlockZ();
         int maxY = region.getMaximumPoint().getBlockY();
 
-        // Store current heightmap data
+        // Store current heightmap data, a chunk column at a time so that
+        // the chunk sections read by the session stay cached
         data = new int[width * height];
-        for (int z = 0; z < height; ++z) {
-            for (int x = 0; x < width; ++x) {
-                data[z * width + x] = session.getHighestTerrainBlock(x + minX, z + minZ, minY, maxY, naturalOnly);
+        for (int tileZ = (minZ >> 4) << 4; tileZ < minZ + height; tileZ += 16) {
+            for (int tileX = (minX >> 4) << 4; tileX < minX + width; tileX += 16) {
+                for (int z = Math.max(tileZ, minZ) - minZ; z < Math.min(tileZ + 16 - minZ, height); ++z) {
+                    for (int x = Math.max(tileX, minX) - minX; x < Math.min(tileX + 16 - minX, width); ++x) {
+                        data[z * width + x] = session.getHighestTerrainBlock(x + minX, z + minZ, minY, maxY, naturalOnly);
+                    }
+                }
             }
         }
     }
 
     /**
-     * Apply the filter 'iterations' amount times.
+     * Apply the filter 'iterations' amount times. The threads of the filter
+     * are stopped afterwards.
      * 
      * @param filter
      * @param iterations
@@ -90,8 +98,18 @@ public int applyFilter(HeightMapFilter filter, int iterations) throws MaxChanged
         int[] newData = new int[data.length];
         System.arraycopy(data, 0, newData, 0, data.length);
 
-        for (int i = 0; i < iterations; ++i) {
-            newData = filter.filter(newData, width, height);
+        try {
+            for (int i = 0; i < iterations; ++i) {
+                final int[] filtered = filter.filter(newData, width, height);
+
+                // Once the heightmap no longer changes, neither will further passes
+                if (Arrays.equals(filtered, newData)) {
+                    break;
+                }
+                newData = filtered;
+            }
+        } finally {
+            filter.shutdown();
         }
 
         return apply(newData);
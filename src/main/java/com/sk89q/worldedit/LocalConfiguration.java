@@ -89,6 +89,7 @@ public abstract class LocalConfiguration {
     public String shellSaveType = "";
     public SnapshotRepository snapshotRepo = null;
     public int maxRadius = -1;
+    public int maxFloodFillBlocks = 2000000;
     public int maxSuperPickaxeSize = 5;
     public int maxBrushRadius = 6;
     public boolean logCommands = false;
@@ -112,6 +113,11 @@ public abstract class LocalConfiguration {
     public int butcherDefaultRadius = -1;
     public int butcherMaxRadius = -1;
     public boolean allowSymlinks = false;
+    public long historyMemoryPerPlayer = -1;
+    public long historyMemoryTotal = -1;
+    public boolean historyJournal = false;
+    public String historyJournalDir = "history";
+    public int operationTimePerTick = 20;
 
     /**
      * Loads the configuration.
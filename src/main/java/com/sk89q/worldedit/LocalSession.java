@@ -19,11 +19,16 @@
 
 package com.sk89q.worldedit;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import com.sk89q.jchronic.Chronic;
 import com.sk89q.jchronic.Options;
 import com.sk89q.jchronic.utils.Span;
@@ -34,6 +39,7 @@
 import com.sk89q.worldedit.tools.BlockTool;
 import com.sk89q.worldedit.tools.Tool;
 import com.sk89q.worldedit.bags.BlockBag;
+import com.sk89q.worldedit.history.HistoryJournal;
 import com.sk89q.worldedit.cui.CUIRegion;
 import com.sk89q.worldedit.cui.CUIEvent;
 import com.sk89q.worldedit.cui.SelectionShapeEvent;
@@ -53,13 +59,20 @@ public class LocalSession {
     public static int MAX_HISTORY_SIZE = 15;
     public static int EXPIRATION_GRACE = 600000;
 
+    private static final Logger logger = Logger.getLogger("Minecraft.WorldEdit");
+    private static final AtomicLong totalHistoryMemory = new AtomicLong();
+
     private LocalConfiguration config;
 
     private long expirationTime = System.currentTimeMillis() + EXPIRATION_GRACE;
     private RegionSelector selector = new CuboidRegionSelector();
     private boolean placeAtPos1 = false;
     private LinkedList<EditSession> history = new LinkedList<EditSession>();
+    private LinkedList<Long> historyMemoryCounts = new LinkedList<Long>();
+    private HistoryJournal journal;
+    private boolean historyJournalFailed = false;
     private int historyPointer = 0;
+    private long historyMemory = 0;
     private CuboidClipboard clipboard;
     private boolean toolControl = true;
     private boolean superPickaxe = false;
@@ -104,16 +117,61 @@ public void setTimezone(TimeZone timezone) {
     }
 
     /**
-     * Clear history.
+     * Clear history, including any entries in the history journal.
      */
     public void clearHistory() {
-        history.clear();
+        releaseHistory();
         historyPointer = 0;
+
+        if (journal != null) {
+            try {
+                journal.clear();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "WorldEdit: Failed to clear history journal " + journal.getFile(), e);
+            }
+        }
+    }
+
+    /**
+     * Attach a history journal to this session. Entries already in the
+     * journal become the oldest entries of the history, which allows a
+     * history to outlive the session that made it.
+     *
+     * @param file the journal file
+     * @throws IOException thrown if the journal can't be opened
+     */
+    public void setHistoryJournal(File file) throws IOException {
+        HistoryJournal journal = HistoryJournal.open(file);
+        releaseHistory();
+        this.journal = journal;
+        historyPointer = Math.max(0, Math.min(journal.getPointer(), journal.size()));
+    }
+
+    /**
+     * Get the number of entries in the history, including those held in
+     * the history journal.
+     *
+     * @return number of entries
+     */
+    public int getHistorySize() {
+        return getJournalSize() + history.size();
+    }
+
+    /**
+     * Get the estimated number of bytes of heap held by the history of this
+     * session.
+     *
+     * @return size in bytes
+     */
+    public long getHistoryMemoryUsage() {
+        return historyMemory;
     }
 
     /**
      * Remember an edit session for the undo history. If the history maximum
-     * size is reached, old edit sessions will be discarded.
+     * size is reached, old edit sessions will be discarded. If the history
+     * exceeds its memory budget, the oldest edit sessions held in memory are
+     * moved to the history journal, or discarded if there is none.
      *
      * @param editSession
      */
@@ -121,15 +179,47 @@ public void remember(EditSession editSession) {
         // Don't store anything if no changes were made
         if (editSession.size() == 0) return;
 
-        // Destroy any sessions after this undo point
-        while (historyPointer < history.size()) {
-            history.remove(historyPointer);
+        checkHistoryJournal();
+
+        if (!history.isEmpty() && history.getLast() == editSession) {
+            // Operations that finish after their command remember their edit
+            // session again, by which time it has grown
+            long counted = historyMemoryCounts.removeLast();
+            long usage = getMemoryUsage(editSession);
+            historyMemoryCounts.add(usage);
+            addHistoryMemory(usage - counted);
+        } else {
+            // Destroy any sessions after this undo point
+            truncateHistory(historyPointer);
+
+            long usage = getMemoryUsage(editSession);
+            history.add(editSession);
+            historyMemoryCounts.add(usage);
+            addHistoryMemory(usage);
+
+            while (getHistorySize() > MAX_HISTORY_SIZE) {
+                removeOldestHistory();
+            }
+            historyPointer = getHistorySize();
         }
-        history.add(editSession);
-        while (history.size() > MAX_HISTORY_SIZE) {
-            history.remove(0);
+
+        while (history.size() > 1 && isOverHistoryBudget()) {
+            spillOldestHistory();
         }
-        historyPointer = history.size();
+        saveHistoryPointer();
+    }
+
+    /**
+     * Move all history held in memory to the history journal, if there is
+     * one, and release the memory held by the history. This should be called
+     * when the session is discarded. The journal is written in the
+     * background; see {@link HistoryJournal#awaitWrites()}.
+     */
+    public void flushHistory() {
+        while (!history.isEmpty()) {
+            spillOldestHistory();
+        }
+        saveHistoryPointer();
     }
 
     /**
@@ -140,14 +230,20 @@ public void remember(EditSession editSession) {
      * @return whether anything was undone
      */
     public EditSession undo(BlockBag newBlockBag, LocalPlayer player) {
+        checkHistoryJournal();
         --historyPointer;
         if (historyPointer >= 0) {
-            EditSession editSession = history.get(historyPointer);
+            EditSession editSession = getHistory(historyPointer);
+            if (editSession == null) {
+                ++historyPointer;
+                return null;
+            }
             EditSession newEditSession = WorldEdit.getInstance().getEditSessionFactory()
                     .getEditSession(editSession.getWorld(), -1, newBlockBag, player);
             newEditSession.enableQueue();
             newEditSession.setFastMode(fastMode);
             editSession.undo(newEditSession);
+            saveHistoryPointer();
             return editSession;
         } else {
             historyPointer = 0;
@@ -163,20 +259,185 @@ public EditSession undo(BlockBag newBlockBag, LocalPlayer player) {
      * @return whether anything was redone
      */
     public EditSession redo(BlockBag newBlockBag, LocalPlayer player) {
-        if (historyPointer < history.size()) {
-            EditSession editSession = history.get(historyPointer);
+        checkHistoryJournal();
+        if (historyPointer < getHistorySize()) {
+            EditSession editSession = getHistory(historyPointer);
+            if (editSession == null) {
+                return null;
+            }
             EditSession newEditSession = WorldEdit.getInstance().getEditSessionFactory()
                     .getEditSession(editSession.getWorld(), -1, newBlockBag, player);
             newEditSession.enableQueue();
             newEditSession.setFastMode(fastMode);
             editSession.redo(newEditSession);
             ++historyPointer;
+            saveHistoryPointer();
             return editSession;
         }
 
         return null;
     }
 
+    private int getJournalSize() {
+        return journal != null ? journal.size() : 0;
+    }
+
+    /**
+     * Get an entry of the history. Entries held in the journal are read
+     * back into a new edit session.
+     *
+     * @param index the index, from 0 (the oldest)
+     * @return the edit session, or null if it could not be read back
+     */
+    private EditSession getHistory(int index) {
+        int journalSize = getJournalSize();
+        if (index >= journalSize) {
+            return history.get(index - journalSize);
+        }
+
+        HistoryJournal.Entry entry;
+        try {
+            entry = journal.read(index);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "WorldEdit: Failed to read history journal " + journal.getFile(), e);
+            return null;
+        }
+
+        LocalWorld world = null;
+        for (LocalWorld candidate : WorldEdit.getInstance().getServer().getWorlds()) {
+            if (candidate.getName().equals(entry.getWorldName())) {
+                world = candidate;
+                break;
+            }
+        }
+        if (world == null) {
+            logger.warning("WorldEdit: The world '" + entry.getWorldName()
+                    + "' of a journaled history entry is not loaded");
+            return null;
+        }
+
+        EditSession editSession = WorldEdit.getInstance().getEditSessionFactory().getEditSession(world, -1);
+        editSession.setChanges(entry.getOriginal(), entry.getCurrent());
+        return editSession;
+    }
+
+    /**
+     * Remove all entries from the given index on.
+     *
+     * @param size the number of entries to keep
+     */
+    private void truncateHistory(int size) {
+        int journalSize = getJournalSize();
+        while (history.size() > Math.max(0, size - journalSize)) {
+            history.removeLast();
+            addHistoryMemory(-historyMemoryCounts.removeLast());
+        }
+        if (size < journalSize) {
+            try {
+                journal.truncate(size);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "WorldEdit: Failed to truncate history journal " + journal.getFile(), e);
+                discardJournal();
+            }
+        }
+    }
+
+    private void removeOldestHistory() {
+        if (getJournalSize() > 0) {
+            journal.removeFirst(1);
+        } else {
+            history.removeFirst();
+            addHistoryMemory(-historyMemoryCounts.removeFirst());
+        }
+        historyPointer = Math.max(0, historyPointer - 1);
+    }
+
+    /**
+     * Move the oldest entry held in memory to the journal, or discard it if
+     * there is no journal. The journal writes the entry in the background.
+     */
+    private void spillOldestHistory() {
+        EditSession editSession = history.removeFirst();
+        addHistoryMemory(-historyMemoryCounts.removeFirst());
+
+        if (journal != null) {
+            try {
+                journal.appendLater(editSession.getWorld().getName(),
+                        editSession.getOriginalChanges(), editSession.getCurrentChanges());
+                return;
+            } catch (IOException e) {
+                // The error was logged by the journal
+                historyJournalFailed = true;
+                discardJournal();
+            }
+        }
+
+        historyPointer = Math.max(0, historyPointer - 1);
+    }
+
+    /**
+     * Drop the journal if writing it failed in the background. Its entries
+     * that weren't written would otherwise stay in memory without counting
+     * against the history budget.
+     */
+    private void checkHistoryJournal() {
+        if (journal != null && journal.getFailure() != null) {
+            historyJournalFailed = true;
+            discardJournal();
+        }
+    }
+
+    /**
+     * Tell the player if older history was lost because the history journal
+     * couldn't be written, once per failure.
+     *
+     * @param player the player
+     */
+    public void tellHistoryJournalFailure(LocalPlayer player) {
+        checkHistoryJournal();
+        if (historyJournalFailed) {
+            player.printError("Не удалось записать старую историю на диск, она удалена.");
+            historyJournalFailed = false;
+        }
+    }
+
+    /**
+     * Drop every entry in the journal after it failed, so that the history
+     * stays contiguous.
+     */
+    private void discardJournal() {
+        historyPointer = Math.max(0, historyPointer - journal.size());
+        journal.delete();
+        journal = null;
+    }
+
+    private void saveHistoryPointer() {
+        if (journal != null) {
+            journal.setPointer(historyPointer);
+        }
+    }
+
+    private boolean isOverHistoryBudget() {
+        return (config.historyMemoryPerPlayer >= 0 && historyMemory > config.historyMemoryPerPlayer)
+                || (config.historyMemoryTotal >= 0 && totalHistoryMemory.get() > config.historyMemoryTotal);
+    }
+
+    private void addHistoryMemory(long bytes) {
+        historyMemory += bytes;
+        totalHistoryMemory.addAndGet(bytes);
+    }
+
+    private void releaseHistory() {
+        addHistoryMemory(-historyMemory);
+        history.clear();
+        historyMemoryCounts.clear();
+    }
+
+    private static long getMemoryUsage(EditSession editSession) {
+        return editSession.getOriginalChanges().getMemoryUsage()
+                + editSession.getCurrentChanges().getMemoryUsage();
+    }
+
     /**
      * Get the region selector for defining the selection. If the selection
      * was defined for a different world, the old selection will be discarded.
@@ -704,6 +965,7 @@ public EditSession createEditSession(LocalPlayer player) {
                 .getEditSession(player.isPlayer() ? player.getWorld() : null,
                         getBlockChangeLimit(), blockBag, player);
         editSession.setFastMode(fastMode);
+        editSession.setFloodFillLimit(config.maxFloodFillBlocks);
         if (mask != null) {
             mask.prepare(this, player, null);
         }
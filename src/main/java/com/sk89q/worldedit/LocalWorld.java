@@ -19,6 +19,7 @@
 
 package com.sk89q.worldedit;
 
+import java.util.Collections;
 import java.util.PriorityQueue;
 import java.util.Random;
 
@@ -35,6 +36,7 @@
 import com.sk89q.worldedit.blocks.SkullBlock;
 import com.sk89q.worldedit.foundation.Block;
 import com.sk89q.worldedit.foundation.World;
+import com.sk89q.worldedit.operation.Operation;
 import com.sk89q.worldedit.regions.Region;
 import com.sk89q.worldedit.util.TreeGenerator;
 
@@ -185,6 +187,18 @@ public boolean setTypeIdAndDataFast(Vector pt, int type, int data) {
      */
     public abstract boolean regenerate(Region region, EditSession editSession);
 
+    /**
+     * Get an operation that regenerates an area a part at a time, so that
+     * regenerating can be spread over several ticks.
+     *
+     * @param region
+     * @param editSession
+     * @return the operation, or null if the area can only be regenerated at once with {@link #regenerate(Region, EditSession)}
+     */
+    public Operation createRegenerateOperation(Region region, EditSession editSession) {
+        return null;
+    }
+
     /**
      * Attempts to accurately copy a BaseBlock's extra data to the world.
      *
@@ -453,6 +467,103 @@ public int getMaxY() {
         return 255;
     }
 
+    /**
+     * Copy the type IDs and data values of 16x16x16 sections of a chunk
+     * column into arrays, one pair of arrays per section, indexed by
+     * <code>y &lt;&lt; 8 | z &lt;&lt; 4 | x</code> within the section. The
+     * arrays are given by the index of their section from the bottom, and
+     * sections without arrays are skipped. Worlds that can't read whole
+     * sections at once return false, and their blocks are read one at a time.
+     *
+     * @param chunkX the X coordinate of the chunk
+     * @param chunkZ the Z coordinate of the chunk
+     * @param types receives 4096 type IDs for each section that has an array
+     * @param data receives 4096 data values for each section that has an array
+     * @return true if the sections were copied
+     */
+    public boolean copySections(int chunkX, int chunkZ, short[][] types, byte[][] data) {
+        return false;
+    }
+
+    /**
+     * Set blocks of a chunk column at once, without applying physics. The
+     * blocks are given as indices laid out as
+     * <code>y &lt;&lt; 8 | z &lt;&lt; 4 | x</code> within the column, and
+     * the type IDs and data values are looked up with the same indices.
+     * Lighting and the chunk sent to clients are brought up to date once
+     * all blocks are set, as {@link #fixAfterFastMode(Iterable)} would.
+     * </p>
+     * The default implementation sets the blocks one at a time.
+     *
+     * @param chunkX the X coordinate of the chunk
+     * @param chunkZ the Z coordinate of the chunk
+     * @param indices the indices of the blocks to set
+     * @param count the number of indices to use
+     * @param types the type IDs to set
+     * @param data the data values to set
+     * @return the number of blocks that changed
+     */
+    public int setBlocks(int chunkX, int chunkZ, int[] indices, int count, int[] types, byte[] data) {
+        final int baseX = chunkX << 4;
+        final int baseZ = chunkZ << 4;
+        int changed = 0;
+        for (int i = 0; i < count; ++i) {
+            final int index = indices[i];
+            final Vector pt = new Vector(baseX + (index & 0xF), index >> 8, baseZ + ((index >> 4) & 0xF));
+            if (setTypeIdAndDataFast(pt, types[index], data[index])) {
+                ++changed;
+            }
+        }
+
+        if (changed > 0) {
+            fixAfterFastMode(Collections.singleton(new BlockVector2D(chunkX, chunkZ)));
+        }
+        return changed;
+    }
+
+    /**
+     * Copy the type IDs and the sky and block light levels of a chunk column
+     * into arrays, indexed by <code>y &lt;&lt; 8 | z &lt;&lt; 4 | x</code>.
+     * Worlds that can't both copy and store light levels return false, and
+     * are not relit by WorldEdit.
+     *
+     * @param chunkX the X coordinate of the chunk
+     * @param chunkZ the Z coordinate of the chunk
+     * @param types receives the type IDs
+     * @param skyLight receives the sky light levels
+     * @param blockLight receives the block light levels
+     * @return true if the column was copied
+     */
+    public boolean copyLighting(int chunkX, int chunkZ, short[] types, byte[] skyLight, byte[] blockLight) {
+        return false;
+    }
+
+    /**
+     * Store the light levels of a 16x16x16 section of a chunk column. The
+     * arrays hold the whole column, laid out as in
+     * {@link #copyLighting(int, int, short[], byte[], byte[])}. The chunk is
+     * not sent to clients again.
+     *
+     * @param chunkX the X coordinate of the chunk
+     * @param chunkZ the Z coordinate of the chunk
+     * @param sectionY the index of the section in the chunk, from the bottom
+     * @param skyLight the sky light levels of the column
+     * @param blockLight the block light levels of the column
+     * @return true if the light was stored
+     */
+    public boolean setLighting(int chunkX, int chunkZ, int sectionY, byte[] skyLight, byte[] blockLight) {
+        return false;
+    }
+
+    /**
+     * Returns whether the world has sky light.
+     *
+     * @return true if the sky lights the world
+     */
+    public boolean hasSkyLight() {
+        return true;
+    }
+
     /**
      * Does some post-processing. Should be called after using fast mode
      *
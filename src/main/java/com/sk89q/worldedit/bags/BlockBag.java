@@ -28,6 +28,19 @@
  * @author sk89q
  */
 public abstract class BlockBag {
+    /**
+     * Blocks that can't be placed from a bag.
+     */
+    private static final int UNPLACEABLE = 0;
+    /**
+     * Blocks that can be placed without taking anything from a bag.
+     */
+    private static final int FREE = 1;
+    /**
+     * Blocks that are fetched from a bag when placed.
+     */
+    private static final int FETCHED = 2;
+
     /**
      * Stores a block as if it was mined.
      * 
@@ -76,28 +89,11 @@ public void fetchPlacedBlock(int id) throws BlockBagException {
      */
     public void fetchPlacedBlock(int id, int data) throws BlockBagException {
         try {
-            // Blocks that can't be fetched...
-            switch (id) {
-            case BlockID.BEDROCK:
-            case BlockID.GOLD_ORE:
-            case BlockID.IRON_ORE:
-            case BlockID.COAL_ORE:
-            case BlockID.DIAMOND_ORE:
-            case BlockID.TNT:
-            case BlockID.MOB_SPAWNER:
-            case BlockID.CROPS:
-            case BlockID.REDSTONE_ORE:
-            case BlockID.GLOWING_REDSTONE_ORE:
-            case BlockID.SNOW:
-            case BlockID.LIGHTSTONE:
-            case BlockID.PORTAL:
+            switch (getPlacement(id)) {
+            case UNPLACEABLE:
                 throw new UnplaceableBlockException();
 
-            case BlockID.WATER:
-            case BlockID.STATIONARY_WATER:
-            case BlockID.LAVA:
-            case BlockID.STATIONARY_LAVA:
-                // Override liquids
+            case FREE:
                 return;
 
             default:
@@ -114,6 +110,80 @@ public void fetchPlacedBlock(int id, int data) throws BlockBagException {
         }
     }
 
+    /**
+     * Get the number of blocks of a type that could be placed with the
+     * items in the bag, counting the items that
+     * {@link #fetchPlacedBlock(int, int)} falls back to.
+     *
+     * @param id
+     * @param data
+     * @return the number of blocks, or -1 if the items in the bag don't
+     *     limit placing the block or the bag can't tell
+     */
+    public int getPlaceableCount(int id, int data) {
+        if (getPlacement(id) != FETCHED) {
+            return -1;
+        }
+
+        int count = getItemCount(new BaseItem(id));
+        if (count == -1) {
+            return -1;
+        }
+
+        BaseItem placed = BlockType.getBlockBagItem(id, data);
+        if (placed != null && placed.getType() != BlockID.AIR && !isSameItem(placed, id, 0)) {
+            int placedCount = getItemCount(placed);
+            if (placedCount == -1) {
+                return -1;
+            }
+            count += placedCount;
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns whether an item is the same as the item with an ID and damage
+     * value, ignoring the damage value for items that don't use it.
+     *
+     * @param item
+     * @param id
+     * @param damage
+     * @return whether the items are the same
+     */
+    public static boolean isSameItem(BaseItem item, int id, int damage) {
+        return item.getType() == id && (!ItemType.usesDamageValue(id) || item.getData() == damage);
+    }
+
+    private static int getPlacement(int id) {
+        switch (id) {
+        case BlockID.BEDROCK:
+        case BlockID.GOLD_ORE:
+        case BlockID.IRON_ORE:
+        case BlockID.COAL_ORE:
+        case BlockID.DIAMOND_ORE:
+        case BlockID.TNT:
+        case BlockID.MOB_SPAWNER:
+        case BlockID.CROPS:
+        case BlockID.REDSTONE_ORE:
+        case BlockID.GLOWING_REDSTONE_ORE:
+        case BlockID.SNOW:
+        case BlockID.LIGHTSTONE:
+        case BlockID.PORTAL:
+            return UNPLACEABLE;
+
+        case BlockID.WATER:
+        case BlockID.STATIONARY_WATER:
+        case BlockID.LAVA:
+        case BlockID.STATIONARY_LAVA:
+            // Override liquids
+            return FREE;
+
+        default:
+            return FETCHED;
+        }
+    }
+
     /**
      * Get a block.
      *
@@ -178,6 +248,17 @@ public boolean peekBlock(int id) {
         }
     }
 
+    /**
+     * Get the number of an item in the bag, without removing any. Bags that
+     * can't tell return -1, as do bags with an unlimited number of the item.
+     *
+     * @param item
+     * @return the number of items, or -1
+     */
+    public int getItemCount(BaseItem item) {
+        return -1;
+    }
+
     /**
      * Flush any changes. This is called at the end.
      */
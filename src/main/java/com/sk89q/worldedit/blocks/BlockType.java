@@ -257,6 +257,9 @@ public enum BlockType {
      * @return
      */
     public static BlockType fromID(int id) {
+        if (id >= 0 && id <= MAX_TABLE_ID) {
+            return idTable[id];
+        }
         return ids.get(id);
     }
 
@@ -421,7 +424,7 @@ public String getName() {
      * @return
      */
     public static boolean shouldPlaceLast(int id) {
-        return shouldPlaceLast.contains(id);
+        return hasProperty(id, SHOULD_PLACE_LAST, shouldPlaceLast);
     }
 
     /**
@@ -430,7 +433,7 @@ public static boolean shouldPlaceLast(int id) {
      * @return
      */
     public boolean shouldPlaceLast() {
-        return shouldPlaceLast.contains(id);
+        return hasProperty(id, SHOULD_PLACE_LAST, shouldPlaceLast);
     }
 
     /**
@@ -458,7 +461,7 @@ public boolean shouldPlaceLast() {
      * @return
      */
     public static boolean shouldPlaceFinal(int id) {
-        return shouldPlaceFinal.contains(id);
+        return hasProperty(id, SHOULD_PLACE_FINAL, shouldPlaceFinal);
     }
 
     /**
@@ -526,7 +529,7 @@ public static boolean shouldPlaceFinal(int id) {
      * @return
      */
     public static boolean canPassThrough(int id) {
-        return canPassThrough.contains(id);
+        return hasProperty(id, CAN_PASS_THROUGH, canPassThrough);
     }
 
     /**
@@ -537,7 +540,7 @@ public static boolean canPassThrough(int id) {
      * @return
      */
     public static boolean canPassThrough(int id, int data) {
-        return canPassThrough.contains(-16*id-data) || canPassThrough.contains(id);
+        return hasDataProperty(id, data, DATA_CAN_PASS_THROUGH, canPassThrough);
     }
 
     /**
@@ -556,7 +559,7 @@ public static boolean canPassThrough(Block block) {
      * @return
      */
     public boolean canPassThrough() {
-        return canPassThrough.contains(id);
+        return hasProperty(id, CAN_PASS_THROUGH, canPassThrough);
     }
 
     /**
@@ -776,7 +779,7 @@ public double centralTopLimit() {
      * @return
      */
     public static boolean usesData(int id) {
-        return usesData.contains(id);
+        return hasProperty(id, USES_DATA, usesData);
     }
 
     /**
@@ -785,7 +788,7 @@ public static boolean usesData(int id) {
      * @return
      */
     public boolean usesData() {
-        return usesData.contains(id);
+        return hasProperty(id, USES_DATA, usesData);
     }
 
     /**
@@ -811,7 +814,7 @@ public boolean usesData() {
      * @return
      */
     public static boolean isContainerBlock(int id) {
-        return isContainerBlock.contains(id);
+        return hasProperty(id, IS_CONTAINER_BLOCK, isContainerBlock);
     }
 
     /**
@@ -820,7 +823,7 @@ public static boolean isContainerBlock(int id) {
      * @return
      */
     public boolean isContainerBlock() {
-        return isContainerBlock.contains(id);
+        return hasProperty(id, IS_CONTAINER_BLOCK, isContainerBlock);
     }
 
     /**
@@ -868,7 +871,7 @@ public boolean isContainerBlock() {
      * @return
      */
     public static boolean isRedstoneBlock(int id) {
-        return isRedstoneBlock.contains(id);
+        return hasProperty(id, IS_REDSTONE_BLOCK, isRedstoneBlock);
     }
 
     /**
@@ -877,7 +880,7 @@ public static boolean isRedstoneBlock(int id) {
      * @return
      */
     public boolean isRedstoneBlock() {
-        return isRedstoneBlock.contains(id);
+        return hasProperty(id, IS_REDSTONE_BLOCK, isRedstoneBlock);
     }
 
     /**
@@ -902,7 +905,7 @@ public boolean isRedstoneBlock() {
      * @return
      */
     public static boolean canTransferRedstone(int id) {
-        return canTransferRedstone.contains(id);
+        return hasProperty(id, CAN_TRANSFER_REDSTONE, canTransferRedstone);
     }
 
     /**
@@ -912,7 +915,7 @@ public static boolean canTransferRedstone(int id) {
      * @return
      */
     public boolean canTransferRedstone() {
-        return canTransferRedstone.contains(id);
+        return hasProperty(id, CAN_TRANSFER_REDSTONE, canTransferRedstone);
     }
 
     /**
@@ -942,7 +945,7 @@ public boolean canTransferRedstone() {
      * @return
      */
     public static boolean isRedstoneSource(int id) {
-        return isRedstoneSource.contains(id);
+        return hasProperty(id, IS_REDSTONE_SOURCE, isRedstoneSource);
     }
 
     /**
@@ -951,7 +954,7 @@ public static boolean isRedstoneSource(int id) {
      * @return
      */
     public boolean isRedstoneSource() {
-        return isRedstoneSource.contains(id);
+        return hasProperty(id, IS_REDSTONE_SOURCE, isRedstoneSource);
     }
 
     /**
@@ -972,7 +975,7 @@ public boolean isRedstoneSource() {
      * @return
      */
     public static boolean isRailBlock(int id) {
-        return isRailBlock.contains(id);
+        return hasProperty(id, IS_RAIL_BLOCK, isRailBlock);
     }
 
     /**
@@ -981,7 +984,7 @@ public static boolean isRailBlock(int id) {
      * @return
      */
     public boolean isRailBlock() {
-        return isRailBlock.contains(id);
+        return hasProperty(id, IS_RAIL_BLOCK, isRailBlock);
     }
 
     /**
@@ -1027,7 +1030,7 @@ public boolean isRailBlock() {
      */
     @Deprecated
     public static boolean isNaturalTerrainBlock(int id) {
-        return isNaturalTerrainBlock.contains(id);
+        return hasProperty(id, IS_NATURAL_TERRAIN_BLOCK, isNaturalTerrainBlock);
     }
 
     /**
@@ -1038,7 +1041,7 @@ public static boolean isNaturalTerrainBlock(int id) {
      * @return true if the block type is naturally occuring
      */
     public static boolean isNaturalTerrainBlock(int id, int data) {
-        return isNaturalTerrainBlock.contains(-16*id-data) || isNaturalTerrainBlock.contains(id);
+        return hasDataProperty(id, data, DATA_IS_NATURAL_TERRAIN_BLOCK, isNaturalTerrainBlock);
     }
 
     /**
@@ -1057,7 +1060,7 @@ public static boolean isNaturalTerrainBlock(Block block) {
      * @return true if the block type is naturally occuring
      */
     public boolean isNaturalTerrainBlock() {
-        return isNaturalTerrainBlock.contains(id);
+        return hasProperty(id, IS_NATURAL_TERRAIN_BLOCK, isNaturalTerrainBlock);
     }
 
     /**
@@ -1094,7 +1097,7 @@ public boolean isNaturalTerrainBlock() {
      * @return
      */
     public static boolean emitsLight(int id) {
-        return emitsLight.contains(id);
+        return hasProperty(id, EMITS_LIGHT, emitsLight);
     }
 
     /**
@@ -1204,7 +1207,7 @@ public static boolean emitsLight(int id) {
      * @return
      */
     public static boolean isTranslucent(int id) {
-        return isTranslucent.contains(id);
+        return hasProperty(id, IS_TRANSLUCENT, isTranslucent);
     }
 
     /**
@@ -1771,6 +1774,11 @@ public static BaseItemStack getBlockDrop(int id, short data) {
      * @return direction to block B
      */
     public static PlayerDirection getAttachment(int type, int data) {
+        if (type >= 0 && type <= MAX_TABLE_ID) {
+            final int direction = attachmentTable[typeDataKey(type, data)];
+            return direction == 0 ? null : directions[direction - 1];
+        }
+
         PlayerDirection direction = nonDataAttachments.get(type);
         if (direction != null) return direction;
 
@@ -1787,4 +1795,94 @@ private static void addCardinals(int type, int west, int north, int east, int so
         dataAttachments.put(typeDataKey(type, east), PlayerDirection.EAST);
         dataAttachments.put(typeDataKey(type, south), PlayerDirection.SOUTH);
     }
+
+    /*
+     * The sets and maps above compiled into flat tables indexed by ID, or by
+     * ID and data value, so the checks made for every block placed don't box
+     * the ID. IDs outside of the tables use the sets and maps directly.
+     */
+    private static final int MAX_TABLE_ID = 4095;
+
+    private static final int SHOULD_PLACE_LAST = 1 << 0;
+    private static final int SHOULD_PLACE_FINAL = 1 << 1;
+    private static final int CAN_PASS_THROUGH = 1 << 2;
+    private static final int USES_DATA = 1 << 3;
+    private static final int IS_CONTAINER_BLOCK = 1 << 4;
+    private static final int IS_REDSTONE_BLOCK = 1 << 5;
+    private static final int CAN_TRANSFER_REDSTONE = 1 << 6;
+    private static final int IS_REDSTONE_SOURCE = 1 << 7;
+    private static final int IS_RAIL_BLOCK = 1 << 8;
+    private static final int IS_NATURAL_TERRAIN_BLOCK = 1 << 9;
+    private static final int EMITS_LIGHT = 1 << 10;
+    private static final int IS_TRANSLUCENT = 1 << 11;
+
+    private static final int DATA_CAN_PASS_THROUGH = 1 << 0;
+    private static final int DATA_IS_NATURAL_TERRAIN_BLOCK = 1 << 1;
+
+    private static final short[] propertyTable = new short[MAX_TABLE_ID + 1];
+    private static final byte[] dataPropertyTable = new byte[(MAX_TABLE_ID + 1) << 4];
+    private static final byte[] attachmentTable = new byte[(MAX_TABLE_ID + 1) << 4];
+    private static final PlayerDirection[] directions = PlayerDirection.values();
+    private static final BlockType[] idTable = new BlockType[MAX_TABLE_ID + 1];
+
+    static {
+        for (BlockType type : EnumSet.allOf(BlockType.class)) {
+            if (type.id >= 0 && type.id <= MAX_TABLE_ID) {
+                idTable[type.id] = type;
+            }
+        }
+
+        for (int id = 0; id <= MAX_TABLE_ID; ++id) {
+            addProperty(id, SHOULD_PLACE_LAST, shouldPlaceLast);
+            addProperty(id, SHOULD_PLACE_FINAL, shouldPlaceFinal);
+            addProperty(id, CAN_PASS_THROUGH, canPassThrough);
+            addProperty(id, USES_DATA, usesData);
+            addProperty(id, IS_CONTAINER_BLOCK, isContainerBlock);
+            addProperty(id, IS_REDSTONE_BLOCK, isRedstoneBlock);
+            addProperty(id, CAN_TRANSFER_REDSTONE, canTransferRedstone);
+            addProperty(id, IS_REDSTONE_SOURCE, isRedstoneSource);
+            addProperty(id, IS_RAIL_BLOCK, isRailBlock);
+            addProperty(id, IS_NATURAL_TERRAIN_BLOCK, isNaturalTerrainBlock);
+            addProperty(id, EMITS_LIGHT, emitsLight);
+            addProperty(id, IS_TRANSLUCENT, isTranslucent);
+
+            for (int data = 0; data < 16; ++data) {
+                final int key = typeDataKey(id, data);
+                if (canPassThrough.contains(-16*id-data) || canPassThrough.contains(id)) {
+                    dataPropertyTable[key] |= DATA_CAN_PASS_THROUGH;
+                }
+                if (isNaturalTerrainBlock.contains(-16*id-data) || isNaturalTerrainBlock.contains(id)) {
+                    dataPropertyTable[key] |= DATA_IS_NATURAL_TERRAIN_BLOCK;
+                }
+
+                PlayerDirection direction = nonDataAttachments.get(id);
+                if (direction == null) {
+                    direction = dataAttachments.get(key);
+                }
+                if (direction != null) {
+                    attachmentTable[key] = (byte) (direction.ordinal() + 1);
+                }
+            }
+        }
+    }
+
+    private static void addProperty(int id, int property, Set<Integer> set) {
+        if (set.contains(id)) {
+            propertyTable[id] |= property;
+        }
+    }
+
+    private static boolean hasProperty(int id, int property, Set<Integer> set) {
+        if (id >= 0 && id <= MAX_TABLE_ID) {
+            return (propertyTable[id] & property) != 0;
+        }
+        return set.contains(id);
+    }
+
+    private static boolean hasDataProperty(int id, int data, int property, Set<Integer> set) {
+        if (id >= 0 && id <= MAX_TABLE_ID && data >= 0 && data < 16) {
+            return (dataPropertyTable[typeDataKey(id, data)] & property) != 0;
+        }
+        return set.contains(-16*id-data) || set.contains(id);
+    }
 }
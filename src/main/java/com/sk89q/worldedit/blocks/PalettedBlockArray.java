@@ -0,0 +1,520 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.blocks;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A fixed number of block cells stored as indices into a palette of
+ * type/data pairs.
+ * </p>
+ * Indices are kept in a byte array while the palette has at most 255
+ * entries and are widened to chars and then ints as it grows. Index 0 is
+ * reserved for empty cells. Blocks that carry state beyond their type and
+ * data, such as signs or blocks with NBT data, are additionally kept as
+ * objects in a sparse map by cell.
+ */
+public class PalettedBlockArray {
+
+    private static final int EMPTY = 0;
+
+    private final int volume;
+    private byte[] byteIndices;
+    private char[] charIndices;
+    private int[] intIndices;
+
+    private int[] palette = new int[16];
+    private int paletteSize = 1;
+    private int[] lookupKeys = new int[32];
+    private int[] lookupValues = new int[32];
+    private boolean lookupDirty = false;
+    private int lastKey = -1;
+    private int lastIndex = EMPTY;
+
+    private Map<Integer, BaseBlock> tileBlocks;
+
+    /**
+     * Construct an array of empty cells.
+     *
+     * @param volume the number of cells
+     */
+    public PalettedBlockArray(int volume) {
+        if (volume < 0) {
+            throw new IllegalArgumentException("Negative volume: " + volume);
+        }
+        this.volume = volume;
+        byteIndices = new byte[volume];
+    }
+
+    /**
+     * Construct an array of empty cells that starts out with the palette and
+     * index width of another array.
+     *
+     * @param volume the number of cells
+     * @param other the array to take the palette from
+     */
+    public PalettedBlockArray(int volume, PalettedBlockArray other) {
+        this.volume = volume;
+        if (other.intIndices != null) {
+            intIndices = new int[volume];
+        } else if (other.charIndices != null) {
+            charIndices = new char[volume];
+        } else {
+            byteIndices = new byte[volume];
+        }
+        palette = other.palette.clone();
+        paletteSize = other.paletteSize;
+        lookupKeys = other.lookupKeys.clone();
+        lookupValues = other.lookupValues.clone();
+        lookupDirty = other.lookupDirty;
+    }
+
+    /**
+     * Get the number of cells.
+     *
+     * @return the number of cells
+     */
+    public int getVolume() {
+        return volume;
+    }
+
+    /**
+     * Get the number of palette entries, including the empty entry 0.
+     *
+     * @return the palette size
+     */
+    public int getPaletteSize() {
+        return paletteSize;
+    }
+
+    /**
+     * Get the block type of a palette entry.
+     *
+     * @param index the palette index, greater than 0
+     * @return the block type
+     */
+    public int getPaletteType(int index) {
+        return palette[index] >>> 16;
+    }
+
+    /**
+     * Get the data value of a palette entry.
+     *
+     * @param index the palette index, greater than 0
+     * @return the data value
+     */
+    public int getPaletteData(int index) {
+        return (short) palette[index];
+    }
+
+    /**
+     * Change the data value of a palette entry. Every cell using the entry
+     * changes with it.
+     *
+     * @param index the palette index, greater than 0
+     * @param data the new data value
+     */
+    public void setPaletteData(int index, int data) {
+        palette[index] = key(getPaletteType(index), data);
+        lookupDirty = true;
+    }
+
+    /**
+     * Get the palette index for a type and data value, adding it to the
+     * palette if needed.
+     *
+     * @param type the block type
+     * @param data the data value
+     * @return the palette index
+     */
+    public int getPaletteIndex(int type, int data) {
+        if (lookupDirty) {
+            rebuildLookup();
+        }
+
+        final int key = key(type, data);
+        if (key == lastKey) {
+            return lastIndex;
+        }
+
+        final int mask = lookupKeys.length - 1;
+        int slot = mix(key) & mask;
+        while (lookupValues[slot] != EMPTY) {
+            if (lookupKeys[slot] == key) {
+                lastKey = key;
+                lastIndex = lookupValues[slot];
+                return lastIndex;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (paletteSize == palette.length) {
+            palette = Arrays.copyOf(palette, palette.length * 2);
+        }
+        final int index = paletteSize++;
+        palette[index] = key;
+        lookupKeys[slot] = key;
+        lookupValues[slot] = index;
+        if (paletteSize * 2 > lookupKeys.length) {
+            lookupKeys = new int[lookupKeys.length * 2];
+            lookupValues = new int[lookupValues.length * 2];
+            rebuildLookup();
+        }
+
+        lastKey = key;
+        lastIndex = index;
+        return index;
+    }
+
+    /**
+     * Get the palette index of a cell.
+     *
+     * @param cell the cell
+     * @return the palette index, or 0 if the cell is empty
+     */
+    public int getIndex(int cell) {
+        if (byteIndices != null) {
+            return byteIndices[cell] & 0xFF;
+        } else if (charIndices != null) {
+            return charIndices[cell];
+        } else {
+            return intIndices[cell];
+        }
+    }
+
+    /**
+     * Set the palette index of a cell. Any block object stored for the cell
+     * is dropped.
+     *
+     * @param cell the cell
+     * @param index the palette index, or 0 to empty the cell
+     */
+    public void setIndex(int cell, int index) {
+        if (tileBlocks != null) {
+            tileBlocks.remove(cell);
+        }
+        setRawIndex(cell, index);
+    }
+
+    /**
+     * Returns whether a cell is empty.
+     *
+     * @param cell the cell
+     * @return true if the cell is empty
+     */
+    public boolean isEmpty(int cell) {
+        return getIndex(cell) == EMPTY;
+    }
+
+    /**
+     * Get the block type of a cell.
+     *
+     * @param cell the cell
+     * @return the block type, or 0 if the cell is empty
+     */
+    public int getType(int cell) {
+        return palette[getIndex(cell)] >>> 16;
+    }
+
+    /**
+     * Get the data value of a cell.
+     *
+     * @param cell the cell
+     * @return the data value, or 0 if the cell is empty
+     */
+    public int getData(int cell) {
+        return (short) palette[getIndex(cell)];
+    }
+
+    /**
+     * Returns whether a cell has a block object with extra state.
+     *
+     * @param cell the cell
+     * @return true if a block object is stored
+     */
+    public boolean hasTileBlock(int cell) {
+        return tileBlocks != null && tileBlocks.containsKey(cell);
+    }
+
+    /**
+     * Get the block object stored for a cell.
+     *
+     * @param cell the cell
+     * @return the block, or null if none is stored
+     */
+    public BaseBlock getTileBlock(int cell) {
+        return tileBlocks == null ? null : tileBlocks.get(cell);
+    }
+
+    /**
+     * Get the cells that have block objects stored, mapped to the blocks.
+     *
+     * @return a map of cells to blocks, which should not be modified
+     */
+    public Map<Integer, BaseBlock> getTileBlocks() {
+        if (tileBlocks == null) {
+            tileBlocks = new HashMap<Integer, BaseBlock>();
+        }
+        return tileBlocks;
+    }
+
+    /**
+     * Get the block of a cell. A new block is created unless the cell has a
+     * stored block object, so changes to the returned block are not stored;
+     * use {@link #set(int, BaseBlock)} for that.
+     *
+     * @param cell the cell
+     * @return the block, or null if the cell is empty
+     */
+    public BaseBlock get(int cell) {
+        final int index = getIndex(cell);
+        if (index == EMPTY) {
+            return null;
+        }
+        if (tileBlocks != null) {
+            final BaseBlock block = tileBlocks.get(cell);
+            if (block != null) {
+                return block;
+            }
+        }
+        return new BaseBlock(palette[index] >>> 16, (short) palette[index]);
+    }
+
+    /**
+     * Set the block of a cell. Blocks that only consist of a type and data
+     * value are not kept.
+     *
+     * @param cell the cell
+     * @param block the block, or null to empty the cell
+     */
+    public void set(int cell, BaseBlock block) {
+        if (block == null) {
+            setIndex(cell, EMPTY);
+            return;
+        }
+
+        setRawIndex(cell, getPaletteIndex(block.getType(), block.getData()));
+        if (block.getClass() != BaseBlock.class || block.getNbtData() != null) {
+            getTileBlocks().put(cell, block);
+        } else if (tileBlocks != null) {
+            tileBlocks.remove(cell);
+        }
+    }
+
+    /**
+     * Set the type and data value of a cell.
+     *
+     * @param cell the cell
+     * @param type the block type
+     * @param data the data value
+     */
+    public void set(int cell, int type, int data) {
+        setIndex(cell, getPaletteIndex(type, data));
+    }
+
+    /**
+     * Copy a cell from another array with the same palette, such as one
+     * constructed with {@link #PalettedBlockArray(int, PalettedBlockArray)}.
+     *
+     * @param source the array to copy from
+     * @param sourceCell the cell to copy
+     * @param cell the cell to copy to
+     */
+    public void copyCell(PalettedBlockArray source, int sourceCell, int cell) {
+        setRawIndex(cell, source.getIndex(sourceCell));
+        if (source.tileBlocks != null) {
+            final BaseBlock block = source.tileBlocks.get(sourceCell);
+            if (block != null) {
+                getTileBlocks().put(cell, block);
+                return;
+            }
+        }
+        if (tileBlocks != null) {
+            tileBlocks.remove(cell);
+        }
+    }
+
+    /**
+     * Swap the contents of two cells.
+     *
+     * @param cell1 the first cell
+     * @param cell2 the second cell
+     */
+    public void swap(int cell1, int cell2) {
+        final int index1 = getIndex(cell1);
+        setRawIndex(cell1, getIndex(cell2));
+        setRawIndex(cell2, index1);
+
+        if (tileBlocks != null && !tileBlocks.isEmpty()) {
+            final BaseBlock block1 = tileBlocks.remove(cell1);
+            final BaseBlock block2 = tileBlocks.remove(cell2);
+            if (block2 != null) {
+                tileBlocks.put(cell1, block2);
+            }
+            if (block1 != null) {
+                tileBlocks.put(cell2, block1);
+            }
+        }
+    }
+
+    /**
+     * Drop the palette entries that no cell uses, merge entries with the
+     * same type and data value, and narrow the indices if the remaining
+     * palette allows it. Entries are renumbered, so palette indices
+     * obtained before are no longer valid.
+     */
+    public void compact() {
+        final int[] remap = new int[paletteSize];
+        for (int cell = 0; cell < volume; ++cell) {
+            remap[getIndex(cell)] = -1;
+        }
+
+        final Map<Integer, Integer> newIndices = new HashMap<Integer, Integer>();
+        final int[] newPalette = new int[paletteSize];
+        int newSize = 1;
+        for (int index = 1; index < paletteSize; ++index) {
+            if (remap[index] == 0) {
+                continue;
+            }
+            final Integer existing = newIndices.get(palette[index]);
+            if (existing != null) {
+                remap[index] = existing;
+            } else {
+                newPalette[newSize] = palette[index];
+                newIndices.put(palette[index], newSize);
+                remap[index] = newSize++;
+            }
+        }
+        remap[EMPTY] = EMPTY;
+
+        if (newSize == paletteSize) {
+            return;
+        }
+
+        if (newSize - 1 <= 0xFF) {
+            final byte[] indices = new byte[volume];
+            for (int cell = 0; cell < volume; ++cell) {
+                indices[cell] = (byte) remap[getIndex(cell)];
+            }
+            byteIndices = indices;
+            charIndices = null;
+            intIndices = null;
+        } else if (newSize - 1 <= 0xFFFF) {
+            final char[] indices = new char[volume];
+            for (int cell = 0; cell < volume; ++cell) {
+                indices[cell] = (char) remap[getIndex(cell)];
+            }
+            byteIndices = null;
+            charIndices = indices;
+            intIndices = null;
+        } else {
+            for (int cell = 0; cell < volume; ++cell) {
+                intIndices[cell] = remap[intIndices[cell]];
+            }
+        }
+
+        palette = Arrays.copyOf(newPalette, Math.max(16, newSize));
+        paletteSize = newSize;
+        int lookupSize = 32;
+        while (paletteSize * 2 > lookupSize) {
+            lookupSize *= 2;
+        }
+        lookupKeys = new int[lookupSize];
+        lookupValues = new int[lookupSize];
+        rebuildLookup();
+    }
+
+    /**
+     * Get the approximate number of bytes used by the indices and palette.
+     *
+     * @return bytes used
+     */
+    public long getMemoryUsage() {
+        final long indexBytes;
+        if (byteIndices != null) {
+            indexBytes = volume;
+        } else if (charIndices != null) {
+            indexBytes = volume * 2L;
+        } else {
+            indexBytes = volume * 4L;
+        }
+        return indexBytes + palette.length * 4L + lookupKeys.length * 8L;
+    }
+
+    private void setRawIndex(int cell, int index) {
+        if (byteIndices != null) {
+            if (index <= 0xFF) {
+                byteIndices[cell] = (byte) index;
+                return;
+            }
+            charIndices = new char[volume];
+            for (int i = 0; i < volume; ++i) {
+                charIndices[i] = (char) (byteIndices[i] & 0xFF);
+            }
+            byteIndices = null;
+        }
+
+        if (charIndices != null) {
+            if (index <= 0xFFFF) {
+                charIndices[cell] = (char) index;
+                return;
+            }
+            intIndices = new int[volume];
+            for (int i = 0; i < volume; ++i) {
+                intIndices[i] = charIndices[i];
+            }
+            charIndices = null;
+        }
+
+        intIndices[cell] = index;
+    }
+
+    private void rebuildLookup() {
+        Arrays.fill(lookupValues, EMPTY);
+        final int mask = lookupKeys.length - 1;
+        for (int index = 1; index < paletteSize; ++index) {
+            final int key = palette[index];
+            int slot = mix(key) & mask;
+            while (lookupValues[slot] != EMPTY) {
+                if (lookupKeys[slot] == key) {
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (lookupValues[slot] == EMPTY) {
+                lookupKeys[slot] = key;
+                lookupValues[slot] = index;
+            }
+        }
+        lookupDirty = false;
+        lastKey = -1;
+    }
+
+    private static int key(int type, int data) {
+        return type << 16 | (data & 0xFFFF);
+    }
+
+    private static int mix(int key) {
+        final int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -19,6 +19,11 @@
 
 package com.sk89q.worldedit.bukkit;
 
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
 import com.sk89q.worldedit.WorldVector;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
@@ -37,6 +42,14 @@ public class BukkitPlayerBlockBag extends BlockBag {
      * The player's inventory;
      */
     private ItemStack[] items;
+    /**
+     * The slots holding each kind of item, in order, by {@link #key(int, int)}.
+     */
+    private Map<Integer, TreeSet<Integer>> slotsByItem;
+    /**
+     * The empty slots.
+     */
+    private BitSet freeSlots;
 
     /**
      * Construct the object.
@@ -48,12 +61,44 @@ public BukkitPlayerBlockBag(Player player) {
     }
 
     /**
-     * Loads inventory on first use.
+     * Loads inventory on first use, and indexes its slots by item.
      */
     private void loadInventory() {
         if (items == null) {
             items = player.getInventory().getContents();
+            slotsByItem = new HashMap<Integer, TreeSet<Integer>>();
+            freeSlots = new BitSet(items.length);
+
+            for (int slot = 0; slot < items.length; ++slot) {
+                final ItemStack bukkitItem = items[slot];
+                if (bukkitItem == null) {
+                    freeSlots.set(slot);
+                } else {
+                    getSlots(key(bukkitItem.getTypeId(), bukkitItem.getDurability())).add(slot);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the key of an item in the index. Items that don't use their
+     * damage value share a key whatever their damage value.
+     *
+     * @param id the item ID
+     * @param damage the damage value
+     * @return the key
+     */
+    private static int key(int id, int damage) {
+        return id << 17 | (ItemType.usesDamageValue(id) ? damage & 0xFFFF : 0x10000);
+    }
+
+    private TreeSet<Integer> getSlots(int key) {
+        TreeSet<Integer> slots = slotsByItem.get(key);
+        if (slots == null) {
+            slots = new TreeSet<Integer>();
+            slotsByItem.put(key, slots);
         }
+        return slots;
     }
 
     /**
@@ -76,7 +121,6 @@ public void fetchItem(BaseItem item) throws BlockBagException {
         final int damage = item.getData();
         int amount = (item instanceof BaseItemStack) ? ((BaseItemStack) item).getAmount() : 1;
         assert(amount == 1);
-        boolean usesDamageValue = ItemType.usesDamageValue(id);
 
         if (id == BlockID.AIR) {
             throw new IllegalArgumentException("Can't fetch air block");
@@ -84,44 +128,26 @@ public void fetchItem(BaseItem item) throws BlockBagException {
 
         loadInventory();
 
-        boolean found = false;
-
-        for (int slot = 0; slot < items.length; ++slot) {
-            ItemStack bukkitItem = items[slot];
-
-            if (bukkitItem == null) {
-                continue;
-            }
-
-            if (bukkitItem.getTypeId() != id) {
-                // Type id doesn't fit
-                continue;
-            }
-
-            if (usesDamageValue && bukkitItem.getDurability() != damage) {
-                // Damage value doesn't fit.
-                continue;
-            }
-
-            int currentAmount = bukkitItem.getAmount();
-            if (currentAmount < 0) {
-                // Unlimited
-                return;
-            }
+        final TreeSet<Integer> slots = slotsByItem.get(key(id, damage));
+        if (slots == null || slots.isEmpty()) {
+            throw new OutOfBlocksException();
+        }
 
-            if (currentAmount > 1) {
-                bukkitItem.setAmount(currentAmount - 1);
-                found = true;
-            } else {
-                items[slot] = null;
-                found = true;
-            }
+        final int slot = slots.first();
+        final ItemStack bukkitItem = items[slot];
 
-            break;
+        int currentAmount = bukkitItem.getAmount();
+        if (currentAmount < 0) {
+            // Unlimited
+            return;
         }
 
-        if (!found) {
-            throw new OutOfBlocksException();
+        if (currentAmount > 1) {
+            bukkitItem.setAmount(currentAmount - 1);
+        } else {
+            items[slot] = null;
+            slots.pollFirst();
+            freeSlots.set(slot);
         }
     }
 
@@ -136,7 +162,6 @@ public void storeItem(BaseItem item) throws BlockBagException {
         final int damage = item.getData();
         int amount = (item instanceof BaseItemStack) ? ((BaseItemStack) item).getAmount() : 1;
         assert(amount <= 64);
-        boolean usesDamageValue = ItemType.usesDamageValue(id);
 
         if (id == BlockID.AIR) {
             throw new IllegalArgumentException("Can't store air block");
@@ -144,31 +169,11 @@ public void storeItem(BaseItem item) throws BlockBagException {
 
         loadInventory();
 
-        int freeSlot = -1;
-
-        for (int slot = 0; slot < items.length; ++slot) {
+        // Merge into stacks of this item before using up a free slot
+        final TreeSet<Integer> slots = getSlots(key(id, damage));
+        for (int slot : slots) {
             ItemStack bukkitItem = items[slot];
 
-            if (bukkitItem == null) {
-                // Delay using up a free slot until we know there are no stacks
-                // of this item to merge into
-
-                if (freeSlot == -1) {
-                    freeSlot = slot;
-                }
-                continue;
-            }
-
-            if (bukkitItem.getTypeId() != id) {
-                // Type id doesn't fit
-                continue;
-            }
-
-            if (usesDamageValue && bukkitItem.getDurability() != damage) {
-                // Damage value doesn't fit.
-                continue;
-            }
-
             int currentAmount = bukkitItem.getAmount();
             if (currentAmount < 0) {
                 // Unlimited
@@ -189,14 +194,47 @@ public void storeItem(BaseItem item) throws BlockBagException {
             amount -= spaceLeft;
         }
 
+        final int freeSlot = freeSlots.nextSetBit(0);
         if (freeSlot > -1) {
-            items[freeSlot] = new ItemStack(id, amount);
+            if (ItemType.usesDamageValue(id)) {
+                items[freeSlot] = new ItemStack(id, amount, (short) damage);
+            } else {
+                items[freeSlot] = new ItemStack(id, amount);
+            }
+            freeSlots.clear(freeSlot);
+            slots.add(freeSlot);
             return;
         }
 
         throw new OutOfSpaceException(id);
     }
 
+    /**
+     * Get the number of an item in the inventory.
+     *
+     * @param item
+     * @return the number of items, or -1 if there is an unlimited stack of them
+     */
+    @Override
+    public int getItemCount(BaseItem item) {
+        loadInventory();
+
+        final TreeSet<Integer> slots = slotsByItem.get(key(item.getType(), item.getData()));
+        if (slots == null) {
+            return 0;
+        }
+
+        int count = 0;
+        for (int slot : slots) {
+            final int amount = items[slot].getAmount();
+            if (amount < 0) {
+                return -1;
+            }
+            count += amount;
+        }
+        return count;
+    }
+
     /**
      * Flush any changes. This is called at the end.
      */
@@ -205,6 +243,8 @@ public void flushChanges() {
         if (items != null) {
             player.getInventory().setContents(items);
             items = null;
+            slotsByItem = null;
+            freeSlots = null;
         }
     }
 
@@ -25,6 +25,7 @@
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -36,6 +37,8 @@
 import java.util.logging.Logger;
 
 import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
 import org.bukkit.Effect;
 import org.bukkit.Location;
 import org.bukkit.Material;
@@ -84,6 +87,7 @@
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.Vector2D;
 import com.sk89q.worldedit.WorldEdit;
+import com.sk89q.worldedit.WorldEditException;
 import com.sk89q.worldedit.blocks.BaseBlock;
 import com.sk89q.worldedit.blocks.BaseItemStack;
 import com.sk89q.worldedit.blocks.BlockID;
@@ -94,6 +98,7 @@
 import com.sk89q.worldedit.blocks.SignBlock;
 import com.sk89q.worldedit.blocks.SkullBlock;
 import com.sk89q.worldedit.bukkit.entity.BukkitEntity;
+import com.sk89q.worldedit.operation.Operation;
 import com.sk89q.worldedit.regions.Region;
 import com.sk89q.worldedit.util.TreeGenerator;
 
@@ -113,6 +118,8 @@ public class BukkitWorld extends LocalWorld {
     private static Method nmsValidBlockMethod;
     private static Method nmsGetMethod;
     private static Method nmsSetSafeMethod;
+    private static Method nmsSetBlocksMethod;
+    private static Method nmsSetLightingMethod;
 
     // copied from WG
     private static <T extends Enum<T>> T tryEnum(Class<T> enumType, String ... values) {
@@ -182,6 +189,10 @@ public BukkitWorld(World world) {
                     nmsGetMethod = nmsBlockType.getMethod("get", World.class, Vector.class, int.class, int.class);
                     nmsSetSafeMethod = nmsBlockType.getMethod("setSafely",
                             BukkitWorld.class, Vector.class, com.sk89q.worldedit.foundation.Block.class, boolean.class);
+                    nmsSetBlocksMethod = nmsBlockType.getMethod("setBlocks", BukkitWorld.class,
+                            int.class, int.class, int[].class, int.class, int[].class, byte[].class);
+                    nmsSetLightingMethod = nmsBlockType.getMethod("setLighting", BukkitWorld.class,
+                            int.class, int.class, int.class, byte[].class, byte[].class);
                     // phew
                     break;
                 }
@@ -199,6 +210,10 @@ public BukkitWorld(World world) {
                         nmsGetMethod = nmsBlockType.getMethod("get", World.class, Vector.class, int.class, int.class);
                         nmsSetSafeMethod = nmsBlockType.getMethod("setSafely",
                                 BukkitWorld.class, Vector.class, com.sk89q.worldedit.foundation.Block.class, boolean.class);
+                        nmsSetBlocksMethod = nmsBlockType.getMethod("setBlocks", BukkitWorld.class,
+                                int.class, int.class, int[].class, int.class, int[].class, byte[].class);
+                        nmsSetLightingMethod = nmsBlockType.getMethod("setLighting", BukkitWorld.class,
+                                int.class, int.class, int.class, byte[].class, byte[].class);
                         logger.info("[WorldEdit] Using inbuilt NmsBlock for this version.");
                     }
                 } catch (Throwable e) {
@@ -405,50 +420,25 @@ public void setBiome(Vector2D pt, BiomeType biome) {
      */
     @Override
     public boolean regenerate(Region region, EditSession editSession) {
-        BaseBlock[] history = new BaseBlock[16 * 16 * (getMaxY() + 1)];
-
-        for (Vector2D chunk : region.getChunks()) {
-            Vector min = new Vector(chunk.getBlockX() * 16, 0, chunk.getBlockZ() * 16);
-
-            // First save all the blocks inside
-            for (int x = 0; x < 16; ++x) {
-                for (int y = 0; y < (getMaxY() + 1); ++y) {
-                    for (int z = 0; z < 16; ++z) {
-                        Vector pt = min.add(x, y, z);
-                        int index = y * 16 * 16 + z * 16 + x;
-                        history[index] = editSession.getBlock(pt);
-                    }
-                }
-            }
-
+        Operation operation = createRegenerateOperation(region, editSession);
+        while (operation != null) {
             try {
-                world.regenerateChunk(chunk.getBlockX(), chunk.getBlockZ());
-            } catch (Throwable t) {
-                t.printStackTrace();
-            }
-
-            // Then restore
-            for (int x = 0; x < 16; ++x) {
-                for (int y = 0; y < (getMaxY() + 1); ++y) {
-                    for (int z = 0; z < 16; ++z) {
-                        Vector pt = min.add(x, y, z);
-                        int index = y * 16 * 16 + z * 16 + x;
-
-                        // We have to restore the block if it was outside
-                        if (!region.contains(pt)) {
-                            editSession.smartSetBlock(pt, history[index]);
-                        } else { // Otherwise fool with history
-                            editSession.rememberChange(pt, history[index],
-                                    editSession.rawGetBlock(pt));
-                        }
-                    }
-                }
+                operation = operation.resume();
+            } catch (WorldEditException e) {
+                logger.log(Level.WARNING, "WorldEdit: Failed to regenerate chunks", e);
+                operation.cancel();
+                return false;
             }
         }
 
         return true;
     }
 
+    @Override
+    public Operation createRegenerateOperation(Region region, EditSession editSession) {
+        return new ChunkRegenerator(world, region, editSession);
+    }
+
     /**
      * Attempts to accurately copy a BaseBlock's extra data to the world.
      *
@@ -1170,6 +1160,112 @@ public int getMaxY() {
         return world.getMaxHeight() - 1;
     }
 
+    @Override
+    public boolean copySections(int chunkX, int chunkZ, short[][] types, byte[][] data) {
+        // The snapshot copies the whole column, so it is taken once for all sections
+        final ChunkSnapshot snapshot = world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(false, false, false);
+        for (int sectionY = 0; sectionY < types.length; ++sectionY) {
+            final short[] sectionTypes = types[sectionY];
+            final byte[] sectionData = data[sectionY];
+            if (sectionTypes == null) {
+                continue;
+            }
+
+            if (snapshot.isSectionEmpty(sectionY)) {
+                Arrays.fill(sectionTypes, (short) 0);
+                Arrays.fill(sectionData, (byte) 0);
+                continue;
+            }
+
+            final int baseY = sectionY << 4;
+            int index = 0;
+            for (int y = baseY; y < baseY + 16; ++y) {
+                for (int z = 0; z < 16; ++z) {
+                    for (int x = 0; x < 16; ++x) {
+                        sectionTypes[index] = (short) snapshot.getBlockTypeId(x, y, z);
+                        sectionData[index] = (byte) snapshot.getBlockData(x, y, z);
+                        ++index;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean copyLighting(int chunkX, int chunkZ, short[] types, byte[] skyLight, byte[] blockLight) {
+        // Without NMS access the light couldn't be stored again
+        if (skipNmsSafeSet || nmsSetLightingMethod == null) {
+            return false;
+        }
+
+        final ChunkSnapshot snapshot = world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(false, false, false);
+        int index = 0;
+        for (int y = 0; y <= getMaxY(); ++y) {
+            final boolean empty = snapshot.isSectionEmpty(y >> 4);
+            for (int z = 0; z < 16; ++z) {
+                for (int x = 0; x < 16; ++x) {
+                    types[index] = empty ? 0 : (short) snapshot.getBlockTypeId(x, y, z);
+                    skyLight[index] = (byte) snapshot.getBlockSkyLight(x, y, z);
+                    blockLight[index] = (byte) snapshot.getBlockEmittedLight(x, y, z);
+                    ++index;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean setLighting(int chunkX, int chunkZ, int sectionY, byte[] skyLight, byte[] blockLight) {
+        if (skipNmsSafeSet || nmsSetLightingMethod == null) {
+            return false;
+        }
+
+        try {
+            return (Boolean) nmsSetLightingMethod.invoke(null, this, chunkX, chunkZ, sectionY, skyLight, blockLight);
+        } catch (Throwable t) {
+            logger.log(Level.WARNING, "WorldEdit: Failed to do NMS light update", t);
+            nmsSetLightingMethod = null;
+            return false;
+        }
+    }
+
+    @Override
+    public boolean hasSkyLight() {
+        return world.getEnvironment() != World.Environment.NETHER;
+    }
+
+    @Override
+    public int setBlocks(int chunkX, int chunkZ, int[] indices, int count, int[] types, byte[] data) {
+        int changed = -1;
+        if (!skipNmsSafeSet && nmsSetBlocksMethod != null) {
+            try {
+                changed = (Integer) nmsSetBlocksMethod.invoke(null, this, chunkX, chunkZ, indices, count, types, data);
+            } catch (Throwable t) {
+                logger.log(Level.WARNING, "WorldEdit: Failed to do NMS bulk block set", t);
+                nmsSetBlocksMethod = null;
+            }
+        }
+
+        // Either there's no NMS access or the NmsBlock can't set blocks in bulk
+        if (changed < 0) {
+            Chunk chunk = world.getChunkAt(chunkX, chunkZ);
+            changed = 0;
+            for (int i = 0; i < count; ++i) {
+                int index = indices[i];
+                Block block = chunk.getBlock(index & 0xF, index >> 8, (index >> 4) & 0xF);
+                if (block.setTypeIdAndData(types[index], data[index], false)) {
+                    ++changed;
+                }
+            }
+        }
+
+        if (changed > 0) {
+            world.refreshChunk(chunkX, chunkZ);
+        }
+        return changed;
+    }
+
     @Override
     public void fixAfterFastMode(Iterable<BlockVector2D> chunks) {
         for (BlockVector2D chunkPos : chunks) {
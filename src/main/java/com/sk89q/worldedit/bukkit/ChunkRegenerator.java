@@ -0,0 +1,224 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.bukkit;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+import org.bukkit.block.BlockState;
+
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.Vector2D;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.operation.Operation;
+import com.sk89q.worldedit.operation.ProgressiveOperation;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Region;
+
+/**
+ * Regenerates the chunks of a region, a batch of chunks per call to
+ * {@link #resume()}.
+ * </p>
+ * The blocks of each chunk are read from chunk snapshots into arrays of type
+ * IDs and data values before and after the chunk is regenerated. Blocks
+ * outside the region are only written back where regenerating changed them,
+ * and the blocks inside the region are added to the history of the edit
+ * session with one call per chunk. Only blocks with tile entities are read
+ * as {@link BaseBlock} objects.
+ */
+class ChunkRegenerator implements ProgressiveOperation {
+
+    private static final int CHUNKS_PER_RESUME = 16;
+
+    private final World world;
+    private final Region region;
+    private final EditSession editSession;
+    private final Iterator<Vector2D> chunks;
+    private final int chunkCount;
+    private int chunksDone = 0;
+    private final boolean cuboid;
+    private final int height;
+    private final Vector min;
+    private final Vector max;
+
+    private final int[] oldTypes;
+    private final byte[] oldData;
+    private final int[] newTypes;
+    private final byte[] newData;
+    private final int[] inside;
+    private final Map<Integer, BaseBlock> oldTileEntities = new HashMap<Integer, BaseBlock>();
+    private final Set<Integer> newTileEntities = new HashSet<Integer>();
+
+    ChunkRegenerator(World world, Region region, EditSession editSession) {
+        this.world = world;
+        this.region = region;
+        this.editSession = editSession;
+        Set<Vector2D> chunks = region.getChunks();
+        this.chunks = chunks.iterator();
+        this.chunkCount = chunks.size();
+        this.cuboid = region instanceof CuboidRegion;
+        this.height = world.getMaxHeight();
+        this.min = region.getMinimumPoint();
+        this.max = region.getMaximumPoint();
+
+        int volume = 16 * 16 * height;
+        oldTypes = new int[volume];
+        oldData = new byte[volume];
+        newTypes = new int[volume];
+        newData = new byte[volume];
+        inside = new int[volume];
+    }
+
+    @Override
+    public Operation resume() {
+        // The world may have changed since the last resume
+        editSession.clearReadCache();
+        for (int i = 0; i < CHUNKS_PER_RESUME && chunks.hasNext(); ++i) {
+            regenerate(chunks.next());
+            ++chunksDone;
+        }
+
+        return chunks.hasNext() ? this : null;
+    }
+
+    @Override
+    public double getProgress() {
+        return chunkCount == 0 ? 1 : (double) chunksDone / chunkCount;
+    }
+
+    @Override
+    public void cancel() {
+        // Chunks that were already regenerated stay in the history
+    }
+
+    private void regenerate(Vector2D position) {
+        final int chunkX = position.getBlockX();
+        final int chunkZ = position.getBlockZ();
+        final int baseX = chunkX << 4;
+        final int baseZ = chunkZ << 4;
+
+        // First save all the blocks inside
+        Chunk chunk = world.getChunkAt(chunkX, chunkZ);
+        read(chunk.getChunkSnapshot(), oldTypes, oldData);
+        oldTileEntities.clear();
+        for (BlockState state : chunk.getTileEntities()) {
+            Vector pt = new Vector(state.getX(), state.getY(), state.getZ());
+            oldTileEntities.put(index(state.getX() - baseX, state.getY(), state.getZ() - baseZ), editSession.getBlock(pt));
+        }
+
+        try {
+            world.regenerateChunk(chunkX, chunkZ);
+        } catch (Throwable t) {
+            t.printStackTrace();
+        }
+        editSession.clearReadCache();
+
+        chunk = world.getChunkAt(chunkX, chunkZ);
+        read(chunk.getChunkSnapshot(), newTypes, newData);
+        newTileEntities.clear();
+        for (BlockState state : chunk.getTileEntities()) {
+            newTileEntities.add(index(state.getX() - baseX, state.getY(), state.getZ() - baseZ));
+        }
+
+        // Then restore
+        int insideCount = 0;
+        for (int y = 0; y < height; ++y) {
+            for (int z = 0; z < 16; ++z) {
+                for (int x = 0; x < 16; ++x) {
+                    final int index = index(x, y, z);
+
+                    // We have to restore the block if it was outside
+                    if (!contains(baseX + x, y, baseZ + z)) {
+                        if (oldTypes[index] != newTypes[index] || oldData[index] != newData[index]
+                                || oldTileEntities.containsKey(index)) {
+                            editSession.smartSetBlock(new Vector(baseX + x, y, baseZ + z), getOldBlock(index));
+                        }
+                    } else if (oldTileEntities.containsKey(index) || newTileEntities.contains(index)) {
+                        // Otherwise fool with history
+                        Vector pt = new Vector(baseX + x, y, baseZ + z);
+                        editSession.rememberChange(pt, getOldBlock(index), editSession.rawGetBlock(pt));
+                    } else {
+                        inside[insideCount++] = index;
+                    }
+                }
+            }
+        }
+
+        editSession.rememberChanges(chunkX, chunkZ, inside, insideCount, oldTypes, oldData, newTypes, newData);
+    }
+
+    private boolean contains(int x, int y, int z) {
+        if (x < min.getBlockX() || x > max.getBlockX()
+                || y < min.getBlockY() || y > max.getBlockY()
+                || z < min.getBlockZ() || z > max.getBlockZ()) {
+            return false;
+        }
+
+        return cuboid || region.contains(new Vector(x, y, z));
+    }
+
+    private BaseBlock getOldBlock(int index) {
+        BaseBlock block = oldTileEntities.get(index);
+        return block != null ? block : new BaseBlock(oldTypes[index], oldData[index]);
+    }
+
+    /**
+     * Copy the blocks of a chunk snapshot into arrays. Empty sections are
+     * filled without reading the snapshot.
+     *
+     * @param snapshot the snapshot
+     * @param types receives the type IDs
+     * @param data receives the data values
+     */
+    private void read(ChunkSnapshot snapshot, int[] types, byte[] data) {
+        for (int sectionY = 0; sectionY < height >> 4; ++sectionY) {
+            final int start = sectionY << 12;
+            if (snapshot.isSectionEmpty(sectionY)) {
+                Arrays.fill(types, start, start + 4096, 0);
+                Arrays.fill(data, start, start + 4096, (byte) 0);
+                continue;
+            }
+
+            int index = start;
+            for (int y = sectionY << 4; y < (sectionY + 1) << 4; ++y) {
+                for (int z = 0; z < 16; ++z) {
+                    for (int x = 0; x < 16; ++x) {
+                        types[index] = snapshot.getBlockTypeId(x, y, z);
+                        data[index] = (byte) snapshot.getBlockData(x, y, z);
+                        ++index;
+                    }
+                }
+            }
+        }
+    }
+
+    private static int index(int x, int y, int z) {
+        return y << 8 | z << 4 | x;
+    }
+
+}
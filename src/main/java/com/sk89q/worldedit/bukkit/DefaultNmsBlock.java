@@ -26,6 +26,7 @@
 import java.util.Map;
 import java.util.logging.Logger;
 
+import net.minecraft.server.v1_7_R1.EnumSkyBlock;
 import net.minecraft.server.v1_7_R1.NBTBase;
 import net.minecraft.server.v1_7_R1.NBTTagByte;
 import net.minecraft.server.v1_7_R1.NBTTagByteArray;
@@ -269,6 +270,68 @@ public static boolean setSafely(BukkitWorld world, Vector position,
         return changed;
     }
 
+    /**
+     * Set blocks of a chunk column without physics, lighting checks of the
+     * neighbours or sending the changes to clients. The caller is expected
+     * to refresh the chunk afterwards.
+     *
+     * @param world world to set the blocks in
+     * @param chunkX the X coordinate of the chunk
+     * @param chunkZ the Z coordinate of the chunk
+     * @param indices the indices of the blocks, as <code>y &lt;&lt; 8 | z &lt;&lt; 4 | x</code>
+     * @param count the number of indices to use
+     * @param types the type IDs, by index
+     * @param data the data values, by index
+     * @return the number of blocks that changed
+     */
+    public static int setBlocks(BukkitWorld world, int chunkX, int chunkZ,
+            int[] indices, int count, int[] types, byte[] data) {
+        net.minecraft.server.v1_7_R1.World handle = ((CraftWorld) world.getWorld()).getHandle();
+        int baseX = chunkX << 4;
+        int baseZ = chunkZ << 4;
+        int changed = 0;
+
+        for (int i = 0; i < count; ++i) {
+            int index = indices[i];
+            if (handle.setTypeAndData(baseX + (index & 0xF), index >> 8, baseZ + ((index >> 4) & 0xF),
+                    getNmsBlock(types[index]), data[index], 0)) {
+                ++changed;
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Store the light levels of a section of a chunk column. Empty sections
+     * are left alone, as storing light in them would create them.
+     *
+     * @param world world to set the light in
+     * @param chunkX the X coordinate of the chunk
+     * @param chunkZ the Z coordinate of the chunk
+     * @param sectionY the index of the section
+     * @param skyLight the sky light levels of the column, as <code>y &lt;&lt; 8 | z &lt;&lt; 4 | x</code>
+     * @param blockLight the block light levels of the column
+     * @return true if the light was stored
+     */
+    public static boolean setLighting(BukkitWorld world, int chunkX, int chunkZ, int sectionY,
+            byte[] skyLight, byte[] blockLight) {
+        net.minecraft.server.v1_7_R1.Chunk chunk = ((CraftWorld) world.getWorld()).getHandle().getChunkAt(chunkX, chunkZ);
+        if (chunk.i()[sectionY] == null) {
+            return false;
+        }
+
+        int start = sectionY << 12;
+        for (int index = start; index < start + 4096; ++index) {
+            int x = index & 0xF;
+            int y = index >> 8;
+            int z = (index >> 4) & 0xF;
+            chunk.a(EnumSkyBlock.SKY, x, y, z, skyLight[index]);
+            chunk.a(EnumSkyBlock.BLOCK, x, y, z, blockLight[index]);
+        }
+        return true;
+    }
+
     public static boolean hasTileEntity(int type) {
         net.minecraft.server.v1_7_R1.Block nmsBlock = getNmsBlock(type);
         if (nmsBlock == null) {
@@ -32,6 +32,16 @@ public static boolean setSafely(World world, Vector vector, Block block, boolean
         return false;
     }
 
+    public static int setBlocks(BukkitWorld world, int chunkX, int chunkZ,
+            int[] indices, int count, int[] types, byte[] data) {
+        return -1;
+    }
+
+    public static boolean setLighting(BukkitWorld world, int chunkX, int chunkZ, int sectionY,
+            byte[] skyLight, byte[] blockLight) {
+        return false;
+    }
+
     public static boolean hasTileEntity(int type) {
         return false;
     }
@@ -160,6 +160,7 @@ private void copyNmsBlockClasses(File target) {
      */
     @Override
     public void onDisable() {
+        controller.getOperationQueue().completeAll();
         controller.clearSessions();
         for (Handler h : controller.commandLogger.getHandlers()) {
             h.close();
@@ -10,6 +10,7 @@
 import com.sk89q.minecraft.util.commands.CommandContext;
 import com.sk89q.minecraft.util.commands.CommandPermissions;
 import com.sk89q.minecraft.util.commands.Logging;
+import com.sk89q.worldedit.EditsWorld;
 import com.sk89q.worldedit.BiomeType;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.LocalPlayer;
@@ -133,6 +134,7 @@ public void biomeInfo(CommandContext args, LocalSession session, LocalPlayer pla
     )
     @Logging(REGION)
     @CommandPermissions("worldedit.biome.set")
+    @EditsWorld
     public void setBiome(CommandContext args, LocalSession session, LocalPlayer player,
                          EditSession editSession) throws WorldEditException {
 
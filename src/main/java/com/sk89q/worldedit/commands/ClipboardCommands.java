@@ -101,6 +101,7 @@ public void copy(CommandContext args, LocalSession session, LocalPlayer player,
     )
     @CommandPermissions("worldedit.clipboard.cut")
     @Logging(REGION)
+    @EditsWorld
     public void cut(CommandContext args, LocalSession session, LocalPlayer player,
                     EditSession editSession) throws WorldEditException {
 
@@ -155,6 +156,7 @@ public void cut(CommandContext args, LocalSession session, LocalPlayer player,
     )
     @CommandPermissions("worldedit.clipboard.paste")
     @Logging(PLACEMENT)
+    @EditsWorld
     public void paste(CommandContext args, LocalSession session, LocalPlayer player,
                       EditSession editSession) throws WorldEditException {
 
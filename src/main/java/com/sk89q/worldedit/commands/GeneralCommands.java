@@ -72,6 +72,22 @@ public void limit(CommandContext args, LocalSession session, LocalPlayer player,
         player.print("Лимит изменения блоков сменен на " + limit + ".");
     }
 
+    @Command(
+        aliases = { "/cancel" },
+        usage = "",
+        desc = "Отменяет выполняющиеся операции",
+        min = 0,
+        max = 0
+    )
+    @CommandPermissions("worldedit.cancel")
+    public void cancel(CommandContext args, LocalSession session, LocalPlayer player,
+            EditSession editSession) throws WorldEditException {
+
+        if (we.getOperationQueue().cancel(player.getName()) == 0) {
+            player.printError("Нет выполняющихся операций.");
+        }
+    }
+
     @Command(
         aliases = { "/fast" },
         usage = "[on|off]",
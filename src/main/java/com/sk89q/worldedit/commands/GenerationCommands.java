@@ -25,6 +25,7 @@
 import com.sk89q.minecraft.util.commands.Logging;
 import com.sk89q.worldedit.BiomeType;
 import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.EditsWorld;
 import com.sk89q.worldedit.LocalPlayer;
 import com.sk89q.worldedit.LocalSession;
 import com.sk89q.worldedit.Vector;
@@ -65,6 +66,7 @@ public GenerationCommands(WorldEdit we) {
     )
     @CommandPermissions("worldedit.generation.cylinder")
     @Logging(PLACEMENT)
+    @EditsWorld
     public void hcyl(CommandContext args, LocalSession session, LocalPlayer player,
                      EditSession editSession) throws WorldEditException {
 
@@ -110,6 +112,7 @@ public void hcyl(CommandContext args, LocalSession session, LocalPlayer player,
     )
     @CommandPermissions("worldedit.generation.cylinder")
     @Logging(PLACEMENT)
+    @EditsWorld
     public void cyl(CommandContext args, LocalSession session, LocalPlayer player,
                     EditSession editSession) throws WorldEditException {
 
@@ -155,6 +158,7 @@ public void cyl(CommandContext args, LocalSession session, LocalPlayer player,
     )
     @CommandPermissions("worldedit.generation.sphere")
     @Logging(PLACEMENT)
+    @EditsWorld
     public void hsphere(CommandContext args, LocalSession session, LocalPlayer player,
                         EditSession editSession) throws WorldEditException {
 
@@ -212,6 +216,7 @@ public void hsphere(CommandContext args, LocalSession session, LocalPlayer playe
     )
     @CommandPermissions("worldedit.generation.sphere")
     @Logging(PLACEMENT)
+    @EditsWorld
     public void sphere(CommandContext args, LocalSession session, LocalPlayer player,
                        EditSession editSession) throws WorldEditException {
 
@@ -265,6 +270,7 @@ public void sphere(CommandContext args, LocalSession session, LocalPlayer player
     @CommandPermissions("worldedit.generation.forest")
     @Logging(POSITION)
     @SuppressWarnings("deprecation")
+    @EditsWorld
     public void forestGen(CommandContext args, LocalSession session, LocalPlayer player,
                           EditSession editSession) throws WorldEditException {
 
@@ -293,6 +299,7 @@ public void forestGen(CommandContext args, LocalSession session, LocalPlayer pla
     )
     @CommandPermissions("worldedit.generation.pumpkins")
     @Logging(POSITION)
+    @EditsWorld
     public void pumpkins(CommandContext args, LocalSession session, LocalPlayer player,
                          EditSession editSession) throws WorldEditException {
 
@@ -311,6 +318,7 @@ public void pumpkins(CommandContext args, LocalSession session, LocalPlayer play
     )
     @CommandPermissions("worldedit.generation.pyramid")
     @Logging(PLACEMENT)
+    @EditsWorld
     public void pyramid(CommandContext args, LocalSession session, LocalPlayer player,
                         EditSession editSession) throws WorldEditException {
 
@@ -335,6 +343,7 @@ public void pyramid(CommandContext args, LocalSession session, LocalPlayer playe
     )
     @CommandPermissions("worldedit.generation.pyramid")
     @Logging(PLACEMENT)
+    @EditsWorld
     public void hpyramid(CommandContext args, LocalSession session, LocalPlayer player,
                          EditSession editSession) throws WorldEditException {
 
@@ -371,6 +380,7 @@ public void hpyramid(CommandContext args, LocalSession session, LocalPlayer play
     )
     @CommandPermissions("worldedit.generation.shape")
     @Logging(ALL)
+    @EditsWorld
     public void generate(CommandContext args, LocalSession session, LocalPlayer player,
                          EditSession editSession) throws WorldEditException {
 
@@ -438,6 +448,7 @@ public void generate(CommandContext args, LocalSession session, LocalPlayer play
     )
     @CommandPermissions({"worldedit.generation.shape", "worldedit.biome.set"})
     @Logging(ALL)
+    @EditsWorld
     public void generateBiome(CommandContext args, LocalSession session, LocalPlayer player,
             EditSession editSession) throws WorldEditException {
 
@@ -44,6 +44,7 @@ public HistoryCommands(WorldEdit we) {
         max = 2
     )
     @CommandPermissions("worldedit.history.undo")
+    @EditsWorld
     public void undo(CommandContext args, LocalSession session, LocalPlayer player,
             EditSession editSession) throws WorldEditException {
         
@@ -79,6 +80,7 @@ public void undo(CommandContext args, LocalSession session, LocalPlayer player,
         max = 2
     )
     @CommandPermissions("worldedit.history.redo")
+    @EditsWorld
     public void redo(CommandContext args, LocalSession session, LocalPlayer player,
             EditSession editSession) throws WorldEditException {
         
@@ -114,6 +116,7 @@ public void redo(CommandContext args, LocalSession session, LocalPlayer player,
         max = 0
     )
     @CommandPermissions("worldedit.history.clear")
+    @EditsWorld
     public void clearHistory(CommandContext args, LocalSession session, LocalPlayer player,
             EditSession editSession) throws WorldEditException {
 
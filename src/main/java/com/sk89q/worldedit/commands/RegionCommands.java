@@ -34,7 +34,9 @@
 import com.sk89q.worldedit.operation.GroundScatterFunction;
 import com.sk89q.worldedit.masks.Mask;
 import com.sk89q.worldedit.operation.FlatRegionApplicator;
+import com.sk89q.worldedit.operation.Operation;
 import com.sk89q.worldedit.operation.OperationHelper;
+import com.sk89q.worldedit.operation.OperationQueue;
 import com.sk89q.worldedit.patterns.Pattern;
 import com.sk89q.worldedit.patterns.SingleBlockPattern;
 import com.sk89q.worldedit.regions.*;
@@ -68,6 +70,7 @@ public RegionCommands(WorldEdit we) {
     )
     @CommandPermissions("worldedit.region.set")
     @Logging(REGION)
+    @EditsWorld
     public void set(CommandContext args, LocalSession session, LocalPlayer player,
                     EditSession editSession) throws WorldEditException {
 
@@ -99,6 +102,7 @@ public void set(CommandContext args, LocalSession session, LocalPlayer player,
     )
     @CommandPermissions("worldedit.region.line")
     @Logging(REGION)
+    @EditsWorld
     public void line(CommandContext args, LocalSession session, LocalPlayer player,
                      EditSession editSession) throws WorldEditException {
 
@@ -136,6 +140,7 @@ public void line(CommandContext args, LocalSession session, LocalPlayer player,
     )
     @CommandPermissions("worldedit.region.curve")
     @Logging(REGION)
+    @EditsWorld
     public void curve(CommandContext args, LocalSession session, LocalPlayer player,
                       EditSession editSession) throws WorldEditException {
 
@@ -168,6 +173,7 @@ public void curve(CommandContext args, LocalSession session, LocalPlayer player,
     )
     @CommandPermissions("worldedit.region.replace")
     @Logging(REGION)
+    @EditsWorld
     public void replace(CommandContext args, LocalSession session, LocalPlayer player,
                         EditSession editSession) throws WorldEditException {
 
@@ -200,6 +206,7 @@ public void replace(CommandContext args, LocalSession session, LocalPlayer playe
     )
     @CommandPermissions("worldedit.region.overlay")
     @Logging(REGION)
+    @EditsWorld
     public void overlay(CommandContext args, LocalSession session, LocalPlayer player,
                         EditSession editSession) throws WorldEditException {
 
@@ -225,6 +232,7 @@ public void overlay(CommandContext args, LocalSession session, LocalPlayer playe
     )
     @Logging(REGION)
     @CommandPermissions("worldedit.region.center")
+    @EditsWorld
     public void center(CommandContext args, LocalSession session, LocalPlayer player,
                        EditSession editSession) throws WorldEditException {
         Pattern pattern = we.getBlockPattern(player, args.getString(0));
@@ -243,6 +251,7 @@ public void center(CommandContext args, LocalSession session, LocalPlayer player
     )
     @CommandPermissions("worldedit.region.naturalize")
     @Logging(REGION)
+    @EditsWorld
     public void naturalize(CommandContext args, LocalSession session, LocalPlayer player,
                            EditSession editSession) throws WorldEditException {
 
@@ -260,6 +269,7 @@ public void naturalize(CommandContext args, LocalSession session, LocalPlayer pl
     )
     @CommandPermissions("worldedit.region.walls")
     @Logging(REGION)
+    @EditsWorld
     public void walls(CommandContext args, LocalSession session, LocalPlayer player,
                       EditSession editSession) throws WorldEditException {
 
@@ -286,6 +296,7 @@ public void walls(CommandContext args, LocalSession session, LocalPlayer player,
     )
     @CommandPermissions("worldedit.region.faces")
     @Logging(REGION)
+    @EditsWorld
     public void faces(CommandContext args, LocalSession session, LocalPlayer player,
                       EditSession editSession) throws WorldEditException {
 
@@ -316,6 +327,7 @@ public void faces(CommandContext args, LocalSession session, LocalPlayer player,
     )
     @CommandPermissions("worldedit.region.smooth")
     @Logging(REGION)
+    @EditsWorld
     public void smooth(CommandContext args, LocalSession session, LocalPlayer player,
                        EditSession editSession) throws WorldEditException {
 
@@ -345,6 +357,7 @@ public void smooth(CommandContext args, LocalSession session, LocalPlayer player
     )
     @CommandPermissions("worldedit.region.move")
     @Logging(ORIENTATION_REGION)
+    @EditsWorld
     public void move(CommandContext args, LocalSession session, LocalPlayer player,
                      EditSession editSession) throws WorldEditException {
 
@@ -393,6 +406,7 @@ public void move(CommandContext args, LocalSession session, LocalPlayer player,
     )
     @CommandPermissions("worldedit.region.stack")
     @Logging(ORIENTATION_REGION)
+    @EditsWorld
     public void stack(CommandContext args, LocalSession session, LocalPlayer player,
                       EditSession editSession) throws WorldEditException {
 
@@ -434,15 +448,48 @@ public void stack(CommandContext args, LocalSession session, LocalPlayer player,
     )
     @CommandPermissions("worldedit.regen")
     @Logging(REGION)
-    public void regenerateChunk(CommandContext args, LocalSession session, LocalPlayer player,
-                                EditSession editSession) throws WorldEditException {
+    @EditsWorld
+    public void regenerateChunk(CommandContext args, final LocalSession session, final LocalPlayer player,
+                                final EditSession editSession) throws WorldEditException {
 
         Region region = session.getSelection(player.getWorld());
         Mask mask = session.getMask();
         session.setMask(null);
-        player.getWorld().regenerate(region, editSession);
+        Operation operation = player.getWorld().createRegenerateOperation(region, editSession);
+        if (operation == null) {
+            player.getWorld().regenerate(region, editSession);
+            session.setMask(mask);
+            player.print("Регион регенерирован.");
+            return;
+        }
         session.setMask(mask);
-        player.print("Регион регенерирован.");
+
+        // The blocks queued outside the region are placed by the flush that follows
+        we.submitOperation(player, "//regen", operation, new WorldEdit.OperationListener(player) {
+            @Override
+            public void completed(OperationQueue.Job job) {
+                super.completed(job);
+                player.print("Регион регенерирован.");
+                finish();
+            }
+
+            @Override
+            public void cancelled(OperationQueue.Job job) {
+                super.cancelled(job);
+                finish();
+            }
+
+            @Override
+            public void failed(OperationQueue.Job job, Exception e) {
+                super.failed(job, e);
+                finish();
+            }
+
+            private void finish() {
+                // The chunks were regenerated after the command remembered the edit session
+                session.remember(editSession);
+            }
+        });
     }
 
     @Command(
@@ -460,6 +507,7 @@ public void regenerateChunk(CommandContext args, LocalSession session, LocalPlay
     )
     @CommandPermissions("worldedit.region.deform")
     @Logging(ALL)
+    @EditsWorld
     public void deform(CommandContext args, LocalSession session, LocalPlayer player,
                        EditSession editSession) throws WorldEditException {
 
@@ -510,6 +558,7 @@ public void deform(CommandContext args, LocalSession session, LocalPlayer player
     )
     @CommandPermissions("worldedit.region.hollow")
     @Logging(REGION)
+    @EditsWorld
     public void hollow(CommandContext args, LocalSession session, LocalPlayer player,
                        EditSession editSession) throws WorldEditException {
 
@@ -530,6 +579,7 @@ public void hollow(CommandContext args, LocalSession session, LocalPlayer player
     )
     @CommandPermissions("worldedit.region.forest")
     @Logging(REGION)
+    @EditsWorld
     public void forest(CommandContext args, LocalSession session, LocalPlayer player,
                        EditSession editSession) throws WorldEditException {
         TreeGenerator.TreeType type = args.argsLength() > 0 ? TreeGenerator.lookup(args.getString(0)) : TreeGenerator.TreeType.TREE;
@@ -566,6 +616,7 @@ public void forest(CommandContext args, LocalSession session, LocalPlayer player
     )
     @CommandPermissions("worldedit.region.flora")
     @Logging(REGION)
+    @EditsWorld
     public void flora(CommandContext args, LocalSession session, LocalPlayer player, EditSession editSession) throws WorldEditException {
         double density = args.argsLength() > 0 ? args.getDouble(0) / 100 : 0.1;
 
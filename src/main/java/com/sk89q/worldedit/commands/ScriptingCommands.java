@@ -48,6 +48,7 @@ public ScriptingCommands(WorldEdit we) {
     )
     @CommandPermissions("worldedit.scripting.execute")
     @Logging(ALL)
+    @EditsWorld
     public void execute(CommandContext args, LocalSession session, LocalPlayer player,
             EditSession editSession) throws WorldEditException {
 
@@ -76,6 +77,7 @@ public void execute(CommandContext args, LocalSession session, LocalPlayer playe
     )
     @CommandPermissions("worldedit.scripting.execute")
     @Logging(ALL)
+    @EditsWorld
     public void executeLast(CommandContext args, LocalSession session, LocalPlayer player,
             EditSession editSession) throws WorldEditException {
         
@@ -30,6 +30,7 @@
 import com.sk89q.minecraft.util.commands.CommandPermissions;
 import com.sk89q.minecraft.util.commands.Logging;
 import com.sk89q.minecraft.util.commands.NestedCommand;
+import com.sk89q.worldedit.EditsWorld;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.LocalConfiguration;
 import com.sk89q.worldedit.LocalPlayer;
@@ -39,6 +40,7 @@
 import com.sk89q.worldedit.data.ChunkStore;
 import com.sk89q.worldedit.data.DataException;
 import com.sk89q.worldedit.data.MissingWorldException;
+import com.sk89q.worldedit.operation.OperationQueue;
 import com.sk89q.worldedit.regions.Region;
 import com.sk89q.worldedit.snapshots.InvalidSnapshotException;
 import com.sk89q.worldedit.snapshots.Snapshot;
@@ -72,8 +74,9 @@ public void snapshot(CommandContext args, LocalSession session, LocalPlayer play
     )
     @Logging(REGION)
     @CommandPermissions("worldedit.snapshots.restore")
-    public void restore(CommandContext args, LocalSession session, LocalPlayer player,
-            EditSession editSession) throws WorldEditException {
+    @EditsWorld
+    public void restore(CommandContext args, final LocalSession session, final LocalPlayer player,
+            final EditSession editSession) throws WorldEditException {
 
         LocalConfiguration config = we.getConfiguration();
 
@@ -138,31 +141,62 @@ public void restore(CommandContext args, LocalSession session, LocalPlayer playe
             return;
         }
 
+        final ChunkStore store = chunkStore;
+        boolean submitted = false;
         try {
             // Restore snapshot
-            SnapshotRestore restore = new SnapshotRestore(chunkStore, editSession, region);
+            final SnapshotRestore restore = new SnapshotRestore(store, editSession, region);
             //player.print(restore.getChunksAffected() + " chunk(s) will be loaded.");
 
-            restore.restore();
+            we.submitOperation(player, "/restore", restore, new WorldEdit.OperationListener(player) {
+                @Override
+                public void completed(OperationQueue.Job job) {
+                    super.completed(job);
+                    if (restore.hadTotalFailure()) {
+                        String error = restore.getLastErrorMessage();
+                        if (error != null) {
+                            player.printError("Ошибки предотвратят любые блоки из резервной копии.");
+                            player.printError("Последняя ошибка: " + error);
+                        } else {
+                            player.printError("Чанки небыи загружены. (Плохой архив?)");
+                        }
+                    } else {
+                        player.print(String.format("Восстановлено; %d "
+                                + "потерянных чанков(а) и %d других ошибок.",
+                                restore.getMissingChunks().size(),
+                                restore.getErrorChunks().size()));
+                    }
+                    finish();
+                }
 
-            if (restore.hadTotalFailure()) {
-                String error = restore.getLastErrorMessage();
-                if (error != null) {
-                    player.printError("Ошибки предотвратят любые блоки из резервной копии.");
-                    player.printError("Последняя ошибка: " + error);
-                } else {
-                    player.printError("Чанки небыи загружены. (Плохой архив?)");
+                @Override
+                public void cancelled(OperationQueue.Job job) {
+                    super.cancelled(job);
+                    finish();
                 }
-            } else {
-                player.print(String.format("Восстановлено; %d "
-                        + "потерянных чанков(а) и %d других ошибок.",
-                        restore.getMissingChunks().size(),
-                        restore.getErrorChunks().size()));
-            }
+
+                @Override
+                public void failed(OperationQueue.Job job, Exception e) {
+                    super.failed(job, e);
+                    finish();
+                }
+
+                private void finish() {
+                    // The blocks were set after the command remembered the edit session
+                    session.remember(editSession);
+                    try {
+                        store.close();
+                    } catch (IOException e) {
+                    }
+                }
+            });
+            submitted = true;
         } finally {
-            try {
-                chunkStore.close();
-            } catch (IOException e) {
+            if (!submitted) {
+                try {
+                    store.close();
+                } catch (IOException e) {
+                }
             }
         }
     }
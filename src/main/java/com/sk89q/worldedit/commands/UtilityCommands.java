@@ -57,6 +57,7 @@ public UtilityCommands(WorldEdit we) {
     )
     @CommandPermissions("worldedit.fill")
     @Logging(PLACEMENT)
+    @EditsWorld
     public void fill(CommandContext args, LocalSession session, LocalPlayer player,
                      EditSession editSession) throws WorldEditException {
 
@@ -86,6 +87,7 @@ public void fill(CommandContext args, LocalSession session, LocalPlayer player,
     )
     @CommandPermissions("worldedit.fill.recursive")
     @Logging(PLACEMENT)
+    @EditsWorld
     public void fillr(CommandContext args, LocalSession session, LocalPlayer player,
                       EditSession editSession) throws WorldEditException {
 
@@ -115,6 +117,7 @@ public void fillr(CommandContext args, LocalSession session, LocalPlayer player,
     )
     @CommandPermissions("worldedit.drain")
     @Logging(PLACEMENT)
+    @EditsWorld
     public void drain(CommandContext args, LocalSession session, LocalPlayer player,
                       EditSession editSession) throws WorldEditException {
 
@@ -134,6 +137,7 @@ public void drain(CommandContext args, LocalSession session, LocalPlayer player,
     )
     @CommandPermissions("worldedit.fixlava")
     @Logging(PLACEMENT)
+    @EditsWorld
     public void fixLava(CommandContext args, LocalSession session, LocalPlayer player,
                         EditSession editSession) throws WorldEditException {
 
@@ -153,6 +157,7 @@ public void fixLava(CommandContext args, LocalSession session, LocalPlayer playe
     )
     @CommandPermissions("worldedit.fixwater")
     @Logging(PLACEMENT)
+    @EditsWorld
     public void fixWater(CommandContext args, LocalSession session, LocalPlayer player,
                          EditSession editSession) throws WorldEditException {
 
@@ -172,6 +177,7 @@ public void fixWater(CommandContext args, LocalSession session, LocalPlayer play
     )
     @CommandPermissions("worldedit.removeabove")
     @Logging(PLACEMENT)
+    @EditsWorld
     public void removeAbove(CommandContext args, LocalSession session, LocalPlayer player,
                             EditSession editSession) throws WorldEditException {
 
@@ -194,6 +200,7 @@ public void removeAbove(CommandContext args, LocalSession session, LocalPlayer p
     )
     @CommandPermissions("worldedit.removebelow")
     @Logging(PLACEMENT)
+    @EditsWorld
     public void removeBelow(CommandContext args, LocalSession session, LocalPlayer player,
                             EditSession editSession) throws WorldEditException {
 
@@ -215,6 +222,7 @@ public void removeBelow(CommandContext args, LocalSession session, LocalPlayer p
     )
     @CommandPermissions("worldedit.removenear")
     @Logging(PLACEMENT)
+    @EditsWorld
     public void removeNear(CommandContext args, LocalSession session, LocalPlayer player,
                            EditSession editSession) throws WorldEditException {
 
@@ -236,6 +244,7 @@ public void removeNear(CommandContext args, LocalSession session, LocalPlayer pl
     )
     @CommandPermissions("worldedit.replacenear")
     @Logging(PLACEMENT)
+    @EditsWorld
     public void replaceNear(CommandContext args, LocalSession session, LocalPlayer player,
                             EditSession editSession) throws WorldEditException {
 
@@ -273,6 +282,7 @@ public void replaceNear(CommandContext args, LocalSession session, LocalPlayer p
     )
     @CommandPermissions("worldedit.snow")
     @Logging(PLACEMENT)
+    @EditsWorld
     public void snow(CommandContext args, LocalSession session, LocalPlayer player,
                      EditSession editSession) throws WorldEditException {
 
@@ -291,6 +301,7 @@ public void snow(CommandContext args, LocalSession session, LocalPlayer player,
     )
     @CommandPermissions("worldedit.thaw")
     @Logging(PLACEMENT)
+    @EditsWorld
     public void thaw(CommandContext args, LocalSession session, LocalPlayer player,
                      EditSession editSession) throws WorldEditException {
 
@@ -310,6 +321,7 @@ public void thaw(CommandContext args, LocalSession session, LocalPlayer player,
     )
     @CommandPermissions("worldedit.green")
     @Logging(PLACEMENT)
+    @EditsWorld
     public void green(CommandContext args, LocalSession session, LocalPlayer player,
                       EditSession editSession) throws WorldEditException {
 
@@ -329,6 +341,7 @@ public void green(CommandContext args, LocalSession session, LocalPlayer player,
     )
     @CommandPermissions("worldedit.extinguish")
     @Logging(PLACEMENT)
+    @EditsWorld
     public void extinguish(CommandContext args, LocalSession session, LocalPlayer player,
                            EditSession editSession) throws WorldEditException {
 
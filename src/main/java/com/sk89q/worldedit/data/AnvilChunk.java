@@ -19,6 +19,13 @@
 
 public class AnvilChunk implements Chunk {
 
+    /**
+     * Shared by the sections that a chunk doesn't have, which are all air.
+     * They are only ever read from.
+     */
+    private static final byte[] EMPTY_BLOCKS = new byte[16 * 16 * 16];
+    private static final byte[] EMPTY_NIBBLES = new byte[16 * 16 * 8];
+
     private CompoundTag rootTag;
     private byte[][] blocks;
     private byte[][] blocksAdd;
@@ -44,9 +51,9 @@ public AnvilChunk(LocalWorld world, CompoundTag tag) throws DataException {
         rootX = NBTUtils.getChildTag(rootTag.getValue(), "xPos", IntTag.class).getValue();
         rootZ = NBTUtils.getChildTag(rootTag.getValue(), "zPos", IntTag.class).getValue();
 
-        blocks = new byte[16][16 * 16 * 16];
-        blocksAdd = new byte[16][16 * 16 * 8];
-        data = new byte[16][16 * 16 * 8];
+        blocks = new byte[16][];
+        blocksAdd = new byte[16][];
+        data = new byte[16][];
         
         List<Tag> sections = NBTUtils.getChildTag(rootTag.getValue(), "Sections", ListTag.class).getValue();
         
@@ -77,6 +84,18 @@ public AnvilChunk(LocalWorld world, CompoundTag tag) throws DataException {
             }
         }
 
+        for (int i = 0; i < blocks.length; i++) {
+            if (blocks[i] == null) {
+                blocks[i] = EMPTY_BLOCKS;
+            }
+            if (data[i] == null) {
+                data[i] = EMPTY_NIBBLES;
+            }
+            if (blocksAdd[i] == null) {
+                blocksAdd[i] = EMPTY_NIBBLES;
+            }
+        }
+
         int sectionsize = 16 * 16 * 16;
         for (int i = 0; i < blocks.length; i++) {
             if (blocks[i].length != sectionsize) {
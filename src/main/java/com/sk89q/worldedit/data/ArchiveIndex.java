@@ -0,0 +1,346 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.sk89q.worldedit.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The entries of a snapshot archive that are needed to find the chunks of a
+ * world in it: the region files, the folders and the <code>level.dat</code>
+ * files. For archives that can only be read from the start, such as tar
+ * files, the index also holds where the data of each region file starts
+ * and how long it is, so that it can be read without parsing the entries
+ * before it.
+ * </p>
+ * The index is built from the names of all entries the first time an
+ * archive is opened. It is then saved in a hidden file next to the archive,
+ * so that archives with many entries don't have to be scanned again after
+ * a restart. The saved index is ignored once the archive's size or time of
+ * modification changes. If the file can't be written, the index is only
+ * kept in memory.
+ */
+public class ArchiveIndex {
+
+    private static final int MAGIC = 0x57454958;
+    private static final int VERSION = 2;
+    private static final int MAX_CACHED = 64;
+
+    /**
+     * The indexes used most recently, by the absolute path of their archive.
+     */
+    private static final Map<String, ArchiveIndex> cache = new LinkedHashMap<String, ArchiveIndex>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ArchiveIndex> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+
+    private final long length;
+    private final long lastModified;
+    private final List<String> regionFiles;
+    private final Map<String, EntryPosition> positions;
+    private final Set<String> folders;
+    private final Set<String> levelFiles;
+
+    private ArchiveIndex(long length, long lastModified, List<String> regionFiles,
+            Map<String, EntryPosition> positions, Set<String> folders, Set<String> levelFiles) {
+        this.length = length;
+        this.lastModified = lastModified;
+        this.regionFiles = regionFiles;
+        this.positions = positions;
+        this.folders = folders;
+        this.levelFiles = levelFiles;
+    }
+
+    /**
+     * Get the index of an archive, if it is cached in memory or was saved
+     * next to the archive.
+     *
+     * @param archive the archive
+     * @return the index, or null if the archive has to be scanned
+     */
+    public static ArchiveIndex get(File archive) {
+        final String key = archive.getAbsolutePath();
+        synchronized (cache) {
+            ArchiveIndex index = cache.get(key);
+            if (index != null && index.isCurrent(archive)) {
+                return index;
+            }
+        }
+
+        final ArchiveIndex index = load(archive);
+        if (index != null) {
+            synchronized (cache) {
+                cache.put(key, index);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Build the index of an archive from the names of all of its entries,
+     * and save it.
+     *
+     * @param archive the archive
+     * @param entryNames the names of the entries, in the order of the archive
+     * @return the index
+     */
+    public static ArchiveIndex create(File archive, Iterable<String> entryNames) {
+        return create(archive, entryNames, Collections.<String, EntryPosition>emptyMap());
+    }
+
+    /**
+     * Build the index of an archive from the names of all of its entries
+     * and the positions of their data, and save it.
+     *
+     * @param archive the archive
+     * @param entryNames the names of the entries, in the order of the archive
+     * @param entryPositions the positions of the data of the entries, by their names
+     * @return the index
+     */
+    public static ArchiveIndex create(File archive, Iterable<String> entryNames,
+            Map<String, EntryPosition> entryPositions) {
+        final List<String> regionFiles = new ArrayList<String>();
+        final Map<String, EntryPosition> positions = new HashMap<String, EntryPosition>();
+        final Set<String> folders = new HashSet<String>();
+        final Set<String> levelFiles = new HashSet<String>();
+        for (String name : entryNames) {
+            if (name.endsWith(".mca") || name.endsWith(".mcr")) {
+                regionFiles.add(name);
+                final EntryPosition position = entryPositions.get(name);
+                if (position != null) {
+                    positions.put(name, position);
+                }
+            } else if (name.endsWith("/")) {
+                folders.add(name.substring(0, name.length() - 1));
+            } else if (name.equals("level.dat") || name.endsWith("/level.dat")) {
+                levelFiles.add(name);
+            }
+        }
+
+        final ArchiveIndex index = new ArchiveIndex(archive.length(), archive.lastModified(),
+                Collections.unmodifiableList(regionFiles), positions, folders, levelFiles);
+        synchronized (cache) {
+            cache.put(archive.getAbsolutePath(), index);
+        }
+        index.save(archive);
+        return index;
+    }
+
+    /**
+     * Returns whether the archive has any region files.
+     *
+     * @return true if the archive has region files
+     */
+    public boolean hasRegionFiles() {
+        return !regionFiles.isEmpty();
+    }
+
+    /**
+     * Get where the data of a region file starts in the archive and how
+     * long it is.
+     *
+     * @param name the name of the region file's entry
+     * @return the position, or null if it isn't known
+     */
+    public EntryPosition getPosition(String name) {
+        return positions.get(name);
+    }
+
+    /**
+     * Find the folder with the region files of a world. This is the folder
+     * of the first region file whose path starts with the world's name.
+     *
+     * @param worldName the name of the world
+     * @return the path of the folder, or null if the world has no region files
+     */
+    public String findRegionFolder(String worldName) {
+        final String prefix = worldName + "/";
+        for (String name : regionFiles) {
+            if (name.startsWith(prefix)) {
+                return name.substring(0, name.lastIndexOf("/"));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether the archive has a folder for a world, or the world's
+     * <code>level.dat</code>.
+     *
+     * @param worldName the name of the world
+     * @return true if the world is in the archive
+     */
+    public boolean containsWorld(String worldName) {
+        return folders.contains(worldName) || levelFiles.contains(worldName + "/level.dat");
+    }
+
+    private boolean isCurrent(File archive) {
+        return archive.length() == length && archive.lastModified() == lastModified;
+    }
+
+    /**
+     * Get the file that the index of an archive is saved in.
+     *
+     * @param archive the archive
+     * @return the file
+     */
+    private static File getIndexFile(File archive) {
+        return new File(archive.getParentFile(), "." + archive.getName() + ".index");
+    }
+
+    private static ArchiveIndex load(File archive) {
+        final File file = getIndexFile(archive);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    return null;
+                }
+
+                final long length = in.readLong();
+                final long lastModified = in.readLong();
+                if (archive.length() != length || archive.lastModified() != lastModified) {
+                    return null;
+                }
+
+                final List<String> regionFiles = new ArrayList<String>();
+                final Map<String, EntryPosition> positions = new HashMap<String, EntryPosition>();
+                for (int i = in.readInt(); i > 0; --i) {
+                    final String name = in.readUTF();
+                    final long offset = in.readLong();
+                    final long size = in.readLong();
+                    regionFiles.add(name);
+                    if (offset >= 0) {
+                        positions.put(name, new EntryPosition(offset, size));
+                    }
+                }
+                final Set<String> folders = new HashSet<String>();
+                for (int i = in.readInt(); i > 0; --i) {
+                    folders.add(in.readUTF());
+                }
+                final Set<String> levelFiles = new HashSet<String>();
+                for (int i = in.readInt(); i > 0; --i) {
+                    levelFiles.add(in.readUTF());
+                }
+
+                return new ArchiveIndex(length, lastModified, Collections.unmodifiableList(regionFiles),
+                        positions, folders, levelFiles);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // Scan the archive again instead
+            return null;
+        }
+    }
+
+    private void save(File archive) {
+        final File file = getIndexFile(archive);
+        final File temp = new File(file.getPath() + ".tmp");
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(length);
+                out.writeLong(lastModified);
+                out.writeInt(regionFiles.size());
+                for (String name : regionFiles) {
+                    final EntryPosition position = positions.get(name);
+                    out.writeUTF(name);
+                    out.writeLong(position == null ? -1 : position.getOffset());
+                    out.writeLong(position == null ? -1 : position.getSize());
+                }
+                writeNames(out, folders);
+                writeNames(out, levelFiles);
+            } finally {
+                out.close();
+            }
+
+            file.delete();
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            // The snapshot folder may be read-only, so keep the index in memory only
+            temp.delete();
+        }
+    }
+
+    private static void writeNames(DataOutputStream out, Collection<String> names) throws IOException {
+        out.writeInt(names.size());
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+    }
+
+    /**
+     * Where the data of an entry starts in an archive and how long it is.
+     * For compressed archives, the offset is in the uncompressed data.
+     */
+    public static class EntryPosition {
+        private final long offset;
+        private final long size;
+
+        public EntryPosition(long offset, long size) {
+            this.offset = offset;
+            this.size = size;
+        }
+
+        /**
+         * Get the offset of the entry's data.
+         *
+         * @return the offset in bytes
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * Get the length of the entry's data.
+         *
+         * @return the length in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+    }
+
+}
@@ -36,6 +36,16 @@ public abstract class ChunkStore {
      * << from chunk
      */
     public static final int CHUNK_SHIFTS = 4;
+
+    /**
+     * The tags of a chunk that {@link AnvilChunk} and {@link OldChunk} read.
+     * Entities, ticks, light, heightmaps and the like are skipped when a
+     * chunk is read from a store.
+     */
+    protected static final NBTSelection CHUNK_TAGS = new NBTSelection(
+            "Level/xPos", "Level/zPos", "Level/TileEntities",
+            "Level/Sections/Y", "Level/Sections/Blocks", "Level/Sections/Add", "Level/Sections/Data",
+            "Level/Blocks", "Level/Data");
     /**
      * Convert a position to a chunk.
      *
@@ -50,7 +60,8 @@ public static BlockVector2D toChunk(Vector pos) {
     }
 
     /**
-     * Get the tag for a chunk.
+     * Get the tag for a chunk. Only the tags in {@link #CHUNK_TAGS} need to
+     * be read.
      *
      * @param pos
      * @return tag
@@ -80,6 +91,15 @@ public Chunk getChunk(Vector2D pos, LocalWorld world)
         return new OldChunk(world, tag);
     }
 
+    /**
+     * Returns whether chunks can be read from several threads at once.
+     *
+     * @return
+     */
+    public boolean isThreadSafe() {
+        return false;
+    }
+
     /**
      * Close resources.
      *
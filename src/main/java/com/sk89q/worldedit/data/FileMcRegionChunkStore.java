@@ -24,13 +24,22 @@
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.regex.Pattern;
 
+import com.sk89q.worldedit.Vector2D;
+
 public class FileMcRegionChunkStore extends McRegionChunkStore {
     /**
      * Folder to read from.
      */
     private File path;
+    /**
+     * Memory mapped readers of the region files read so far.
+     */
+    private final Map<String, MappedMcRegionReader> readers =
+            new HashMap<String, MappedMcRegionReader>();
 
     /**
      * Create an instance. The passed path is the folder to read the
@@ -42,9 +51,57 @@ public FileMcRegionChunkStore(File path) {
         this.path = path;
     }
 
+    @Override
+    protected InputStream getChunkInputStream(Vector2D pos, String worldname)
+            throws DataException, IOException {
+        return getMappedReader(getFilename(pos)).getChunkInputStream(pos);
+    }
+
+    /**
+     * Get the memory mapped reader of a region file, opening the file if
+     * it isn't open yet.
+     * 
+     * @param name
+     * @return
+     * @throws IOException
+     * @throws DataException
+     */
+    private MappedMcRegionReader getMappedReader(String name) throws IOException,
+            DataException {
+        synchronized (readers) {
+            MappedMcRegionReader reader = readers.get(name);
+            if (reader == null) {
+                File file = findRegionFile(name);
+                if (file == null) {
+                    throw new MissingChunkException();
+                }
+                reader = new MappedMcRegionReader(file);
+                readers.put(name, reader);
+            }
+            return reader;
+        }
+    }
+
     @Override
     protected InputStream getInputStream(String name, String world) throws IOException,
             DataException {
+        File file = findRegionFile(name);
+
+        try {
+            if (file == null) throw new FileNotFoundException();
+            return new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            throw new MissingChunkException();
+        }
+    }
+
+    /**
+     * Find a region file, which may have either file extension.
+     * 
+     * @param name
+     * @return the file, or null if it doesn't exist
+     */
+    private File findRegionFile(String name) {
         Pattern ext = Pattern.compile(".*\\.mc[ra]$"); // allow either file extension, both work the same
         File file = null;
         for (File f : new File(path, "region" + File.separator).listFiles()) {
@@ -55,13 +112,15 @@ protected InputStream getInputStream(String name, String world) throws IOExcepti
                 break;
             }
         }
+        return file;
+    }
 
-        try {
-            if (file == null) throw new FileNotFoundException();
-            return new FileInputStream(file);
-        } catch (FileNotFoundException e) {
-            throw new MissingChunkException();
+    @Override
+    public void close() throws IOException {
+        synchronized (readers) {
+            readers.clear();
         }
+        super.close();
     }
 
     @Override
@@ -92,7 +92,7 @@ public CompoundTag getChunkTag(Vector2D pos, LocalWorld world)
         Tag tag;
 
         try {
-            tag = nbt.readTag();
+            tag = nbt.readTag(CHUNK_TAGS);
             if (!(tag instanceof CompoundTag)) {
                 throw new ChunkStoreException("CompoundTag expected for chunk; got "
                         + tag.getClass().getName());
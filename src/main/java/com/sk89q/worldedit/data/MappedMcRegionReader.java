@@ -0,0 +1,229 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.sk89q.worldedit.Vector2D;
+
+/**
+ * Reader for a MCRegion file on disk or in memory. A file is memory mapped
+ * and its offset table is read once, so any chunk can be read without
+ * seeking through the file or copying its data first.
+ * </p>
+ * Unlike {@link McRegionReader}, several threads can read chunks from the
+ * same reader at once.
+ */
+public class MappedMcRegionReader {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final File file;
+    private final ByteBuffer buffer;
+    private final int[] offsets = new int[McRegionReader.SECTOR_INTS];
+
+    /**
+     * Open a region file.
+     *
+     * @param file the file
+     * @throws IOException thrown on I/O error
+     * @throws DataException thrown if the file is not a region file
+     */
+    public MappedMcRegionReader(File file) throws IOException, DataException {
+        this(file, map(file));
+    }
+
+    /**
+     * Read a region file that is already in memory, such as one that was
+     * read from an archive.
+     *
+     * @param name the name of the region file
+     * @param buffer the contents of the region file, from its position to its limit
+     * @throws DataException thrown if the data is not a region file
+     */
+    public MappedMcRegionReader(String name, ByteBuffer buffer) throws DataException {
+        this(new File(name), buffer.slice());
+    }
+
+    private MappedMcRegionReader(File file, ByteBuffer buffer) throws DataException {
+        this.file = file;
+        this.buffer = buffer;
+
+        if (buffer.limit() < McRegionReader.SECTOR_BYTES) {
+            throw new DataException("MCRegion file " + file.getName() + " has no header");
+        }
+
+        IntBuffer header = buffer.duplicate().asIntBuffer();
+        header.get(offsets);
+    }
+
+    /**
+     * Memory map a file.
+     *
+     * @param file the file
+     * @return the mapped contents
+     * @throws IOException thrown on I/O error
+     * @throws DataException thrown if the file is too large to be a region file
+     */
+    private static ByteBuffer map(File file) throws IOException, DataException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new DataException("MCRegion file " + file.getName() + " is too large");
+            }
+
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Get the file of this reader. For a region file that was read into
+     * memory, only the name of the file is meaningful.
+     *
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Gets the uncompressed data input stream for a chunk.
+     *
+     * @param pos the position of the chunk
+     * @return a stream
+     * @throws DataException thrown if the chunk is missing or invalid
+     */
+    public InputStream getChunkInputStream(Vector2D pos) throws DataException {
+        int x = pos.getBlockX() & 31;
+        int z = pos.getBlockZ() & 31;
+
+        int offset = offsets[x + z * 32];
+
+        // The chunk hasn't been generated
+        if (offset == 0) {
+            throw new DataException("The chunk at " + x + "," + z + " is not generated");
+        }
+
+        // A corrupt offset can point far beyond the end of the file
+        long start = (long) (offset >>> 8) * McRegionReader.SECTOR_BYTES;
+        int numSectors = offset & 0xFF;
+
+        // Each call works on its own view of the mapping
+        ByteBuffer chunk = buffer.duplicate();
+        if (start + McRegionReader.CHUNK_HEADER_SIZE > chunk.limit()) {
+            throw new DataException("MCRegion file does not contain "
+                    + x + "," + z + " in full");
+        }
+
+        chunk.position((int) start);
+        int length = chunk.getInt();
+
+        if (length < 1 || length > McRegionReader.SECTOR_BYTES * numSectors) {
+            throw new DataException("MCRegion chunk at "
+                    + x + "," + z + " has an invalid length of " + length);
+        }
+
+        byte version = chunk.get();
+        if ((long) chunk.position() + length - 1 > chunk.limit()) {
+            throw new DataException("MCRegion file does not contain "
+                    + x + "," + z + " in full");
+        }
+        chunk.limit(chunk.position() + length - 1);
+
+        try {
+            if (version == McRegionReader.VERSION_GZIP) {
+                return new GZIPInputStream(new ByteBufferInputStream(chunk), BUFFER_SIZE);
+            } else if (version == McRegionReader.VERSION_DEFLATE) {
+                return new InflaterInputStream(new ByteBufferInputStream(chunk));
+            } else {
+                throw new DataException("MCRegion chunk at "
+                        + x + "," + z + " has an unsupported version of " + version);
+            }
+        } catch (IOException e) {
+            throw new DataException("MCRegion chunk at " + x + "," + z
+                    + " could not be read: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns whether the file contains a chunk.
+     *
+     * @param x the X coordinate of the chunk within the region
+     * @param z the Z coordinate of the chunk within the region
+     * @return true if the chunk exists
+     */
+    public boolean hasChunk(int x, int z) {
+        return offsets[x + z * 32] != 0;
+    }
+
+    /**
+     * An input stream over the remaining bytes of a buffer.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
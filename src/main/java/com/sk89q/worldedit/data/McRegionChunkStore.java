@@ -21,6 +21,9 @@
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import com.sk89q.jnbt.CompoundTag;
 import com.sk89q.jnbt.NBTInputStream;
@@ -29,9 +32,23 @@
 import com.sk89q.worldedit.Vector2D;
 
 public abstract class McRegionChunkStore extends ChunkStore {
+    /**
+     * The most bytes of region files to keep in memory.
+     */
+    private static final int MAX_REGION_BYTES = 32 * 1024 * 1024;
+
     protected String curFilename = null;
     protected McRegionReader cachedReader = null;
 
+    /**
+     * Readers of the region files read so far, least recently used first,
+     * by the world's name and the file's name.
+     */
+    private final Map<String, MappedMcRegionReader> regions =
+            new LinkedHashMap<String, MappedMcRegionReader>(16, 0.75f, true);
+    private final Map<String, Integer> regionSizes = new LinkedHashMap<String, Integer>();
+    private long regionBytes = 0;
+
     /**
      * Get the filename of a region file.
      * 
@@ -68,15 +85,100 @@ protected McRegionReader getReader(Vector2D pos, String worldname) throws DataEx
     @Override
     public CompoundTag getChunkTag(Vector2D pos, LocalWorld world) throws DataException,
             IOException {
-        
-        McRegionReader reader = getReader(pos, world.getName());
+        return readChunkTag(getChunkInputStream(pos, world.getName()));
+    }
 
-        InputStream stream = reader.getChunkInputStream(pos);
+    /**
+     * Get the uncompressed data input stream for a chunk. The returned
+     * stream must be readable without holding the lock of this store, so
+     * that chunks can be inflated and parsed on several threads.
+     * </p>
+     * The whole region file of the chunk is read into memory the first time
+     * one of its chunks is needed, so that the region file doesn't have to
+     * be read again up to each chunk's offset. This matters for region files
+     * in archives, which can only be read from the start.
+     *
+     * @param pos
+     * @param worldname
+     * @return
+     * @throws DataException
+     * @throws IOException
+     */
+    protected InputStream getChunkInputStream(Vector2D pos, String worldname)
+            throws DataException, IOException {
+        return getRegionReader(getFilename(pos), worldname).getChunkInputStream(pos);
+    }
+
+    /**
+     * Get the reader of a region file, reading the file into memory if it
+     * hasn't been read yet. The region files read least recently are
+     * dropped once they take up too much memory. Region files are cached
+     * per world, as archive stores are shared by restores of all worlds.
+     *
+     * @param filename
+     * @param worldname
+     * @return
+     * @throws DataException
+     * @throws IOException
+     */
+    private synchronized MappedMcRegionReader getRegionReader(String filename, String worldname)
+            throws DataException, IOException {
+        final String key = worldname + "/" + filename;
+        MappedMcRegionReader reader = regions.get(key);
+        if (reader != null) {
+            return reader;
+        }
+
+        byte[] data = new byte[1024 * 1024];
+        int size = 0;
+        InputStream stream = getInputStream(filename, worldname);
+        try {
+            while (true) {
+                if (size == data.length) {
+                    byte[] grown = new byte[data.length * 2];
+                    System.arraycopy(data, 0, grown, 0, size);
+                    data = grown;
+                }
+                int read = stream.read(data, size, data.length - size);
+                if (read == -1) {
+                    break;
+                }
+                size += read;
+            }
+        } finally {
+            stream.close();
+        }
+
+        reader = new MappedMcRegionReader(filename, ByteBuffer.wrap(data, 0, size));
+        regions.put(key, reader);
+        regionSizes.put(key, data.length);
+        regionBytes += data.length;
+
+        Iterator<String> it = regions.keySet().iterator();
+        while (regionBytes > MAX_REGION_BYTES && regions.size() > 1) {
+            String eldest = it.next();
+            regionBytes -= regionSizes.remove(eldest);
+            it.remove();
+        }
+
+        return reader;
+    }
+
+    /**
+     * Read the 'Level' tag of a chunk from its uncompressed data.
+     *
+     * @param stream
+     * @return
+     * @throws DataException
+     * @throws IOException
+     */
+    protected CompoundTag readChunkTag(InputStream stream) throws DataException,
+            IOException {
         NBTInputStream nbt = new NBTInputStream(stream);
         Tag tag;
 
         try {
-            tag = nbt.readTag();
+            tag = nbt.readTag(CHUNK_TAGS);
             if (!(tag instanceof CompoundTag)) {
                 throw new ChunkStoreException("CompoundTag expected for chunk; got "
                         + tag.getClass().getName());
@@ -118,6 +220,11 @@ public CompoundTag getChunkTag(Vector2D pos, LocalWorld world) throws DataExcept
     protected abstract InputStream getInputStream(String name, String worldname)
             throws IOException, DataException;
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     /**
      * Close resources.
      *
@@ -125,6 +232,11 @@ protected abstract InputStream getInputStream(String name, String worldname)
      */
     @Override
     public void close() throws IOException {
+        synchronized (this) {
+            regions.clear();
+            regionSizes.clear();
+            regionBytes = 0;
+        }
         if (cachedReader != null) {
             cachedReader.close();
         }
@@ -0,0 +1,519 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.sk89q.worldedit.data;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import com.sk89q.worldedit.data.ArchiveIndex.EntryPosition;
+
+/**
+ * Represents the chunk store used by Minecraft but in a tar file, which may
+ * be compressed with gzip.
+ * </p>
+ * The entries of the tar file are scanned once, and the index keeps the
+ * offset of the data of each region file. Region files of a plain tar file
+ * are read by seeking straight to their data. A gzip stream can only be
+ * inflated from the start, so a compressed tar file is read through one
+ * stream that is kept open between region files. It only has to be
+ * inflated again from the start when an earlier region file is needed.
+ */
+public class TarMcRegionChunkStore extends McRegionChunkStore {
+
+    private static final int BLOCK_SIZE = 512;
+
+    /**
+     * Tar file.
+     */
+    protected File tarFile;
+    /**
+     * Folder inside the tar file to read from, if any.
+     */
+    protected String folder;
+    /**
+     * Whether the tar file is compressed with gzip.
+     */
+    private final boolean compressed;
+    /**
+     * Index of the entries of the tar file.
+     */
+    private final ArchiveIndex index;
+    /**
+     * Folders with the region files of the worlds read so far, when the
+     * folder is detected.
+     */
+    private final Map<String, String> worldFolders = new HashMap<String, String>();
+    /**
+     * The uncompressed data of a compressed tar file, if it is open.
+     */
+    private InputStream stream;
+    /**
+     * The offset in the uncompressed data that the stream is at.
+     */
+    private long streamOffset;
+
+    /**
+     * Create an instance. The folder argument lets you choose a folder or
+     * path to look into in the tar file for the files. Use a blank string
+     * for the folder to not look into a subdirectory.
+     *
+     * @param tarFile
+     * @param folder
+     * @throws IOException
+     * @throws DataException
+     */
+    public TarMcRegionChunkStore(File tarFile, String folder)
+            throws IOException, DataException {
+        this(tarFile);
+        this.folder = folder;
+    }
+
+    /**
+     * Create an instance. The subfolder containing the chunk data will
+     * be detected.
+     *
+     * @param tarFile
+     * @throws IOException
+     * @throws DataException
+     */
+    public TarMcRegionChunkStore(File tarFile)
+            throws IOException, DataException {
+        this.tarFile = tarFile;
+
+        compressed = isCompressed(tarFile);
+        index = getIndex(tarFile);
+    }
+
+    /**
+     * Get the index of the entries of a tar file, scanning them if the
+     * index isn't cached yet.
+     *
+     * @param tarFile
+     * @return the index
+     * @throws IOException
+     * @throws DataException
+     */
+    public static ArchiveIndex getIndex(File tarFile) throws IOException, DataException {
+        ArchiveIndex index = ArchiveIndex.get(tarFile);
+        if (index != null) {
+            return index;
+        }
+
+        List<String> names = new ArrayList<String>();
+        Map<String, EntryPosition> positions = new HashMap<String, EntryPosition>();
+        InputStream in = open(tarFile, isCompressed(tarFile));
+        try {
+            scan(in, names, positions);
+        } finally {
+            in.close();
+        }
+        return ArchiveIndex.create(tarFile, names, positions);
+    }
+
+    /**
+     * Get the input stream for a chunk file.
+     *
+     * @param name
+     * @return
+     * @throws IOException
+     * @throws DataException
+     */
+    @Override
+    protected InputStream getInputStream(String name, String worldname)
+            throws IOException, DataException {
+
+        // Detect subfolder for the world's files
+        if (folder != null) {
+            if (!folder.equals("")) {
+                name = folder + "/" + name;
+            }
+        } else {
+            // The store may be shared by restores of several worlds
+            String worldFolder = getWorldFolder(worldname);
+
+            // Check if world is found
+            if (worldFolder == null) {
+                throw new MissingWorldException("Target world is not present in tar file.", worldname);
+            }
+
+            name = worldFolder + "/" + name;
+        }
+
+        EntryPosition position = index.getPosition(name);
+        if (position == null) {
+            throw new MissingChunkException();
+        }
+
+        if (compressed) {
+            return readEntry(position);
+        }
+
+        InputStream in = new FileInputStream(tarFile);
+        try {
+            skipFully(in, position.getOffset());
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return new EntryInputStream(in, position.getSize());
+    }
+
+    /**
+     * Read the data of an entry of a compressed tar file, going on from
+     * where the last entry was read if it comes later in the file.
+     *
+     * @param position
+     * @return the data of the entry
+     * @throws IOException
+     * @throws DataException
+     */
+    private synchronized InputStream readEntry(EntryPosition position)
+            throws IOException, DataException {
+        if (position.getSize() > Integer.MAX_VALUE) {
+            throw new DataException("Entry of " + position.getSize() + " bytes is too large");
+        }
+
+        if (stream == null || position.getOffset() < streamOffset) {
+            closeStream();
+            stream = open(tarFile, true);
+            streamOffset = 0;
+        }
+
+        byte[] data = new byte[(int) position.getSize()];
+        try {
+            skipFully(stream, position.getOffset() - streamOffset);
+            if (readFully(stream, data, data.length) < data.length) {
+                throw new EOFException();
+            }
+            streamOffset = position.getOffset() + data.length;
+        } catch (IOException e) {
+            closeStream();
+            throw e;
+        }
+        return new ByteArrayInputStream(data);
+    }
+
+    /**
+     * Get the folder with the region files of a world, detecting it the
+     * first time the world is read.
+     *
+     * @param worldname
+     * @return the folder, or null if the world is not in the tar file
+     */
+    private synchronized String getWorldFolder(String worldname) {
+        String worldFolder = worldFolders.get(worldname);
+        if (worldFolder == null) {
+            worldFolder = index.findRegionFolder(worldname);
+            if (worldFolder != null) {
+                worldFolders.put(worldname, worldFolder);
+            }
+        }
+        return worldFolder;
+    }
+
+    private void closeStream() throws IOException {
+        if (stream != null) {
+            InputStream in = stream;
+            stream = null;
+            in.close();
+        }
+    }
+
+    /**
+     * Close resources.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        super.close();
+        synchronized (this) {
+            closeStream();
+        }
+    }
+
+    @Override
+    public boolean isValid() {
+        return index.hasRegionFiles();
+    }
+
+    /**
+     * Returns whether a tar file is compressed with gzip, judging by its
+     * name.
+     *
+     * @param tarFile
+     * @return true if the file is compressed
+     * @throws DataException thrown if the compression is not supported
+     */
+    private static boolean isCompressed(File tarFile) throws DataException {
+        String name = tarFile.getName().toLowerCase();
+        if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) {
+            return true;
+        } else if (name.endsWith(".tar")) {
+            return false;
+        }
+        throw new DataException("Only .tar and .tar.gz files are supported");
+    }
+
+    private static InputStream open(File tarFile, boolean compressed) throws IOException {
+        InputStream in = new FileInputStream(tarFile);
+        try {
+            if (compressed) {
+                return new GZIPInputStream(new BufferedInputStream(in), 65536);
+            }
+            return new BufferedInputStream(in, 65536);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read the headers of all entries of a tar file, skipping their data.
+     *
+     * @param in the uncompressed tar file
+     * @param names the list to add the names of the entries to
+     * @param positions the map to add the positions of the data of the files to
+     * @throws IOException
+     * @throws DataException
+     */
+    static void scan(InputStream in, List<String> names, Map<String, EntryPosition> positions)
+            throws IOException, DataException {
+        byte[] header = new byte[BLOCK_SIZE];
+        long offset = 0;
+        String longName = null;
+
+        while (readFully(in, header, BLOCK_SIZE) == BLOCK_SIZE && !isEmpty(header)) {
+            offset += BLOCK_SIZE;
+
+            long size = parseSize(header);
+            long padded = (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+            byte type = header[156];
+
+            // GNU long names and pax headers give the name of the next entry
+            if (type == 'L' || type == 'x') {
+                if (size > 1024 * 1024) {
+                    throw new DataException("Tar entry header is too large");
+                }
+                byte[] data = new byte[(int) size];
+                if (readFully(in, data, data.length) < data.length) {
+                    throw new EOFException();
+                }
+                skipFully(in, padded - size);
+                offset += padded;
+
+                String name = type == 'L' ? parseString(data, 0, data.length) : parsePaxPath(data);
+                if (name != null) {
+                    longName = name;
+                }
+                continue;
+            }
+
+            String name = longName != null ? longName : parseName(header);
+            longName = null;
+            if (name.startsWith("./")) {
+                name = name.substring(2);
+            }
+            if (type == '5' && !name.endsWith("/")) {
+                name += "/";
+            }
+
+            if (name.length() > 0) {
+                names.add(name);
+                if (type == '0' || type == 0) {
+                    positions.put(name, new EntryPosition(offset, size));
+                }
+            }
+
+            skipFully(in, padded);
+            offset += padded;
+        }
+    }
+
+    private static boolean isEmpty(byte[] header) {
+        for (byte b : header) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String parseName(byte[] header) {
+        String name = parseString(header, 0, 100);
+        // The name may be split in a prefix and a name in the ustar format
+        if (parseString(header, 257, 5).equals("ustar")) {
+            String prefix = parseString(header, 345, 155);
+            if (prefix.length() > 0) {
+                name = prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    private static String parsePaxPath(byte[] data) throws DataException {
+        // Each record is "<length> <key>=<value>\n"
+        int pos = 0;
+        while (pos < data.length) {
+            int space = pos;
+            while (space < data.length && data[space] != ' ') {
+                ++space;
+            }
+            int length;
+            try {
+                length = Integer.parseInt(parseString(data, pos, space - pos));
+            } catch (NumberFormatException e) {
+                throw new DataException("Tar entry has an invalid pax header");
+            }
+            if (length <= space - pos || pos + length > data.length) {
+                throw new DataException("Tar entry has an invalid pax header");
+            }
+
+            String record = parseString(data, space + 1, pos + length - space - 2);
+            if (record.startsWith("path=")) {
+                return record.substring(5);
+            }
+            pos += length;
+        }
+        return null;
+    }
+
+    private static long parseSize(byte[] header) throws DataException {
+        // GNU tar stores large sizes in base 256, marked by the highest bit
+        if ((header[124] & 0x80) != 0) {
+            long size = 0;
+            for (int i = 125; i < 136; ++i) {
+                size = (size << 8) | (header[i] & 0xFF);
+            }
+            return size;
+        }
+
+        String size = parseString(header, 124, 12).trim();
+        if (size.length() == 0) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(size, 8);
+        } catch (NumberFormatException e) {
+            throw new DataException("Tar entry has an invalid size of " + size);
+        }
+    }
+
+    private static String parseString(byte[] data, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && data[end] != 0) {
+            ++end;
+        }
+        try {
+            return new String(data, offset, end - offset, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] data, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = in.read(data, total, length - total);
+            if (read == -1) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    /**
+     * An input stream over the data of one entry of a plain tar file.
+     */
+    private static class EntryInputStream extends FilterInputStream {
+        private long remaining;
+
+        private EntryInputStream(InputStream in, long size) {
+            super(in);
+            remaining = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b != -1) {
+                --remaining;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return len == 0 ? 0 : -1;
+            }
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
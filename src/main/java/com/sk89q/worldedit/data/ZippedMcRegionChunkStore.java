@@ -21,11 +21,14 @@
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Represents the chunk store used by Minecraft alpha but zipped.
@@ -46,6 +49,15 @@ public class ZippedMcRegionChunkStore extends McRegionChunkStore {
      * Folder inside the ZIP file to read from, if any.
      */
     protected String folder;
+    /**
+     * Index of the entries of the ZIP, once needed.
+     */
+    private ArchiveIndex index;
+    /**
+     * Folders with the region files of the worlds read so far, when the
+     * folder is detected.
+     */
+    private final Map<String, String> worldFolders = new HashMap<String, String>();
 
     /**
      * Create an instance. The folder argument lets you choose a folder or
@@ -98,24 +110,15 @@ protected InputStream getInputStream(String name, String worldname)
                 name = folder + "/" + name;
             }
         } else {
-            Pattern pattern = Pattern.compile(".*\\.mc[ra]$");
-            for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
-                ZipEntry testEntry = (ZipEntry) e.nextElement();
-                // Check for world
-                if (testEntry.getName().startsWith(worldname + "/")) {
-                    if (pattern.matcher(testEntry.getName()).matches()) { // does entry end in .mca
-                        folder = testEntry.getName().substring(0, testEntry.getName().lastIndexOf("/"));
-                        name = folder + "/" + name;
-                        break;
-                    }
-
-                }
-            }
+            // The store may be shared by restores of several worlds
+            String worldFolder = getWorldFolder(worldname);
 
             // Check if world is found
-            if (folder == null) {
+            if (worldFolder == null) {
                 throw new MissingWorldException("Target world is not present in ZIP.", worldname);
             }
+
+            name = worldFolder + "/" + name;
         }
 
         ZipEntry entry = getEntry(name);
@@ -129,6 +132,24 @@ protected InputStream getInputStream(String name, String worldname)
         }
     }
 
+    /**
+     * Get the folder with the region files of a world, detecting it the
+     * first time the world is read.
+     *
+     * @param worldname
+     * @return the folder, or null if the world is not in the ZIP
+     */
+    private synchronized String getWorldFolder(String worldname) {
+        String worldFolder = worldFolders.get(worldname);
+        if (worldFolder == null) {
+            worldFolder = getIndex().findRegionFolder(worldname);
+            if (worldFolder != null) {
+                worldFolders.put(worldname, worldFolder);
+            }
+        }
+        return worldFolder;
+    }
+
     /**
      * Get an entry from the ZIP, trying both types of slashes.
      * 
@@ -155,15 +176,26 @@ public void close() throws IOException {
 
     @Override
     public boolean isValid() {
-        for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
-
-            ZipEntry testEntry = e.nextElement();
+        return getIndex().hasRegionFiles();
+    }
 
-            if (testEntry.getName().matches(".*\\.mcr$") || testEntry.getName().matches(".*\\.mca$")) { // TODO: does this need a separate class?
-                return true;
+    /**
+     * Get the index of the entries of the ZIP, scanning them if the index
+     * isn't cached yet.
+     *
+     * @return the index
+     */
+    private synchronized ArchiveIndex getIndex() {
+        if (index == null) {
+            index = ArchiveIndex.get(zipFile);
+            if (index == null) {
+                List<String> names = new ArrayList<String>();
+                for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                    names.add(e.nextElement().getName());
+                }
+                index = ArchiveIndex.create(zipFile, names);
             }
         }
-
-        return false;
+        return index;
     }
 }
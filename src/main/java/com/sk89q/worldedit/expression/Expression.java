@@ -20,8 +20,10 @@
 package com.sk89q.worldedit.expression;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 
 import com.sk89q.worldedit.BlockVector;
@@ -29,6 +31,8 @@
 import com.sk89q.worldedit.expression.lexer.Lexer;
 import com.sk89q.worldedit.expression.lexer.tokens.Token;
 import com.sk89q.worldedit.expression.parser.Parser;
+import com.sk89q.worldedit.expression.runtime.CompiledExpression;
+import com.sk89q.worldedit.expression.runtime.ExpressionCompiler;
 import com.sk89q.worldedit.expression.runtime.ExpressionEnvironment;
 import com.sk89q.worldedit.expression.runtime.Constant;
 import com.sk89q.worldedit.expression.runtime.EvaluationException;
@@ -52,6 +56,7 @@
  *
  * To compile an equation, run <code>Expression.compile("expression here", "var1", "var2"...)</code>
  * If you wish to run the equation multiple times, you can then optimize it, by calling myExpression.optimize();
+ * Unless disabled with <code>Expression.setCompilerEnabled(false)</code>, this also compiles the expression to bytecode.
  * You can then run the equation as many times as you want by calling myExpression.evaluate(var1, var2...)
  * You do not need to pass values for all variables specified while compiling.
  * To query variables after evaluation, you can use myExpression.getVariable("variable name").
@@ -63,10 +68,13 @@
  */
 public class Expression {
     private static final ThreadLocal<Stack<Expression>> instance = new ThreadLocal<Stack<Expression>>();
+    private static volatile boolean compilerEnabled = true;
 
     private final Map<String, RValue> variables = new HashMap<String, RValue>();
-    private final String[] variableNames;
+    final String[] variableNames;
+    private final List<Token> tokens;
     private RValue root;
+    private CompiledExpression compiled;
     private final Functions functions = new Functions();
     private ExpressionEnvironment environment;
 
@@ -80,6 +88,7 @@ private Expression(String expression, String... variableNames) throws Expression
 
     private Expression(List<Token> tokens, String... variableNames) throws ExpressionException {
         this.variableNames = variableNames;
+        this.tokens = tokens;
 
         variables.put("e", new Constant(-1, Math.E));
         variables.put("pi", new Constant(-1, Math.PI));
@@ -107,9 +116,42 @@ public double evaluate(double... values) throws EvaluationException {
             ((Variable) invokable).value = values[i];
         }
 
+        if (compiled != null && !compiled.usesInterpreter()) {
+            return compiled.evaluate();
+        }
+
+        pushInstance();
+        try {
+            return compiled == null ? root.getValue() : compiled.evaluate();
+        } catch (ReturnException e) {
+            return e.getValue();
+        } finally {
+            popInstance();
+        }
+    }
+
+    /**
+     * Evaluates an expression with at least three variables, without
+     * allocating an array for the values.
+     *
+     * @param x the value of the first variable
+     * @param y the value of the second variable
+     * @param z the value of the third variable
+     * @return the result
+     * @throws EvaluationException thrown on evaluation error
+     */
+    public double evaluate(double x, double y, double z) throws EvaluationException {
+        if (compiled == null || variableNames.length < 3) {
+            return evaluate(new double[] { x, y, z });
+        }
+
+        if (!compiled.usesInterpreter()) {
+            return compiled.evaluate(x, y, z);
+        }
+
         pushInstance();
         try {
-            return root.getValue();
+            return compiled.evaluate(x, y, z);
         } catch (ReturnException e) {
             return e.getValue();
         } finally {
@@ -119,6 +161,79 @@ public double evaluate(double... values) throws EvaluationException {
 
     public void optimize() throws EvaluationException {
         root = root.optimize();
+
+        if (compilerEnabled) {
+            final Variable[] parameters = new Variable[Math.min(3, variableNames.length)];
+            for (int i = 0; i < parameters.length; ++i) {
+                parameters[i] = (Variable) variables.get(variableNames[i]);
+            }
+            compiled = ExpressionCompiler.compile(root, parameters);
+        } else {
+            compiled = null;
+        }
+    }
+
+    /**
+     * Creates an optimized copy of this expression with its own variables,
+     * which start out with the current values of the variables of this
+     * expression. The copy shares the environment of this expression.
+     *
+     * @return the copy
+     * @throws ExpressionException thrown if the copy can't be optimized
+     */
+    public Expression copy() throws ExpressionException {
+        final Expression copy = new Expression(tokens, variableNames);
+        copy.environment = environment;
+        for (Map.Entry<String, RValue> entry : variables.entrySet()) {
+            if (entry.getValue() instanceof Variable) {
+                final RValue variable = copy.getVariable(entry.getKey(), true);
+                if (variable instanceof Variable) {
+                    ((Variable) variable).value = ((Variable) entry.getValue()).value;
+                }
+            }
+        }
+        copy.optimize();
+        return copy;
+    }
+
+    /**
+     * Checks whether copies of this expression can be evaluated on several
+     * threads at once. Only compiled expressions that don't read the world,
+     * keep state in buffers between evaluations or assign to variables other
+     * than their parameters qualify, as each copy has its own variables.
+     *
+     * @return true if copies can be evaluated concurrently
+     * @see #copy()
+     */
+    public boolean isThreadSafe() {
+        if (compiled == null || !compiled.isThreadSafe()) {
+            return false;
+        }
+
+        final Set<RValue> parameters = new HashSet<RValue>();
+        for (String name : variableNames) {
+            parameters.add(variables.get(name));
+        }
+        return !CompiledExpression.assignsVariables(root, parameters);
+    }
+
+    /**
+     * Checks whether the expression was compiled to bytecode by {@link #optimize()}.
+     *
+     * @return true if the expression is compiled
+     */
+    public boolean isCompiled() {
+        return compiled != null;
+    }
+
+    /**
+     * Sets whether {@link #optimize()} compiles expressions to bytecode.
+     * Expressions that can't be compiled are always interpreted.
+     *
+     * @param enabled true to compile expressions
+     */
+    public static void setCompilerEnabled(boolean enabled) {
+        compilerEnabled = enabled;
     }
 
     @Override
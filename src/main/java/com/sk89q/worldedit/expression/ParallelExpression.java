@@ -0,0 +1,239 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.expression;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sk89q.worldedit.expression.runtime.EvaluationException;
+import com.sk89q.worldedit.expression.runtime.RValue;
+
+/**
+ * Evaluates an expression for many sets of variable values at once.
+ *
+ * If the expression is {@link Expression#isThreadSafe() thread-safe}, the
+ * values are split into slices that are evaluated by several threads, each
+ * with its own {@link Expression#copy() copy} of the expression. The calling
+ * thread takes part in the evaluation. Other expressions are evaluated by the
+ * calling thread alone.
+ */
+public class ParallelExpression {
+    private static final int MAX_THREADS = 8;
+    private static final int SLICE_SIZE = 256;
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final Expression expression;
+    private final String[] outputNames;
+    private final int threads;
+    private final List<Evaluator> evaluators = new ArrayList<Evaluator>();
+    private ExecutorService executor;
+
+    /**
+     * Create a new instance.
+     *
+     * @param expression the optimized expression
+     * @param outputNames the variables to read after each evaluation
+     */
+    public ParallelExpression(Expression expression, String... outputNames) {
+        this.expression = expression;
+        this.outputNames = outputNames;
+        this.threads = expression.isThreadSafe() ? Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()) : 1;
+        evaluators.add(new Evaluator(expression));
+    }
+
+    /**
+     * Get the number of values each evaluation takes, which is the number of
+     * variable names the expression was compiled with.
+     *
+     * @return the number of values
+     */
+    public int getInputStride() {
+        return expression.variableNames.length;
+    }
+
+    /**
+     * Get the number of values each evaluation produces, which is the
+     * result followed by the values of the output variables.
+     *
+     * @return the number of values
+     */
+    public int getOutputStride() {
+        return outputNames.length + 1;
+    }
+
+    /**
+     * Evaluate the expression several times.
+     *
+     * @param inputs the values of the variables of each evaluation, {@link #getInputStride()} per evaluation
+     * @param outputs receives the result and output variables of each evaluation, {@link #getOutputStride()} per evaluation
+     * @param count the number of evaluations
+     * @throws ExpressionException thrown if an evaluation fails or the expression couldn't be copied
+     */
+    public void evaluate(double[] inputs, double[] outputs, int count) throws ExpressionException {
+        if (threads <= 1 || count <= SLICE_SIZE) {
+            evaluators.get(0).evaluate(inputs, outputs, 0, count);
+            return;
+        }
+
+        if (executor == null) {
+            while (evaluators.size() < threads) {
+                evaluators.add(new Evaluator(expression.copy()));
+            }
+            executor = Executors.newFixedThreadPool(threads - 1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "WorldEdit Expression Evaluator #" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        final Batch batch = new Batch(inputs, outputs, count);
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 1; i < evaluators.size(); ++i) {
+            futures.add(executor.submit(new Worker(evaluators.get(i), batch)));
+        }
+
+        ExpressionException error = null;
+        try {
+            new Worker(evaluators.get(0), batch).call();
+        } catch (ExpressionException e) {
+            error = e;
+            batch.failed = true;
+        }
+
+        // Wait for all workers, as they write into the output array
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                batch.failed = true;
+            } catch (ExecutionException e) {
+                batch.failed = true;
+                if (error == null) {
+                    if (e.getCause() instanceof ExpressionException) {
+                        error = (ExpressionException) e.getCause();
+                    } else if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    } else {
+                        throw new RuntimeException(e.getCause());
+                    }
+                }
+            }
+        }
+
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Stop the threads of this instance.
+     */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * Evaluates one copy of the expression.
+     */
+    private class Evaluator {
+        private final Expression expression;
+        private final RValue[] outputs;
+
+        private Evaluator(Expression expression) {
+            this.expression = expression;
+            outputs = new RValue[outputNames.length];
+            for (int i = 0; i < outputs.length; ++i) {
+                outputs[i] = expression.getVariable(outputNames[i], false);
+            }
+        }
+
+        private void evaluate(double[] inputs, double[] outputs, int start, int end) throws EvaluationException {
+            final int inputStride = expression.variableNames.length;
+            final int outputStride = this.outputs.length + 1;
+            final double[] values = new double[inputStride];
+            for (int i = start; i < end; ++i) {
+                System.arraycopy(inputs, i * inputStride, values, 0, inputStride);
+                outputs[i * outputStride] = expression.evaluate(values);
+                for (int j = 0; j < this.outputs.length; ++j) {
+                    outputs[i * outputStride + j + 1] = this.outputs[j] == null ? 0 : this.outputs[j].getValue();
+                }
+            }
+        }
+    }
+
+    /**
+     * The values of one call to {@link #evaluate(double[], double[], int)},
+     * handed out to the workers in slices.
+     */
+    private static class Batch {
+        private final double[] inputs;
+        private final double[] outputs;
+        private final int count;
+        private final AtomicInteger next = new AtomicInteger();
+        private volatile boolean failed = false;
+
+        private Batch(double[] inputs, double[] outputs, int count) {
+            this.inputs = inputs;
+            this.outputs = outputs;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Evaluates slices of a batch until none are left.
+     */
+    private static class Worker implements Callable<Void> {
+        private final Evaluator evaluator;
+        private final Batch batch;
+
+        private Worker(Evaluator evaluator, Batch batch) {
+            this.evaluator = evaluator;
+            this.batch = batch;
+        }
+
+        @Override
+        public Void call() throws ExpressionException {
+            int start;
+            while (!batch.failed && (start = batch.next.getAndAdd(SLICE_SIZE)) < batch.count) {
+                try {
+                    evaluator.evaluate(batch.inputs, batch.outputs, start, Math.min(start + SLICE_SIZE, batch.count));
+                } catch (ExpressionException e) {
+                    batch.failed = true;
+                    throw e;
+                }
+            }
+            return null;
+        }
+    }
+}
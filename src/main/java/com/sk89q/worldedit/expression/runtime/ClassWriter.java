@@ -0,0 +1,479 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.expression.runtime;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal writer for class files, used to emit compiled expressions.
+ *
+ * Classes are written with version 49 so that the verifier infers stack
+ * map frames by itself.
+ */
+final class ClassWriter {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    private static final int MAX_CODE_LENGTH = 65535;
+
+    private final Map<String, Integer> constantIndices = new HashMap<String, Integer>();
+    private final ByteArrayOutputStream constantBytes = new ByteArrayOutputStream();
+    private final DataOutputStream constants = new DataOutputStream(constantBytes);
+    private int constantCount = 1;
+
+    private final ByteArrayOutputStream memberBytes = new ByteArrayOutputStream();
+    private final DataOutputStream fields = new DataOutputStream(memberBytes);
+    private int fieldCount = 0;
+    private final List<Code> methods = new ArrayList<Code>();
+
+    private final String name;
+    private final String superName;
+
+    /**
+     * Create a new class.
+     *
+     * @param name the internal name of the class
+     * @param superName the internal name of the super class
+     */
+    ClassWriter(String name, String superName) {
+        this.name = name;
+        this.superName = superName;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void addField(int access, String name, String descriptor) {
+        try {
+            fields.writeShort(access);
+            fields.writeShort(utf8(name));
+            fields.writeShort(utf8(descriptor));
+            fields.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        ++fieldCount;
+    }
+
+    Code addMethod(int access, String name, String descriptor, int parameterSlots) {
+        final Code code = new Code(access, utf8(name), utf8(descriptor), parameterSlots + 1);
+        methods.add(code);
+        return code;
+    }
+
+    byte[] toByteArray() {
+        final int thisIndex = classRef(name);
+        final int superIndex = classRef(superName);
+        final int codeIndex = utf8("Code");
+
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(constantCount);
+            constantBytes.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisIndex);
+            out.writeShort(superIndex);
+            out.writeShort(0);
+
+            out.writeShort(fieldCount);
+            memberBytes.writeTo(out);
+
+            out.writeShort(methods.size());
+            for (Code code : methods) {
+                code.write(out, codeIndex);
+            }
+
+            out.writeShort(0);
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private int constant(String key) {
+        final Integer index = constantIndices.get(key);
+        return index == null ? -1 : index;
+    }
+
+    private int addConstant(String key, int slots) {
+        final int index = constantCount;
+        constantCount += slots;
+        if (constantCount > 0xFFFF) {
+            throw new ClassTooLargeException();
+        }
+        constantIndices.put(key, index);
+        return index;
+    }
+
+    int utf8(String value) {
+        final String key = "U" + value;
+        int index = constant(key);
+        if (index < 0) {
+            try {
+                index = addConstant(key, 1);
+                constants.writeByte(1);
+                constants.writeUTF(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return index;
+    }
+
+    int classRef(String internalName) {
+        final String key = "C" + internalName;
+        int index = constant(key);
+        if (index < 0) {
+            final int nameIndex = utf8(internalName);
+            try {
+                index = addConstant(key, 1);
+                constants.writeByte(7);
+                constants.writeShort(nameIndex);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return index;
+    }
+
+    int intConstant(int value) {
+        final String key = "I" + value;
+        int index = constant(key);
+        if (index < 0) {
+            try {
+                index = addConstant(key, 1);
+                constants.writeByte(3);
+                constants.writeInt(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return index;
+    }
+
+    int longConstant(long value) {
+        final String key = "J" + value;
+        int index = constant(key);
+        if (index < 0) {
+            try {
+                index = addConstant(key, 2);
+                constants.writeByte(5);
+                constants.writeLong(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return index;
+    }
+
+    int doubleConstant(double value) {
+        final long bits = Double.doubleToRawLongBits(value);
+        final String key = "D" + bits;
+        int index = constant(key);
+        if (index < 0) {
+            try {
+                index = addConstant(key, 2);
+                constants.writeByte(6);
+                constants.writeLong(bits);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return index;
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        final String key = tag + owner + "." + name + ":" + descriptor;
+        int index = constant(key);
+        if (index < 0) {
+            final int ownerIndex = classRef(owner);
+            final int nameAndType = nameAndType(name, descriptor);
+            try {
+                index = addConstant(key, 1);
+                constants.writeByte(tag);
+                constants.writeShort(ownerIndex);
+                constants.writeShort(nameAndType);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return index;
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        final String key = "N" + name + ":" + descriptor;
+        int index = constant(key);
+        if (index < 0) {
+            final int nameIndex = utf8(name);
+            final int descriptorIndex = utf8(descriptor);
+            try {
+                index = addConstant(key, 1);
+                constants.writeByte(12);
+                constants.writeShort(nameIndex);
+                constants.writeShort(descriptorIndex);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return index;
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(9, owner, name, descriptor);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return memberRef(10, owner, name, descriptor);
+    }
+
+    int interfaceMethodRef(String owner, String name, String descriptor) {
+        return memberRef(11, owner, name, descriptor);
+    }
+
+    /**
+     * Thrown if a class exceeds one of the limits of the class file format.
+     */
+    static class ClassTooLargeException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * A jump target in a method.
+     */
+    static final class Label {
+        private int position = -1;
+        private int stack = -1;
+        private final List<Integer> references = new ArrayList<Integer>();
+    }
+
+    /**
+     * The code of a method. The operand stack depth is tracked as
+     * instructions are added, in slots.
+     */
+    final class Code {
+        private final int access;
+        private final int nameIndex;
+        private final int descriptorIndex;
+        private byte[] code = new byte[256];
+        private int length = 0;
+        private int stack = 0;
+        private int maxStack = 0;
+        private int maxLocals;
+        private final List<Label> labels = new ArrayList<Label>();
+
+        private Code(int access, int nameIndex, int descriptorIndex, int maxLocals) {
+            this.access = access;
+            this.nameIndex = nameIndex;
+            this.descriptorIndex = descriptorIndex;
+            this.maxLocals = maxLocals;
+        }
+
+        /**
+         * Get the current operand stack depth.
+         *
+         * @return the depth in slots
+         */
+        int getStack() {
+            return stack;
+        }
+
+        /**
+         * Set the operand stack depth, for code following an unconditional
+         * jump.
+         *
+         * @param stack the depth in slots
+         */
+        void setStack(int stack) {
+            this.stack = stack;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        int allocateLocal(int slots) {
+            final int index = maxLocals;
+            maxLocals += slots;
+            return index;
+        }
+
+        private void adjustStack(int delta) {
+            setStack(stack + delta);
+        }
+
+        private void put(int value) {
+            if (length == code.length) {
+                if (length >= MAX_CODE_LENGTH) {
+                    throw new ClassTooLargeException();
+                }
+                final byte[] newCode = new byte[code.length * 2];
+                System.arraycopy(code, 0, newCode, 0, length);
+                code = newCode;
+            }
+            code[length++] = (byte) value;
+        }
+
+        private void putShort(int value) {
+            put(value >> 8);
+            put(value);
+        }
+
+        void op(int opcode, int stackDelta) {
+            put(opcode);
+            adjustStack(stackDelta);
+        }
+
+        void op1(int opcode, int operand, int stackDelta) {
+            put(opcode);
+            put(operand);
+            adjustStack(stackDelta);
+        }
+
+        void op2(int opcode, int operand, int stackDelta) {
+            put(opcode);
+            putShort(operand);
+            adjustStack(stackDelta);
+        }
+
+        void local(int opcode, int index, int stackDelta) {
+            if (index > 0xFF) {
+                put(0xC4); // wide
+                op2(opcode, index, stackDelta);
+            } else {
+                op1(opcode, index, stackDelta);
+            }
+        }
+
+        void increment(int index, int amount) {
+            if (index > 0xFF) {
+                put(0xC4); // wide
+                put(0x84);
+                putShort(index);
+                putShort(amount);
+            } else {
+                put(0x84);
+                put(index);
+                put(amount);
+            }
+        }
+
+        void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                op(0x03 + value, 1); // iconst_<n>
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op1(0x10, value, 1); // bipush
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op2(0x11, value, 1); // sipush
+            } else {
+                final int index = intConstant(value);
+                if (index > 0xFF) {
+                    op2(0x13, index, 1); // ldc_w
+                } else {
+                    op1(0x12, index, 1); // ldc
+                }
+            }
+        }
+
+        void pushLong(long value) {
+            op2(0x14, longConstant(value), 2); // ldc2_w
+        }
+
+        void pushDouble(double value) {
+            if (Double.doubleToRawLongBits(value) == 0L) {
+                op(0x0E, 2); // dconst_0
+            } else if (value == 1.0) {
+                op(0x0F, 2); // dconst_1
+            } else {
+                op2(0x14, doubleConstant(value), 2); // ldc2_w
+            }
+        }
+
+        void invokeInterface(int index, int argumentSlots, int stackDelta) {
+            put(0xB9);
+            putShort(index);
+            put(argumentSlots);
+            put(0);
+            adjustStack(stackDelta);
+        }
+
+        void jump(int opcode, Label label, int stackDelta) {
+            final int position = length;
+            put(opcode);
+            putShort(0);
+            adjustStack(stackDelta);
+            if (label.stack < 0) {
+                label.stack = stack;
+            }
+            if (label.references.isEmpty()) {
+                labels.add(label);
+            }
+            label.references.add(position);
+        }
+
+        void mark(Label label) {
+            label.position = length;
+            if (label.stack >= 0) {
+                setStack(label.stack);
+            } else {
+                label.stack = stack;
+            }
+        }
+
+        private void write(DataOutputStream out, int codeIndex) throws IOException {
+            resolveJumps();
+            out.writeShort(access);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+            out.writeShort(1);
+            out.writeShort(codeIndex);
+            out.writeInt(12 + length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(length);
+            out.write(code, 0, length);
+            out.writeShort(0);
+            out.writeShort(0);
+        }
+
+        private void resolveJumps() {
+            for (Label label : labels) {
+                for (int position : label.references) {
+                    final int offset = label.position - position;
+                    if (label.position < 0 || offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                        throw new ClassTooLargeException();
+                    }
+                    code[position + 1] = (byte) (offset >> 8);
+                    code[position + 2] = (byte) offset;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.expression.runtime;
+
+import java.util.Set;
+
+/**
+ * An expression compiled to bytecode by {@link ExpressionCompiler}.
+ *
+ * Variables are read from and written to the same {@link Variable} objects
+ * that the interpreted tree uses, so both can be used interchangeably.
+ */
+public abstract class CompiledExpression {
+    private final boolean usesInterpreter;
+    private final boolean threadSafe;
+
+    protected CompiledExpression(RValue[] interpretedNodes) {
+        usesInterpreter = interpretedNodes.length > 0;
+
+        boolean threadSafe = true;
+        for (RValue node : interpretedNodes) {
+            threadSafe &= isThreadSafe(node);
+        }
+        this.threadSafe = threadSafe;
+    }
+
+    /**
+     * Evaluate the expression with the current values of its variables.
+     *
+     * @return the result
+     * @throws EvaluationException thrown on evaluation error
+     */
+    public abstract double evaluate() throws EvaluationException;
+
+    /**
+     * Assign the first three parameters of the expression and evaluate it.
+     *
+     * @param x the value of the first parameter
+     * @param y the value of the second parameter
+     * @param z the value of the third parameter
+     * @return the result
+     * @throws EvaluationException thrown on evaluation error
+     */
+    public abstract double evaluate(double x, double y, double z) throws EvaluationException;
+
+    /**
+     * Check whether parts of the expression are still run by the
+     * interpreter. Only those parts can call functions that need the
+     * current {@link com.sk89q.worldedit.expression.Expression} instance or
+     * throw a {@link ReturnException}.
+     *
+     * @return true if some nodes are interpreted
+     */
+    public boolean usesInterpreter() {
+        return usesInterpreter;
+    }
+
+    /**
+     * Check whether copies of the expression can be evaluated on several
+     * threads at once. This is not the case if an interpreted node calls a
+     * function that reads the world or keeps state between evaluations,
+     * such as query or megabuf.
+     *
+     * @return true if copies can be evaluated concurrently
+     */
+    public boolean isThreadSafe() {
+        return threadSafe;
+    }
+
+    private static boolean isThreadSafe(RValue node) {
+        if (node == null || node instanceof Constant || node instanceof Variable || node instanceof Break) {
+            return true;
+        }
+
+        if (node instanceof Function) {
+            final Function function = (Function) node;
+            final Class<?> declaringClass = function.method.getDeclaringClass();
+            if (declaringClass == Functions.class) {
+                // random and randint use a thread-safe Random
+                final String name = function.method.getName();
+                if (function.method.isAnnotationPresent(Function.Dynamic.class) && !name.equals("random") && !name.equals("randint")) {
+                    return false;
+                }
+            } else if (declaringClass != Operators.class) {
+                return false;
+            }
+            return areThreadSafe(function.args);
+        }
+
+        if (node instanceof Sequence) {
+            return areThreadSafe(((Sequence) node).sequence);
+        }
+
+        if (node instanceof Conditional) {
+            final Conditional conditional = (Conditional) node;
+            return areThreadSafe(conditional.condition, conditional.truePart, conditional.falsePart);
+        }
+
+        if (node instanceof For) {
+            final For loop = (For) node;
+            return areThreadSafe(loop.init, loop.condition, loop.increment, loop.body);
+        }
+
+        if (node instanceof SimpleFor) {
+            final SimpleFor loop = (SimpleFor) node;
+            return areThreadSafe(loop.counter, loop.first, loop.last, loop.body);
+        }
+
+        if (node instanceof While) {
+            final While loop = (While) node;
+            return areThreadSafe(loop.condition, loop.body);
+        }
+
+        if (node instanceof Switch) {
+            final Switch switchNode = (Switch) node;
+            return areThreadSafe(switchNode.parameter, switchNode.defaultCase) && areThreadSafe(switchNode.caseStatements);
+        }
+
+        if (node instanceof Return) {
+            return isThreadSafe(((Return) node).value);
+        }
+
+        return false;
+    }
+
+    private static boolean areThreadSafe(RValue... nodes) {
+        for (RValue node : nodes) {
+            if (!isThreadSafe(node)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check whether an expression assigns to any variable that is not one of
+     * the given variables, including loop counters.
+     *
+     * @param node the root of the expression
+     * @param allowed the variables that may be assigned
+     * @return true if another variable is assigned
+     */
+    public static boolean assignsVariables(RValue node, Set<RValue> allowed) {
+        if (node instanceof Function) {
+            final Function function = (Function) node;
+            final Class<?>[] parameterTypes = function.method.getParameterTypes();
+            if (parameterTypes.length > 0 && LValue.class.isAssignableFrom(parameterTypes[0])
+                    && !allowed.contains(function.args[0])) {
+                return true;
+            }
+            return assignsVariables(allowed, function.args);
+        }
+
+        if (node instanceof Sequence) {
+            return assignsVariables(allowed, ((Sequence) node).sequence);
+        }
+
+        if (node instanceof Conditional) {
+            final Conditional conditional = (Conditional) node;
+            return assignsVariables(allowed, conditional.condition, conditional.truePart, conditional.falsePart);
+        }
+
+        if (node instanceof For) {
+            final For loop = (For) node;
+            return assignsVariables(allowed, loop.init, loop.condition, loop.increment, loop.body);
+        }
+
+        if (node instanceof SimpleFor) {
+            final SimpleFor loop = (SimpleFor) node;
+            return !allowed.contains(loop.counter) || assignsVariables(allowed, loop.first, loop.last, loop.body);
+        }
+
+        if (node instanceof While) {
+            final While loop = (While) node;
+            return assignsVariables(allowed, loop.condition, loop.body);
+        }
+
+        if (node instanceof Switch) {
+            final Switch switchNode = (Switch) node;
+            return assignsVariables(allowed, switchNode.parameter, switchNode.defaultCase)
+                    || assignsVariables(allowed, switchNode.caseStatements);
+        }
+
+        if (node instanceof Return) {
+            return assignsVariables(((Return) node).value, allowed);
+        }
+
+        return false;
+    }
+
+    private static boolean assignsVariables(Set<RValue> allowed, RValue... nodes) {
+        for (RValue node : nodes) {
+            if (assignsVariables(node, allowed)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected static EvaluationException loopLimitExceeded(int position) {
+        return new EvaluationException(position, "Loop exceeded 256 iterations.");
+    }
+
+    protected static double near(double lhs, double rhs) {
+        return Operators.almostEqual2sComplement(lhs, rhs, 450359963L) ? 1.0 : 0.0;
+    }
+
+    protected static double fac(double x) {
+        return Operators.factorial((int) x);
+    }
+}
@@ -0,0 +1,947 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.expression.runtime;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sk89q.worldedit.expression.runtime.ClassWriter.ClassTooLargeException;
+import com.sk89q.worldedit.expression.runtime.ClassWriter.Code;
+import com.sk89q.worldedit.expression.runtime.ClassWriter.Label;
+
+/**
+ * Compiles an optimized expression tree to a class with a primitive
+ * evaluate method, which saves the reflective calls and boxing of
+ * {@link Function}.
+ *
+ * Operators, the math functions and all control structures are compiled to
+ * bytecode. Calls to other functions are left to the interpreter, which
+ * evaluates those nodes like before. If a tree can't be compiled at all,
+ * {@link #compile(RValue, Variable...)} returns null and the expression
+ * should be interpreted instead.
+ */
+public final class ExpressionCompiler {
+    private static final String BASE_CLASS = "com/sk89q/worldedit/expression/runtime/CompiledExpression";
+    private static final String VARIABLE_CLASS = "com/sk89q/worldedit/expression/runtime/Variable";
+    private static final String VARIABLE = "L" + VARIABLE_CLASS + ";";
+    private static final String RVALUE_CLASS = "com/sk89q/worldedit/expression/runtime/RValue";
+    private static final String RVALUE = "L" + RVALUE_CLASS + ";";
+    private static final String EVALUATION_EXCEPTION = "Lcom/sk89q/worldedit/expression/runtime/EvaluationException;";
+
+    private static final int ICONST_0 = 0x03;
+    private static final int ILOAD = 0x15;
+    private static final int DLOAD = 0x18;
+    private static final int ALOAD_0 = 0x2A;
+    private static final int ALOAD_1 = 0x2B;
+    private static final int ALOAD_2 = 0x2C;
+    private static final int AALOAD = 0x32;
+    private static final int ISTORE = 0x36;
+    private static final int LSTORE = 0x37;
+    private static final int LLOAD = 0x16;
+    private static final int DSTORE = 0x39;
+    private static final int POP2 = 0x58;
+    private static final int DUP = 0x59;
+    private static final int DUP2 = 0x5C;
+    private static final int DUP2_X1 = 0x5D;
+    private static final int DADD = 0x63;
+    private static final int DSUB = 0x67;
+    private static final int DMUL = 0x6B;
+    private static final int DDIV = 0x6F;
+    private static final int DREM = 0x73;
+    private static final int DNEG = 0x77;
+    private static final int LSHL = 0x79;
+    private static final int LSHR = 0x7B;
+    private static final int LXOR = 0x83;
+    private static final int L2I = 0x88;
+    private static final int L2D = 0x8A;
+    private static final int D2L = 0x8F;
+    private static final int LCMP = 0x94;
+    private static final int DCMPL = 0x97;
+    private static final int DCMPG = 0x98;
+    private static final int IFEQ = 0x99;
+    private static final int IFNE = 0x9A;
+    private static final int IFLT = 0x9B;
+    private static final int IFGE = 0x9C;
+    private static final int IFGT = 0x9D;
+    private static final int IFLE = 0x9E;
+    private static final int IF_ICMPLE = 0xA4;
+    private static final int GOTO = 0xA7;
+    private static final int DRETURN = 0xAF;
+    private static final int RETURN = 0xB1;
+    private static final int GETFIELD = 0xB4;
+    private static final int PUTFIELD = 0xB5;
+    private static final int INVOKEVIRTUAL = 0xB6;
+    private static final int INVOKESPECIAL = 0xB7;
+    private static final int INVOKESTATIC = 0xB8;
+    private static final int ATHROW = 0xBF;
+
+    private static final Map<String, String> mathFunctions = new HashMap<String, String>();
+    private static final Map<String, Integer> arithmeticOperators = new HashMap<String, Integer>();
+    private static final Map<String, Integer> assignmentOperators = new HashMap<String, Integer>();
+    private static final Map<String, int[]> comparisonOperators = new HashMap<String, int[]>();
+
+    static {
+        for (String name : new String[] { "sin", "cos", "tan", "asin", "acos", "atan", "sinh", "cosh", "tanh",
+                "sqrt", "cbrt", "abs", "ceil", "floor", "rint", "exp", "log10" }) {
+            mathFunctions.put(name, name);
+        }
+        mathFunctions.put("ln", "log");
+        mathFunctions.put("log", "log");
+
+        arithmeticOperators.put("add", DADD);
+        arithmeticOperators.put("sub", DSUB);
+        arithmeticOperators.put("mul", DMUL);
+        arithmeticOperators.put("div", DDIV);
+        arithmeticOperators.put("mod", DREM);
+
+        // -1 stands for a plain assignment, 0 for a power
+        assignmentOperators.put("ass", -1);
+        assignmentOperators.put("aadd", DADD);
+        assignmentOperators.put("asub", DSUB);
+        assignmentOperators.put("amul", DMUL);
+        assignmentOperators.put("adiv", DDIV);
+        assignmentOperators.put("amod", DREM);
+        assignmentOperators.put("aexp", 0);
+
+        // The comparison instruction and the jump taken if the comparison is false.
+        // dcmpg and dcmpl are chosen so that comparisons with NaN are false.
+        comparisonOperators.put("lth", new int[] { DCMPG, IFGE });
+        comparisonOperators.put("gth", new int[] { DCMPL, IFLE });
+        comparisonOperators.put("leq", new int[] { DCMPG, IFGT });
+        comparisonOperators.put("geq", new int[] { DCMPL, IFLT });
+        comparisonOperators.put("equ", new int[] { DCMPL, IFNE });
+        comparisonOperators.put("neq", new int[] { DCMPL, IFEQ });
+    }
+
+    private static final AtomicInteger classCount = new AtomicInteger();
+
+    private final ClassWriter writer;
+    private final Map<Variable, String> variableFields = new IdentityHashMap<Variable, String>();
+    private final List<Variable> variables = new ArrayList<Variable>();
+    private final List<RValue> interpretedNodes = new ArrayList<RValue>();
+    private final LinkedList<JumpTarget> jumpTargets = new LinkedList<JumpTarget>();
+    private Code code;
+
+    private ExpressionCompiler(String className) {
+        writer = new ClassWriter(className, BASE_CLASS);
+    }
+
+    /**
+     * Compile an expression tree.
+     *
+     * @param root the root of the optimized tree
+     * @param parameters the variables assigned by
+     *     {@link CompiledExpression#evaluate(double, double, double)}, up to three
+     * @return the compiled expression, or null if the tree can't be compiled
+     */
+    public static CompiledExpression compile(RValue root, Variable... parameters) {
+        final String className = "com/sk89q/worldedit/expression/runtime/GeneratedExpression" + classCount.incrementAndGet();
+        final ExpressionCompiler compiler = new ExpressionCompiler(className);
+
+        final byte[] bytes;
+        try {
+            compiler.compileEvaluate(root);
+            compiler.compileParameterEvaluate(parameters);
+            compiler.compileConstructor();
+            bytes = compiler.writer.toByteArray();
+        } catch (UnsupportedNodeException e) {
+            return null;
+        } catch (ClassTooLargeException e) {
+            return null;
+        }
+
+        final Variable[] variables = compiler.variables.toArray(new Variable[compiler.variables.size()]);
+        final RValue[] interpretedNodes = compiler.interpretedNodes.toArray(new RValue[compiler.interpretedNodes.size()]);
+        try {
+            final Class<?> cls = new Loader(CompiledExpression.class.getClassLoader()).define(className.replace('/', '.'), bytes);
+            final Constructor<?> constructor = cls.getConstructor(Variable[].class, RValue[].class);
+            return (CompiledExpression) constructor.newInstance(variables, interpretedNodes);
+        } catch (LinkageError e) {
+            return null;
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (InstantiationException e) {
+            return null;
+        } catch (IllegalAccessException e) {
+            return null;
+        } catch (InvocationTargetException e) {
+            return null;
+        }
+    }
+
+    private void compileEvaluate(RValue root) throws UnsupportedNodeException {
+        code = writer.addMethod(ClassWriter.ACC_PUBLIC, "evaluate", "()D", 0);
+        compileNode(root);
+        code.op(DRETURN, -2);
+    }
+
+    private void compileParameterEvaluate(Variable[] parameters) {
+        code = writer.addMethod(ClassWriter.ACC_PUBLIC, "evaluate", "(DDD)D", 6);
+        for (int i = 0; i < parameters.length && i < 3; ++i) {
+            loadVariableObject(parameters[i]);
+            code.local(DLOAD, 1 + 2 * i, 2);
+            storeVariable();
+        }
+        code.op(ALOAD_0, 1);
+        code.op2(INVOKEVIRTUAL, writer.methodRef(writer.getName(), "evaluate", "()D"), 1);
+        code.op(DRETURN, -2);
+    }
+
+    private void compileConstructor() {
+        code = writer.addMethod(ClassWriter.ACC_PUBLIC, "<init>", "([" + VARIABLE + "[" + RVALUE + ")V", 2);
+        code.op(ALOAD_0, 1);
+        code.op(ALOAD_2, 1);
+        code.op2(INVOKESPECIAL, writer.methodRef(BASE_CLASS, "<init>", "([" + RVALUE + ")V"), -2);
+        for (int i = 0; i < variables.size(); ++i) {
+            code.op(ALOAD_0, 1);
+            code.op(ALOAD_1, 1);
+            code.pushInt(i);
+            code.op(AALOAD, -1);
+            code.op2(PUTFIELD, writer.fieldRef(writer.getName(), variableFields.get(variables.get(i)), VARIABLE), -2);
+        }
+        for (int i = 0; i < interpretedNodes.size(); ++i) {
+            code.op(ALOAD_0, 1);
+            code.op(ALOAD_2, 1);
+            code.pushInt(i);
+            code.op(AALOAD, -1);
+            code.op2(PUTFIELD, writer.fieldRef(writer.getName(), "node" + i, RVALUE), -2);
+        }
+        code.op(RETURN, 0);
+    }
+
+    /**
+     * Compile a node, leaving its value on the operand stack.
+     *
+     * @param node the node
+     * @throws UnsupportedNodeException thrown if the tree can't be compiled
+     */
+    private void compileNode(RValue node) throws UnsupportedNodeException {
+        final int stack = code.getStack();
+
+        if (node instanceof Constant) {
+            code.pushDouble(((Constant) node).getValue());
+        } else if (node instanceof Variable) {
+            loadVariable((Variable) node);
+        } else if (node instanceof Function) {
+            compileFunction((Function) node);
+        } else if (node instanceof Sequence) {
+            compileSequence((Sequence) node);
+        } else if (node instanceof Conditional) {
+            compileConditional((Conditional) node);
+        } else if (node instanceof For) {
+            compileFor((For) node);
+        } else if (node instanceof SimpleFor) {
+            compileSimpleFor((SimpleFor) node);
+        } else if (node instanceof While) {
+            compileWhile((While) node);
+        } else if (node instanceof Switch) {
+            compileSwitch((Switch) node);
+        } else if (node instanceof Break) {
+            compileBreak((Break) node);
+        } else if (node instanceof Return) {
+            compileNode(((Return) node).value);
+            code.op(DRETURN, -2);
+            code.setStack(stack + 2);
+        } else {
+            throw new UnsupportedNodeException();
+        }
+
+        if (code.getStack() != stack + 2) {
+            throw new IllegalStateException("Unbalanced operand stack after " + node);
+        }
+    }
+
+    private void compileFunction(Function function) throws UnsupportedNodeException {
+        final String name = function.method.getName();
+        final RValue[] args = function.args;
+        final Class<?> declaringClass = function.method.getDeclaringClass();
+
+        if (declaringClass == Operators.class) {
+            if (args.length == 2 && compileBinaryOperator(name, args[0], args[1])) {
+                return;
+            }
+            if (args.length == 1 && compileUnaryOperator(name, args[0])) {
+                return;
+            }
+        } else if (declaringClass == Functions.class && !(function instanceof LValueFunction)) {
+            final String mathName = mathFunctions.get(name);
+            if (mathName != null && args.length == 1) {
+                compileNode(args[0]);
+                invokeMath(mathName, "(D)D", 0);
+                return;
+            }
+
+            if (name.equals("atan2") && args.length == 2) {
+                compileNode(args[0]);
+                compileNode(args[1]);
+                invokeMath("atan2", "(DD)D", -2);
+                return;
+            }
+
+            if ((name.equals("min") || name.equals("max")) && (args.length == 2 || args.length == 3)) {
+                for (RValue arg : args) {
+                    compileNode(arg);
+                }
+                for (int i = 1; i < args.length; ++i) {
+                    invokeMath(name, "(DD)D", -2);
+                }
+                return;
+            }
+
+            if (name.equals("rotate") && args.length == 3 && args[0] instanceof Variable && args[1] instanceof Variable) {
+                compileRotate((Variable) args[0], (Variable) args[1], args[2]);
+                return;
+            }
+
+            if (name.equals("swap") && args.length == 2 && args[0] instanceof Variable && args[1] instanceof Variable) {
+                final int temp = code.allocateLocal(2);
+                loadVariable((Variable) args[0]);
+                code.local(DSTORE, temp, -2);
+                loadVariableObject((Variable) args[0]);
+                loadVariable((Variable) args[1]);
+                storeVariable();
+                loadVariableObject((Variable) args[1]);
+                code.local(DLOAD, temp, 2);
+                storeVariable();
+                code.pushDouble(0.0);
+                return;
+            }
+
+            if (name.equals("round") && args.length == 1) {
+                compileNode(args[0]);
+                invokeMath("round", "(D)J", 0);
+                code.op(L2D, 0);
+                return;
+            }
+        }
+
+        interpret(function);
+    }
+
+    private void compileRotate(Variable x, Variable y, RValue angle) throws UnsupportedNodeException {
+        final int cos = code.allocateLocal(2);
+        final int sin = code.allocateLocal(2);
+        final int xOld = code.allocateLocal(2);
+        final int yOld = code.allocateLocal(2);
+
+        compileNode(angle);
+        code.op(DUP2, 2);
+        invokeMath("cos", "(D)D", 0);
+        code.local(DSTORE, cos, -2);
+        invokeMath("sin", "(D)D", 0);
+        code.local(DSTORE, sin, -2);
+        loadVariable(x);
+        code.local(DSTORE, xOld, -2);
+        loadVariable(y);
+        code.local(DSTORE, yOld, -2);
+
+        loadVariableObject(x);
+        code.local(DLOAD, xOld, 2);
+        code.local(DLOAD, cos, 2);
+        code.op(DMUL, -2);
+        code.local(DLOAD, yOld, 2);
+        code.local(DLOAD, sin, 2);
+        code.op(DMUL, -2);
+        code.op(DSUB, -2);
+        storeVariable();
+
+        loadVariableObject(y);
+        code.local(DLOAD, xOld, 2);
+        code.local(DLOAD, sin, 2);
+        code.op(DMUL, -2);
+        code.local(DLOAD, yOld, 2);
+        code.local(DLOAD, cos, 2);
+        code.op(DMUL, -2);
+        code.op(DADD, -2);
+        storeVariable();
+
+        code.pushDouble(0.0);
+    }
+
+    private boolean compileBinaryOperator(String name, RValue lhs, RValue rhs) throws UnsupportedNodeException {
+        final Integer arithmetic = arithmeticOperators.get(name);
+        if (arithmetic != null) {
+            compileNode(lhs);
+            compileNode(rhs);
+            code.op(arithmetic, -2);
+            return true;
+        }
+
+        if (name.equals("pow")) {
+            compileNode(lhs);
+            compileNode(rhs);
+            invokeMath("pow", "(DD)D", -2);
+            return true;
+        }
+
+        if (comparisonOperators.containsKey(name) || name.equals("and") || name.equals("or")) {
+            final Label isFalse = new Label();
+            final Label end = new Label();
+            if (name.equals("or")) {
+                final Label isTrue = new Label();
+                compileNode(lhs);
+                code.pushDouble(0.0);
+                code.op(DCMPL, -3);
+                code.jump(IFGT, isTrue, -1);
+                compileBranch(rhs, isFalse);
+                code.mark(isTrue);
+            } else {
+                compileBranch(name, lhs, rhs, isFalse);
+            }
+            code.pushDouble(1.0);
+            code.jump(GOTO, end, 0);
+            code.mark(isFalse);
+            code.pushDouble(0.0);
+            code.mark(end);
+            return true;
+        }
+
+        if (name.equals("near")) {
+            compileNode(lhs);
+            compileNode(rhs);
+            code.op2(INVOKESTATIC, writer.methodRef(BASE_CLASS, "near", "(DD)D"), -2);
+            return true;
+        }
+
+        if (name.equals("shl") || name.equals("shr")) {
+            compileNode(lhs);
+            code.op(D2L, 0);
+            compileNode(rhs);
+            code.op(D2L, 0);
+            code.op(L2I, -1);
+            code.op(name.equals("shl") ? LSHL : LSHR, -1);
+            code.op(L2D, 0);
+            return true;
+        }
+
+        final Integer assignment = assignmentOperators.get(name);
+        if (assignment != null && lhs instanceof Variable) {
+            loadVariableObject((Variable) lhs);
+            if (assignment == -1) {
+                compileNode(rhs);
+            } else {
+                code.op(DUP, 1);
+                code.op2(GETFIELD, writer.fieldRef(VARIABLE_CLASS, "value", "D"), 1);
+                compileNode(rhs);
+                if (assignment == 0) {
+                    invokeMath("pow", "(DD)D", -2);
+                } else {
+                    code.op(assignment, -2);
+                }
+            }
+            code.op(DUP2_X1, 2);
+            storeVariable();
+            return true;
+        }
+
+        return false;
+    }
+
+    private boolean compileUnaryOperator(String name, RValue argument) throws UnsupportedNodeException {
+        if (name.equals("neg")) {
+            compileNode(argument);
+            code.op(DNEG, 0);
+            return true;
+        }
+
+        if (name.equals("not")) {
+            final Label isFalse = new Label();
+            final Label end = new Label();
+            compileBranch(argument, isFalse);
+            code.pushDouble(0.0);
+            code.jump(GOTO, end, 0);
+            code.mark(isFalse);
+            code.pushDouble(1.0);
+            code.mark(end);
+            return true;
+        }
+
+        if (name.equals("inv")) {
+            compileNode(argument);
+            code.op(D2L, 0);
+            code.pushLong(-1L);
+            code.op(LXOR, -2);
+            code.op(L2D, 0);
+            return true;
+        }
+
+        if (name.equals("fac")) {
+            compileNode(argument);
+            code.op2(INVOKESTATIC, writer.methodRef(BASE_CLASS, "fac", "(D)D"), 0);
+            return true;
+        }
+
+        if (argument instanceof Variable) {
+            final boolean post = name.equals("postinc") || name.equals("postdec");
+            final boolean increment = name.equals("inc") || name.equals("postinc");
+            if (!post && !increment && !name.equals("dec")) {
+                return false;
+            }
+
+            loadVariableObject((Variable) argument);
+            code.op(DUP, 1);
+            code.op2(GETFIELD, writer.fieldRef(VARIABLE_CLASS, "value", "D"), 1);
+            if (post) {
+                code.op(DUP2_X1, 2);
+            }
+            code.pushDouble(1.0);
+            code.op(increment ? DADD : DSUB, -2);
+            if (!post) {
+                code.op(DUP2_X1, 2);
+            }
+            storeVariable();
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Compile a condition, jumping to the given label if it is false.
+     *
+     * @param condition the condition
+     * @param ifFalse the label to jump to
+     * @throws UnsupportedNodeException thrown if the tree can't be compiled
+     */
+    private void compileBranch(RValue condition, Label ifFalse) throws UnsupportedNodeException {
+        if (condition instanceof Function && !(condition instanceof LValueFunction)) {
+            final Function function = (Function) condition;
+            if (function.method.getDeclaringClass() == Operators.class && function.args.length == 2
+                    && compileBranch(function.method.getName(), function.args[0], function.args[1], ifFalse)) {
+                return;
+            }
+        }
+
+        compileNode(condition);
+        code.pushDouble(0.0);
+        code.op(DCMPL, -3);
+        code.jump(IFLE, ifFalse, -1);
+    }
+
+    private boolean compileBranch(String name, RValue lhs, RValue rhs, Label ifFalse) throws UnsupportedNodeException {
+        final int[] comparison = comparisonOperators.get(name);
+        if (comparison != null) {
+            compileNode(lhs);
+            compileNode(rhs);
+            code.op(comparison[0], -3);
+            code.jump(comparison[1], ifFalse, -1);
+            return true;
+        }
+
+        if (name.equals("and")) {
+            compileBranch(lhs, ifFalse);
+            compileBranch(rhs, ifFalse);
+            return true;
+        }
+
+        return false;
+    }
+
+    private void compileSequence(Sequence sequence) throws UnsupportedNodeException {
+        if (sequence.sequence.length == 0) {
+            code.pushDouble(0.0);
+            return;
+        }
+
+        for (int i = 0; i < sequence.sequence.length; ++i) {
+            if (i > 0) {
+                code.op(POP2, -2);
+            }
+            compileNode(sequence.sequence[i]);
+        }
+    }
+
+    private void compileConditional(Conditional conditional) throws UnsupportedNodeException {
+        final Label isFalse = new Label();
+        final Label end = new Label();
+        compileBranch(conditional.condition, isFalse);
+        compileNode(conditional.truePart);
+        code.jump(GOTO, end, 0);
+        code.mark(isFalse);
+        if (conditional.falsePart == null) {
+            code.pushDouble(0.0);
+        } else {
+            compileNode(conditional.falsePart);
+        }
+        code.mark(end);
+    }
+
+    private void compileFor(For loop) throws UnsupportedNodeException {
+        compileNode(loop.init);
+        code.op(POP2, -2);
+
+        final Loop state = startLoop();
+        final Label condition = new Label();
+        final Label increment = new Label();
+        code.mark(condition);
+        compileBranch(loop.condition, state.end);
+        compileBody(loop, loop.body, state, increment);
+        code.mark(increment);
+        compileNode(loop.increment);
+        code.op(POP2, -2);
+        code.jump(GOTO, condition, 0);
+        endLoop(state);
+    }
+
+    private void compileSimpleFor(SimpleFor loop) throws UnsupportedNodeException {
+        if (!(loop.counter instanceof Variable)) {
+            throw new UnsupportedNodeException();
+        }
+
+        final int counter = code.allocateLocal(2);
+        final int last = code.allocateLocal(2);
+        compileNode(loop.first);
+        code.local(DSTORE, counter, -2);
+        compileNode(loop.last);
+        code.local(DSTORE, last, -2);
+
+        final Loop state = startLoop();
+        final Label condition = new Label();
+        final Label increment = new Label();
+        code.mark(condition);
+        code.local(DLOAD, counter, 2);
+        code.local(DLOAD, last, 2);
+        code.op(DCMPG, -3);
+        code.jump(IFGT, state.end, -1);
+
+        checkIterations(loop, state);
+        loadVariableObject((Variable) loop.counter);
+        code.local(DLOAD, counter, 2);
+        storeVariable();
+        compileBody(null, loop.body, state, increment);
+
+        code.mark(increment);
+        code.local(DLOAD, counter, 2);
+        code.pushDouble(1.0);
+        code.op(DADD, -2);
+        code.local(DSTORE, counter, -2);
+        code.jump(GOTO, condition, 0);
+        endLoop(state);
+    }
+
+    private void compileWhile(While loop) throws UnsupportedNodeException {
+        final Loop state = startLoop();
+        final Label condition = new Label();
+        if (loop.footChecked) {
+            final Label top = new Label();
+            code.mark(top);
+            compileBody(loop, loop.body, state, condition);
+            code.mark(condition);
+            compileBranch(loop.condition, state.end);
+            code.jump(GOTO, top, 0);
+        } else {
+            code.mark(condition);
+            compileBranch(loop.condition, state.end);
+            compileBody(loop, loop.body, state, condition);
+            code.jump(GOTO, condition, 0);
+        }
+        endLoop(state);
+    }
+
+    private Loop startLoop() {
+        final Loop state = new Loop();
+        state.iterations = code.allocateLocal(1);
+        state.result = code.allocateLocal(2);
+        code.op(ICONST_0, 1);
+        code.local(ISTORE, state.iterations, -1);
+        code.pushDouble(0.0);
+        code.local(DSTORE, state.result, -2);
+        return state;
+    }
+
+    /**
+     * Compile the body of a loop, storing its value as the result of the
+     * loop. Breaks in the body jump to the end of the loop, continues to
+     * the given label.
+     */
+    private void compileBody(Node loop, RValue body, Loop state, Label next) throws UnsupportedNodeException {
+        if (loop != null) {
+            checkIterations(loop, state);
+        }
+        jumpTargets.addFirst(new JumpTarget(state.end, next, code.getStack()));
+        compileNode(body);
+        jumpTargets.removeFirst();
+        code.local(DSTORE, state.result, -2);
+    }
+
+    private void checkIterations(Node loop, Loop state) {
+        final Label belowLimit = new Label();
+        code.local(ILOAD, state.iterations, 1);
+        code.pushInt(256);
+        code.jump(IF_ICMPLE, belowLimit, -2);
+        code.pushInt(loop.getPosition());
+        code.op2(INVOKESTATIC, writer.methodRef(BASE_CLASS, "loopLimitExceeded", "(I)" + EVALUATION_EXCEPTION), 0);
+        code.op(ATHROW, -1);
+        code.mark(belowLimit);
+        code.increment(state.iterations, 1);
+    }
+
+    private void endLoop(Loop state) {
+        code.mark(state.end);
+        code.local(DLOAD, state.result, 2);
+    }
+
+    private void compileSwitch(Switch node) throws UnsupportedNodeException {
+        compileNode(node.parameter);
+
+        // Cases are looked up through a HashMap<Double, Integer> by the
+        // interpreter, which compares the bits of the doubles
+        final int bits = code.allocateLocal(2);
+        final int result = code.allocateLocal(2);
+        code.op2(INVOKESTATIC, writer.methodRef("java/lang/Double", "doubleToLongBits", "(D)J"), 0);
+        code.local(LSTORE, bits, -2);
+
+        final Label[] cases = new Label[node.caseStatements.length];
+        for (int i = 0; i < cases.length; ++i) {
+            cases[i] = new Label();
+        }
+        for (Map.Entry<Double, Integer> entry : node.valueMap.entrySet()) {
+            code.local(LLOAD, bits, 2);
+            code.pushLong(Double.doubleToLongBits(entry.getKey()));
+            code.op(LCMP, -3);
+            code.jump(IFEQ, cases[entry.getValue()], -1);
+        }
+
+        final int stack = code.getStack();
+        final Label defaultCase = new Label();
+        final Label breakTarget = new Label();
+        final Label end = new Label();
+        code.pushDouble(0.0);
+        code.local(DSTORE, result, -2);
+        code.jump(GOTO, defaultCase, 0);
+
+        jumpTargets.addFirst(new JumpTarget(breakTarget, null, stack));
+        for (int i = 0; i < cases.length; ++i) {
+            code.mark(cases[i]);
+            compileNode(node.caseStatements[i]);
+            code.local(DSTORE, result, -2);
+        }
+        code.mark(defaultCase);
+        if (node.defaultCase == null) {
+            code.local(DLOAD, result, 2);
+        } else {
+            compileNode(node.defaultCase);
+        }
+        jumpTargets.removeFirst();
+        code.jump(GOTO, end, 0);
+
+        code.setStack(stack);
+        code.mark(breakTarget);
+        code.pushDouble(0.0);
+        code.mark(end);
+    }
+
+    private void compileBreak(Break node) throws UnsupportedNodeException {
+        final int stack = code.getStack();
+        for (JumpTarget target : jumpTargets) {
+            if (node.doContinue && target.continueLabel == null) {
+                // A switch passes continues on to the enclosing loop
+                continue;
+            }
+
+            if (target.stack != stack) {
+                throw new UnsupportedNodeException();
+            }
+
+            code.jump(GOTO, node.doContinue ? target.continueLabel : target.breakLabel, 0);
+            code.setStack(stack + 2);
+            return;
+        }
+
+        // Breaks outside of loops are left to the interpreter
+        throw new UnsupportedNodeException();
+    }
+
+    /**
+     * Evaluate a node through the interpreter.
+     *
+     * @param node the node
+     * @throws UnsupportedNodeException thrown if the node can break out of a compiled loop
+     */
+    private void interpret(RValue node) throws UnsupportedNodeException {
+        if (canEscape(node, false, false)) {
+            throw new UnsupportedNodeException();
+        }
+
+        final String field = "node" + interpretedNodes.size();
+        interpretedNodes.add(node);
+        writer.addField(ClassWriter.ACC_PRIVATE | ClassWriter.ACC_FINAL, field, RVALUE);
+
+        code.op(ALOAD_0, 1);
+        code.op2(GETFIELD, writer.fieldRef(writer.getName(), field, RVALUE), 0);
+        code.invokeInterface(writer.interfaceMethodRef(RVALUE_CLASS, "getValue", "()D"), 1, 1);
+    }
+
+    /**
+     * Check whether a break or continue in the given tree can leave it.
+     */
+    private static boolean canEscape(RValue node, boolean inLoop, boolean inSwitch) {
+        if (node == null || node instanceof Constant || node instanceof Variable) {
+            return false;
+        }
+
+        if (node instanceof Break) {
+            return ((Break) node).doContinue ? !inLoop : !inLoop && !inSwitch;
+        }
+
+        if (node instanceof Function) {
+            for (RValue arg : ((Function) node).args) {
+                if (canEscape(arg, inLoop, inSwitch)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        if (node instanceof Sequence) {
+            for (RValue statement : ((Sequence) node).sequence) {
+                if (canEscape(statement, inLoop, inSwitch)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        if (node instanceof Conditional) {
+            final Conditional conditional = (Conditional) node;
+            return canEscape(conditional.condition, inLoop, inSwitch)
+                    || canEscape(conditional.truePart, inLoop, inSwitch)
+                    || canEscape(conditional.falsePart, inLoop, inSwitch);
+        }
+
+        if (node instanceof For) {
+            final For loop = (For) node;
+            return canEscape(loop.init, inLoop, inSwitch)
+                    || canEscape(loop.condition, inLoop, inSwitch)
+                    || canEscape(loop.increment, inLoop, inSwitch);
+        }
+
+        if (node instanceof SimpleFor) {
+            final SimpleFor loop = (SimpleFor) node;
+            return canEscape(loop.counter, inLoop, inSwitch)
+                    || canEscape(loop.first, inLoop, inSwitch)
+                    || canEscape(loop.last, inLoop, inSwitch);
+        }
+
+        if (node instanceof While) {
+            return canEscape(((While) node).condition, inLoop, inSwitch);
+        }
+
+        if (node instanceof Switch) {
+            final Switch switchNode = (Switch) node;
+            if (canEscape(switchNode.parameter, inLoop, inSwitch) || canEscape(switchNode.defaultCase, inLoop, true)) {
+                return true;
+            }
+            for (RValue statement : switchNode.caseStatements) {
+                if (canEscape(statement, inLoop, true)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        if (node instanceof Return) {
+            return canEscape(((Return) node).value, inLoop, inSwitch);
+        }
+
+        return true;
+    }
+
+    private void loadVariableObject(Variable variable) {
+        String field = variableFields.get(variable);
+        if (field == null) {
+            field = "variable" + variables.size();
+            variableFields.put(variable, field);
+            variables.add(variable);
+            writer.addField(ClassWriter.ACC_PRIVATE | ClassWriter.ACC_FINAL, field, VARIABLE);
+        }
+
+        code.op(ALOAD_0, 1);
+        code.op2(GETFIELD, writer.fieldRef(writer.getName(), field, VARIABLE), 0);
+    }
+
+    private void loadVariable(Variable variable) {
+        loadVariableObject(variable);
+        code.op2(GETFIELD, writer.fieldRef(VARIABLE_CLASS, "value", "D"), 1);
+    }
+
+    /**
+     * Store the value on top of the stack in the variable below it.
+     */
+    private void storeVariable() {
+        code.op2(PUTFIELD, writer.fieldRef(VARIABLE_CLASS, "value", "D"), -3);
+    }
+
+    private void invokeMath(String name, String descriptor, int stackDelta) {
+        code.op2(INVOKESTATIC, writer.methodRef("java/lang/Math", name, descriptor), stackDelta);
+    }
+
+    /**
+     * The locals of a loop that is being compiled.
+     */
+    private static class Loop {
+        private int iterations;
+        private int result;
+        private final Label end = new Label();
+    }
+
+    /**
+     * Where breaks and continues jump to. Switches have no continue label.
+     */
+    private static class JumpTarget {
+        private final Label breakLabel;
+        private final Label continueLabel;
+        private final int stack;
+
+        private JumpTarget(Label breakLabel, Label continueLabel, int stack) {
+            this.breakLabel = breakLabel;
+            this.continueLabel = continueLabel;
+            this.stack = stack;
+        }
+    }
+
+    /**
+     * Thrown if a tree contains a node that can't be compiled.
+     */
+    private static class UnsupportedNodeException extends Exception {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Defines each compiled class in its own loader, so it can be unloaded
+     * with its expression.
+     */
+    private static class Loader extends ClassLoader {
+        private Loader(ClassLoader parent) {
+            super(parent);
+        }
+
+        private Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
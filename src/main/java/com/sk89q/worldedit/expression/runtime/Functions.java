@@ -25,6 +25,8 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.sk89q.worldedit.expression.Expression;
 import com.sk89q.worldedit.expression.runtime.Function.Dynamic;
@@ -276,22 +278,26 @@ public static double swap(LValue x, LValue y) throws EvaluationException {
     }
 
 
-    private static final Map<Integer, double[]> gmegabuf = new HashMap<Integer, double[]>();
-    private final Map<Integer, double[]> megabuf = new HashMap<Integer, double[]>();
+    // gmegabuf is shared by all expressions, which may be evaluated on different threads
+    private static final ConcurrentMap<Integer, double[]> gmegabuf = new ConcurrentHashMap<Integer, double[]>();
+    private final ConcurrentMap<Integer, double[]> megabuf = new ConcurrentHashMap<Integer, double[]>();
 
-    private static double[] getSubBuffer(Map<Integer, double[]> megabuf, Integer key) {
+    private static double[] getSubBuffer(ConcurrentMap<Integer, double[]> megabuf, Integer key) {
         double[] ret = megabuf.get(key);
         if (ret == null) {
-            megabuf.put(key, ret = new double[1024]);
+            final double[] existing = megabuf.putIfAbsent(key, ret = new double[1024]);
+            if (existing != null) {
+                ret = existing;
+            }
         }
         return ret;
     }
 
-    private static double getBufferItem(final Map<Integer, double[]> megabuf, final int index) {
+    private static double getBufferItem(final ConcurrentMap<Integer, double[]> megabuf, final int index) {
         return getSubBuffer(megabuf, index & ~1023)[index & 1023];
     }
 
-    private static double setBufferItem(final Map<Integer, double[]> megabuf, final int index, double value) {
+    private static double setBufferItem(final ConcurrentMap<Integer, double[]> megabuf, final int index, double value) {
         return getSubBuffer(megabuf, index & ~1023)[index & 1023] = value;
     }
 
@@ -341,7 +347,7 @@ public static double gclosest(RValue x, RValue y, RValue z, RValue index, RValue
         );
     }
 
-    private static double findClosest(Map<Integer, double[]> megabuf, double x, double y, double z, int index, int count, int stride) {
+    private static double findClosest(ConcurrentMap<Integer, double[]> megabuf, double x, double y, double z, int index, int count, int stride) {
         int closestIndex = -1;
         double minDistanceSquared = Double.MAX_VALUE;
 
@@ -192,8 +192,10 @@ public static double postdec(LValue x) throws EvaluationException {
     }
 
     public static double fac(RValue x) throws EvaluationException {
-        final int n = (int) x.getValue();
+        return factorial((int) x.getValue());
+    }
 
+    static double factorial(int n) {
         if (n < 0) {
             return 0;
         }
@@ -206,7 +208,7 @@ public static double fac(RValue x) throws EvaluationException {
     }
 
     // Usable AlmostEqual function, based on http://www.cygnus-software.com/papers/comparingfloats/comparingfloats.htm
-    private static boolean almostEqual2sComplement(double A, double B, long maxUlps) {
+    static boolean almostEqual2sComplement(double A, double B, long maxUlps) {
         // Make sure maxUlps is non-negative and small enough that the
         // default NAN won't compare as equal to anything.
         //assert(maxUlps > 0 && maxUlps < 4 * 1024 * 1024); // this is for floats, not doubles
@@ -35,10 +35,10 @@
  * @author TomyLobo
  */
 public class Switch extends Node implements RValue {
-    private RValue parameter;
-    private final Map<Double, Integer> valueMap;
-    private final RValue[] caseStatements;
-    private RValue defaultCase;
+    RValue parameter;
+    final Map<Double, Integer> valueMap;
+    final RValue[] caseStatements;
+    RValue defaultCase;
 
     public Switch(int position, RValue parameter, List<Double> values, List<RValue> caseStatements, RValue defaultCase) {
         this(position, parameter, invertList(values), caseStatements, defaultCase);
@@ -27,7 +27,9 @@
  * @author Grum
  */
 
-public class GaussianKernel extends Kernel {
+public class GaussianKernel extends Kernel implements SeparableKernel {
+
+    private final float[] weights;
 
     /**
      * Constructor of the kernel
@@ -38,6 +40,34 @@ public class GaussianKernel extends Kernel {
 
     public GaussianKernel(int radius, double sigma) {
         super(radius * 2 + 1, radius * 2 + 1, createKernel(radius, sigma));
+        weights = createWeights(radius, sigma);
+    }
+
+    @Override
+    public float[] getRowData() {
+        return weights.clone();
+    }
+
+    @Override
+    public float[] getColumnData() {
+        return weights.clone();
+    }
+
+    /**
+     * The weights along one axis. The weight of a cell is the product of the
+     * weights of its X and Z offsets, so each gets the square root of the
+     * normalizing constant.
+     */
+    private static float[] createWeights(int radius, double sigma) {
+        float[] data = new float[radius * 2 + 1];
+
+        double sigma22 = 2 * sigma * sigma;
+        double constant = Math.sqrt(Math.PI * sigma22);
+        for (int x = -radius; x <= radius; ++x) {
+            data[x + radius] = (float) (Math.exp(-(x * x) / sigma22) / constant);
+        }
+
+        return data;
     }
 
     private static float[] createKernel(int radius, double sigma) {
@@ -20,16 +20,38 @@
 package com.sk89q.worldedit.filtering;
 
 import java.awt.image.Kernel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Allows applications of Kernels onto the region's heightmap.
  * Only used for smoothing (with a GaussianKernel).
+ * </p>
+ * Large heightmaps are filtered with a separable kernel on several threads,
+ * which are kept between calls to {@link #filter(int[], int, int)} until
+ * {@link #shutdown()} is called.
  * 
  * @author Grum
  */
 
 public class HeightMapFilter {
+    /**
+     * Heightmaps with at least this many columns are filtered on several
+     * threads.
+     */
+    private static final int PARALLEL_THRESHOLD = 256 * 256;
+    private static final int MIN_ROWS_PER_TASK = 32;
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
     private Kernel kernel;
+    private ExecutorService executor;
 
     /**
      * Construct the HeightMapFilter object.
@@ -76,6 +98,23 @@ public void setKernel(Kernel kernel) {
      * @return the modified heightmap
      */
     public int[] filter(int[] inData, int width, int height) {
+        return filter(inData, width, height, true);
+    }
+
+    /**
+     * Filter with a 2D kernel, optionally only on the calling thread.
+     *
+     * @param inData
+     * @param width
+     * @param height
+     * @param parallel false to filter on the calling thread
+     * @return the modified heightmap
+     */
+    int[] filter(int[] inData, int width, int height, boolean parallel) {
+        if (kernel instanceof SeparableKernel) {
+            return filterSeparable(inData, width, height, (SeparableKernel) kernel, parallel);
+        }
+
         int index = 0;
         float[] matrix = kernel.getKernelData(null);
         int[] outData = new int[inData.length];
@@ -117,4 +156,179 @@ public int[] filter(int[] inData, int width, int height) {
         }
         return outData;
     }
+
+    /**
+     * Filter with a separable kernel, first along the X axis and then along
+     * the Z axis. Coordinates outside of the data are clamped in the same
+     * way as with a 2D kernel, so the result is the same up to rounding.
+     *
+     * @param inData
+     * @param width
+     * @param height
+     * @param separable
+     * @param parallel false to filter on the calling thread
+     * @return the modified heightmap
+     */
+    private int[] filterSeparable(final int[] inData, final int width, final int height, SeparableKernel separable, boolean parallel) {
+        final float[] rowData = separable.getRowData();
+        final float[] columnData = separable.getColumnData();
+        final float[] rows = new float[inData.length];
+        final int[] outData = new int[inData.length];
+
+        final ExecutorService executor = parallel ? getExecutor(width, height) : null;
+        runInBands(executor, height, new Band() {
+            @Override
+            public void filter(int minY, int maxY) {
+                filterRows(inData, rows, width, minY, maxY, rowData);
+            }
+        });
+        runInBands(executor, height, new Band() {
+            @Override
+            public void filter(int minY, int maxY) {
+                filterColumns(rows, outData, width, height, minY, maxY, columnData);
+            }
+        });
+
+        return outData;
+    }
+
+    /**
+     * Stop the threads of this filter. They are started again if needed.
+     */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    private static void filterRows(int[] inData, float[] outData, int width, int minY, int maxY, float[] weights) {
+        final int origin = (weights.length - 1) / 2;
+        for (int y = minY; y < maxY; ++y) {
+            final int rowOffset = y * width;
+            for (int x = 0; x < width; ++x) {
+                float z = 0;
+                for (int kx = 0; kx < weights.length; ++kx) {
+                    float f = weights[kx];
+                    if (f == 0) continue;
+
+                    int offsetX = x + kx - origin;
+                    // Clamp coordinates inside data
+                    if (offsetX < 0 || offsetX >= width) {
+                        offsetX = x;
+                    }
+
+                    z += f * inData[rowOffset + offsetX];
+                }
+                outData[rowOffset + x] = z;
+            }
+        }
+    }
+
+    private static void filterColumns(float[] inData, int[] outData, int width, int height, int minY, int maxY, float[] weights) {
+        final int origin = (weights.length - 1) / 2;
+        final float[] sums = new float[width];
+        for (int y = minY; y < maxY; ++y) {
+            for (int ky = 0; ky < weights.length; ++ky) {
+                float f = weights[ky];
+                if (f == 0) continue;
+
+                int offsetY = y + ky - origin;
+                // Clamp coordinates inside data
+                if (offsetY < 0 || offsetY >= height) {
+                    offsetY = y;
+                }
+
+                // Whole rows at a time, so the data is read in order
+                final int rowOffset = offsetY * width;
+                for (int x = 0; x < width; ++x) {
+                    sums[x] += f * inData[rowOffset + x];
+                }
+            }
+
+            final int rowOffset = y * width;
+            for (int x = 0; x < width; ++x) {
+                outData[rowOffset + x] = (int) (sums[x] + 0.5);
+                sums[x] = 0;
+            }
+        }
+    }
+
+    /**
+     * Get the threads to filter a heightmap with, if it is large enough to
+     * be worth splitting up. The threads are created on first use.
+     *
+     * @param width
+     * @param height
+     * @return the executor, or null to filter on the calling thread
+     */
+    private ExecutorService getExecutor(int width, int height) {
+        final int threads = Math.min(Runtime.getRuntime().availableProcessors(), height / MIN_ROWS_PER_TASK);
+        if ((long) width * height < PARALLEL_THRESHOLD || threads < 2) {
+            return null;
+        }
+
+        if (executor != null) {
+            return executor;
+        }
+
+        return executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "WorldEdit Smooth #" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Filter all rows, split into bands of rows that are filtered on the
+     * threads of the executor. Returns once all bands are done.
+     *
+     * @param executor the executor, or null to filter on the calling thread
+     * @param height the number of rows
+     * @param band the filter for a band of rows
+     */
+    private static void runInBands(ExecutorService executor, int height, final Band band) {
+        if (executor == null) {
+            band.filter(0, height);
+            return;
+        }
+
+        final int bands = Math.max(1, height / MIN_ROWS_PER_TASK);
+        final List<Future<?>> futures = new ArrayList<Future<?>>(bands);
+        for (int i = 0; i < bands; ++i) {
+            final int minY = (int) ((long) height * i / bands);
+            final int maxY = (int) ((long) height * (i + 1) / bands);
+            futures.add(executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    band.filter(minY, maxY);
+                    return null;
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while filtering the heightmap", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Filters a band of rows of the heightmap.
+     */
+    private interface Band {
+        void filter(int minY, int maxY);
+    }
 }
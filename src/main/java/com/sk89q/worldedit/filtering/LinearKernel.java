@@ -20,6 +20,7 @@
 package com.sk89q.worldedit.filtering;
 
 import java.awt.image.Kernel;
+import java.util.Arrays;
 
 /**
  * A linear Kernel generator (all cells weight the same)
@@ -27,10 +28,24 @@
  * @author Grum
  */
 
-public class LinearKernel extends Kernel {
+public class LinearKernel extends Kernel implements SeparableKernel {
+
+    private final float[] weights;
 
     public LinearKernel(int radius) {
         super(radius * 2 + 1, radius * 2 + 1, createKernel(radius));
+        weights = new float[radius * 2 + 1];
+        Arrays.fill(weights, 1.0f / weights.length);
+    }
+
+    @Override
+    public float[] getRowData() {
+        return weights.clone();
+    }
+
+    @Override
+    public float[] getColumnData() {
+        return weights.clone();
     }
 
     private static float[] createKernel(int radius) {
@@ -0,0 +1,45 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.sk89q.worldedit.filtering;
+
+/**
+ * A kernel whose weights are the products of a weight along the X axis and
+ * a weight along the Z axis. {@link HeightMapFilter} applies such a kernel as
+ * two passes over the heightmap, one along each axis, which takes
+ * 2 * diameter steps per column rather than diameter * diameter.
+ */
+public interface SeparableKernel {
+
+    /**
+     * Get the weights along the X axis, from the lowest offset to the
+     * highest. The length is the width of the kernel.
+     *
+     * @return the weights
+     */
+    public float[] getRowData();
+
+    /**
+     * Get the weights along the Z axis, from the lowest offset to the
+     * highest. The length is the height of the kernel.
+     *
+     * @return the weights
+     */
+    public float[] getColumnData();
+
+}
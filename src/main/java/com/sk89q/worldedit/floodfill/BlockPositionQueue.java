@@ -0,0 +1,90 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.floodfill;
+
+/**
+ * A first-in, first-out queue of packed block positions, kept in a ring
+ * buffer that grows as needed.
+ *
+ * @see BlockPositionSet#pack(int, int, int)
+ */
+public class BlockPositionQueue {
+
+    private long[] elements = new long[256];
+    private int head = 0;
+    private int size = 0;
+
+    /**
+     * Add a packed position to the end of the queue.
+     *
+     * @param position the packed position
+     */
+    public void add(long position) {
+        if (size == elements.length) {
+            grow();
+        }
+        elements[(head + size) & (elements.length - 1)] = position;
+        ++size;
+    }
+
+    /**
+     * Remove the packed position at the front of the queue.
+     *
+     * @return the packed position
+     * @throws IllegalStateException if the queue is empty
+     */
+    public long poll() {
+        if (size == 0) {
+            throw new IllegalStateException("The queue is empty");
+        }
+        final long position = elements[head];
+        head = (head + 1) & (elements.length - 1);
+        --size;
+        return position;
+    }
+
+    /**
+     * Returns whether the queue is empty.
+     *
+     * @return true if there are no positions in the queue
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Get the number of positions in the queue.
+     *
+     * @return the number of positions
+     */
+    public int size() {
+        return size;
+    }
+
+    private void grow() {
+        final long[] grown = new long[elements.length * 2];
+        final int tail = elements.length - head;
+        System.arraycopy(elements, head, grown, 0, tail);
+        System.arraycopy(elements, 0, grown, tail, head);
+        elements = grown;
+        head = 0;
+    }
+
+}
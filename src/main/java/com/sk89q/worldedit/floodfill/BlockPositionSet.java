@@ -0,0 +1,220 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.floodfill;
+
+import java.util.Arrays;
+
+/**
+ * A set of block positions, each packed into a <code>long</code> and kept
+ * in an open-addressing hash table, so adding or looking up a position
+ * allocates nothing.
+ * </p>
+ * Positions are packed with 26 bits each for X and Z and 12 bits for Y, so
+ * X and Z must be within &plusmn;33554432 and Y within -2048 to 2047.
+ */
+public class BlockPositionSet {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] table;
+    private int size = 0;
+    private boolean containsEmpty = false;
+
+    /**
+     * Create a new, empty set.
+     */
+    public BlockPositionSet() {
+        table = newTable(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Pack a block position into a <code>long</code>.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     * @return the packed position
+     */
+    public static long pack(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+    }
+
+    /**
+     * Get the X coordinate of a packed position.
+     *
+     * @param position the packed position
+     * @return the X coordinate
+     */
+    public static int unpackX(long position) {
+        return (int) (position >> 38);
+    }
+
+    /**
+     * Get the Y coordinate of a packed position.
+     *
+     * @param position the packed position
+     * @return the Y coordinate
+     */
+    public static int unpackY(long position) {
+        return (int) (position << 52 >> 52);
+    }
+
+    /**
+     * Get the Z coordinate of a packed position.
+     *
+     * @param position the packed position
+     * @return the Z coordinate
+     */
+    public static int unpackZ(long position) {
+        return (int) (position << 26 >> 38);
+    }
+
+    /**
+     * Add a position.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     * @return true if the position wasn't in the set yet
+     */
+    public boolean add(int x, int y, int z) {
+        return add(pack(x, y, z));
+    }
+
+    /**
+     * Add a packed position.
+     *
+     * @param position the packed position
+     * @return true if the position wasn't in the set yet
+     */
+    public boolean add(long position) {
+        if (position == EMPTY) {
+            if (containsEmpty) {
+                return false;
+            }
+            containsEmpty = true;
+            ++size;
+            return true;
+        }
+
+        final int mask = table.length - 1;
+        int slot = hash(position) & mask;
+        while (table[slot] != EMPTY) {
+            if (table[slot] == position) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        table[slot] = position;
+        if (++size * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the set contains a position.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     * @return true if the position is in the set
+     */
+    public boolean contains(int x, int y, int z) {
+        return contains(pack(x, y, z));
+    }
+
+    /**
+     * Returns whether the set contains a packed position.
+     *
+     * @param position the packed position
+     * @return true if the position is in the set
+     */
+    public boolean contains(long position) {
+        if (position == EMPTY) {
+            return containsEmpty;
+        }
+
+        final int mask = table.length - 1;
+        int slot = hash(position) & mask;
+        while (table[slot] != EMPTY) {
+            if (table[slot] == position) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Get the number of positions in the set.
+     *
+     * @return the number of positions
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the approximate number of bytes used by the set.
+     *
+     * @return the number of bytes
+     */
+    public long getMemoryUsage() {
+        return table.length * 8L;
+    }
+
+    private void rehash(int capacity) {
+        final long[] oldTable = table;
+        table = newTable(capacity);
+
+        final int mask = capacity - 1;
+        for (long position : oldTable) {
+            if (position == EMPTY) {
+                continue;
+            }
+            int slot = hash(position) & mask;
+            while (table[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = position;
+        }
+    }
+
+    private static long[] newTable(int capacity) {
+        final long[] table = new long[capacity];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+
+    private static int hash(long position) {
+        // Finalizer of MurmurHash3, spreads the coordinates over all bits
+        long h = position;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+}
@@ -0,0 +1,202 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.floodfill;
+
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.MaxFloodFillBlocksException;
+
+/**
+ * A breadth-first flood fill over block positions.
+ * </p>
+ * Positions are seeded with {@link #add(int, int, int)} and passed to
+ * {@link #visit(int, int, int)} once each; the neighbours of a position
+ * are queued when the visit returns true. Visited positions and the queue
+ * are kept as packed <code>long</code>s, so a fill allocates no objects
+ * per block.
+ */
+public abstract class FloodFill {
+
+    /**
+     * The neighbours a flood fill spreads to.
+     */
+    public enum Connectivity {
+        /**
+         * The four neighbours on the same level.
+         */
+        HORIZONTAL(new int[] {
+            1, 0, 0,  -1, 0, 0,  0, 0, 1,  0, 0, -1,
+        }),
+
+        /**
+         * The six neighbours sharing a face.
+         */
+        FACES(new int[] {
+            1, 0, 0,  -1, 0, 0,  0, 1, 0,  0, -1, 0,  0, 0, 1,  0, 0, -1,
+        }),
+
+        /**
+         * The eighteen neighbours sharing a face or an edge.
+         */
+        EDGES(offsets(2)),
+
+        /**
+         * The twenty-six neighbours sharing a face, an edge or a corner.
+         */
+        CORNERS(offsets(3));
+
+        private final int[] offsets;
+
+        private Connectivity(int[] offsets) {
+            this.offsets = offsets;
+        }
+
+        /**
+         * Get the number of neighbours of a position.
+         *
+         * @return the number of neighbours
+         */
+        public int getNeighborCount() {
+            return offsets.length / 3;
+        }
+
+        /**
+         * Get the offsets to all neighbours of the block at 0, 0, 0 in x, y, z triples.
+         *
+         * @param maxChanged the maximum number of changed coordinates
+         * @return the offsets
+         */
+        private static int[] offsets(int maxChanged) {
+            final int[] offsets = new int[3 * 26];
+            int count = 0;
+            for (int x = -1; x <= 1; ++x) {
+                for (int y = -1; y <= 1; ++y) {
+                    for (int z = -1; z <= 1; ++z) {
+                        final int changed = Math.abs(x) + Math.abs(y) + Math.abs(z);
+                        if (changed == 0 || changed > maxChanged) {
+                            continue;
+                        }
+                        offsets[count++] = x;
+                        offsets[count++] = y;
+                        offsets[count++] = z;
+                    }
+                }
+            }
+
+            final int[] trimmed = new int[count];
+            System.arraycopy(offsets, 0, trimmed, 0, count);
+            return trimmed;
+        }
+    }
+
+    private final int[] offsets;
+    private final BlockPositionSet visited = new BlockPositionSet();
+    private final BlockPositionQueue queue = new BlockPositionQueue();
+    private int maxVisited = -1;
+
+    /**
+     * Create a new flood fill.
+     *
+     * @param connectivity the neighbours to spread to
+     */
+    public FloodFill(Connectivity connectivity) {
+        this.offsets = connectivity.offsets;
+    }
+
+    /**
+     * Set the maximum number of positions the fill may visit.
+     *
+     * @param maxVisited the maximum number of positions, or -1 for no limit
+     */
+    public void setMaxVisited(int maxVisited) {
+        this.maxVisited = maxVisited;
+    }
+
+    /**
+     * Get the maximum number of positions the fill may visit.
+     *
+     * @return the maximum number of positions, or -1 for no limit
+     */
+    public int getMaxVisited() {
+        return maxVisited;
+    }
+
+    /**
+     * Get the number of positions visited or queued so far.
+     *
+     * @return the number of positions
+     */
+    public int getVisitedCount() {
+        return visited.size();
+    }
+
+    /**
+     * Queue a position to visit, unless it has been queued before.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     * @throws MaxChangedBlocksException if too many positions were queued
+     */
+    public void add(int x, int y, int z) throws MaxChangedBlocksException {
+        final long position = BlockPositionSet.pack(x, y, z);
+        if (!visited.add(position)) {
+            return;
+        }
+        if (maxVisited != -1 && visited.size() > maxVisited) {
+            throw new MaxFloodFillBlocksException(maxVisited);
+        }
+        queue.add(position);
+    }
+
+    /**
+     * Visit all queued positions and everything the fill spreads to from them.
+     *
+     * @throws MaxChangedBlocksException if too many positions were visited or changed
+     */
+    public void run() throws MaxChangedBlocksException {
+        final int[] offsets = this.offsets;
+        while (!queue.isEmpty()) {
+            final long position = queue.poll();
+            final int x = BlockPositionSet.unpackX(position);
+            final int y = BlockPositionSet.unpackY(position);
+            final int z = BlockPositionSet.unpackZ(position);
+
+            if (!visit(x, y, z)) {
+                continue;
+            }
+
+            for (int i = 0; i < offsets.length; i += 3) {
+                add(x + offsets[i], y + offsets[i + 1], z + offsets[i + 2]);
+            }
+        }
+    }
+
+    /**
+     * Visit a position.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     * @return true to spread to the neighbours of the position
+     * @throws MaxChangedBlocksException if too many blocks were changed
+     */
+    protected abstract boolean visit(int x, int y, int z) throws MaxChangedBlocksException;
+
+}
@@ -0,0 +1,653 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.history;
+
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.NBTInputStream;
+import com.sk89q.jnbt.NBTOutputStream;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.blocks.ChestBlock;
+import com.sk89q.worldedit.blocks.DispenserBlock;
+import com.sk89q.worldedit.blocks.FurnaceBlock;
+import com.sk89q.worldedit.blocks.MobSpawnerBlock;
+import com.sk89q.worldedit.blocks.NoteBlock;
+import com.sk89q.worldedit.blocks.SignBlock;
+import com.sk89q.worldedit.blocks.SkullBlock;
+import com.sk89q.worldedit.data.DataException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A compact, append-only list of block changes.
+ * </p>
+ * Changes are bucketed by chunk column and each change is packed into a single
+ * <code>long</code> holding the position within the chunk, the type ID and the
+ * data value. Only blocks that carry extra state (tile entities, or any block
+ * that is not a plain {@link BaseBlock}) are kept as objects, in a sparse map
+ * per bucket.
+ * </p>
+ * Within a chunk, changes are visited in the order they were added (or the
+ * reverse order, if the list was created as reversed). The order in which
+ * chunks are visited follows the order in which they were first touched.
+ */
+public class BlockChangeList {
+
+    private static final int INITIAL_BUCKET_CAPACITY = 64;
+    private static final int INITIAL_TABLE_SIZE = 64;
+
+    /**
+     * Approximate heap cost of one bucket, excluding its entry array.
+     */
+    private static final int BUCKET_OVERHEAD = 64;
+
+    private final boolean reversed;
+    private final List<Bucket> buckets = new ArrayList<Bucket>();
+
+    /**
+     * Open-addressing table from chunk key to bucket index + 1 (0 is empty).
+     */
+    private long[] tableKeys = new long[INITIAL_TABLE_SIZE];
+    private int[] tableValues = new int[INITIAL_TABLE_SIZE];
+
+    private Bucket lastBucket;
+    private int size = 0;
+    private int tileEntityCount = 0;
+
+    /**
+     * Construct the list.
+     *
+     * @param reversed true to visit the changes of each chunk from last to first
+     */
+    public BlockChangeList(boolean reversed) {
+        this.reversed = reversed;
+    }
+
+    /**
+     * Returns whether this list is visited in reverse order.
+     *
+     * @return true if reversed
+     */
+    public boolean isReversed() {
+        return reversed;
+    }
+
+    /**
+     * Add a change.
+     *
+     * @param pt the position
+     * @param block the block
+     */
+    public void put(Vector pt, BaseBlock block) {
+        put(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ(), block);
+    }
+
+    /**
+     * Add a change.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     * @param block the block
+     */
+    public void put(int x, int y, int z, BaseBlock block) {
+        if (hasExtraState(block)) {
+            Bucket bucket = getBucket(x >> 4, z >> 4);
+            bucket.add(pack(x, y, z, block.getType(), block.getData()));
+            if (bucket.tileEntities == null) {
+                bucket.tileEntities = new HashMap<Integer, BaseBlock>();
+            }
+            bucket.tileEntities.put(bucket.size - 1, block);
+            ++tileEntityCount;
+            ++size;
+        } else {
+            put(x, y, z, block.getType(), block.getData());
+        }
+    }
+
+    /**
+     * Add a change to a block without extra state.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     * @param type the type ID
+     * @param data the data value
+     */
+    public void put(int x, int y, int z, int type, int data) {
+        getBucket(x >> 4, z >> 4).add(pack(x, y, z, type, data));
+        ++size;
+    }
+
+    /**
+     * Add changes to blocks without extra state in one chunk column at once.
+     * Each block is given as its index within the column, laid out as
+     * <code>y &lt;&lt; 8 | z &lt;&lt; 4 | x</code>, and the same index is used to
+     * look up its type and data.
+     *
+     * @param chunkX the X coordinate of the chunk
+     * @param chunkZ the Z coordinate of the chunk
+     * @param indices the indices of the blocks to add
+     * @param count the number of indices to use
+     * @param types the type IDs of the column
+     * @param data the data values of the column
+     */
+    public void putAll(int chunkX, int chunkZ, int[] indices, int count, int[] types, byte[] data) {
+        if (count == 0) {
+            return;
+        }
+
+        Bucket bucket = getBucket(chunkX, chunkZ);
+        bucket.ensureCapacity(bucket.size + count);
+        for (int i = 0; i < count; ++i) {
+            int index = indices[i];
+            bucket.entries[bucket.size++] = pack(index & 0xF, index >> 8, index >> 4, types[index], data[index]);
+        }
+        size += count;
+    }
+
+    /**
+     * Get the number of changes.
+     *
+     * @return number of changes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether this list has no changes.
+     *
+     * @return true if empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Get the number of chunk columns touched.
+     *
+     * @return number of chunk columns
+     */
+    public int getChunkCount() {
+        return buckets.size();
+    }
+
+    /**
+     * Get the chunk columns touched, in the order they were first touched.
+     *
+     * @return a list of chunk coordinates
+     */
+    public List<BlockVector2D> getChunks() {
+        List<BlockVector2D> chunks = new ArrayList<BlockVector2D>(buckets.size());
+        for (Bucket bucket : buckets) {
+            chunks.add(new BlockVector2D(bucket.chunkX, bucket.chunkZ));
+        }
+        return chunks;
+    }
+
+    /**
+     * Clear the list.
+     */
+    public void clear() {
+        buckets.clear();
+        tableKeys = new long[INITIAL_TABLE_SIZE];
+        tableValues = new int[INITIAL_TABLE_SIZE];
+        lastBucket = null;
+        size = 0;
+        tileEntityCount = 0;
+    }
+
+    /**
+     * Get an estimate of the number of bytes of heap used by this list.
+     * Blocks with extra state are counted at a flat rate, as the size of
+     * their NBT data is not known.
+     *
+     * @return estimated size in bytes
+     */
+    public long getMemoryUsage() {
+        long bytes = tableKeys.length * 12L;
+        for (Bucket bucket : buckets) {
+            bytes += BUCKET_OVERHEAD + bucket.entries.length * 8L;
+        }
+        return bytes + tileEntityCount * 128L;
+    }
+
+    /**
+     * Write the changes to a stream. Blocks with extra state are written as
+     * their type, data and NBT data, including the ID of their tile entity,
+     * which is enough to read signs, containers and the other tile entity
+     * blocks back as the same classes.
+     *
+     * @param out the output
+     * @throws IOException thrown on I/O error
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(size);
+        out.writeInt(buckets.size());
+        for (Bucket bucket : buckets) {
+            out.writeInt(bucket.chunkX);
+            out.writeInt(bucket.chunkZ);
+            out.writeInt(bucket.size);
+            for (int i = 0; i < bucket.size; ++i) {
+                out.writeLong(bucket.entries[i]);
+            }
+
+            if (bucket.tileEntities == null) {
+                out.writeInt(0);
+                continue;
+            }
+
+            out.writeInt(bucket.tileEntities.size());
+            for (Map.Entry<Integer, BaseBlock> entry : bucket.tileEntities.entrySet()) {
+                out.writeInt(entry.getKey());
+                BaseBlock block = entry.getValue();
+                CompoundTag nbtData = block.getNbtData();
+                if (nbtData == null) {
+                    out.writeInt(0);
+                } else {
+                    Map<String, Tag> values = new HashMap<String, Tag>(nbtData.getValue());
+                    if (!block.getNbtId().isEmpty()) {
+                        values.put("id", new StringTag("id", block.getNbtId()));
+                    }
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    NBTOutputStream nbtStream = new NBTOutputStream(bytes);
+                    nbtStream.writeTag(new CompoundTag(nbtData.getName(), values));
+                    nbtStream.close();
+                    out.writeInt(bytes.size());
+                    out.write(bytes.toByteArray());
+                }
+            }
+        }
+    }
+
+    /**
+     * Read changes that were written with {@link #write(DataOutput)}.
+     *
+     * @param in the input
+     * @param reversed true to visit the changes of each chunk from last to first
+     * @return the list
+     * @throws IOException thrown on I/O error or if the data is invalid
+     */
+    public static BlockChangeList read(DataInput in, boolean reversed) throws IOException {
+        BlockChangeList list = new BlockChangeList(reversed);
+        int size = in.readInt();
+        int bucketCount = in.readInt();
+        for (int i = 0; i < bucketCount; ++i) {
+            Bucket bucket = list.getBucket(in.readInt(), in.readInt());
+            int entryCount = in.readInt();
+            bucket.entries = new long[Math.max(entryCount, 1)];
+            for (int j = 0; j < entryCount; ++j) {
+                bucket.entries[j] = in.readLong();
+            }
+            bucket.size = entryCount;
+
+            int tileEntityCount = in.readInt();
+            for (int j = 0; j < tileEntityCount; ++j) {
+                int index = in.readInt();
+                long entry = bucket.entries[index];
+                int type = (int) ((entry >>> 16) & 0xFFFFFF);
+                BaseBlock block = createBlock(type, (short) entry);
+                byte[] bytes = new byte[in.readInt()];
+                if (bytes.length > 0) {
+                    in.readFully(bytes);
+                    NBTInputStream nbtStream = new NBTInputStream(
+                            new GZIPInputStream(new ByteArrayInputStream(bytes)));
+                    Tag tag = nbtStream.readTag();
+                    nbtStream.close();
+                    if (!(tag instanceof CompoundTag)) {
+                        throw new IOException("Expected a compound tag for the block at index " + index);
+                    }
+                    try {
+                        block.setNbtData((CompoundTag) tag);
+                    } catch (DataException e) {
+                        // Keep the data as it is if it doesn't fit the tile entity of the block
+                        block = new BaseBlock(type, (short) entry);
+                        try {
+                            block.setNbtData((CompoundTag) tag);
+                        } catch (DataException e2) {
+                            throw new IOException("Invalid NBT data for the block at index " + index, e2);
+                        }
+                    }
+                }
+                if (bucket.tileEntities == null) {
+                    bucket.tileEntities = new HashMap<Integer, BaseBlock>();
+                }
+                bucket.tileEntities.put(index, block);
+                ++list.tileEntityCount;
+            }
+        }
+        list.size = size;
+        return list;
+    }
+
+    /**
+     * Get a cursor over the changes. The cursor does not allocate while
+     * iterating, unless {@link ChangeCursor#getBlock()} or
+     * {@link ChangeCursor#getPosition()} are called.
+     *
+     * @return a new cursor
+     */
+    public ChangeCursor cursor() {
+        return new ChangeCursor();
+    }
+
+    /**
+     * Create an empty block of the class used for blocks of a type read from
+     * the world, so that its NBT data can be read back into it.
+     *
+     * @param type the type ID
+     * @param data the data value
+     * @return the block
+     */
+    private static BaseBlock createBlock(int type, int data) {
+        switch (type) {
+        case BlockID.WALL_SIGN:
+        case BlockID.SIGN_POST:
+            return new SignBlock(type, data);
+
+        case BlockID.CHEST:
+            return new ChestBlock(data);
+
+        case BlockID.FURNACE:
+        case BlockID.BURNING_FURNACE:
+            return new FurnaceBlock(type, data);
+
+        case BlockID.DISPENSER:
+            return new DispenserBlock(data);
+
+        case BlockID.MOB_SPAWNER:
+            return new MobSpawnerBlock(data);
+
+        case BlockID.NOTE_BLOCK:
+            return new NoteBlock(data);
+
+        case BlockID.HEAD:
+            return new SkullBlock(data);
+
+        default:
+            return new BaseBlock(type, data);
+        }
+    }
+
+    /**
+     * Returns whether a block has state that can't be expressed by its type
+     * and data alone.
+     *
+     * @param block the block
+     * @return true if the block must be kept as an object
+     */
+    private static boolean hasExtraState(BaseBlock block) {
+        return block.getClass() != BaseBlock.class || block.getNbtData() != null;
+    }
+
+    /**
+     * Pack a change into a long. From the high bits down: 16 bits of Y,
+     * 4 bits of X and 4 bits of Z within the chunk, 24 bits of type ID and
+     * 16 bits of data (the data may be -1 for wildcards).
+     */
+    private static long pack(int x, int y, int z, int type, int data) {
+        return ((long) (y & 0xFFFF) << 48)
+                | ((long) (x & 0xF) << 44)
+                | ((long) (z & 0xF) << 40)
+                | ((long) (type & 0xFFFFFF) << 16)
+                | (data & 0xFFFF);
+    }
+
+    private static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private Bucket getBucket(int chunkX, int chunkZ) {
+        Bucket bucket = lastBucket;
+        if (bucket != null && bucket.chunkX == chunkX && bucket.chunkZ == chunkZ) {
+            return bucket;
+        }
+
+        long key = chunkKey(chunkX, chunkZ);
+        int mask = tableKeys.length - 1;
+        int slot = hash(key) & mask;
+        while (tableValues[slot] != 0) {
+            if (tableKeys[slot] == key) {
+                return lastBucket = buckets.get(tableValues[slot] - 1);
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        bucket = new Bucket(chunkX, chunkZ);
+        buckets.add(bucket);
+        tableKeys[slot] = key;
+        tableValues[slot] = buckets.size();
+
+        if (buckets.size() * 2 > tableKeys.length) {
+            rehash();
+        }
+
+        return lastBucket = bucket;
+    }
+
+    private void rehash() {
+        long[] newKeys = new long[tableKeys.length * 2];
+        int[] newValues = new int[tableKeys.length * 2];
+        int mask = newKeys.length - 1;
+        for (int i = 0; i < tableKeys.length; ++i) {
+            if (tableValues[i] == 0) {
+                continue;
+            }
+            int slot = hash(tableKeys[i]) & mask;
+            while (newValues[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            newKeys[slot] = tableKeys[i];
+            newValues[slot] = tableValues[i];
+        }
+        tableKeys = newKeys;
+        tableValues = newValues;
+    }
+
+    /**
+     * The changes made to one chunk column.
+     */
+    private static class Bucket {
+        private final int chunkX;
+        private final int chunkZ;
+        private long[] entries = new long[INITIAL_BUCKET_CAPACITY];
+        private int size = 0;
+        private Map<Integer, BaseBlock> tileEntities;
+
+        private Bucket(int chunkX, int chunkZ) {
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+        }
+
+        private void add(long entry) {
+            if (size == entries.length) {
+                ensureCapacity(size + 1);
+            }
+            entries[size++] = entry;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > entries.length) {
+                long[] newEntries = new long[Math.max(capacity, entries.length + (entries.length >> 1))];
+                System.arraycopy(entries, 0, newEntries, 0, size);
+                entries = newEntries;
+            }
+        }
+    }
+
+    /**
+     * A reusable view over the changes of the list. Call {@link #next()} to
+     * advance, then read the current change with the getters.
+     */
+    public class ChangeCursor {
+        private int bucketIndex;
+        private int entryIndex;
+        private Bucket bucket;
+        private long entry;
+
+        private ChangeCursor() {
+            bucketIndex = reversed ? buckets.size() : -1;
+        }
+
+        /**
+         * Advance to the next change.
+         *
+         * @return false if there are no more changes
+         */
+        public boolean next() {
+            if (reversed) {
+                while (bucket == null || entryIndex == 0) {
+                    if (bucketIndex == 0) {
+                        return false;
+                    }
+                    bucket = buckets.get(--bucketIndex);
+                    entryIndex = bucket.size;
+                }
+                entry = bucket.entries[--entryIndex];
+            } else {
+                while (bucket == null || entryIndex == bucket.size - 1) {
+                    if (bucketIndex == buckets.size() - 1) {
+                        return false;
+                    }
+                    bucket = buckets.get(++bucketIndex);
+                    entryIndex = -1;
+                }
+                entry = bucket.entries[++entryIndex];
+            }
+            return true;
+        }
+
+        private void checkState() {
+            if (bucket == null) {
+                throw new NoSuchElementException();
+            }
+        }
+
+        /**
+         * Get the X coordinate of the current change.
+         *
+         * @return X coordinate
+         */
+        public int getX() {
+            checkState();
+            return (bucket.chunkX << 4) | (int) ((entry >>> 44) & 0xF);
+        }
+
+        /**
+         * Get the Y coordinate of the current change.
+         *
+         * @return Y coordinate
+         */
+        public int getY() {
+            checkState();
+            return (short) (entry >>> 48);
+        }
+
+        /**
+         * Get the Z coordinate of the current change.
+         *
+         * @return Z coordinate
+         */
+        public int getZ() {
+            checkState();
+            return (bucket.chunkZ << 4) | (int) ((entry >>> 40) & 0xF);
+        }
+
+        /**
+         * Get the type ID of the current change.
+         *
+         * @return type ID
+         */
+        public int getType() {
+            checkState();
+            return (int) ((entry >>> 16) & 0xFFFFFF);
+        }
+
+        /**
+         * Get the data value of the current change.
+         *
+         * @return data value
+         */
+        public int getData() {
+            checkState();
+            return (short) entry;
+        }
+
+        /**
+         * Returns whether the current change carries extra state, such as
+         * tile entity data.
+         *
+         * @return true if the block has extra state
+         */
+        public boolean hasExtraState() {
+            checkState();
+            return bucket.tileEntities != null && bucket.tileEntities.containsKey(entryIndex);
+        }
+
+        /**
+         * Get the position of the current change.
+         *
+         * @return a new block vector
+         */
+        public BlockVector getPosition() {
+            return new BlockVector(getX(), getY(), getZ());
+        }
+
+        /**
+         * Get the block of the current change. Blocks with extra state are
+         * returned as they were added; other blocks are created on demand.
+         *
+         * @return the block
+         */
+        public BaseBlock getBlock() {
+            checkState();
+            if (bucket.tileEntities != null) {
+                BaseBlock block = bucket.tileEntities.get(entryIndex);
+                if (block != null) {
+                    return block;
+                }
+            }
+            return new BaseBlock(getType(), getData());
+        }
+    }
+}
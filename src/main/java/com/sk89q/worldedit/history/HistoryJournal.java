@@ -0,0 +1,580 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.history;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * An append-only file of compressed history entries.
+ * </p>
+ * The file starts with a header holding the number of leading entries that
+ * have been discarded and the undo pointer of the owning session. Each entry
+ * is stored as its compressed length followed by the deflated world name and
+ * change lists. Discarded entries are only removed from the file once they
+ * make up most of it.
+ * </p>
+ * Entries added with {@link #appendLater(String, BlockChangeList, BlockChangeList)},
+ * the undo pointer and discarded entries are written to the file by a
+ * background thread shared by all journals, so the server thread doesn't
+ * wait for compression or disk I/O. Entries that are waiting to be written
+ * are read back from memory. If too many are waiting, the next one is
+ * written on the calling thread instead. Once a write fails, the journal
+ * takes no more entries; see {@link #getFailure()}.
+ */
+public class HistoryJournal {
+
+    private static final Logger logger = Logger.getLogger("Minecraft.WorldEdit");
+
+    private static final int MAGIC = 0x57454A4E;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int MAX_PENDING = 4;
+
+    private static final ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "WorldEdit History Writer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final File file;
+    private final List<Long> offsets = new ArrayList<Long>();
+    private final List<Entry> pending = new ArrayList<Entry>();
+    private int discarded = 0;
+    private int pointer = 0;
+    private long length = HEADER_SIZE;
+    private boolean headerDirty = false;
+    private IOException failure;
+
+    private HistoryJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Open a journal, creating it if it doesn't exist. An incomplete entry
+     * at the end of the file, such as one left by a crash, is dropped.
+     *
+     * @param file the file
+     * @return the journal
+     * @throws IOException thrown on I/O error
+     */
+    public static HistoryJournal open(File file) throws IOException {
+        HistoryJournal journal = new HistoryJournal(file);
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Failed to create " + parent);
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() < HEADER_SIZE) {
+                journal.writeHeader(raf);
+                raf.setLength(HEADER_SIZE);
+                return journal;
+            }
+
+            if (raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+                throw new IOException(file + " is not a history journal");
+            }
+            int skip = raf.readInt();
+            journal.pointer = raf.readInt();
+
+            long offset = HEADER_SIZE;
+            long fileLength = raf.length();
+            List<Long> offsets = new ArrayList<Long>();
+            while (offset + 4 <= fileLength) {
+                raf.seek(offset);
+                int entryLength = raf.readInt();
+                if (entryLength < 0 || offset + 4 + entryLength > fileLength) {
+                    break;
+                }
+                offsets.add(offset);
+                offset += 4 + entryLength;
+            }
+
+            if (offset != fileLength) {
+                raf.setLength(offset);
+            }
+
+            skip = Math.min(skip, offsets.size());
+            journal.offsets.addAll(offsets.subList(skip, offsets.size()));
+            journal.discarded = skip;
+            journal.length = offset;
+        } finally {
+            raf.close();
+        }
+
+        return journal;
+    }
+
+    /**
+     * Get the file of this journal.
+     *
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Get the number of entries, including those waiting to be written.
+     *
+     * @return number of entries
+     */
+    public synchronized int size() {
+        return offsets.size() + pending.size();
+    }
+
+    /**
+     * Get the size of the file in bytes.
+     *
+     * @return size in bytes
+     */
+    public synchronized long getFileSize() {
+        return length;
+    }
+
+    /**
+     * Get the error that stopped the journal from being written. Entries
+     * that were waiting to be written when it happened are only held in
+     * memory.
+     *
+     * @return the error, or null if writing hasn't failed
+     */
+    public synchronized IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * Get the stored undo pointer.
+     *
+     * @return the pointer
+     */
+    public synchronized int getPointer() {
+        return pointer;
+    }
+
+    /**
+     * Store the undo pointer. The file is updated in the background.
+     *
+     * @param pointer the pointer
+     */
+    public synchronized void setPointer(int pointer) {
+        if (this.pointer == pointer) {
+            return;
+        }
+        this.pointer = pointer;
+        headerDirty = true;
+        schedule();
+    }
+
+    /**
+     * Append an entry and wait until it has been written.
+     *
+     * @param worldName the name of the world of the entry
+     * @param original the original blocks
+     * @param current the new blocks
+     * @throws IOException thrown on I/O error
+     */
+    public void append(String worldName, BlockChangeList original, BlockChangeList current) throws IOException {
+        synchronized (this) {
+            pending.add(new Entry(worldName, original, current));
+        }
+        flush();
+    }
+
+    /**
+     * Append an entry that is written in the background. The change lists
+     * are kept until then and must not be changed any more. If too many
+     * entries are waiting to be written, they are written before this
+     * returns.
+     *
+     * @param worldName the name of the world of the entry
+     * @param original the original blocks
+     * @param current the new blocks
+     * @throws IOException thrown if an earlier write failed, in which case the entry isn't added, or on I/O error
+     */
+    public void appendLater(String worldName, BlockChangeList original, BlockChangeList current) throws IOException {
+        synchronized (this) {
+            if (failure != null) {
+                throw failure;
+            }
+            pending.add(new Entry(worldName, original, current));
+            if (pending.size() <= MAX_PENDING) {
+                schedule();
+                return;
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Write everything that is waiting to be written on the calling thread.
+     *
+     * @throws IOException thrown on I/O error, including an earlier error of the background thread
+     */
+    public void flush() throws IOException {
+        writePending();
+    }
+
+    /**
+     * Wait until the background thread has written what all journals had
+     * waiting to be written when this was called.
+     */
+    public static void awaitWrites() {
+        try {
+            writer.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.log(Level.WARNING, "WorldEdit: Failed to wait for history journals", e);
+        }
+    }
+
+    /**
+     * Read an entry. The entry is decompressed as it is read from the file.
+     *
+     * @param index the index of the entry, from 0 (the oldest)
+     * @return the entry
+     * @throws IOException thrown on I/O error
+     */
+    public synchronized Entry read(int index) throws IOException {
+        if (index >= offsets.size()) {
+            return pending.get(index - offsets.size());
+        }
+
+        long offset = offsets.get(index);
+        FileInputStream fileIn = new FileInputStream(file);
+        try {
+            fileIn.getChannel().position(offset + 4);
+            DataInputStream in = new DataInputStream(new InflaterInputStream(new BufferedInputStream(fileIn)));
+            String worldName = in.readUTF();
+            BlockChangeList original = BlockChangeList.read(in, true);
+            BlockChangeList current = BlockChangeList.read(in, false);
+            return new Entry(worldName, original, current);
+        } catch (EOFException e) {
+            throw new IOException("Entry " + index + " of " + file + " is truncated", e);
+        } finally {
+            fileIn.close();
+        }
+    }
+
+    /**
+     * Remove all entries after the given number of entries.
+     *
+     * @param count the number of entries to keep
+     * @throws IOException thrown on I/O error
+     */
+    public synchronized void truncate(int count) throws IOException {
+        if (count >= offsets.size()) {
+            count = Math.min(count - offsets.size(), pending.size());
+            pending.subList(count, pending.size()).clear();
+            return;
+        }
+
+        pending.clear();
+        long newLength = offsets.get(count);
+        offsets.subList(count, offsets.size()).clear();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(newLength);
+        } finally {
+            raf.close();
+        }
+        length = newLength;
+    }
+
+    /**
+     * Remove the oldest entries. The file is updated in the background.
+     *
+     * @param count the number of entries to remove
+     */
+    public synchronized void removeFirst(int count) {
+        int fromFile = Math.min(count, offsets.size());
+        offsets.subList(0, fromFile).clear();
+        discarded += fromFile;
+        pending.subList(0, Math.min(count - fromFile, pending.size())).clear();
+        headerDirty = true;
+        schedule();
+    }
+
+    /**
+     * Remove all entries.
+     *
+     * @throws IOException thrown on I/O error
+     */
+    public synchronized void clear() throws IOException {
+        offsets.clear();
+        pending.clear();
+        discarded = 0;
+        pointer = 0;
+        length = HEADER_SIZE;
+        headerDirty = false;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            writeHeader(raf);
+            raf.setLength(HEADER_SIZE);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Delete the file of this journal.
+     *
+     * @return true if the file was deleted
+     */
+    public synchronized boolean delete() {
+        offsets.clear();
+        pending.clear();
+        discarded = 0;
+        pointer = 0;
+        length = HEADER_SIZE;
+        headerDirty = false;
+        return file.delete();
+    }
+
+    private void schedule() {
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writePending();
+                } catch (IOException e) {
+                    // Logged once and kept for getFailure()
+                }
+            }
+        });
+    }
+
+    /**
+     * Write the entries waiting to be written and bring the header and the
+     * discarded entries up to date. Entries are compressed without holding
+     * the lock of the journal, so they can still be read meanwhile.
+     *
+     * @throws IOException thrown on I/O error
+     */
+    private void writePending() throws IOException {
+        while (true) {
+            Entry entry;
+            synchronized (this) {
+                if (failure != null) {
+                    throw failure;
+                }
+                if (pending.isEmpty()) {
+                    try {
+                        updateFile();
+                    } catch (IOException e) {
+                        fail(e);
+                    }
+                    return;
+                }
+                entry = pending.get(0);
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try {
+                DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes));
+                out.writeUTF(entry.getWorldName());
+                entry.getOriginal().write(out);
+                entry.getCurrent().write(out);
+                out.close();
+            } catch (IOException e) {
+                synchronized (this) {
+                    fail(e);
+                }
+            }
+
+            synchronized (this) {
+                // The entry may have been removed while it was compressed
+                if (pending.isEmpty() || pending.get(0) != entry) {
+                    continue;
+                }
+
+                try {
+                    updateFile();
+                    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                    try {
+                        raf.seek(length);
+                        raf.writeInt(bytes.size());
+                        raf.write(bytes.toByteArray());
+                    } finally {
+                        raf.close();
+                    }
+                } catch (IOException e) {
+                    fail(e);
+                }
+
+                pending.remove(0);
+                offsets.add(length);
+                length += 4 + bytes.size();
+            }
+        }
+    }
+
+    /**
+     * Drop discarded entries from the file if they make up most of it, and
+     * write the header if it changed.
+     */
+    private void updateFile() throws IOException {
+        if (offsets.isEmpty() && length > HEADER_SIZE) {
+            discarded = 0;
+            length = HEADER_SIZE;
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(HEADER_SIZE);
+            } finally {
+                raf.close();
+            }
+            headerDirty = true;
+        } else if (!offsets.isEmpty() && offsets.get(0) - HEADER_SIZE > length - offsets.get(0)) {
+            compact();
+        }
+
+        if (headerDirty) {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                writeHeader(raf);
+            } finally {
+                raf.close();
+            }
+            headerDirty = false;
+        }
+    }
+
+    private void fail(IOException e) throws IOException {
+        failure = e;
+        logger.log(Level.WARNING, "WorldEdit: Failed to write history journal " + file, e);
+        throw e;
+    }
+
+    /**
+     * Move the live entries to the start of the file, dropping the
+     * discarded ones.
+     */
+    private void compact() throws IOException {
+        long start = offsets.get(0);
+        long shift = start - HEADER_SIZE;
+        byte[] buffer = new byte[8192];
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            long read = start;
+            long write = HEADER_SIZE;
+            while (read < length) {
+                raf.seek(read);
+                int n = raf.read(buffer, 0, (int) Math.min(buffer.length, length - read));
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                raf.seek(write);
+                raf.write(buffer, 0, n);
+                read += n;
+                write += n;
+            }
+            length -= shift;
+            raf.setLength(length);
+            discarded = 0;
+            writeHeader(raf);
+        } finally {
+            raf.close();
+        }
+
+        for (int i = 0; i < offsets.size(); ++i) {
+            offsets.set(i, offsets.get(i) - shift);
+        }
+    }
+
+    private void writeHeader(RandomAccessFile raf) throws IOException {
+        raf.seek(0);
+        raf.writeInt(MAGIC);
+        raf.writeInt(VERSION);
+        raf.writeInt(discarded);
+        raf.writeInt(pointer);
+    }
+
+    /**
+     * An entry read back from the journal.
+     */
+    public static class Entry {
+        private final String worldName;
+        private final BlockChangeList original;
+        private final BlockChangeList current;
+
+        private Entry(String worldName, BlockChangeList original, BlockChangeList current) {
+            this.worldName = worldName;
+            this.original = original;
+            this.current = current;
+        }
+
+        /**
+         * Get the name of the world the entry was made in.
+         *
+         * @return the world name
+         */
+        public String getWorldName() {
+            return worldName;
+        }
+
+        /**
+         * Get the blocks before the change, in undo order.
+         *
+         * @return the original blocks
+         */
+        public BlockChangeList getOriginal() {
+            return original;
+        }
+
+        /**
+         * Get the blocks after the change.
+         *
+         * @return the new blocks
+         */
+        public BlockChangeList getCurrent() {
+            return current;
+        }
+    }
+}
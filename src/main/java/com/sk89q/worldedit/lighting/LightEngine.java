@@ -0,0 +1,414 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.lighting;
+
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.blocks.BlockType;
+
+import java.util.Arrays;
+
+/**
+ * Computes the sky and block light of a group of chunk columns from their
+ * block types.
+ * </p>
+ * The light of the columns being relit is computed from scratch: block light
+ * spreads from the blocks that emit light, and sky light falls straight down
+ * from the top of the world before it spreads sideways. Both spread with a
+ * breadth-first search over a queue of packed positions. The columns around
+ * them keep their light and act as light sources at the edges.
+ * </p>
+ * The engine only works with arrays and can be run on any thread once the
+ * columns have been added.
+ */
+public class LightEngine {
+
+    /**
+     * Number of blocks in a column, indexed <code>y &lt;&lt; 8 | z &lt;&lt; 4 | x</code>.
+     */
+    public static final int COLUMN_SIZE = 65536;
+
+    private static final int MAX_TYPE = 4095;
+    private static final byte[] opacity = new byte[MAX_TYPE + 1];
+    private static final byte[] emission = new byte[MAX_TYPE + 1];
+
+    static {
+        for (int type = 0; type <= MAX_TYPE; ++type) {
+            opacity[type] = (byte) (BlockType.isTranslucent(type) ? 0 : 15);
+        }
+        opacity[BlockID.LEAVES] = 1;
+        opacity[BlockID.LEAVES2] = 1;
+        opacity[BlockID.WEB] = 1;
+        opacity[BlockID.WATER] = 3;
+        opacity[BlockID.STATIONARY_WATER] = 3;
+        opacity[BlockID.ICE] = 3;
+
+        final int[][] levels = {
+            { BlockID.LAVA, 15 }, { BlockID.STATIONARY_LAVA, 15 }, { BlockID.FIRE, 15 },
+            { BlockID.LIGHTSTONE, 15 }, { BlockID.JACKOLANTERN, 15 }, { BlockID.BEACON, 15 },
+            { BlockID.END_PORTAL, 15 }, { BlockID.REDSTONE_LAMP_ON, 15 }, { BlockID.TORCH, 14 },
+            { BlockID.BURNING_FURNACE, 13 }, { BlockID.PORTAL, 11 }, { BlockID.GLOWING_REDSTONE_ORE, 9 },
+            { BlockID.REDSTONE_REPEATER_ON, 9 }, { BlockID.COMPARATOR_ON, 9 }, { BlockID.REDSTONE_TORCH_ON, 7 },
+            { BlockID.ENDER_CHEST, 7 }, { BlockID.BROWN_MUSHROOM, 1 }, { BlockID.BREWING_STAND, 1 },
+            { BlockID.DRAGON_EGG, 1 }, { BlockID.END_PORTAL_FRAME, 1 },
+        };
+        for (int[] level : levels) {
+            emission[level[0]] = (byte) level[1];
+        }
+    }
+
+    private final int minChunkX;
+    private final int minChunkZ;
+    private final int width;
+    private final int length;
+    private final int height;
+    private final boolean skyLight;
+    private final Column[] columns;
+
+    private int[] queue = new int[4096];
+    private int head = 0;
+    private int tail = 0;
+
+    /**
+     * Create an engine for an area of chunk columns, which must include the
+     * columns around the ones to relight.
+     *
+     * @param minChunkX the smallest X coordinate of the chunks in the area
+     * @param minChunkZ the smallest Z coordinate of the chunks in the area
+     * @param width the number of chunks along the X axis
+     * @param length the number of chunks along the Z axis
+     * @param height the height of the world, at most 256
+     * @param skyLight whether the world has sky light
+     */
+    public LightEngine(int minChunkX, int minChunkZ, int width, int length, int height, boolean skyLight) {
+        if (height > 256 || width * length > 0x8000) {
+            throw new IllegalArgumentException("Area too large for the light engine");
+        }
+
+        this.minChunkX = minChunkX;
+        this.minChunkZ = minChunkZ;
+        this.width = width;
+        this.length = length;
+        this.height = height;
+        this.skyLight = skyLight;
+        this.columns = new Column[width * length];
+    }
+
+    /**
+     * Add a column. The arrays are used by the engine from then on, and
+     * hold the result for columns that are relit.
+     *
+     * @param chunkX the X coordinate of the chunk
+     * @param chunkZ the Z coordinate of the chunk
+     * @param types the type IDs of the column
+     * @param sky the sky light of the column
+     * @param block the block light of the column
+     * @param relight true to relight the column, false to use its light as it is
+     */
+    public void addColumn(int chunkX, int chunkZ, short[] types, byte[] sky, byte[] block, boolean relight) {
+        final Column column = new Column(sky, block, !relight);
+        if (relight) {
+            column.originalSky = sky.clone();
+            column.originalBlock = block.clone();
+        }
+        for (int index = 0; index < COLUMN_SIZE; ++index) {
+            final int type = types[index] & MAX_TYPE;
+            column.props[index] = (byte) (emission[type] << 4 | opacity[type]);
+        }
+        columns[getColumnIndex(chunkX, chunkZ)] = column;
+    }
+
+    /**
+     * Compute the light of the columns to relight.
+     */
+    public void compute() {
+        for (int col = 0; col < columns.length; ++col) {
+            final Column column = columns[col];
+            if (column == null || column.fixed) {
+                continue;
+            }
+
+            Arrays.fill(column.block, (byte) 0);
+            for (int index = 0; index < COLUMN_SIZE; ++index) {
+                final int level = (column.props[index] >> 4) & 0xF;
+                if (level > 0) {
+                    column.block[index] = (byte) level;
+                    enqueue(col << 16 | index);
+                }
+            }
+        }
+        enqueueEdges(false);
+        propagate(false);
+
+        if (skyLight) {
+            final int[][] heightMaps = new int[columns.length][];
+            for (int col = 0; col < columns.length; ++col) {
+                if (columns[col] != null && !columns[col].fixed) {
+                    heightMaps[col] = lightFromAbove(columns[col]);
+                }
+            }
+            for (int col = 0; col < columns.length; ++col) {
+                if (heightMaps[col] != null) {
+                    enqueueSkyLit(col, heightMaps);
+                }
+            }
+            enqueueEdges(true);
+            propagate(true);
+        }
+    }
+
+    /**
+     * Returns whether the light of a section of a relit column has changed.
+     *
+     * @param chunkX the X coordinate of the chunk
+     * @param chunkZ the Z coordinate of the chunk
+     * @param sectionY the index of the section
+     * @return true if the light of the section changed
+     */
+    public boolean isChanged(int chunkX, int chunkZ, int sectionY) {
+        final Column column = columns[getColumnIndex(chunkX, chunkZ)];
+        if (column == null || column.fixed) {
+            return false;
+        }
+
+        final int start = sectionY << 12;
+        for (int index = start; index < start + 4096; ++index) {
+            if (column.sky[index] != column.originalSky[index] || column.block[index] != column.originalBlock[index]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int getColumnIndex(int chunkX, int chunkZ) {
+        final int dx = chunkX - minChunkX;
+        final int dz = chunkZ - minChunkZ;
+        if (dx < 0 || dz < 0 || dx >= width || dz >= length) {
+            throw new IllegalArgumentException("Chunk " + chunkX + ", " + chunkZ + " is outside of the area");
+        }
+        return dz * width + dx;
+    }
+
+    /**
+     * Let sky light fall straight down a column until it is blocked.
+     *
+     * @param column the column
+     * @return the lowest Y of each x, z above which all blocks are fully lit
+     */
+    private int[] lightFromAbove(Column column) {
+        final int[] heightMap = new int[256];
+        Arrays.fill(column.sky, (byte) 0);
+        for (int xz = 0; xz < 256; ++xz) {
+            int level = 15;
+            int y = height - 1;
+            for (; y >= 0; --y) {
+                final int blockOpacity = column.props[y << 8 | xz] & 0xF;
+                if (blockOpacity > 0) {
+                    break;
+                }
+                column.sky[y << 8 | xz] = 15;
+            }
+            heightMap[xz] = y + 1;
+
+            // Partly transparent blocks dim the light on the way down
+            for (; y >= 0; --y) {
+                level -= column.props[y << 8 | xz] & 0xF;
+                if (level <= 0) {
+                    break;
+                }
+                column.sky[y << 8 | xz] = (byte) level;
+            }
+        }
+        return heightMap;
+    }
+
+    /**
+     * Queue the sky lit blocks of a column that are next to a darker block.
+     * Blocks higher than all their neighbours' height maps are fully lit on
+     * every side and don't have to spread.
+     */
+    private void enqueueSkyLit(int col, int[][] heightMaps) {
+        final Column column = columns[col];
+        final int[] heightMap = heightMaps[col];
+        final int dx = col % width;
+        final int dz = col / width;
+        for (int z = 0; z < 16; ++z) {
+            for (int x = 0; x < 16; ++x) {
+                int top = heightMap[z << 4 | x];
+                top = Math.max(top, neighbourHeight(heightMaps, heightMap, x > 0, col, z << 4 | (x - 1), dx > 0, col - 1, z << 4 | 15));
+                top = Math.max(top, neighbourHeight(heightMaps, heightMap, x < 15, col, z << 4 | (x + 1), dx < width - 1, col + 1, z << 4));
+                top = Math.max(top, neighbourHeight(heightMaps, heightMap, z > 0, col, (z - 1) << 4 | x, dz > 0, col - width, 15 << 4 | x));
+                top = Math.max(top, neighbourHeight(heightMaps, heightMap, z < 15, col, (z + 1) << 4 | x, dz < length - 1, col + width, x));
+                top = Math.min(top, height);
+                for (int y = 0; y < top; ++y) {
+                    final int index = y << 8 | z << 4 | x;
+                    if (column.sky[index] > 1) {
+                        enqueue(col << 16 | index);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int neighbourHeight(int[][] heightMaps, int[] heightMap, boolean inside, int col, int xz,
+            boolean hasNeighbour, int neighbourCol, int neighbourXZ) {
+        if (inside) {
+            return heightMap[xz];
+        }
+        if (hasNeighbour && heightMaps[neighbourCol] != null) {
+            return heightMaps[neighbourCol][neighbourXZ];
+        }
+        return 0;
+    }
+
+    /**
+     * Queue the blocks on the sides of the columns that keep their light,
+     * where they touch a column that is relit.
+     */
+    private void enqueueEdges(boolean sky) {
+        for (int col = 0; col < columns.length; ++col) {
+            final Column column = columns[col];
+            if (column == null || !column.fixed) {
+                continue;
+            }
+
+            final int dx = col % width;
+            final int dz = col / width;
+            final byte[] light = sky ? column.sky : column.block;
+            if (dx > 0 && isRelit(col - 1)) {
+                enqueueFace(col, light, 0, 16);
+            }
+            if (dx < width - 1 && isRelit(col + 1)) {
+                enqueueFace(col, light, 15, 16);
+            }
+            if (dz > 0 && isRelit(col - width)) {
+                enqueueFace(col, light, 0, 1);
+            }
+            if (dz < length - 1 && isRelit(col + width)) {
+                enqueueFace(col, light, 15 << 4, 1);
+            }
+        }
+    }
+
+    private boolean isRelit(int col) {
+        return columns[col] != null && !columns[col].fixed;
+    }
+
+    private void enqueueFace(int col, byte[] light, int start, int step) {
+        for (int y = 0; y < height; ++y) {
+            for (int i = 0, index = y << 8 | start; i < 16; ++i, index += step) {
+                if (light[index] > 1) {
+                    enqueue(col << 16 | index);
+                }
+            }
+        }
+    }
+
+    private void propagate(boolean sky) {
+        while (head != tail) {
+            final int entry = queue[head];
+            head = (head + 1) & (queue.length - 1);
+
+            final int col = entry >>> 16;
+            final int index = entry & 0xFFFF;
+            final Column column = columns[col];
+            final int level = (sky ? column.sky : column.block)[index];
+            if (level <= 1) {
+                continue;
+            }
+
+            final int x = index & 0xF;
+            final int z = (index >> 4) & 0xF;
+            final int y = index >> 8;
+            final int dx = col % width;
+            final int dz = col / width;
+
+            if (x > 0) {
+                spread(col, index - 1, level, sky);
+            } else if (dx > 0) {
+                spread(col - 1, index + 15, level, sky);
+            }
+            if (x < 15) {
+                spread(col, index + 1, level, sky);
+            } else if (dx < width - 1) {
+                spread(col + 1, index - 15, level, sky);
+            }
+            if (z > 0) {
+                spread(col, index - 16, level, sky);
+            } else if (dz > 0) {
+                spread(col - width, index + 240, level, sky);
+            }
+            if (z < 15) {
+                spread(col, index + 16, level, sky);
+            } else if (dz < length - 1) {
+                spread(col + width, index - 240, level, sky);
+            }
+            if (y > 0) {
+                spread(col, index - 256, level, sky);
+            }
+            if (y < height - 1) {
+                spread(col, index + 256, level, sky);
+            }
+        }
+    }
+
+    private void spread(int col, int index, int level, boolean sky) {
+        final Column column = columns[col];
+        if (column == null || column.fixed) {
+            return;
+        }
+
+        final int next = level - Math.max(1, column.props[index] & 0xF);
+        final byte[] light = sky ? column.sky : column.block;
+        if (next > light[index]) {
+            light[index] = (byte) next;
+            enqueue(col << 16 | index);
+        }
+    }
+
+    private void enqueue(int entry) {
+        queue[tail] = entry;
+        tail = (tail + 1) & (queue.length - 1);
+        if (tail == head) {
+            // Full: double the queue, unwrapping it
+            final int[] grown = new int[queue.length * 2];
+            final int split = queue.length - head;
+            System.arraycopy(queue, head, grown, 0, split);
+            System.arraycopy(queue, 0, grown, split, head);
+            head = 0;
+            tail = queue.length;
+            queue = grown;
+        }
+    }
+
+    private static class Column {
+        private final byte[] props = new byte[COLUMN_SIZE];
+        private final byte[] sky;
+        private final byte[] block;
+        private final boolean fixed;
+        private byte[] originalSky;
+        private byte[] originalBlock;
+
+        private Column(byte[] sky, byte[] block, boolean fixed) {
+            this.sky = sky;
+            this.block = block;
+            this.fixed = fixed;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.lighting;
+
+import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldedit.LocalWorld;
+import com.sk89q.worldedit.operation.Operation;
+import com.sk89q.worldedit.operation.ProgressiveOperation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recomputes the light of chunk columns after they have been changed without
+ * lighting updates, such as in fast mode.
+ * </p>
+ * The columns are relit in tiles of a few chunks. For each tile, the columns
+ * and the columns around them are copied from the world, the light is
+ * computed by a {@link LightEngine} on a worker thread, and the sections
+ * whose light changed are written back and sent to clients again. Worlds that
+ * can't copy light levels get {@link LocalWorld#fixLighting(Iterable)}
+ * instead.
+ * </p>
+ * Chunks whose blocks were changed can be given to be sent again with the
+ * relit columns, whether their light changed or not, so that they are only
+ * sent once after a fast mode edit.
+ */
+public class RelightOperation implements ProgressiveOperation {
+
+    private static final int TILE_SIZE = 4;
+    private static final int COLUMNS_PER_STEP = 8;
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final LocalWorld world;
+    private final List<BlockVector2D> chunks;
+    private final List<List<BlockVector2D>> tiles = new ArrayList<List<BlockVector2D>>();
+    private final Set<BlockVector2D> resend;
+    private int tilesDone = 0;
+    private Tile tile;
+    private ExecutorService executor;
+    private boolean unsupported = false;
+
+    /**
+     * Create the operation.
+     *
+     * @param world the world
+     * @param chunks the chunk columns to relight
+     */
+    public RelightOperation(LocalWorld world, Collection<BlockVector2D> chunks) {
+        this(world, chunks, Collections.<BlockVector2D>emptySet());
+    }
+
+    /**
+     * Create the operation.
+     *
+     * @param world the world
+     * @param chunks the chunk columns to relight
+     * @param resend the chunk columns to send to clients again once they are relit
+     */
+    public RelightOperation(LocalWorld world, Collection<BlockVector2D> chunks, Collection<BlockVector2D> resend) {
+        this.world = world;
+        this.chunks = new ArrayList<BlockVector2D>(chunks);
+        this.resend = new HashSet<BlockVector2D>(resend);
+
+        final Map<BlockVector2D, List<BlockVector2D>> tileMap = new LinkedHashMap<BlockVector2D, List<BlockVector2D>>();
+        for (BlockVector2D chunk : this.chunks) {
+            final BlockVector2D key = new BlockVector2D(chunk.getBlockX() >> 2, chunk.getBlockZ() >> 2);
+            List<BlockVector2D> columns = tileMap.get(key);
+            if (columns == null) {
+                columns = new ArrayList<BlockVector2D>(TILE_SIZE * TILE_SIZE);
+                tileMap.put(key, columns);
+            }
+            columns.add(chunk);
+        }
+        tiles.addAll(tileMap.values());
+    }
+
+    @Override
+    public Operation resume() {
+        if (tile == null) {
+            if (tilesDone >= tiles.size()) {
+                stop();
+                sendRemaining();
+                return null;
+            }
+            tile = new Tile(tiles.get(tilesDone));
+        }
+
+        try {
+            if (!tile.resume()) {
+                // The tile was dropped if the operation got cancelled
+                if (tile == null) {
+                    return null;
+                }
+                tile = null;
+                ++tilesDone;
+            }
+        } catch (RuntimeException e) {
+            cancel();
+            throw e;
+        }
+
+        if (unsupported) {
+            world.fixLighting(chunks);
+            cancel();
+            return null;
+        }
+
+        return this;
+    }
+
+    @Override
+    public void cancel() {
+        tile = null;
+        tilesDone = tiles.size();
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        sendRemaining();
+    }
+
+    @Override
+    public double getProgress() {
+        return tiles.isEmpty() ? 1 : (double) tilesDone / tiles.size();
+    }
+
+    private void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * Send the chunks that were to be sent with their light but haven't
+     * been, as the operation stopped early.
+     */
+    private void sendRemaining() {
+        if (!resend.isEmpty()) {
+            world.fixAfterFastMode(new ArrayList<BlockVector2D>(resend));
+            resend.clear();
+        }
+    }
+
+    private Future<LightEngine> submit(final LightEngine engine) {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "WorldEdit Relight #" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return executor.submit(new Callable<LightEngine>() {
+            @Override
+            public LightEngine call() {
+                engine.compute();
+                return engine;
+            }
+        });
+    }
+
+    /**
+     * The columns of one tile, as they go from being copied to being written.
+     */
+    private class Tile {
+        private final Set<BlockVector2D> relit;
+        private final List<BlockVector2D> toRead = new ArrayList<BlockVector2D>();
+        private final Map<BlockVector2D, byte[][]> light = new LinkedHashMap<BlockVector2D, byte[][]>();
+        private final LightEngine engine;
+        private final List<BlockVector2D> changed = new ArrayList<BlockVector2D>();
+        private int readIndex = 0;
+        private Future<LightEngine> future;
+        private List<BlockVector2D> toWrite;
+        private int writeIndex = 0;
+
+        private Tile(List<BlockVector2D> columns) {
+            relit = new HashSet<BlockVector2D>(columns);
+            int minX = Integer.MAX_VALUE;
+            int minZ = Integer.MAX_VALUE;
+            int maxX = Integer.MIN_VALUE;
+            int maxZ = Integer.MIN_VALUE;
+            for (BlockVector2D column : columns) {
+                toRead.add(column);
+                minX = Math.min(minX, column.getBlockX());
+                minZ = Math.min(minZ, column.getBlockZ());
+                maxX = Math.max(maxX, column.getBlockX());
+                maxZ = Math.max(maxZ, column.getBlockZ());
+            }
+
+            // The columns next to the relit ones provide the light from outside
+            final Set<BlockVector2D> around = new HashSet<BlockVector2D>();
+            for (BlockVector2D column : columns) {
+                final int x = column.getBlockX();
+                final int z = column.getBlockZ();
+                around.add(new BlockVector2D(x - 1, z));
+                around.add(new BlockVector2D(x + 1, z));
+                around.add(new BlockVector2D(x, z - 1));
+                around.add(new BlockVector2D(x, z + 1));
+            }
+            around.removeAll(relit);
+            toRead.addAll(around);
+
+            engine = new LightEngine(minX - 1, minZ - 1, maxX - minX + 3, maxZ - minZ + 3,
+                    world.getMaxY() + 1, world.hasSkyLight());
+        }
+
+        /**
+         * Do the next step.
+         *
+         * @return false once the tile has been written
+         */
+        private boolean resume() {
+            if (readIndex < toRead.size()) {
+                final int end = Math.min(toRead.size(), readIndex + COLUMNS_PER_STEP);
+                for (; readIndex < end; ++readIndex) {
+                    final BlockVector2D column = toRead.get(readIndex);
+                    final short[] types = new short[LightEngine.COLUMN_SIZE];
+                    final byte[] sky = new byte[LightEngine.COLUMN_SIZE];
+                    final byte[] block = new byte[LightEngine.COLUMN_SIZE];
+                    if (!world.copyLighting(column.getBlockX(), column.getBlockZ(), types, sky, block)) {
+                        unsupported = true;
+                        return false;
+                    }
+
+                    final boolean relight = relit.contains(column);
+                    engine.addColumn(column.getBlockX(), column.getBlockZ(), types, sky, block, relight);
+                    if (relight) {
+                        light.put(column, new byte[][] { sky, block });
+                    }
+                }
+                return true;
+            }
+
+            if (future == null) {
+                future = submit(engine);
+                return true;
+            }
+
+            if (toWrite == null) {
+                // Don't hold up the tick while the light is computed
+                if (!future.isDone()) {
+                    return true;
+                }
+
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancel();
+                    return false;
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new RuntimeException(e.getCause());
+                }
+                toWrite = new ArrayList<BlockVector2D>(light.keySet());
+            }
+
+            final int end = Math.min(toWrite.size(), writeIndex + COLUMNS_PER_STEP);
+            for (; writeIndex < end; ++writeIndex) {
+                final BlockVector2D column = toWrite.get(writeIndex);
+                final byte[][] levels = light.get(column);
+                boolean columnChanged = false;
+                for (int sectionY = 0; sectionY <= world.getMaxY() >> 4; ++sectionY) {
+                    if (engine.isChanged(column.getBlockX(), column.getBlockZ(), sectionY)
+                            && world.setLighting(column.getBlockX(), column.getBlockZ(), sectionY, levels[0], levels[1])) {
+                        columnChanged = true;
+                    }
+                }
+                if (resend.remove(column) || columnChanged) {
+                    changed.add(column);
+                }
+            }
+
+            if (writeIndex < toWrite.size()) {
+                return true;
+            }
+
+            if (!changed.isEmpty()) {
+                world.fixAfterFastMode(changed);
+            }
+            return false;
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package com.sk89q.worldedit.masks;
 
+import java.util.BitSet;
+
+import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.LocalPlayer;
 import com.sk89q.worldedit.LocalSession;
 import com.sk89q.worldedit.Vector;
@@ -8,4 +11,11 @@ public abstract class AbstractMask implements Mask {
     @Override
     public void prepare(LocalSession session, LocalPlayer player, Vector target) {
     }
+
+    @Override
+    public void matchesRun(EditSession editSession, int x, int y, int z, int length, BitSet result) {
+        for (int i = 0; i < length; ++i) {
+            result.set(i, matches(editSession, new Vector(x + i, y, z)));
+        }
+    }
 }
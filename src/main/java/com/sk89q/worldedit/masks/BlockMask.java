@@ -1,5 +1,6 @@
 package com.sk89q.worldedit.masks;
 
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
@@ -9,8 +10,16 @@
 import com.sk89q.worldedit.blocks.BaseBlock;
 
 public class BlockMask extends AbstractMask {
+    private static final int MAX_TABLE_TYPE = 4095;
+
     private final Set<BaseBlock> blocks;
 
+    /**
+     * The blocks compiled into a table indexed by <code>type &lt;&lt; 4 | data</code>,
+     * built on first use.
+     */
+    private boolean[] table;
+
     public BlockMask() {
         blocks = new HashSet<BaseBlock>();
     }
@@ -26,16 +35,65 @@ public BlockMask(BaseBlock block) {
 
     public void add(BaseBlock block) {
         blocks.add(block);
+        table = null;
     }
 
     public void addAll(Collection<BaseBlock> blocks) {
-        blocks.addAll(blocks);
+        this.blocks.addAll(blocks);
+        table = null;
     }
 
     @Override
     public boolean matches(EditSession editSession, Vector pos) {
-        BaseBlock block = editSession.getBlock(pos);
-        return  blocks.contains(block)
-                || blocks.contains(new BaseBlock(block.getType(), -1));
-   }
+        return matches(editSession.getBlockType(pos), editSession.getBlockData(pos));
+    }
+
+    @Override
+    public void matchesRun(EditSession editSession, int x, int y, int z, int length, BitSet result) {
+        for (int i = 0; i < length; ++i) {
+            result.set(i, matches(editSession.getBlockType(x + i, y, z), editSession.getBlockData(x + i, y, z)));
+        }
+    }
+
+    private boolean matches(int type, int data) {
+        final boolean[] table = getTable();
+        final int index = type << 4 | data;
+        if (type >= 0 && type <= MAX_TABLE_TYPE && data >= 0 && data <= 15) {
+            return index < table.length && table[index];
+        }
+
+        return blocks.contains(new BaseBlock(type, data))
+                || blocks.contains(new BaseBlock(type, -1));
+    }
+
+    private boolean[] getTable() {
+        if (table == null) {
+            int maxType = -1;
+            for (BaseBlock block : blocks) {
+                if (block.getType() <= MAX_TABLE_TYPE) {
+                    maxType = Math.max(maxType, block.getType());
+                }
+            }
+
+            final boolean[] table = new boolean[(maxType + 1) << 4];
+            for (BaseBlock block : blocks) {
+                final int type = block.getType();
+                final int data = block.getData();
+                if (type < 0 || type > MAX_TABLE_TYPE) {
+                    continue;
+                }
+
+                if (data == -1) {
+                    for (int i = 0; i < 16; ++i) {
+                        table[type << 4 | i] = true;
+                    }
+                } else if (data >= 0 && data <= 15) {
+                    table[type << 4 | data] = true;
+                }
+            }
+            this.table = table;
+        }
+
+        return table;
+    }
 }
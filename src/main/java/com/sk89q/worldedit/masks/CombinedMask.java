@@ -20,6 +20,7 @@
 package com.sk89q.worldedit.masks;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.LocalPlayer;
@@ -69,4 +70,33 @@ public boolean matches(EditSession editSession, Vector pos) {
 
         return true;
     }
+
+    @Override
+    public void matchesRun(EditSession editSession, int x, int y, int z, int length, BitSet result) {
+        if (masks.isEmpty()) {
+            result.set(0, length);
+            return;
+        }
+
+        masks.get(0).matchesRun(editSession, x, y, z, length, result);
+
+        BitSet other = null;
+        for (int i = 1; i < masks.size(); ++i) {
+            final int first = result.nextSetBit(0);
+            if (first < 0 || first >= length) {
+                return;
+            }
+
+            if (other == null) {
+                other = new BitSet(length);
+            }
+            masks.get(i).matchesRun(editSession, x, y, z, length, other);
+
+            for (int j = first; j >= 0 && j < length; j = result.nextSetBit(j + 1)) {
+                if (!other.get(j)) {
+                    result.clear(j);
+                }
+            }
+        }
+    }
 }
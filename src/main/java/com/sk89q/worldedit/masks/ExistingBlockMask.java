@@ -19,6 +19,8 @@
 
 package com.sk89q.worldedit.masks;
 
+import java.util.BitSet;
+
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.blocks.BlockID;
@@ -28,4 +30,11 @@ public class ExistingBlockMask extends AbstractMask {
     public boolean matches(EditSession editSession, Vector pos) {
         return editSession.getBlockType(pos) != BlockID.AIR;
     }
+
+    @Override
+    public void matchesRun(EditSession editSession, int x, int y, int z, int length, BitSet result) {
+        for (int i = 0; i < length; ++i) {
+            result.set(i, editSession.getBlockType(x + i, y, z) != BlockID.AIR);
+        }
+    }
 }
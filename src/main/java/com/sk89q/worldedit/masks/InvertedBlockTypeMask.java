@@ -19,6 +19,7 @@
 
 package com.sk89q.worldedit.masks;
 
+import java.util.BitSet;
 import java.util.Set;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.Vector;
@@ -51,4 +52,10 @@ public InvertedBlockTypeMask(int type) {
     public boolean matches(EditSession editSession, Vector pos) {
         return !super.matches(editSession, pos);
     }
+
+    @Override
+    public void matchesRun(EditSession editSession, int x, int y, int z, int length, BitSet result) {
+        super.matchesRun(editSession, x, y, z, length, result);
+        result.flip(0, length);
+    }
 }
@@ -1,5 +1,7 @@
 package com.sk89q.worldedit.masks;
 
+import java.util.BitSet;
+
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.LocalPlayer;
 import com.sk89q.worldedit.LocalSession;
@@ -21,6 +23,12 @@ public boolean matches(EditSession editSession, Vector pos) {
         return !mask.matches(editSession, pos);
     }
 
+    @Override
+    public void matchesRun(EditSession editSession, int x, int y, int z, int length, BitSet result) {
+        mask.matchesRun(editSession, x, y, z, length, result);
+        result.flip(0, length);
+    }
+
     public Mask getInvertedMask() {
         return mask;
     }
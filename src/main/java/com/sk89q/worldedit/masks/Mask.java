@@ -19,6 +19,8 @@
 
 package com.sk89q.worldedit.masks;
 
+import java.util.BitSet;
+
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.LocalPlayer;
 import com.sk89q.worldedit.LocalSession;
@@ -54,4 +56,19 @@ public interface Mask {
      * @return
      */
     boolean matches(EditSession editSession, Vector pos);
+
+    /**
+     * Tests a run of blocks along the X axis at once, from x, y, z to
+     * x + length - 1, y, z. Bit i of the result is set if the block at
+     * x + i matches the filter and cleared otherwise; the bits from length
+     * on are left alone.
+     *
+     * @param editSession
+     * @param x the X coordinate of the first block
+     * @param y the Y coordinate of the blocks
+     * @param z the Z coordinate of the blocks
+     * @param length the number of blocks
+     * @param result the bit set to store the results in
+     */
+    void matchesRun(EditSession editSession, int x, int y, int z, int length, BitSet result);
 }
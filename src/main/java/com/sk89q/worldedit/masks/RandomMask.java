@@ -1,5 +1,7 @@
 package com.sk89q.worldedit.masks;
 
+import java.util.BitSet;
+
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.Vector;
 
@@ -14,4 +16,11 @@ public RandomMask(double ratio) {
     public boolean matches(EditSession editSession, Vector pos) {
         return Math.random() < ratio;
     }
+
+    @Override
+    public void matchesRun(EditSession editSession, int x, int y, int z, int length, BitSet result) {
+        for (int i = 0; i < length; ++i) {
+            result.set(i, Math.random() < ratio);
+        }
+    }
 }
@@ -1,5 +1,7 @@
 package com.sk89q.worldedit.masks;
 
+import java.util.BitSet;
+
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.blocks.BlockType;
@@ -12,4 +14,11 @@ public class SolidBlockMask extends AbstractMask {
     public boolean matches(EditSession editSession, Vector pos) {
         return !BlockType.canPassThrough(editSession.getBlockType(pos), editSession.getBlockData(pos));
     }
+
+    @Override
+    public void matchesRun(EditSession editSession, int x, int y, int z, int length, BitSet result) {
+        for (int i = 0; i < length; ++i) {
+            result.set(i, !BlockType.canPassThrough(editSession.getBlockType(x + i, y, z), editSession.getBlockData(x + i, y, z)));
+        }
+    }
 }
@@ -19,6 +19,7 @@
 
 package com.sk89q.worldedit.masks;
 
+import java.util.BitSet;
 import java.util.Set;
 
 import com.sk89q.worldedit.EditSession;
@@ -70,4 +71,16 @@ public void prepare(LocalSession session, LocalPlayer player, Vector target) {
     public boolean matches(EditSession editSession, Vector pos) {
         return !mask.matches(editSession, pos) && mask.matches(editSession, pos.add(0, yMod, 0));
     }
+
+    @Override
+    public void matchesRun(EditSession editSession, int x, int y, int z, int length, BitSet result) {
+        final BitSet neighbors = new BitSet(length);
+        mask.matchesRun(editSession, x, y + yMod, z, length, neighbors);
+        mask.matchesRun(editSession, x, y, z, length, result);
+
+        // Only the bits of the run are set in the neighbors
+        neighbors.andNot(result);
+        result.clear(0, length);
+        result.or(neighbors);
+    }
 }
@@ -0,0 +1,395 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.operation;
+
+import com.sk89q.worldedit.WorldEditException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs operations a step at a time within a time budget per tick.
+ * </p>
+ * Operations are queued per owner (usually a player name) and the
+ * operations of one owner are run in the order they were submitted. Each
+ * tick, owners take turns running a single step of their oldest operation
+ * until the time budget is used up, so one large operation can't keep the
+ * operations of other owners from making progress.
+ * </p>
+ * {@link #tick()} must be called from the thread that is allowed to
+ * change the world, as must every other method of this class.
+ * </p>
+ * An operation that fails with an unexpected error is cancelled, its
+ * listener is told, and the error is logged, so that the operations queued
+ * behind it still run.
+ */
+public class OperationQueue {
+
+    private static final Logger logger = Logger.getLogger("Minecraft.WorldEdit");
+
+    private final Map<String, Deque<Job>> jobs = new HashMap<String, Deque<Job>>();
+    private final Deque<String> turns = new ArrayDeque<String>();
+    private long budget;
+    private long progressInterval = 5000;
+
+    /**
+     * Create a new queue.
+     *
+     * @param budget the time to spend per tick, in milliseconds, or 0 to run every operation to completion when it is submitted
+     */
+    public OperationQueue(long budget) {
+        setBudget(budget);
+    }
+
+    /**
+     * Get the time to spend per tick.
+     *
+     * @return the time in milliseconds, or 0 if operations are not spread over ticks
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Set the time to spend per tick.
+     *
+     * @param budget the time in milliseconds, or 0 to not spread operations over ticks
+     */
+    public void setBudget(long budget) {
+        this.budget = Math.max(0, budget);
+    }
+
+    /**
+     * Set the time between two progress reports of a running operation.
+     *
+     * @param progressInterval the time in milliseconds
+     */
+    public void setProgressInterval(long progressInterval) {
+        this.progressInterval = progressInterval;
+    }
+
+    /**
+     * Run an operation. If the owner has no queued operations, the operation
+     * is started right away and run for up to one tick's budget, so small
+     * operations complete before this method returns. Whatever remains is
+     * queued behind the owner's other operations.
+     *
+     * @param owner the owner of the operation
+     * @param description a short description of the operation, for display
+     * @param operation the operation
+     * @param listener notified when the operation makes progress, completes or is cancelled, or null
+     * @return the job, which may already be done
+     */
+    public Job submit(String owner, String description, Operation operation, Listener listener) {
+        Job job = new Job(owner, description, operation, listener);
+        Deque<Job> queue = jobs.get(owner);
+        if (queue == null) {
+            long deadline = budget == 0 ? Long.MAX_VALUE : System.nanoTime() + budget * 1000000;
+            while (!job.isDone() && System.nanoTime() < deadline) {
+                job.step();
+            }
+            if (job.isDone()) {
+                return job;
+            }
+
+            queue = new ArrayDeque<Job>();
+            jobs.put(owner, queue);
+            turns.addLast(owner);
+        }
+
+        queue.addLast(job);
+        return job;
+    }
+
+    /**
+     * Run queued operations until the time budget of this tick is used up,
+     * or until they are done if there is no budget.
+     */
+    public void tick() {
+        long now = System.currentTimeMillis();
+        long deadline = budget == 0 ? Long.MAX_VALUE : System.nanoTime() + budget * 1000000;
+        do {
+            String owner = turns.pollFirst();
+            if (owner == null) {
+                return;
+            }
+
+            Deque<Job> queue = jobs.get(owner);
+            Job job = queue.peekFirst();
+            try {
+                job.step();
+            } finally {
+                if (job.isDone()) {
+                    queue.removeFirst();
+                }
+                if (queue.isEmpty()) {
+                    jobs.remove(owner);
+                } else {
+                    turns.addLast(owner);
+                }
+            }
+
+            if (!job.isDone() && now - job.lastReport >= progressInterval) {
+                job.lastReport = now;
+                job.notifyProgress();
+            }
+        } while (System.nanoTime() < deadline);
+    }
+
+    /**
+     * Returns whether an owner has queued operations.
+     *
+     * @param owner the owner
+     * @return true if there are queued operations
+     */
+    public boolean hasJobs(String owner) {
+        return jobs.containsKey(owner);
+    }
+
+    /**
+     * Get the queued operations of an owner, oldest first.
+     *
+     * @param owner the owner
+     * @return a list of jobs
+     */
+    public List<Job> getJobs(String owner) {
+        Deque<Job> queue = jobs.get(owner);
+        if (queue == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<Job>(queue);
+    }
+
+    /**
+     * Run the queued operations of an owner to completion right away.
+     *
+     * @param owner the owner
+     */
+    public void complete(String owner) {
+        Deque<Job> queue = jobs.remove(owner);
+        if (queue == null) {
+            return;
+        }
+
+        turns.remove(owner);
+        try {
+            for (Job job : queue) {
+                while (!job.isDone()) {
+                    job.step();
+                }
+            }
+        } finally {
+            // Don't leave the operations after a failed one half done
+            for (Job job : queue) {
+                job.cancel();
+            }
+        }
+    }
+
+    /**
+     * Run all queued operations to completion right away.
+     */
+    public void completeAll() {
+        while (!turns.isEmpty()) {
+            complete(turns.peekFirst());
+        }
+    }
+
+    /**
+     * Cancel the queued operations of an owner.
+     *
+     * @param owner the owner
+     * @return the number of operations that were cancelled
+     */
+    public int cancel(String owner) {
+        Deque<Job> queue = jobs.remove(owner);
+        if (queue == null) {
+            return 0;
+        }
+
+        turns.remove(owner);
+        for (Job job : queue) {
+            job.cancel();
+        }
+        return queue.size();
+    }
+
+    /**
+     * Receives the events of a job.
+     */
+    public interface Listener {
+
+        /**
+         * Called every now and then while the job runs.
+         *
+         * @param job the job
+         */
+        void progress(Job job);
+
+        /**
+         * Called when the operation has completed.
+         *
+         * @param job the job
+         */
+        void completed(Job job);
+
+        /**
+         * Called when the operation has been cancelled.
+         *
+         * @param job the job
+         */
+        void cancelled(Job job);
+
+        /**
+         * Called when the operation has failed. The operation has been
+         * cancelled.
+         *
+         * @param job the job
+         * @param e the error, which is a {@link WorldEditException} unless the operation failed unexpectedly
+         */
+        void failed(Job job, Exception e);
+
+    }
+
+    /**
+     * An operation submitted to the queue.
+     */
+    public static final class Job {
+        private final String owner;
+        private final String description;
+        private final Listener listener;
+        private final long started = System.currentTimeMillis();
+        private Operation operation;
+        private boolean done = false;
+        private long lastReport = started;
+
+        private Job(String owner, String description, Operation operation, Listener listener) {
+            this.owner = owner;
+            this.description = description;
+            this.operation = operation;
+            this.listener = listener;
+        }
+
+        /**
+         * Get the owner of the job.
+         *
+         * @return the owner
+         */
+        public String getOwner() {
+            return owner;
+        }
+
+        /**
+         * Get the description of the job.
+         *
+         * @return the description
+         */
+        public String getDescription() {
+            return description;
+        }
+
+        /**
+         * Get the time the job has been running.
+         *
+         * @return the time in milliseconds
+         */
+        public long getElapsedTime() {
+            return System.currentTimeMillis() - started;
+        }
+
+        /**
+         * Get the fraction of the work that has been done, if the current
+         * operation reports it.
+         *
+         * @return a value from 0 to 1, or -1 if unknown
+         */
+        public double getProgress() {
+            if (done) {
+                return 1;
+            }
+            if (operation instanceof ProgressiveOperation) {
+                return ((ProgressiveOperation) operation).getProgress();
+            }
+            return -1;
+        }
+
+        /**
+         * Returns whether the job has completed, failed or been cancelled.
+         *
+         * @return true if done
+         */
+        public boolean isDone() {
+            return done;
+        }
+
+        private void step() {
+            try {
+                operation = operation.resume();
+            } catch (WorldEditException e) {
+                operation.cancel();
+                done = true;
+                if (listener != null) {
+                    listener.failed(this, e);
+                }
+                return;
+            } catch (RuntimeException e) {
+                operation.cancel();
+                done = true;
+                logger.log(Level.SEVERE, "WorldEdit: " + description + " of " + owner + " failed", e);
+                if (listener != null) {
+                    listener.failed(this, e);
+                }
+                return;
+            }
+
+            if (operation == null) {
+                done = true;
+                if (listener != null) {
+                    listener.completed(this);
+                }
+            }
+        }
+
+        private void cancel() {
+            if (done) {
+                return;
+            }
+            operation.cancel();
+            done = true;
+            if (listener != null) {
+                listener.cancelled(this);
+            }
+        }
+
+        private void notifyProgress() {
+            if (listener != null) {
+                listener.progress(this);
+            }
+        }
+    }
+
+}
@@ -21,24 +21,48 @@
 
 import java.util.Random;
 import java.util.List;
-import java.util.ArrayList;
 import com.sk89q.worldedit.*;
 import com.sk89q.worldedit.blocks.BaseBlock;
 
 /**
  * Pattern proportionally fills.
+ * </p>
+ * A block is picked in constant time with an alias table built from the
+ * proportions. Each thread draws from its own random number generator, or,
+ * if the pattern was given a seed, the block at a position is derived from
+ * the seed and the position alone, so the same seed always fills a region
+ * the same way in whatever order its blocks are set.
  *
  * @author sk89q
  */
 public class RandomFillPattern implements Pattern {
     /**
-     * Random number generator.
+     * Random number generators, one per thread.
      */
-    private static final Random random = new Random();
+    private static final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+    /**
+     * Blocks to choose from.
+     */
+    private final BaseBlock[] blocks;
+    /**
+     * The chance to keep each block when its column of the alias table
+     * is picked.
+     */
+    private final double[] probabilities;
     /**
-     * Blocks and their proportions.
+     * The block to use instead when the block of a column is not kept.
      */
-    private List<BlockChance> blocks;
+    private final int[] aliases;
+    /**
+     * Whether blocks are derived from positions.
+     */
+    private final boolean seeded;
+    private final long seed;
 
     /**
      * Construct the object.
@@ -46,23 +70,83 @@ public class RandomFillPattern implements Pattern {
      * @param blocks
      */
     public RandomFillPattern(List<BlockChance> blocks) {
+        this(blocks, false, 0);
+    }
+
+    /**
+     * Construct the object, picking the block at each position from the
+     * given seed and the position.
+     *
+     * @param blocks
+     * @param seed
+     */
+    public RandomFillPattern(List<BlockChance> blocks, long seed) {
+        this(blocks, true, seed);
+    }
+
+    private RandomFillPattern(List<BlockChance> blocks, boolean seeded, long seed) {
+        final int count = blocks.size();
         double max = 0;
 
         for (BlockChance block : blocks) {
             max += block.getChance();
         }
 
-        List<BlockChance> finalBlocks = new ArrayList<BlockChance>();
+        if (count == 0 || !(max > 0)) {
+            throw new IllegalArgumentException("The chances of the blocks must add up to more than 0");
+        }
+
+        this.blocks = new BaseBlock[count];
+        this.probabilities = new double[count];
+        this.aliases = new int[count];
+        this.seeded = seeded;
+        this.seed = seed;
 
-        double i = 0;
+        // Vose's alias method: scale the chances so they average 1, then
+        // fill up each column below 1 with the rest of one above 1
+        final double[] scaled = new double[count];
+        final int[] small = new int[count];
+        final int[] large = new int[count];
+        int smallCount = 0;
+        int largeCount = 0;
 
-        for (BlockChance block : blocks) {
-            double v = block.getChance() / max;
-            i += v;
-            finalBlocks.add(new BlockChance(block.getBlock(), i));
+        for (int i = 0; i < count; ++i) {
+            final BlockChance block = blocks.get(i);
+            this.blocks[i] = block.getBlock();
+            scaled[i] = block.getChance() / max * count;
+            if (scaled[i] < 1) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
         }
 
-        this.blocks = finalBlocks;
+        while (smallCount > 0 && largeCount > 0) {
+            final int less = small[--smallCount];
+            final int more = large[--largeCount];
+
+            probabilities[less] = scaled[less];
+            aliases[less] = more;
+
+            scaled[more] = (scaled[more] + scaled[less]) - 1;
+            if (scaled[more] < 1) {
+                small[smallCount++] = more;
+            } else {
+                large[largeCount++] = more;
+            }
+        }
+
+        // Whatever is left is 1 give or take rounding errors
+        while (largeCount > 0) {
+            final int index = large[--largeCount];
+            probabilities[index] = 1;
+            aliases[index] = index;
+        }
+        while (smallCount > 0) {
+            final int index = small[--smallCount];
+            probabilities[index] = 1;
+            aliases[index] = index;
+        }
     }
 
     /**
@@ -72,18 +156,36 @@ public RandomFillPattern(List<BlockChance> blocks) {
      * @return
      */
     public BaseBlock next(Vector pos) {
-        double r = random.nextDouble();
-
-        for (BlockChance block : blocks) {
-            if (r <= block.getChance()) {
-                return block.getBlock();
-            }
+        if (seeded) {
+            return next(pos.getBlockX(), pos.getBlockY(), pos.getBlockZ());
         }
 
-        throw new RuntimeException("ProportionalFillPattern");
+        return pick(random.get().nextDouble());
     }
 
     public BaseBlock next(int x, int y, int z) {
-        return next(null);
+        if (!seeded) {
+            return pick(random.get().nextDouble());
+        }
+
+        // Mix the seed and the position with the finalizer of SplitMix64
+        long h = seed + x * 0x9e3779b97f4a7c15L + y * 0xc2b2ae3d27d4eb4fL + z * 0x165667b19e3779f9L;
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        h ^= h >>> 31;
+        return pick((h >>> 11) * 0x1.0p-53);
+    }
+
+    /**
+     * Pick a block from the alias table.
+     *
+     * @param r a number from 0 (inclusive) to 1 (exclusive)
+     * @return the block
+     */
+    private BaseBlock pick(double r) {
+        final double scaled = r * blocks.length;
+        final int column = Math.min((int) scaled, blocks.length - 1);
+        final int index = scaled - column < probabilities[column] ? column : aliases[column];
+        return blocks[index];
     }
 }
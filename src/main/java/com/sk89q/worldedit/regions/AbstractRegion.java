@@ -56,6 +56,30 @@ public Iterator<BlockVector> iterator() {
         return new RegionIterator(this);
     }
 
+    /**
+     * Get a cursor over the runs of blocks in the region. By default, every
+     * block within the bounding box is checked with {@link #contains(Vector)}.
+     *
+     * @return a new cursor
+     */
+    public SpanCursor spans() {
+        final Vector min = getMinimumPoint();
+        final Vector max = getMaximumPoint();
+        final int minX = min.getBlockX();
+        final int maxX = max.getBlockX();
+
+        return new SpanCursor(min.getBlockY(), max.getBlockY(), min.getBlockZ(), max.getBlockZ(), false) {
+            @Override
+            protected void computeRow(int y, int z) {
+                for (int x = minX; x <= maxX; ++x) {
+                    if (contains(new Vector(x, y, z))) {
+                        addSpan(x, x);
+                    }
+                }
+            }
+        };
+    }
+
     public LocalWorld getWorld() {
         return world;
     }
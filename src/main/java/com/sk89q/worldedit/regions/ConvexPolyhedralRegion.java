@@ -187,6 +187,9 @@ public boolean addVertex(Vector vertex) {
             triangles.add(edge.createTriangle(vertex));
         }
 
+        // The triangle remembered by containsRaw may have been removed
+        lastTriangle = null;
+
         if (!vertexBacklog.isEmpty()) {
             // Remove the new vertex 
             vertices.remove(vertex);
@@ -303,6 +306,67 @@ private boolean containsRaw(Vector pt) {
         return true;
     }
 
+    @Override
+    public SpanCursor spans() {
+        if (!isDefined()) {
+            return new SpanCursor(0, -1, 0, -1, true) {
+                @Override
+                protected void computeRow(int y, int z) {
+                }
+            };
+        }
+
+        final int count = triangles.size();
+        final double[] normalX = new double[count];
+        final double[] normalY = new double[count];
+        final double[] normalZ = new double[count];
+        final double[] distances = new double[count];
+        for (int i = 0; i < count; ++i) {
+            final Triangle triangle = triangles.get(i);
+            normalX[i] = triangle.getNormal().getX();
+            normalY[i] = triangle.getNormal().getY();
+            normalZ[i] = triangle.getNormal().getZ();
+            distances[i] = triangle.getDistance();
+        }
+
+        final Vector min = getMinimumPoint();
+        final Vector max = getMaximumPoint();
+        final int minX = min.getBlockX();
+        final int maxX = max.getBlockX();
+
+        return new ConvexSpanCursor(minX, maxX, min.getBlockY(), max.getBlockY(), min.getBlockZ(), max.getBlockZ(), false) {
+            @Override
+            protected void computeRow(int y, int z) {
+                // Intersect the row with the space below each plane
+                double lo = minX;
+                double hi = maxX;
+                for (int i = 0; i < count; ++i) {
+                    final double offset = normalY[i] * y + normalZ[i] * z;
+                    if (normalX[i] > 0) {
+                        hi = Math.min(hi, Math.floor((distances[i] - offset) / normalX[i]));
+                    } else if (normalX[i] < 0) {
+                        lo = Math.max(lo, Math.ceil((distances[i] - offset) / normalX[i]));
+                    } else if (offset > distances[i]) {
+                        return;
+                    }
+                }
+
+                addEstimatedSpan(y, z, (int) lo, (int) hi);
+            }
+
+            @Override
+            protected boolean contains(int x, int y, int z) {
+                // Same test as containsRaw(Vector)
+                for (int i = 0; i < count; ++i) {
+                    if (normalX[i] * x + normalY[i] * y + normalZ[i] * z > distances[i]) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+
     public Collection<Vector> getVertices() {
         if (vertexBacklog.isEmpty()) {
             return vertices;
@@ -0,0 +1,103 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.regions;
+
+/**
+ * A {@link SpanCursor} for regions whose rows are a single run of blocks,
+ * which is estimated analytically and then corrected at both ends with the
+ * same test as the region's <code>contains</code> method, so that exactly
+ * the blocks the region contains are visited.
+ */
+abstract class ConvexSpanCursor extends SpanCursor {
+
+    private final int minX;
+    private final int maxX;
+
+    /**
+     * Create a new cursor.
+     *
+     * @param minX the lowest X coordinate of the region
+     * @param maxX the highest X coordinate of the region
+     * @param minY the lowest Y coordinate of the region
+     * @param maxY the highest Y coordinate of the region
+     * @param minZ the lowest Z coordinate of the region
+     * @param maxZ the highest Z coordinate of the region
+     * @param flat true if the runs of a row don't depend on its Y coordinate
+     */
+    ConvexSpanCursor(int minX, int maxX, int minY, int maxY, int minZ, int maxZ, boolean flat) {
+        super(minY, maxY, minZ, maxZ, flat);
+        this.minX = minX;
+        this.maxX = maxX;
+    }
+
+    /**
+     * Returns whether the region contains a block.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     * @return true if the block is contained
+     */
+    protected abstract boolean contains(int x, int y, int z);
+
+    /**
+     * Add the run of a row, given an estimate of its ends. An estimate with
+     * the ends swapped and no more than a block apart is taken to mean that
+     * the run may be a block or two long, or empty.
+     *
+     * @param y the Y coordinate of the row
+     * @param z the Z coordinate of the row
+     * @param lo the estimated lowest X coordinate of the run
+     * @param hi the estimated highest X coordinate of the run
+     */
+    protected void addEstimatedSpan(int y, int z, int lo, int hi) {
+        if (lo > hi) {
+            if (lo - hi > 2) {
+                return;
+            }
+            final int swap = lo;
+            lo = hi;
+            hi = swap;
+        }
+
+        lo = Math.max(lo, minX);
+        hi = Math.min(hi, maxX);
+
+        while (lo <= hi && !contains(lo, y, z)) {
+            ++lo;
+        }
+        while (hi >= lo && !contains(hi, y, z)) {
+            --hi;
+        }
+        if (lo > hi) {
+            return;
+        }
+
+        while (lo > minX && contains(lo - 1, y, z)) {
+            --lo;
+        }
+        while (hi < maxX && contains(hi + 1, y, z)) {
+            ++hi;
+        }
+
+        addSpan(lo, hi);
+    }
+
+}
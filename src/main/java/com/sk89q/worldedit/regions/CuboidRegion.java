@@ -308,6 +308,21 @@ public boolean contains(Vector pt) {
                 && z >= min.getBlockZ() && z <= max.getBlockZ();
     }
 
+    @Override
+    public SpanCursor spans() {
+        final Vector min = getMinimumPoint();
+        final Vector max = getMaximumPoint();
+        final int minX = min.getBlockX();
+        final int maxX = max.getBlockX();
+
+        return new SpanCursor(min.getBlockY(), max.getBlockY(), min.getBlockZ(), max.getBlockZ(), true) {
+            @Override
+            protected void computeRow(int y, int z) {
+                addSpan(minX, maxX);
+            }
+        };
+    }
+
     /**
      * Get the iterator.
      *
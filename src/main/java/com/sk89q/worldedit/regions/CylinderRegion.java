@@ -334,6 +334,40 @@ public boolean setY(int y) {
         return false;
     }
 
+    @Override
+    public SpanCursor spans() {
+        final Vector min = getMinimumPoint();
+        final Vector max = getMaximumPoint();
+        final double centerX = center.getX();
+        final double centerZ = center.getZ();
+        final double radiusX = radius.getX();
+        final double radiusZ = radius.getZ();
+
+        return new ConvexSpanCursor(min.getBlockX(), max.getBlockX(), minY, maxY, min.getBlockZ(), max.getBlockZ(), true) {
+            @Override
+            protected void computeRow(int y, int z) {
+                final double dz = (z - centerZ) / radiusZ;
+                final double remaining = 1 - dz * dz;
+                if (remaining < 0) {
+                    final int x = (int) Math.floor(centerX);
+                    addEstimatedSpan(y, z, x + 1, x);
+                    return;
+                }
+
+                final double halfWidth = radiusX * Math.sqrt(remaining);
+                addEstimatedSpan(y, z, (int) Math.ceil(centerX - halfWidth), (int) Math.floor(centerX + halfWidth));
+            }
+
+            @Override
+            protected boolean contains(int x, int y, int z) {
+                // Same arithmetic as contains(Vector)
+                final double dx = (x - centerX) / radiusX;
+                final double dz = (z - centerZ) / radiusZ;
+                return dx * dx + dz * dz <= 1;
+            }
+        };
+    }
+
     @Override
     public Iterator<BlockVector> iterator() {
         return new FlatRegion3DIterator(this);
@@ -244,6 +244,44 @@ public boolean contains(Vector pt) {
         return pt.subtract(center).divide(radius).lengthSq() <= 1;
     }
 
+    @Override
+    public SpanCursor spans() {
+        final Vector min = getMinimumPoint();
+        final Vector max = getMaximumPoint();
+        final double centerX = center.getX();
+        final double centerY = center.getY();
+        final double centerZ = center.getZ();
+        final double radiusX = radius.getX();
+        final double radiusY = radius.getY();
+        final double radiusZ = radius.getZ();
+
+        return new ConvexSpanCursor(min.getBlockX(), max.getBlockX(), min.getBlockY(), max.getBlockY(), min.getBlockZ(), max.getBlockZ(), false) {
+            @Override
+            protected void computeRow(int y, int z) {
+                final double dy = (y - centerY) / radiusY;
+                final double dz = (z - centerZ) / radiusZ;
+                final double remaining = 1 - dy * dy - dz * dz;
+                if (remaining < 0) {
+                    final int x = (int) Math.floor(centerX);
+                    addEstimatedSpan(y, z, x + 1, x);
+                    return;
+                }
+
+                final double halfWidth = radiusX * Math.sqrt(remaining);
+                addEstimatedSpan(y, z, (int) Math.ceil(centerX - halfWidth), (int) Math.floor(centerX + halfWidth));
+            }
+
+            @Override
+            protected boolean contains(int x, int y, int z) {
+                // Same arithmetic as contains(Vector)
+                final double dx = (x - centerX) / radiusX;
+                final double dy = (y - centerY) / radiusY;
+                final double dz = (z - centerZ) / radiusZ;
+                return dx * dx + dy * dy + dz * dz <= 1;
+            }
+        };
+    }
+
     /**
      * Returns string representation in the format
      * "(centerX, centerY, centerZ) - (radiusX, radiusY, radiusZ)".
@@ -20,6 +20,7 @@
 package com.sk89q.worldedit.regions;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -448,6 +449,126 @@ public Iterator<BlockVector> iterator() {
         return new FlatRegion3DIterator(this);
     }
 
+    @Override
+    public SpanCursor spans() {
+        final int npoints = points.size() < 3 ? 0 : points.size();
+        final int[] xs = new int[npoints];
+        final int[] zs = new int[npoints];
+        for (int i = 0; i < npoints; ++i) {
+            xs[i] = points.get(i).getBlockX();
+            zs[i] = points.get(i).getBlockZ();
+        }
+
+        final int minX = min.getBlockX();
+        final int maxX = max.getBlockX();
+        final int minZ = min.getBlockZ();
+        final int maxZ = npoints == 0 ? minZ - 1 : max.getBlockZ();
+        final int[] bounds = new int[npoints * 4 + 1];
+
+        return new SpanCursor(minY, maxY, minZ, maxZ, true) {
+            @Override
+            protected void computeRow(int y, int z) {
+                // Whether a block is inside can only differ from the block
+                // before it at the X coordinates of the vertices, or where
+                // the row crosses an edge, so only the first block of each
+                // stretch between those needs to be checked
+                int count = 0;
+                bounds[count++] = minX;
+                int xOld = xs[npoints - 1];
+                int zOld = zs[npoints - 1];
+                for (int i = 0; i < npoints; ++i) {
+                    final int xNew = xs[i];
+                    final int zNew = zs[i];
+                    bounds[count++] = clamp(xNew, minX, maxX + 1);
+                    bounds[count++] = clamp(xNew + 1L, minX, maxX + 1);
+                    if (zNew != zOld) {
+                        final long crossing = xOld + floorDiv((long) (z - zOld) * (xNew - xOld), zNew - zOld);
+                        bounds[count++] = clamp(crossing, minX, maxX + 1);
+                        bounds[count++] = clamp(crossing + 1, minX, maxX + 1);
+                    }
+                    xOld = xNew;
+                    zOld = zNew;
+                }
+                Arrays.sort(bounds, 0, count);
+
+                for (int i = 0; i < count; ++i) {
+                    final int start = bounds[i];
+                    if (start > maxX || (i + 1 < count && bounds[i + 1] == start)) {
+                        continue;
+                    }
+
+                    final int end = i + 1 < count ? bounds[i + 1] - 1 : maxX;
+                    if (contains(xs, zs, start, z)) {
+                        addSpan(start, end);
+                    }
+                }
+            }
+        };
+    }
+
+    private static int clamp(long value, int min, int max) {
+        return (int) Math.max(min, Math.min(max, value));
+    }
+
+    private static long floorDiv(long dividend, long divisor) {
+        final long quotient = dividend / divisor;
+        if ((dividend % divisor != 0) && ((dividend < 0) != (divisor < 0))) {
+            return quotient - 1;
+        }
+        return quotient;
+    }
+
+    /**
+     * Checks to see if a column is inside a polygon, with the same test as
+     * {@link #contains(List, int, int, Vector)}.
+     *
+     * @param xs the X coordinates of the points of the polygon
+     * @param zs the Z coordinates of the points of the polygon
+     * @param targetX the X coordinate of the column
+     * @param targetZ the Z coordinate of the column
+     * @return true if the column is inside
+     */
+    private static boolean contains(int[] xs, int[] zs, int targetX, int targetZ) {
+        final int npoints = xs.length;
+        boolean inside = false;
+        int xOld = xs[npoints - 1];
+        int zOld = zs[npoints - 1];
+
+        for (int i = 0; i < npoints; ++i) {
+            final int xNew = xs[i];
+            final int zNew = zs[i];
+            if (xNew == targetX && zNew == targetZ) {
+                return true;
+            }
+
+            final int x1, z1, x2, z2;
+            if (xNew > xOld) {
+                x1 = xOld;
+                x2 = xNew;
+                z1 = zOld;
+                z2 = zNew;
+            } else {
+                x1 = xNew;
+                x2 = xOld;
+                z1 = zNew;
+                z2 = zOld;
+            }
+            if (x1 <= targetX && targetX <= x2) {
+                final long crossproduct = ((long) targetZ - (long) z1) * (long) (x2 - x1)
+                        - ((long) z2 - (long) z1) * (long) (targetX - x1);
+                if (crossproduct == 0) {
+                    if ((z1 <= targetZ) == (targetZ <= z2)) return true;
+                } else if (crossproduct < 0 && (x1 != targetX)) {
+                    inside = !inside;
+                }
+            }
+            xOld = xNew;
+            zOld = zNew;
+        }
+
+        return inside;
+    }
+
     @Override
     public Iterable<Vector2D> asFlatRegion() {
         return new Iterable<Vector2D>() {
@@ -116,6 +116,15 @@ public interface Region extends Iterable<BlockVector>, Cloneable {
      */
     public boolean contains(Vector pt);
 
+    /**
+     * Get a cursor over the blocks of the region as runs along the X axis,
+     * ordered by Z, then Y, then X. Unlike the iterator, the cursor
+     * allocates nothing per block.
+     *
+     * @return a new cursor
+     */
+    public SpanCursor spans();
+
     /**
      * Get a list of chunks.
      *
@@ -22,70 +22,45 @@
 import java.util.Iterator;
 
 import com.sk89q.worldedit.BlockVector;
-import com.sk89q.worldedit.Vector;
 
+/**
+ * Iterates over the blocks of a region, following its
+ * {@link Region#spans() runs of blocks}.
+ */
 public class RegionIterator implements Iterator<BlockVector> {
-    private final Region region;
-    private final int maxX;
-    private final int maxY;
-    private final int maxZ;
-    private final Vector min;
+    private final SpanCursor spans;
     private int nextX;
-    private int nextY;
-    private int nextZ;
+    private int maxX;
+    private boolean hasNext;
 
     public RegionIterator(Region region) {
-        this.region = region;
-
-        Vector max = region.getMaximumPoint();
-        this.maxX = max.getBlockX();
-        this.maxY = max.getBlockY();
-        this.maxZ = max.getBlockZ();
-
-        this.min = region.getMinimumPoint();
-        this.nextX = min.getBlockX();
-        this.nextY = min.getBlockY();
-        this.nextZ = min.getBlockZ();
+        this.spans = region.spans();
 
         forward();
     }
 
     public boolean hasNext() {
-        return nextX != Integer.MIN_VALUE;
+        return hasNext;
     }
 
     private void forward() {
-        while (hasNext() && !region.contains(new BlockVector(nextX, nextY, nextZ))) {
-            forwardOne();
+        hasNext = spans.next();
+        if (hasNext) {
+            nextX = spans.getMinX();
+            maxX = spans.getMaxX();
         }
     }
 
     public BlockVector next() {
         if (!hasNext()) throw new java.util.NoSuchElementException();
 
-        BlockVector answer = new BlockVector(nextX, nextY, nextZ);
-
-        forwardOne();
-        forward();
+        BlockVector answer = new BlockVector(nextX, spans.getY(), spans.getZ());
 
-        return answer;
-    }
-
-    private void forwardOne() {
-        if (++nextX <= maxX) {
-            return;
-        }
-        nextX = min.getBlockX();
-
-        if (++nextY <= maxY) {
-            return;
+        if (++nextX > maxX) {
+            forward();
         }
-        nextY = min.getBlockY();
 
-        if (++nextZ <= maxZ) {
-            return;
-        }
-        nextX = Integer.MIN_VALUE;
+        return answer;
     }
 
     public void remove() {
@@ -0,0 +1,200 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.regions;
+
+/**
+ * A cursor over the blocks of a region as runs of blocks along the X axis,
+ * ordered by Z, then Y, then X. Each call to {@link #next()} moves to the
+ * next run, so a region can be walked without allocating anything per block.
+ * </p>
+ * Implementations compute the runs of one row of blocks, given by its Y and
+ * Z coordinates, at a time in {@link #computeRow(int, int)}. Regions whose
+ * rows don't depend on Y, like cylinders, have each row computed only once
+ * per Z coordinate.
+ */
+public abstract class SpanCursor {
+
+    private int minY;
+    private int maxY;
+    private int maxZ;
+    private final boolean flat;
+    private int[] spans = new int[4];
+    private int spanCount;
+    private int spanIndex;
+    private int y;
+    private int z;
+    private boolean started = false;
+
+    /**
+     * Create a new cursor.
+     *
+     * @param minY the lowest Y coordinate of the region
+     * @param maxY the highest Y coordinate of the region
+     * @param minZ the lowest Z coordinate of the region
+     * @param maxZ the highest Z coordinate of the region
+     * @param flat true if the runs of a row don't depend on its Y coordinate
+     */
+    protected SpanCursor(int minY, int maxY, int minZ, int maxZ, boolean flat) {
+        this.minY = minY;
+        this.maxY = maxY;
+        this.maxZ = maxZ;
+        this.flat = flat;
+        this.y = minY;
+        this.z = minZ;
+    }
+
+    /**
+     * Compute the runs of blocks of a row by calling
+     * {@link #addSpan(int, int)} for each of them, in ascending order.
+     *
+     * @param y the Y coordinate of the row
+     * @param z the Z coordinate of the row
+     */
+    protected abstract void computeRow(int y, int z);
+
+    /**
+     * Add a run of blocks to the row being computed.
+     *
+     * @param minX the lowest X coordinate of the run
+     * @param maxX the highest X coordinate of the run
+     */
+    protected void addSpan(int minX, int maxX) {
+        if (minX > maxX) {
+            return;
+        }
+
+        // Join runs that touch
+        if (spanCount > 0 && spans[spanCount * 2 - 1] == minX - 1) {
+            spans[spanCount * 2 - 1] = maxX;
+            return;
+        }
+
+        if (spanCount * 2 == spans.length) {
+            final int[] newSpans = new int[spans.length * 2];
+            System.arraycopy(spans, 0, newSpans, 0, spans.length);
+            spans = newSpans;
+        }
+        spans[spanCount * 2] = minX;
+        spans[spanCount * 2 + 1] = maxX;
+        ++spanCount;
+    }
+
+    /**
+     * Limit the cursor to the rows within a range of Y and Z coordinates,
+     * so that only part of the region is walked. This must be called before
+     * the cursor is first moved.
+     *
+     * @param minY the lowest Y coordinate to walk
+     * @param maxY the highest Y coordinate to walk
+     * @param minZ the lowest Z coordinate to walk
+     * @param maxZ the highest Z coordinate to walk
+     */
+    public void limit(int minY, int maxY, int minZ, int maxZ) {
+        if (started) {
+            throw new IllegalStateException("The cursor has already been moved");
+        }
+
+        this.minY = Math.max(this.minY, minY);
+        this.maxY = Math.min(this.maxY, maxY);
+        this.maxZ = Math.min(this.maxZ, maxZ);
+        this.y = this.minY;
+        this.z = Math.max(this.z, minZ);
+    }
+
+    /**
+     * Move to the next run of blocks.
+     *
+     * @return false if there are no more runs
+     */
+    public boolean next() {
+        if (++spanIndex < spanCount) {
+            return true;
+        }
+
+        while (nextRow()) {
+            if (spanCount > 0) {
+                spanIndex = 0;
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean nextRow() {
+        if (started) {
+            if (y < maxY && !(flat && spanCount == 0)) {
+                ++y;
+            } else {
+                y = minY;
+                ++z;
+            }
+        }
+        started = true;
+
+        if (z > maxZ || y > maxY) {
+            spanCount = 0;
+            return false;
+        }
+
+        if (!flat || y == minY) {
+            spanCount = 0;
+            computeRow(y, z);
+        }
+        return true;
+    }
+
+    /**
+     * Get the lowest X coordinate of the current run.
+     *
+     * @return the X coordinate
+     */
+    public int getMinX() {
+        return spans[spanIndex * 2];
+    }
+
+    /**
+     * Get the highest X coordinate of the current run.
+     *
+     * @return the X coordinate
+     */
+    public int getMaxX() {
+        return spans[spanIndex * 2 + 1];
+    }
+
+    /**
+     * Get the Y coordinate of the current run.
+     *
+     * @return the Y coordinate
+     */
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * Get the Z coordinate of the current run.
+     *
+     * @return the Z coordinate
+     */
+    public int getZ() {
+        return z;
+    }
+
+}
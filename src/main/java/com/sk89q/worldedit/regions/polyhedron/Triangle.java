@@ -63,6 +63,26 @@ public Edge getEdge(int index) {
         return new Edge(vertices[index], vertices[index + 1]);
     }
 
+    /**
+     * Returns the unit normal of the plane the triangle is in.
+     *
+     * @return the normal
+     */
+    public Vector getNormal() {
+        return normal;
+    }
+
+    /**
+     * Returns the distance of the plane the triangle is in from the origin,
+     * along the normal. Points with a greater dot product with the normal
+     * are above the plane.
+     *
+     * @return the distance
+     */
+    public double getDistance() {
+        return b;
+    }
+
     /**
      * Returns whether the given point is above the plane the triangle is in.
      *
@@ -18,19 +18,24 @@
 
 package com.sk89q.worldedit.schematic;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
-import com.sk89q.jnbt.ByteArrayTag;
 import com.sk89q.jnbt.CompoundTag;
 import com.sk89q.jnbt.IntTag;
 import com.sk89q.jnbt.ListTag;
@@ -40,10 +45,10 @@
 import com.sk89q.jnbt.ShortTag;
 import com.sk89q.jnbt.StringTag;
 import com.sk89q.jnbt.Tag;
-import com.sk89q.worldedit.BlockVector;
 import com.sk89q.worldedit.CuboidClipboard;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.PalettedBlockArray;
 import com.sk89q.worldedit.blocks.TileEntityBlock;
 import com.sk89q.worldedit.data.DataException;
 
@@ -52,6 +57,7 @@
  */
 public class MCEditSchematicFormat extends SchematicFormat {
     private static final int MAX_SIZE = Short.MAX_VALUE - Short.MIN_VALUE;
+    private static final int BUFFER_SIZE = 8192;
 
     protected MCEditSchematicFormat() {
         super("MCEdit", "mcedit", "mce");
@@ -59,36 +65,91 @@ protected MCEditSchematicFormat() {
 
     @Override
     public CuboidClipboard load(File file) throws IOException, DataException {
-        FileInputStream stream = new FileInputStream(file);
-        NBTInputStream nbtStream = new NBTInputStream(
-                new GZIPInputStream(stream));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))));
+        try {
+            return load(in);
+        } finally {
+            in.close();
+        }
+    }
 
-        Vector origin = new Vector();
-        Vector offset = new Vector();
+    /**
+     * Read a schematic from a stream. The block arrays are read straight into
+     * the clipboard once its size is known, which it is for any schematic that
+     * stores the size before the blocks, as {@link #save(CuboidClipboard, File)}
+     * does. Other tags are read as usual.
+     *
+     * @param in the uncompressed stream
+     * @return the clipboard
+     * @throws IOException thrown on I/O error
+     * @throws DataException thrown if the schematic is invalid
+     */
+    private CuboidClipboard load(DataInputStream in) throws IOException, DataException {
+        NBTInputStream nbtStream = new NBTInputStream(in);
 
         // Schematic tag
-        CompoundTag schematicTag = (CompoundTag) nbtStream.readTag();
-        nbtStream.close();
-        if (!schematicTag.getName().equals("Schematic")) {
+        if ((in.readByte() & 0xFF) != NBTConstants.TYPE_COMPOUND || !readName(in).equals("Schematic")) {
             throw new DataException("Tag \"Schematic\" does not exist or is not first");
         }
 
+        Map<String, Tag> schematic = new HashMap<String, Tag>();
+        Map<String, byte[]> pendingArrays = new HashMap<String, byte[]>();
+        CuboidClipboard clipboard = null;
+        boolean hasBlocks = false;
+
+        while (true) {
+            int type = in.readByte() & 0xFF;
+            if (type == NBTConstants.TYPE_END) {
+                break;
+            }
+            String name = readName(in);
+
+            if (type == NBTConstants.TYPE_BYTE_ARRAY && isBlockArray(name)) {
+                hasBlocks |= name.equals("Blocks");
+                int length = in.readInt();
+                if (clipboard != null) {
+                    readBlockArray(name, in, length, clipboard.getBlockArray());
+                } else {
+                    // The size isn't known yet, so hold on to the array for now
+                    byte[] array = new byte[length];
+                    in.readFully(array);
+                    pendingArrays.put(name, array);
+                }
+                continue;
+            }
+
+            schematic.put(name, nbtStream.readTagPayload(type, name));
+
+            if (clipboard == null && schematic.containsKey("Width")
+                    && schematic.containsKey("Height") && schematic.containsKey("Length")) {
+                clipboard = new CuboidClipboard(getSize(schematic));
+            }
+        }
+
         // Check
-        Map<String, Tag> schematic = schematicTag.getValue();
-        if (!schematic.containsKey("Blocks")) {
+        if (!hasBlocks) {
             throw new DataException("Schematic file is missing a \"Blocks\" tag");
         }
 
-        // Get information
-        short width = getChildTag(schematic, "Width", ShortTag.class).getValue();
-        short length = getChildTag(schematic, "Length", ShortTag.class).getValue();
-        short height = getChildTag(schematic, "Height", ShortTag.class).getValue();
+        if (clipboard == null) {
+            clipboard = new CuboidClipboard(getSize(schematic));
+        }
+
+        for (Map.Entry<String, byte[]> entry : pendingArrays.entrySet()) {
+            byte[] array = entry.getValue();
+            readBlockArray(entry.getKey(), new DataInputStream(new ByteArrayInputStream(array)),
+                    array.length, clipboard.getBlockArray());
+        }
+
+        // Reading the arrays one at a time adds half-built blocks to the palette
+        clipboard.getBlockArray().compact();
 
         try {
             int originX = getChildTag(schematic, "WEOriginX", IntTag.class).getValue();
             int originY = getChildTag(schematic, "WEOriginY", IntTag.class).getValue();
             int originZ = getChildTag(schematic, "WEOriginZ", IntTag.class).getValue();
-            origin = new Vector(originX, originY, originZ);
+            clipboard.setOrigin(new Vector(originX, originY, originZ));
         } catch (DataException e) {
             // No origin data
         }
@@ -97,7 +158,7 @@ public CuboidClipboard load(File file) throws IOException, DataException {
             int offsetX = getChildTag(schematic, "WEOffsetX", IntTag.class).getValue();
             int offsetY = getChildTag(schematic, "WEOffsetY", IntTag.class).getValue();
             int offsetZ = getChildTag(schematic, "WEOffsetZ", IntTag.class).getValue();
-            offset = new Vector(offsetX, offsetY, offsetZ);
+            clipboard.setOffset(new Vector(offsetX, offsetY, offsetZ));
         } catch (DataException e) {
             // No offset data
         }
@@ -108,36 +169,13 @@ public CuboidClipboard load(File file) throws IOException, DataException {
             throw new DataException("Schematic file is not an Alpha schematic");
         }
 
-        // Get blocks
-        byte[] blockId = getChildTag(schematic, "Blocks", ByteArrayTag.class).getValue();
-        byte[] blockData = getChildTag(schematic, "Data", ByteArrayTag.class).getValue();
-        byte[] addId = new byte[0];
-        short[] blocks = new short[blockId.length]; // Have to later combine IDs
-
-        // We support 4096 block IDs using the same method as vanilla Minecraft, where
-        // the highest 4 bits are stored in a separate byte array.
-        if (schematic.containsKey("AddBlocks")) {
-            addId = getChildTag(schematic, "AddBlocks", ByteArrayTag.class).getValue();
-        }
-
-        // Combine the AddBlocks data with the first 8-bit block ID
-        for (int index = 0; index < blockId.length; index++) {
-            if ((index >> 1) >= addId.length) { // No corresponding AddBlocks index
-                blocks[index] = (short) (blockId[index] & 0xFF);
-            } else {
-                if ((index & 1) == 0) {
-                    blocks[index] = (short) (((addId[index >> 1] & 0x0F) << 8) + (blockId[index] & 0xFF));
-                } else {
-                    blocks[index] = (short) (((addId[index >> 1] & 0xF0) << 4) + (blockId[index] & 0xFF));
-                }
-            }
-        }
-
         // Need to pull out tile entities
         List<Tag> tileEntities = getChildTag(schematic, "TileEntities", ListTag.class)
                 .getValue();
-        Map<BlockVector, Map<String, Tag>> tileEntitiesMap =
-                new HashMap<BlockVector, Map<String, Tag>>();
+        PalettedBlockArray blocks = clipboard.getBlockArray();
+        int width = clipboard.getWidth();
+        int height = clipboard.getHeight();
+        int length = clipboard.getLength();
 
         for (Tag tag : tileEntities) {
             if (!(tag instanceof CompoundTag)) continue;
@@ -167,28 +205,15 @@ public CuboidClipboard load(File file) throws IOException, DataException {
                 values.put(entry.getKey(), entry.getValue());
             }
 
-            BlockVector vec = new BlockVector(x, y, z);
-            tileEntitiesMap.put(vec, values);
-        }
-
-        Vector size = new Vector(width, height, length);
-        CuboidClipboard clipboard = new CuboidClipboard(size);
-        clipboard.setOrigin(origin);
-        clipboard.setOffset(offset);
-
-        for (int x = 0; x < width; ++x) {
-            for (int y = 0; y < height; ++y) {
-                for (int z = 0; z < length; ++z) {
-                    int index = y * width * length + z * width + x;
-                    BlockVector pt = new BlockVector(x, y, z);
-                    BaseBlock block = getBlockForId(blocks[index], blockData[index]);
-
-                    if (block instanceof TileEntityBlock && tileEntitiesMap.containsKey(pt)) {
-                        ((TileEntityBlock) block).setNbtData(new CompoundTag("", tileEntitiesMap.get(pt)));
-                    }
-                    clipboard.setBlock(pt, block);
-                }
+            if (x < 0 || x >= width || y < 0 || y >= height || z < 0 || z >= length) {
+                continue;
             }
+
+            // Only blocks with tile entities are stored as objects
+            int index = y * width * length + z * width + x;
+            BaseBlock block = getBlockForId(blocks.getType(index), (short) blocks.getData(index));
+            block.setNbtData(new CompoundTag("", values));
+            blocks.set(index, block);
         }
 
         return clipboard;
@@ -210,82 +235,219 @@ public void save(CuboidClipboard clipboard, File file) throws IOException, DataE
             throw new DataException("Length of region too large for a .schematic");
         }
 
-        HashMap<String, Tag> schematic = new HashMap<String, Tag>();
-        schematic.put("Width", new ShortTag("Width", (short) width));
-        schematic.put("Length", new ShortTag("Length", (short) length));
-        schematic.put("Height", new ShortTag("Height", (short) height));
-        schematic.put("Materials", new StringTag("Materials", "Alpha"));
-        schematic.put("WEOriginX", new IntTag("WEOriginX", clipboard.getOrigin().getBlockX()));
-        schematic.put("WEOriginY", new IntTag("WEOriginY", clipboard.getOrigin().getBlockY()));
-        schematic.put("WEOriginZ", new IntTag("WEOriginZ", clipboard.getOrigin().getBlockZ()));
-        schematic.put("WEOffsetX", new IntTag("WEOffsetX", clipboard.getOffset().getBlockX()));
-        schematic.put("WEOffsetY", new IntTag("WEOffsetY", clipboard.getOffset().getBlockY()));
-        schematic.put("WEOffsetZ", new IntTag("WEOffsetZ", clipboard.getOffset().getBlockZ()));
-
-        // Copy
-        byte[] blocks = new byte[width * height * length];
-        byte[] addBlocks = null;
-        byte[] blockData = new byte[width * height * length];
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(file))));
+        try {
+            save(clipboard, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Write a schematic to a stream. The size is written first and the block
+     * arrays are written straight from the clipboard, so only the tile
+     * entities are turned into tags.
+     *
+     * @param clipboard the clipboard
+     * @param out the uncompressed stream
+     * @throws IOException thrown on I/O error
+     */
+    private void save(CuboidClipboard clipboard, DataOutputStream out) throws IOException {
+        int width = clipboard.getWidth();
+        int length = clipboard.getLength();
+        PalettedBlockArray blocks = clipboard.getBlockArray();
+        NBTOutputStream nbtStream = new NBTOutputStream(out, false);
+
+        out.writeByte(NBTConstants.TYPE_COMPOUND);
+        writeName(out, "Schematic");
+
+        nbtStream.writeTag(new ShortTag("Width", (short) width));
+        nbtStream.writeTag(new ShortTag("Length", (short) length));
+        nbtStream.writeTag(new ShortTag("Height", (short) clipboard.getHeight()));
+        nbtStream.writeTag(new StringTag("Materials", "Alpha"));
+        nbtStream.writeTag(new IntTag("WEOriginX", clipboard.getOrigin().getBlockX()));
+        nbtStream.writeTag(new IntTag("WEOriginY", clipboard.getOrigin().getBlockY()));
+        nbtStream.writeTag(new IntTag("WEOriginZ", clipboard.getOrigin().getBlockZ()));
+        nbtStream.writeTag(new IntTag("WEOffsetX", clipboard.getOffset().getBlockX()));
+        nbtStream.writeTag(new IntTag("WEOffsetY", clipboard.getOffset().getBlockY()));
+        nbtStream.writeTag(new IntTag("WEOffsetZ", clipboard.getOffset().getBlockZ()));
+
+        writeBlockArray("Blocks", out, blocks);
+        writeBlockArray("Data", out, blocks);
+
+        // Save 4096 IDs in an AddBlocks section
+        if (hasAddBlocks(blocks)) {
+            writeBlockArray("AddBlocks", out, blocks);
+        }
+
+        // Store TileEntity data
         ArrayList<Tag> tileEntities = new ArrayList<Tag>();
+        List<Integer> tileIndices = new ArrayList<Integer>(blocks.getTileBlocks().keySet());
+        Collections.sort(tileIndices);
+        for (int index : tileIndices) {
+            TileEntityBlock tileEntityBlock = blocks.getTileBlock(index);
+
+            // Get the list of key/values from the block
+            CompoundTag rawTag = tileEntityBlock.getNbtData();
+            if (rawTag != null) {
+                Map<String, Tag> values = new HashMap<String, Tag>();
+                for (Entry<String, Tag> entry : rawTag.getValue().entrySet()) {
+                    values.put(entry.getKey(), entry.getValue());
+                }
 
-        for (int x = 0; x < width; ++x) {
-            for (int y = 0; y < height; ++y) {
-                for (int z = 0; z < length; ++z) {
-                    int index = y * width * length + z * width + x;
-                    BaseBlock block = clipboard.getPoint(new BlockVector(x, y, z));
-
-                    // Save 4096 IDs in an AddBlocks section
-                    if (block.getType() > 255) {
-                        if (addBlocks == null) { // Lazily create section
-                            addBlocks = new byte[(blocks.length >> 1) + 1];
-                        }
-
-                        addBlocks[index >> 1] = (byte) (((index & 1) == 0) ?
-                                addBlocks[index >> 1] & 0xF0 | (block.getType() >> 8) & 0xF
-                                : addBlocks[index >> 1] & 0xF | ((block.getType() >> 8) & 0xF) << 4);
-                    }
+                values.put("id", new StringTag("id", tileEntityBlock.getNbtId()));
+                values.put("x", new IntTag("x", index % width));
+                values.put("y", new IntTag("y", index / (width * length)));
+                values.put("z", new IntTag("z", (index / width) % length));
+
+                CompoundTag tileEntityTag = new CompoundTag("TileEntity", values);
+                tileEntities.add(tileEntityTag);
+            }
+        }
+
+        nbtStream.writeTag(new ListTag("Entities", CompoundTag.class, new ArrayList<Tag>()));
+        nbtStream.writeTag(new ListTag("TileEntities", CompoundTag.class, tileEntities));
+        out.writeByte(NBTConstants.TYPE_END);
+    }
+
+    private static boolean isBlockArray(String name) {
+        return name.equals("Blocks") || name.equals("Data") || name.equals("AddBlocks");
+    }
+
+    /**
+     * Returns whether any block has a type above 255. The palette may hold
+     * entries that no block uses any more, so the blocks are only checked
+     * if the palette has such a type.
+     *
+     * @param blocks the blocks of the clipboard
+     * @return true if an AddBlocks array is needed
+     */
+    private static boolean hasAddBlocks(PalettedBlockArray blocks) {
+        boolean inPalette = false;
+        for (int index = 1; index < blocks.getPaletteSize(); ++index) {
+            if (blocks.getPaletteType(index) > 255) {
+                inPalette = true;
+                break;
+            }
+        }
+        if (!inPalette) {
+            return false;
+        }
 
-                    blocks[index] = (byte) block.getType();
-                    blockData[index] = (byte) block.getData();
-
-                    // Store TileEntity data
-                    if (block instanceof TileEntityBlock) {
-                        TileEntityBlock tileEntityBlock = block;
-
-                        // Get the list of key/values from the block
-                        CompoundTag rawTag = tileEntityBlock.getNbtData();
-                        if (rawTag != null) {
-                            Map<String, Tag> values = new HashMap<String, Tag>();
-                            for (Entry<String, Tag> entry : rawTag.getValue().entrySet()) {
-                                values.put(entry.getKey(), entry.getValue());
-                            }
-                            
-                            values.put("id", new StringTag("id", tileEntityBlock.getNbtId()));
-                            values.put("x", new IntTag("x", x));
-                            values.put("y", new IntTag("y", y));
-                            values.put("z", new IntTag("z", z));
-                            
-                            CompoundTag tileEntityTag = new CompoundTag("TileEntity", values);
-                            tileEntities.add(tileEntityTag);
-                        }
+        for (int cell = 0; cell < blocks.getVolume(); ++cell) {
+            if (blocks.getType(cell) > 255) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read one of the Blocks, Data and AddBlocks arrays into the clipboard.
+     * Each array only replaces its own part of the type and data value, so
+     * they can be read in any order, but the palette is left with the
+     * combinations seen in between and should be compacted afterwards.
+     *
+     * @param name the name of the array
+     * @param in the stream, positioned at the start of the array
+     * @param length the length of the array
+     * @param blocks the blocks of the clipboard
+     * @throws IOException thrown on I/O error
+     */
+    private static void readBlockArray(String name, DataInputStream in, int length,
+                                       PalettedBlockArray blocks) throws IOException {
+        boolean isBlocks = name.equals("Blocks");
+        boolean isData = name.equals("Data");
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int volume = blocks.getVolume();
+        for (int start = 0; start < length; start += buffer.length) {
+            int count = Math.min(buffer.length, length - start);
+            in.readFully(buffer, 0, count);
+
+            for (int i = 0; i < count; ++i) {
+                int index = start + i;
+                if (isBlocks) {
+                    if (index >= volume) break;
+                    blocks.set(index, (blocks.getType(index) & 0xF00) | (buffer[i] & 0xFF), blocks.getData(index));
+                } else if (isData) {
+                    if (index >= volume) break;
+                    blocks.set(index, blocks.getType(index), buffer[i]);
+                } else {
+                    // We support 4096 block IDs using the same method as vanilla Minecraft, where
+                    // the highest 4 bits are stored in a separate byte array.
+                    int low = index << 1;
+                    if (low < volume) {
+                        blocks.set(low, ((buffer[i] & 0x0F) << 8) | (blocks.getType(low) & 0xFF), blocks.getData(low));
+                    }
+                    if (low + 1 < volume) {
+                        blocks.set(low + 1, ((buffer[i] & 0xF0) << 4) | (blocks.getType(low + 1) & 0xFF), blocks.getData(low + 1));
                     }
                 }
             }
         }
+    }
 
-        schematic.put("Blocks", new ByteArrayTag("Blocks", blocks));
-        schematic.put("Data", new ByteArrayTag("Data", blockData));
-        schematic.put("Entities", new ListTag("Entities", CompoundTag.class, new ArrayList<Tag>()));
-        schematic.put("TileEntities", new ListTag("TileEntities", CompoundTag.class, tileEntities));
-        if (addBlocks != null) {
-            schematic.put("AddBlocks", new ByteArrayTag("AddBlocks", addBlocks));
+    /**
+     * Write one of the Blocks, Data and AddBlocks arrays from the clipboard.
+     *
+     * @param name the name of the array
+     * @param out the stream
+     * @param blocks the blocks of the clipboard
+     * @throws IOException thrown on I/O error
+     */
+    private static void writeBlockArray(String name, DataOutputStream out,
+                                        PalettedBlockArray blocks) throws IOException {
+        boolean isBlocks = name.equals("Blocks");
+        boolean isData = name.equals("Data");
+        int volume = blocks.getVolume();
+        int length = isBlocks || isData ? volume : (volume >> 1) + 1;
+
+        out.writeByte(NBTConstants.TYPE_BYTE_ARRAY);
+        writeName(out, name);
+        out.writeInt(length);
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (int start = 0; start < length; start += buffer.length) {
+            int count = Math.min(buffer.length, length - start);
+
+            for (int i = 0; i < count; ++i) {
+                int index = start + i;
+                if (isBlocks) {
+                    buffer[i] = (byte) blocks.getType(index);
+                } else if (isData) {
+                    buffer[i] = (byte) blocks.getData(index);
+                } else {
+                    int low = index << 1;
+                    int add = low < volume ? (blocks.getType(low) >> 8) & 0xF : 0;
+                    if (low + 1 < volume) {
+                        add |= ((blocks.getType(low + 1) >> 8) & 0xF) << 4;
+                    }
+                    buffer[i] = (byte) add;
+                }
+            }
+
+            out.write(buffer, 0, count);
         }
+    }
+
+    private static Vector getSize(Map<String, Tag> schematic) throws DataException {
+        int width = getChildTag(schematic, "Width", ShortTag.class).getValue() & 0xFFFF;
+        int height = getChildTag(schematic, "Height", ShortTag.class).getValue() & 0xFFFF;
+        int length = getChildTag(schematic, "Length", ShortTag.class).getValue() & 0xFFFF;
+        return new Vector(width, height, length);
+    }
+
+    private static String readName(DataInputStream in) throws IOException {
+        byte[] nameBytes = new byte[in.readShort() & 0xFFFF];
+        in.readFully(nameBytes);
+        return new String(nameBytes, NBTConstants.CHARSET);
+    }
 
-        // Build and output
-        CompoundTag schematicTag = new CompoundTag("Schematic", schematic);
-        NBTOutputStream stream = new NBTOutputStream(new FileOutputStream(file));
-        stream.writeTag(schematicTag);
-        stream.close();
+    private static void writeName(DataOutputStream out, String name) throws IOException {
+        byte[] nameBytes = name.getBytes(NBTConstants.CHARSET);
+        out.writeShort(nameBytes.length);
+        out.write(nameBytes);
     }
 
     @Override
@@ -19,13 +19,13 @@
 
 package com.sk89q.worldedit.shape;
 
-import com.sk89q.worldedit.BlockVector;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.MaxChangedBlocksException;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.blocks.BaseBlock;
 import com.sk89q.worldedit.patterns.Pattern;
 import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.regions.SpanCursor;
 
 /**
  * Generates solid and hollow shapes according to materials returned by the
@@ -34,6 +34,8 @@
  * @author TomyLobo
  */
 public abstract class ArbitraryShape {
+    private static final int BATCH_SIZE = 16384;
+
     protected final Region extent;
     private int cacheOffsetX;
     private int cacheOffsetY;
@@ -85,27 +87,51 @@ protected Region getExtent() {
      */
     protected abstract BaseBlock getMaterial(int x, int y, int z, BaseBlock defaultMaterial);
 
+    /**
+     * Get the materials of several blocks at once. generate() passes the
+     * blocks of the extent in batches, so this can be overridden to
+     * evaluate them in parallel. By default, {@link #getMaterial} is called
+     * for each block.
+     *
+     * @param positions the X, Y and Z coordinates of each block
+     * @param materials the materials returned by the pattern for each block, replaced by the materials to place or null
+     * @param count the number of blocks
+     */
+    protected void getMaterials(int[] positions, BaseBlock[] materials, int count) {
+        for (int i = 0; i < count; ++i) {
+            materials[i] = getMaterial(positions[i * 3], positions[i * 3 + 1], positions[i * 3 + 2], materials[i]);
+        }
+    }
+
+    private void cacheMaterial(int index, BaseBlock material) {
+        if (material == null) {
+            // outside
+            cache[index] = -1;
+            return;
+        }
+
+        short newCacheEntry = (short) (material.getType() | ((material.getData() + 1) << 8));
+        if (newCacheEntry == 0) {
+            // type and data 0
+            newCacheEntry = -2;
+        }
+
+        cache[index] = newCacheEntry;
+    }
+
+    private int getCacheIndex(int x, int y, int z) {
+        return (y - cacheOffsetY) + (z - cacheOffsetZ) * cacheSizeY + (x - cacheOffsetX) * cacheSizeY * cacheSizeZ;
+    }
+
     private BaseBlock getMaterialCached(int x, int y, int z, Pattern pattern) {
-        final int index = (y - cacheOffsetY) + (z - cacheOffsetZ) * cacheSizeY + (x - cacheOffsetX) * cacheSizeY * cacheSizeZ;
+        final int index = getCacheIndex(x, y, z);
 
         final short cacheEntry = cache[index];
         switch (cacheEntry) {
         case 0:
             // unknown, fetch material
-            final BaseBlock material = getMaterial(x, y, z, pattern.next(new BlockVector(x, y, z)));
-            if (material == null) {
-                // outside
-                cache[index] = -1;
-                return null;
-            }
-
-            short newCacheEntry = (short) (material.getType() | ((material.getData() + 1) << 8));
-            if (newCacheEntry == 0) {
-                // type and data 0
-                newCacheEntry = -2;
-            }
-
-            cache[index] = newCacheEntry;
+            final BaseBlock material = getMaterial(x, y, z, pattern.next(x, y, z));
+            cacheMaterial(index, material);
             return material;
 
         case -1:
@@ -121,7 +147,7 @@ private BaseBlock getMaterialCached(int x, int y, int z, Pattern pattern) {
     }
 
     private boolean isInsideCached(int x, int y, int z, Pattern pattern) {
-        final int index = (y - cacheOffsetY) + (z - cacheOffsetZ) * cacheSizeY + (x - cacheOffsetX) * cacheSizeY * cacheSizeZ;
+        final int index = getCacheIndex(x, y, z);
 
         switch (cache[index]) {
         case 0:
@@ -150,60 +176,88 @@ private boolean isInsideCached(int x, int y, int z, Pattern pattern) {
     public int generate(EditSession editSession, Pattern pattern, boolean hollow) throws MaxChangedBlocksException {
         int affected = 0;
 
-        for (BlockVector position : getExtent()) {
-            int x = position.getBlockX();
-            int y = position.getBlockY();
-            int z = position.getBlockZ();
+        // Fetch the materials of the extent in batches. Hollow shapes only
+        // cache them here, as their outline is determined afterwards.
+        final int[] positions = new int[BATCH_SIZE * 3];
+        final BaseBlock[] materials = new BaseBlock[BATCH_SIZE];
+        int count = 0;
+        SpanCursor spans = getExtent().spans();
+        while (spans.next()) {
+            final int y = spans.getY();
+            final int z = spans.getZ();
+            for (int x = spans.getMinX(); x <= spans.getMaxX(); ++x) {
+                positions[count * 3] = x;
+                positions[count * 3 + 1] = y;
+                positions[count * 3 + 2] = z;
+                materials[count] = pattern.next(x, y, z);
+                if (++count == BATCH_SIZE) {
+                    affected += processBatch(editSession, positions, materials, count, hollow);
+                    count = 0;
+                }
+            }
+        }
+        affected += processBatch(editSession, positions, materials, count, hollow);
+
+        if (!hollow) {
+            return affected;
+        }
 
-            if (!hollow) {
-                final BaseBlock material = getMaterial(x, y, z, pattern.next(position));
-                if (material != null && editSession.setBlock(position, material)) {
+        spans = getExtent().spans();
+        while (spans.next()) {
+            final int y = spans.getY();
+            final int z = spans.getZ();
+            for (int x = spans.getMinX(); x <= spans.getMaxX(); ++x) {
+                if (drawHollow(editSession, x, y, z, pattern)) {
                     ++affected;
                 }
-
-                continue;
             }
+        }
 
-            final BaseBlock material = getMaterialCached(x, y, z, pattern);
-            if (material == null) {
-                continue;
-            }
+        return affected;
+    }
 
-            boolean draw = false;
-            do {
-                if (!isInsideCached(x + 1, y, z, pattern)) {
-                    draw = true;
-                    break;
-                }
-                if (!isInsideCached(x - 1, y, z, pattern)) {
-                    draw = true;
-                    break;
-                }
-                if (!isInsideCached(x, y, z + 1, pattern)) {
-                    draw = true;
-                    break;
-                }
-                if (!isInsideCached(x, y, z - 1, pattern)) {
-                    draw = true;
-                    break;
-                }
-                if (!isInsideCached(x, y + 1, z, pattern)) {
-                    draw = true;
-                    break;
-                }
-                if (!isInsideCached(x, y - 1, z, pattern)) {
-                    draw = true;
-                    break;
-                }
-            } while (false);
+    /**
+     * Set a block of a hollow shape, if it is on the outline of the shape.
+     *
+     * @return whether the block was changed
+     */
+    private boolean drawHollow(EditSession editSession, int x, int y, int z, Pattern pattern) throws MaxChangedBlocksException {
+        final BaseBlock material = getMaterialCached(x, y, z, pattern);
+        if (material == null) {
+            return false;
+        }
 
-            if (!draw) {
-                continue;
-            }
+        final boolean outline = !isInsideCached(x + 1, y, z, pattern)
+                || !isInsideCached(x - 1, y, z, pattern)
+                || !isInsideCached(x, y, z + 1, pattern)
+                || !isInsideCached(x, y, z - 1, pattern)
+                || !isInsideCached(x, y + 1, z, pattern)
+                || !isInsideCached(x, y - 1, z, pattern);
+        if (!outline) {
+            return false;
+        }
 
-            if (editSession.setBlock(position, material)) {
+        return editSession.setBlock(x, y, z, material);
+    }
+
+    private int processBatch(EditSession editSession, int[] positions, BaseBlock[] materials, int count, boolean hollow) throws MaxChangedBlocksException {
+        if (count == 0) {
+            return 0;
+        }
+
+        getMaterials(positions, materials, count);
+
+        int affected = 0;
+        for (int i = 0; i < count; ++i) {
+            final int x = positions[i * 3];
+            final int y = positions[i * 3 + 1];
+            final int z = positions[i * 3 + 2];
+            if (hollow) {
+                cacheMaterial(getCacheIndex(x, y, z), materials[i]);
+            } else if (materials[i] != null && editSession.setBlock(x, y, z, materials[i])) {
                 ++affected;
             }
+            materials[i] = null;
         }
 
         return affected;
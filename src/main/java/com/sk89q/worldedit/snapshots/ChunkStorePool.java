@@ -0,0 +1,197 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.sk89q.worldedit.snapshots;
+
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.worldedit.LocalWorld;
+import com.sk89q.worldedit.Vector2D;
+import com.sk89q.worldedit.data.Chunk;
+import com.sk89q.worldedit.data.ChunkStore;
+import com.sk89q.worldedit.data.DataException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the chunk stores of the snapshot archives used most recently open
+ * between restores, so that restoring from the same archive again doesn't
+ * open and scan it again, and can use the region files that the store still
+ * has in memory.
+ * </p>
+ * The stores handed out are closed by returning them to the pool. A store
+ * that can't be read from several threads is only handed out to one restore
+ * at a time. Stores are dropped once their archive changes, or when the pool
+ * is full and they were used least recently, and closed once no restore
+ * uses them anymore.
+ */
+class ChunkStorePool {
+
+    private final int maxStores;
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /**
+     * Create a new pool.
+     *
+     * @param maxStores the most stores to keep open
+     */
+    ChunkStorePool(int maxStores) {
+        this.maxStores = maxStores;
+    }
+
+    /**
+     * Get a chunk store for a snapshot. The store must be closed once the
+     * snapshot has been read.
+     *
+     * @param snapshot the snapshot
+     * @return the store
+     * @throws IOException thrown on I/O error
+     * @throws DataException thrown if the snapshot can't be read
+     */
+    synchronized ChunkStore acquire(Snapshot snapshot) throws IOException, DataException {
+        final File file = snapshot.getFile();
+        final String key = file.getAbsolutePath();
+
+        Entry entry = entries.get(key);
+        if (entry != null && (entry.length != file.length() || entry.lastModified != file.lastModified())) {
+            entries.remove(key);
+            retire(entry);
+            entry = null;
+        }
+
+        if (entry == null) {
+            entry = new Entry(snapshot.createChunkStore(), file);
+            entries.put(key, entry);
+            evict();
+        } else if (entry.users > 0 && !entry.store.isThreadSafe()) {
+            // Another restore is using it, so this one gets a store of its own
+            return snapshot.createChunkStore();
+        }
+
+        ++entry.users;
+        return new PooledChunkStore(entry);
+    }
+
+    /**
+     * Close all stores once they are no longer used.
+     */
+    synchronized void closeAll() {
+        final List<Entry> all = new ArrayList<Entry>(entries.values());
+        entries.clear();
+        for (Entry entry : all) {
+            retire(entry);
+        }
+    }
+
+    private synchronized void release(Entry entry) {
+        --entry.users;
+        if (entry.retired && entry.users == 0) {
+            close(entry);
+        }
+    }
+
+    private void evict() {
+        final Iterator<Entry> it = entries.values().iterator();
+        while (entries.size() > maxStores) {
+            final Entry eldest = it.next();
+            it.remove();
+            retire(eldest);
+        }
+    }
+
+    private void retire(Entry entry) {
+        entry.retired = true;
+        if (entry.users == 0) {
+            close(entry);
+        }
+    }
+
+    private static void close(Entry entry) {
+        try {
+            entry.store.close();
+        } catch (IOException e) {
+        }
+    }
+
+    /**
+     * An open store and the archive it reads.
+     */
+    private static class Entry {
+        private final ChunkStore store;
+        private final long length;
+        private final long lastModified;
+        private int users = 0;
+        private boolean retired = false;
+
+        private Entry(ChunkStore store, File file) {
+            this.store = store;
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+        }
+    }
+
+    /**
+     * A store handed out by the pool, which is returned to the pool when it
+     * is closed.
+     */
+    private class PooledChunkStore extends ChunkStore {
+        private final Entry entry;
+        private boolean closed = false;
+
+        private PooledChunkStore(Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public CompoundTag getChunkTag(Vector2D pos, LocalWorld world) throws DataException, IOException {
+            return entry.store.getChunkTag(pos, world);
+        }
+
+        @Override
+        public Chunk getChunk(Vector2D pos, LocalWorld world) throws DataException, IOException {
+            return entry.store.getChunk(pos, world);
+        }
+
+        @Override
+        public boolean isThreadSafe() {
+            return entry.store.isThreadSafe();
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (ChunkStorePool.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            release(entry);
+        }
+
+        @Override
+        public boolean isValid() {
+            return entry.store.isValid();
+        }
+    }
+
+}
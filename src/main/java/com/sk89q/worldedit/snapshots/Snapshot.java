@@ -21,8 +21,12 @@
 import com.sk89q.worldedit.data.*;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Enumeration;
+import java.util.List;
 import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 /**
@@ -32,6 +36,10 @@
 public class Snapshot implements Comparable<Snapshot> {
 
     protected static Logger logger = Logger.getLogger("Minecraft.WorldEdit");
+    /**
+     * The repository of the snapshot.
+     */
+    protected SnapshotRepository repo;
     /**
      * Stores snapshot file.
      */
@@ -52,18 +60,36 @@ public class Snapshot implements Comparable<Snapshot> {
      * @param snapshot
      */
     public Snapshot(SnapshotRepository repo, String snapshot) {
+        this.repo = repo;
         file = new File(repo.getDirectory(), snapshot);
         name = snapshot;
     }
 
     /**
-     * Get a chunk store.
+     * Get a chunk store. The store of an archive may be shared with earlier
+     * and other restores from the same archive, so it must be closed once
+     * it is no longer used.
      *
      * @return
      * @throws IOException
      * @throws DataException
      */
     public ChunkStore getChunkStore() throws IOException, DataException {
+        if (isArchive()) {
+            return repo.getChunkStorePool().acquire(this);
+        }
+
+        return createChunkStore();
+    }
+
+    /**
+     * Open a new chunk store.
+     *
+     * @return
+     * @throws IOException
+     * @throws DataException
+     */
+    ChunkStore createChunkStore() throws IOException, DataException {
         ChunkStore chunkStore = _getChunkStore();
 
         logger.info("WorldEdit: Using " + chunkStore.getClass().getCanonicalName()
@@ -101,17 +127,14 @@ public ChunkStore _getChunkStore() throws IOException, DataException {
         } else if (file.getName().toLowerCase().endsWith(".tar.bz2")
                 || file.getName().toLowerCase().endsWith(".tar.gz")
                 || file.getName().toLowerCase().endsWith(".tar")) {
-            try {
-                ChunkStore chunkStore = new TrueZipMcRegionChunkStore(file);
-
-                if (!chunkStore.isValid()) {
-                    return new TrueZipLegacyChunkStore(file);
-                }
+            ChunkStore chunkStore = new TarMcRegionChunkStore(file);
 
-                return chunkStore;
-            } catch (NoClassDefFoundError e) {
-                throw new DataException("TrueZIP is required for .tar support");
+            if (!chunkStore.isValid()) {
+                chunkStore.close();
+                throw new DataException("Only worlds in the MCRegion format can be restored from .tar files");
             }
+
+            return chunkStore;
         } else {
             ChunkStore chunkStore = new FileMcRegionChunkStore(file);
 
@@ -123,6 +146,17 @@ public ChunkStore _getChunkStore() throws IOException, DataException {
         }
     }
 
+    /**
+     * Returns whether the snapshot is a zip or tar file.
+     *
+     * @return true if the snapshot is an archive
+     */
+    private boolean isArchive() {
+        String name = file.getName().toLowerCase();
+        return name.endsWith(".zip") || name.endsWith(".tar.bz2")
+                || name.endsWith(".tar.gz") || name.endsWith(".tar");
+    }
+
     /**
      * Check the zip/tar file it contains the given world.
      *
@@ -131,19 +165,25 @@ public ChunkStore _getChunkStore() throws IOException, DataException {
     public boolean containsWorld(String worldname) {
         try {
             if (file.getName().toLowerCase().endsWith(".zip")) {
-                ZipFile entry = new ZipFile(file);
-                return (entry.getEntry(worldname) != null
-                || entry.getEntry(worldname + "/level.dat") != null);
+                // Only scan the entries if they haven't been indexed yet
+                ArchiveIndex index = ArchiveIndex.get(file);
+                if (index == null) {
+                    ZipFile zip = new ZipFile(file);
+                    try {
+                        List<String> names = new ArrayList<String>();
+                        for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                            names.add(e.nextElement().getName());
+                        }
+                        index = ArchiveIndex.create(file, names);
+                    } finally {
+                        zip.close();
+                    }
+                }
+                return index.containsWorld(worldname);
             } else if (file.getName().toLowerCase().endsWith(".tar.bz2")
                     || file.getName().toLowerCase().endsWith(".tar.gz")
                     || file.getName().toLowerCase().endsWith(".tar")) {
-                try {
-                    de.schlichtherle.util.zip.ZipFile entry = new de.schlichtherle.util.zip.ZipFile(file);
-
-                    return entry.getEntry(worldname) != null;
-                } catch (NoClassDefFoundError e) {
-                    throw new DataException("TrueZIP is required for .tar support");
-                }
+                return TarMcRegionChunkStore.getIndex(file).containsWorld(worldname);
             } else {
                 return (file.getName().equalsIgnoreCase(worldname));
             }
@@ -152,7 +192,7 @@ public boolean containsWorld(String worldname) {
             logger.info("Could not load snapshot: "
                     + file.getPath());
         } catch (DataException ex) {
-            // No truezip, so tar file not supported.
+            // The tar file is compressed in a way that is not supported.
             // Dont print, just skip the file.
         }
         return false;
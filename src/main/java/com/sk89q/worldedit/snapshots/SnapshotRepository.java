@@ -33,6 +33,8 @@
  */
 public class SnapshotRepository {
 
+    private static final int MAX_OPEN_STORES = 3;
+
     /**
      * Stores the directory the snapshots come from.
      */
@@ -41,6 +43,10 @@ public class SnapshotRepository {
      * List of date parsers.
      */
     protected List<SnapshotDateParser> dateParsers = new ArrayList<SnapshotDateParser>();
+    /**
+     * The open chunk stores of the archives restored from recently.
+     */
+    private final ChunkStorePool chunkStorePool = new ChunkStorePool(MAX_OPEN_STORES);
 
     /**
      * Create a new instance of a repository.
@@ -238,4 +244,21 @@ public Snapshot getSnapshot(String name) throws InvalidSnapshotException {
     public File getDirectory() {
         return dir;
     }
+
+    /**
+     * Get the pool of open chunk stores of the archives in this repository.
+     *
+     * @return
+     */
+    ChunkStorePool getChunkStorePool() {
+        return chunkStorePool;
+    }
+
+    /**
+     * Close the chunk stores that are kept open between restores. Stores
+     * that are still being restored from are closed when they are done.
+     */
+    public void close() {
+        chunkStorePool.closeAll();
+    }
 }
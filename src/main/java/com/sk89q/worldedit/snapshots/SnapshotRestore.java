@@ -21,34 +21,83 @@
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.sk89q.worldedit.BlockVector2D;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.MaxChangedBlocksException;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.Vector2D;
+import com.sk89q.worldedit.WorldEditException;
 import com.sk89q.worldedit.blocks.BaseBlock;
 import com.sk89q.worldedit.data.Chunk;
 import com.sk89q.worldedit.data.ChunkStore;
 import com.sk89q.worldedit.data.DataException;
 import com.sk89q.worldedit.data.MissingChunkException;
 import com.sk89q.worldedit.data.MissingWorldException;
+import com.sk89q.worldedit.masks.Mask;
+import com.sk89q.worldedit.operation.Operation;
+import com.sk89q.worldedit.operation.OperationHelper;
+import com.sk89q.worldedit.operation.ProgressiveOperation;
 import com.sk89q.worldedit.regions.CuboidRegion;
 import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.regions.SpanCursor;
 
 /**
+ * Restores a region from a snapshot.
+ * </p>
+ * Chunks are read and decoded on a pool of worker threads, a few chunks
+ * ahead of the chunk being written, in the order of their region files.
+ * Writing to the world happens in {@link #resume()}, a batch of chunks
+ * at a time, so the restore can be spread over several ticks.
+ * </p>
+ * The mask of the edit session is tested when each chunk is written, for
+ * the whole chunk before any of its blocks is written. Chunks are needed
+ * if they contain part of the region, whether or not the mask matches any
+ * of their blocks.
  *
  * @author sk89q
  */
-public class SnapshotRestore {
+public class SnapshotRestore implements ProgressiveOperation {
     /**
-     * Store a list of chunks that are needed and the points in them.
+     * Number of chunks written to the world per step.
      */
-    private final Map<BlockVector2D, ArrayList<Vector>> neededChunks =
-            new LinkedHashMap<BlockVector2D, ArrayList<Vector>>();
+    private static final int CHUNKS_PER_STEP = 16;
+    /**
+     * Number of chunks decoded ahead of the writing per worker thread.
+     */
+    private static final int PREFETCH_PER_THREAD = 4;
+    /**
+     * Maximum number of worker threads.
+     */
+    private static final int MAX_THREADS = 4;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    /**
+     * Store a list of chunks that are needed and the part of them to restore.
+     */
+    private final List<ChunkArea> neededChunks = new ArrayList<ChunkArea>();
+    /**
+     * Region to restore.
+     */
+    private final Region region;
+    /**
+     * Whether every block in the bounding box of the region is restored.
+     */
+    private final boolean cuboid;
     /**
      * Chunk store.
      */
@@ -69,6 +118,29 @@ public class SnapshotRestore {
      * Last error message.
      */
     private String lastErrorMessage;
+    /**
+     * Chunks that have not been submitted for decoding yet.
+     */
+    private Iterator<ChunkArea> pending;
+    /**
+     * Chunks being decoded, in the order they are written in.
+     */
+    private final LinkedList<PendingChunk> decoding = new LinkedList<PendingChunk>();
+    /**
+     * Worker pool, while the restore is running.
+     */
+    private ExecutorService executor;
+    private int prefetch;
+    /**
+     * Number of chunks that have been written or failed.
+     */
+    private int chunksDone = 0;
+    /**
+     * The runs of blocks to restore in the chunk being written, as the Y
+     * and Z coordinates and the lowest and highest X coordinates of each.
+     */
+    private int[] runs = new int[256];
+    private int runCount = 0;
 
     /**
      * Construct the snapshot restore operation.
@@ -80,64 +152,69 @@ public class SnapshotRestore {
     public SnapshotRestore(ChunkStore chunkStore, EditSession editSession, Region region) {
         this.chunkStore = chunkStore;
         this.editSession = editSession;
+        this.region = region.clone();
+        this.cuboid = region instanceof CuboidRegion;
 
-        if (region instanceof CuboidRegion) {
-            findNeededCuboidChunks(region);
-        } else {
-            findNeededChunks(region);
-        }
+        findNeededChunks();
     }
 
     /**
-     * Find needed chunks in the axis-aligned bounding box of the region.
-     *
-     * @param region The {@link Region} to iterate
+     * Find the chunks that intersect the region. Only the chunks and the
+     * sections of them that contain part of the region are remembered; the
+     * blocks themselves are found again when the chunk is restored. The
+     * sections of regions other than cuboids are found by walking the runs
+     * of blocks of the region once.
      */
-    private void findNeededCuboidChunks(Region region) {
+    private void findNeededChunks() {
         Vector min = region.getMinimumPoint();
         Vector max = region.getMaximumPoint();
+        int minY = Math.max(0, min.getBlockY());
+        int maxY = Math.min(editSession.getWorld().getMaxY(), max.getBlockY());
+        if (minY > maxY) {
+            return;
+        }
 
-        // First, we need to group points by chunk so that we only need
-        // to keep one chunk in memory at any given moment
-        for (int x = min.getBlockX(); x <= max.getBlockX(); ++x) {
-            for (int y = min.getBlockY(); y <= max.getBlockY(); ++y) {
-                for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
-                    Vector pos = new Vector(x, y, z);
-                    checkAndAddBlock(pos);
+        int minChunkX = min.getBlockX() >> 4;
+        int minChunkZ = min.getBlockZ() >> 4;
+        int chunksZ = (max.getBlockZ() >> 4) - minChunkZ + 1;
+        ChunkArea[] areas = new ChunkArea[((max.getBlockX() >> 4) - minChunkX + 1) * chunksZ];
+        for (int chunkX = minChunkX; chunkX <= max.getBlockX() >> 4; ++chunkX) {
+            for (int chunkZ = minChunkZ; chunkZ <= max.getBlockZ() >> 4; ++chunkZ) {
+                ChunkArea area = new ChunkArea(new BlockVector2D(chunkX, chunkZ),
+                        Math.max(min.getBlockX(), chunkX << 4),
+                        Math.min(max.getBlockX(), (chunkX << 4) + 15),
+                        minY, maxY,
+                        Math.max(min.getBlockZ(), chunkZ << 4),
+                        Math.min(max.getBlockZ(), (chunkZ << 4) + 15));
+                if (cuboid) {
+                    area.sections.set(0, area.getSectionCount());
                 }
+                areas[(chunkX - minChunkX) * chunksZ + (chunkZ - minChunkZ)] = area;
             }
         }
-    }
 
-    /**
-     * Find needed chunks in the region.
-     *
-     * @param region The {@link Region} to iterate
-     */
-    private void findNeededChunks(Region region) {
-        // First, we need to group points by chunk so that we only need
-        // to keep one chunk in memory at any given moment
-        for (Vector pos : region) {
-            checkAndAddBlock(pos);
+        if (!cuboid) {
+            SpanCursor spans = region.spans();
+            spans.limit(minY, maxY, min.getBlockZ(), max.getBlockZ());
+            while (spans.next()) {
+                int chunkZ = spans.getZ() >> 4;
+                for (int chunkX = spans.getMinX() >> 4; chunkX <= spans.getMaxX() >> 4; ++chunkX) {
+                    ChunkArea area = areas[(chunkX - minChunkX) * chunksZ + (chunkZ - minChunkZ)];
+                    area.sections.set((spans.getY() >> 4) - (area.minY >> 4));
+                }
+            }
         }
-    }
-
-    private void checkAndAddBlock(Vector pos) {
-        if (editSession.getMask() != null && !editSession.getMask().matches(editSession, pos))
-            return;
 
-        BlockVector2D chunkPos = ChunkStore.toChunk(pos);
-
-        // Unidentified chunk
-        if (!neededChunks.containsKey(chunkPos)) {
-            neededChunks.put(chunkPos, new ArrayList<Vector>());
+        for (ChunkArea area : areas) {
+            if (!area.sections.isEmpty()) {
+                neededChunks.add(area);
+            }
         }
-
-        neededChunks.get(chunkPos).add(pos);
     }
 
     /**
-     * Get the number of chunks that are needed.
+     * Get the number of chunks that are needed. The mask of the edit
+     * session isn't taken into account.
      *
      * @return
      */
@@ -151,40 +228,295 @@ public int getChunksAffected() {
      * @throws MaxChangedBlocksException
      */
     public void restore() throws MaxChangedBlocksException {
+        OperationHelper.completeLegacy(this);
+    }
+
+    /**
+     * Write the next batch of chunks to the world, starting the workers
+     * on the first call.
+     *
+     * @return this operation, or null when all chunks have been restored
+     * @throws WorldEditException
+     */
+    @Override
+    public Operation resume() throws WorldEditException {
+        if (pending == null) {
+            start();
+        }
+
+        // The world may have changed since the last step
+        editSession.clearReadCache();
+
+        try {
+            for (int i = 0; i < CHUNKS_PER_STEP; ++i) {
+                fillPrefetch();
+                if (decoding.isEmpty()) {
+                    stop();
+                    return null;
+                }
+
+                PendingChunk next = decoding.removeFirst();
+                ++chunksDone;
+                try {
+                    restoreChunk(next.area, next.future.get());
+                } catch (ExecutionException e) {
+                    handleError(next.area.position, e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+            return null;
+        } catch (RuntimeException e) {
+            cancel();
+            throw e;
+        }
+
+        return this;
+    }
+
+    @Override
+    public double getProgress() {
+        return neededChunks.isEmpty() ? 1 : (double) chunksDone / neededChunks.size();
+    }
+
+    /**
+     * Stop decoding chunks. Chunks that have already been written stay
+     * restored.
+     */
+    @Override
+    public void cancel() {
+        for (PendingChunk chunk : decoding) {
+            chunk.future.cancel(true);
+        }
+        decoding.clear();
+        if (pending != null) {
+            pending = Collections.<ChunkArea>emptyList().iterator();
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
 
+    private void start() {
         missingChunks = new ArrayList<Vector2D>();
         errorChunks = new ArrayList<Vector2D>();
 
-        // Now let's start restoring!
-        for (Map.Entry<BlockVector2D, ArrayList<Vector>> entry : neededChunks.entrySet()) {
-            BlockVector2D chunkPos = entry.getKey();
-            Chunk chunk;
-
-            try {
-                chunk = chunkStore.getChunk(chunkPos, editSession.getWorld());
-                // Good, the chunk could be at least loaded
-
-                // Now just copy blocks!
-                for (Vector pos : entry.getValue()) {
-                    try {
-                        BaseBlock block = chunk.getBlock(pos);
-                        editSession.rawSetBlock(pos, block);
-                    } catch (DataException e) {
-                        // this is a workaround: just ignore for now
+        // Chunks of the same region file are read one after another
+        List<ChunkArea> areas = new ArrayList<ChunkArea>(neededChunks);
+        Collections.sort(areas, new Comparator<ChunkArea>() {
+            @Override
+            public int compare(ChunkArea o1, ChunkArea o2) {
+                return compareByRegion(o1.position, o2.position);
+            }
+        });
+        pending = areas.iterator();
+
+        int threads = 1;
+        if (chunkStore.isThreadSafe()) {
+            threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+        }
+        prefetch = threads * PREFETCH_PER_THREAD;
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "WorldEdit Snapshot Restore #" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * Submit chunks for decoding until enough are in flight.
+     */
+    private void fillPrefetch() {
+        while (decoding.size() < prefetch && pending.hasNext()) {
+            final ChunkArea area = pending.next();
+            Future<Chunk> future = executor.submit(new Callable<Chunk>() {
+                @Override
+                public Chunk call() throws Exception {
+                    return chunkStore.getChunk(area.position, editSession.getWorld());
+                }
+            });
+            decoding.add(new PendingChunk(area, future));
+        }
+    }
+
+    private void restoreChunk(ChunkArea area, Chunk chunk) {
+        findRuns(area);
+
+        // Test the mask on the whole chunk first, so restored blocks don't affect it
+        Mask mask = editSession.getMask();
+        BitSet masked = null;
+        if (mask != null) {
+            masked = new BitSet();
+            BitSet matches = new BitSet();
+            int offset = 0;
+            for (int i = 0; i < runCount * 4; i += 4) {
+                int length = runs[i + 3] - runs[i + 2] + 1;
+                mask.matchesRun(editSession, runs[i + 2], runs[i], runs[i + 1], length, matches);
+                for (int j = matches.nextSetBit(0); j >= 0 && j < length; j = matches.nextSetBit(j + 1)) {
+                    masked.set(offset + j);
+                }
+                offset += length;
+            }
+        }
+
+        // Now just copy blocks!
+        int index = 0;
+        for (int i = 0; i < runCount * 4; i += 4) {
+            int y = runs[i];
+            int z = runs[i + 1];
+            for (int x = runs[i + 2]; x <= runs[i + 3]; ++x, ++index) {
+                if (masked != null && !masked.get(index)) {
+                    continue;
+                }
+
+                Vector pos = new Vector(x, y, z);
+                try {
+                    BaseBlock block = chunk.getBlock(pos);
+                    editSession.rawSetBlock(pos, block);
+                } catch (DataException e) {
+                    // this is a workaround: just ignore for now
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the runs of blocks of the region within the needed sections of a
+     * chunk.
+     *
+     * @param area the chunk
+     */
+    private void findRuns(ChunkArea area) {
+        runCount = 0;
+        for (int section = area.sections.nextSetBit(0); section >= 0; section = area.sections.nextSetBit(section + 1)) {
+            int sectionMinY = area.getSectionMinY(section);
+            int sectionMaxY = area.getSectionMaxY(section);
+            if (cuboid) {
+                for (int y = sectionMinY; y <= sectionMaxY; ++y) {
+                    for (int z = area.minZ; z <= area.maxZ; ++z) {
+                        addRun(y, z, area.minX, area.maxX);
                     }
                 }
-            } catch (MissingChunkException me) {
-                missingChunks.add(chunkPos);
-            } catch (MissingWorldException me) {
-                errorChunks.add(chunkPos);
-                lastErrorMessage = me.getMessage();
-            } catch (DataException de) {
-                errorChunks.add(chunkPos);
-                lastErrorMessage = de.getMessage();
-            } catch (IOException ioe) {
-                errorChunks.add(chunkPos);
-                lastErrorMessage = ioe.getMessage();
+                continue;
             }
+
+            SpanCursor spans = region.spans();
+            spans.limit(sectionMinY, sectionMaxY, area.minZ, area.maxZ);
+            while (spans.next()) {
+                int minX = Math.max(area.minX, spans.getMinX());
+                int maxX = Math.min(area.maxX, spans.getMaxX());
+                if (minX <= maxX) {
+                    addRun(spans.getY(), spans.getZ(), minX, maxX);
+                }
+            }
+        }
+    }
+
+    private void addRun(int y, int z, int minX, int maxX) {
+        if (runCount * 4 == runs.length) {
+            int[] newRuns = new int[runs.length * 2];
+            System.arraycopy(runs, 0, newRuns, 0, runs.length);
+            runs = newRuns;
+        }
+        runs[runCount * 4] = y;
+        runs[runCount * 4 + 1] = z;
+        runs[runCount * 4 + 2] = minX;
+        runs[runCount * 4 + 3] = maxX;
+        ++runCount;
+    }
+
+    private void handleError(BlockVector2D chunkPos, Throwable cause) {
+        if (cause instanceof MissingChunkException) {
+            missingChunks.add(chunkPos);
+        } else if (cause instanceof DataException || cause instanceof IOException) {
+            errorChunks.add(chunkPos);
+            lastErrorMessage = cause.getMessage();
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        } else {
+            errorChunks.add(chunkPos);
+            lastErrorMessage = String.valueOf(cause);
+        }
+    }
+
+    private static int compareByRegion(BlockVector2D a, BlockVector2D b) {
+        int regionA = a.getBlockX() >> 5;
+        int regionB = b.getBlockX() >> 5;
+        if (regionA != regionB) {
+            return regionA < regionB ? -1 : 1;
+        }
+        regionA = a.getBlockZ() >> 5;
+        regionB = b.getBlockZ() >> 5;
+        if (regionA != regionB) {
+            return regionA < regionB ? -1 : 1;
+        }
+        if (a.getBlockZ() != b.getBlockZ()) {
+            return a.getBlockZ() < b.getBlockZ() ? -1 : 1;
+        }
+        return a.getBlockX() < b.getBlockX() ? -1 : (a.getBlockX() == b.getBlockX() ? 0 : 1);
+    }
+
+    /**
+     * The part of a chunk that intersects the bounding box of the region,
+     * with the 16 block high sections that contain part of the region.
+     */
+    private static class ChunkArea {
+        private final BlockVector2D position;
+        private final int minX;
+        private final int maxX;
+        private final int minY;
+        private final int maxY;
+        private final int minZ;
+        private final int maxZ;
+        private final BitSet sections = new BitSet();
+
+        private ChunkArea(BlockVector2D position, int minX, int maxX, int minY, int maxY, int minZ, int maxZ) {
+            this.position = position;
+            this.minX = minX;
+            this.maxX = maxX;
+            this.minY = minY;
+            this.maxY = maxY;
+            this.minZ = minZ;
+            this.maxZ = maxZ;
+        }
+
+        private int getSectionCount() {
+            return (maxY >> 4) - (minY >> 4) + 1;
+        }
+
+        private int getSectionMinY(int section) {
+            return Math.max(minY, ((minY >> 4) + section) << 4);
+        }
+
+        private int getSectionMaxY(int section) {
+            return Math.min(maxY, (((minY >> 4) + section) << 4) + 15);
+        }
+    }
+
+    /**
+     * A chunk that has been submitted for decoding.
+     */
+    private static class PendingChunk {
+        private final ChunkArea area;
+        private final Future<Chunk> future;
+
+        private PendingChunk(ChunkArea area, Future<Chunk> future) {
+            this.area = area;
+            this.future = future;
         }
     }
 
@@ -210,7 +542,8 @@ public List<Vector2D> getErrorChunks() {
 
     /**
      * Checks to see where the backup succeeded in any capacity. False will
-     * be returned if no chunk could be successfully loaded.
+     * be returned if no chunk could be successfully loaded. Chunks whose
+     * blocks are all outside the mask of the edit session are loaded too.
      *
      * @return
      */
@@ -28,6 +28,7 @@
  * 
  * @author sk89q
  */
+@EditsWorld
 public class AreaPickaxe implements BlockTool {
     private static final BaseBlock air = new BaseBlock(0);
     private int range;
@@ -27,6 +27,7 @@
  * 
  * @author sk89q
  */
+@EditsWorld
 public class BlockDataCyler implements DoubleActionBlockTool {
 
     public boolean canUse(LocalPlayer player) {
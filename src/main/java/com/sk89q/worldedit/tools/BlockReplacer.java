@@ -29,6 +29,7 @@
  * 
  * @author sk89q
  */
+@EditsWorld
 public class BlockReplacer implements DoubleActionBlockTool {
     private BaseBlock targetBlock;
 
@@ -35,6 +35,7 @@
  * 
  * @author sk89q
  */
+@EditsWorld
 public class BrushTool implements TraceTool {
     protected static int MAX_RANGE = 500;
     protected int range = -1;
@@ -32,6 +32,7 @@
  *
  * @author Moo0
  */
+@EditsWorld
 public class FloatingTreeRemover implements BlockTool {
     private static final BaseBlock AIR = new BaseBlock(BlockID.AIR);
     private int rangeSq;
@@ -19,10 +19,10 @@
 
 package com.sk89q.worldedit.tools;
 
-import java.util.HashSet;
-import java.util.Set;
 import com.sk89q.worldedit.*;
 import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.floodfill.FloodFill;
+import com.sk89q.worldedit.floodfill.FloodFill.Connectivity;
 import com.sk89q.worldedit.patterns.Pattern;
 
 /**
@@ -30,6 +30,7 @@
  * 
  * @author sk89q
  */
+@EditsWorld
 public class FloodFillTool implements BlockTool {
     private int range;
     private Pattern pattern;
@@ -60,8 +61,9 @@ public boolean actPrimary(ServerInterface server, LocalConfiguration config,
         EditSession editSession = session.createEditSession(player);
 
         try {
-            recurse(server, editSession, world, clicked.toBlockVector(),
-                    clicked, range, initialType, new HashSet<BlockVector>());
+            fill(editSession, clicked, range, initialType);
+        } catch (MaxFloodFillBlocksException e) {
+            player.printError("Flood fill limit reached (" + e.getBlockLimit() + " blocks).");
         } catch (MaxChangedBlocksException e) {
             player.printError("Max blocks change limit reached.");
         } finally {
@@ -72,47 +74,39 @@ public boolean actPrimary(ServerInterface server, LocalConfiguration config,
     }
 
     /**
-     * Helper method.
-     * 
-     * @param server
-     * @param superPickaxeManyDrop
-     * @param world
-     * @param pos
+     * Replace the blocks of the initial type connected to a block.
+     *
+     * @param editSession
      * @param origin
      * @param size
      * @param initialType
-     * @param visited
+     * @throws MaxChangedBlocksException
      */
-    private void recurse(ServerInterface server, EditSession editSession,
-            LocalWorld world, BlockVector pos,
-            Vector origin, int size, int initialType,
-            Set<BlockVector> visited)
+    private void fill(final EditSession editSession, final Vector origin,
+            final int size, final int initialType)
             throws MaxChangedBlocksException {
 
-        if (origin.distance(pos) > size || visited.contains(pos)) {
-            return;
-        }
-
-        visited.add(pos);
-
-        if (editSession.getBlock(pos).getType() == initialType) {
-            editSession.setBlock(pos, pattern.next(pos));
-        } else {
-            return;
-        }
-
-        recurse(server, editSession, world, pos.add(1, 0, 0).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(-1, 0, 0).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(0, 0, 1).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(0, 0, -1).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(0, 1, 0).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(0, -1, 0).toBlockVector(),
-                origin, size, initialType, visited);
+        final FloodFill fill = new FloodFill(Connectivity.FACES) {
+            @Override
+            protected boolean visit(int x, int y, int z) throws MaxChangedBlocksException {
+                final double dx = x - origin.getX();
+                final double dy = y - origin.getY();
+                final double dz = z - origin.getZ();
+                if (Math.sqrt(dx * dx + dy * dy + dz * dz) > size) {
+                    return false;
+                }
+
+                if (editSession.getBlockType(x, y, z) != initialType) {
+                    return false;
+                }
+
+                editSession.setBlock(x, y, z, pattern.next(x, y, z));
+                return true;
+            }
+        };
+        fill.setMaxVisited(editSession.getFloodFillLimit());
+        fill.add(origin.getBlockX(), origin.getBlockY(), origin.getBlockZ());
+        fill.run();
     }
 
 }
@@ -28,6 +28,7 @@
  *
  * @author wizjany
  */
+@EditsWorld
 public class LongRangeBuildTool extends BrushTool implements DoubleActionTraceTool {
 
     BaseBlock primary;
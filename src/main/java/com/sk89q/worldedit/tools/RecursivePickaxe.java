@@ -19,12 +19,11 @@
 
 package com.sk89q.worldedit.tools;
 
-import java.util.HashSet;
-import java.util.Set;
-
 import com.sk89q.worldedit.*;
 import com.sk89q.worldedit.blocks.BaseBlock;
 import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.floodfill.FloodFill;
+import com.sk89q.worldedit.floodfill.FloodFill.Connectivity;
 
 /**
  * A pickaxe mode that recursively finds adjacent blocks within range of
@@ -32,6 +31,7 @@
  * 
  * @author sk89q
  */
+@EditsWorld
 public class RecursivePickaxe implements BlockTool {
     private static final BaseBlock air = new BaseBlock(0);
     private double range;
@@ -61,9 +61,10 @@ public boolean actPrimary(ServerInterface server, LocalConfiguration config,
         EditSession editSession = session.createEditSession(player);
 
         try {
-            recurse(server, editSession, world, clicked.toBlockVector(),
-                    clicked, range, initialType, new HashSet<BlockVector>(),
+            mine(server, editSession, world, clicked, range, initialType,
                     config.superPickaxeManyDrop);
+        } catch (MaxFloodFillBlocksException e) {
+            player.printError("Flood fill limit reached (" + e.getBlockLimit() + " blocks).");
         } catch (MaxChangedBlocksException e) {
             player.printError("Max blocks change limit reached.");
         } finally {
@@ -74,54 +75,51 @@ public boolean actPrimary(ServerInterface server, LocalConfiguration config,
     }
 
     /**
-     * Helper method.
-     * 
+     * Break the blocks of the initial type connected to a block.
+     *
      * @param server
-     * @param superPickaxeManyDrop
+     * @param editSession
      * @param world
-     * @param pos
      * @param origin
      * @param size
      * @param initialType
-     * @param visited
+     * @param drop
+     * @throws MaxChangedBlocksException
      */
-    private static void recurse(ServerInterface server, EditSession editSession,
-            LocalWorld world, BlockVector pos,
-            Vector origin, double size, int initialType,
-            Set<BlockVector> visited, boolean drop)
+    private static void mine(final ServerInterface server, final EditSession editSession,
+            final LocalWorld world, final Vector origin, final double size,
+            final int initialType, final boolean drop)
             throws MaxChangedBlocksException {
 
-        final double distanceSq = origin.distanceSq(pos);
-        if (distanceSq > size*size || visited.contains(pos)) {
-            return;
-        }
-
-        visited.add(pos);
-
-        if (editSession.getBlock(pos).getType() != initialType) {
-            return;
-        }
-
-        if (drop) {
-            world.simulateBlockMine(pos);
-        }
-
-        world.queueBlockBreakEffect(server, pos, initialType, distanceSq);
-
-        editSession.setBlock(pos, air);
-
-        recurse(server, editSession, world, pos.add(1, 0, 0).toBlockVector(),
-                origin, size, initialType, visited, drop);
-        recurse(server, editSession, world, pos.add(-1, 0, 0).toBlockVector(),
-                origin, size, initialType, visited, drop);
-        recurse(server, editSession, world, pos.add(0, 0, 1).toBlockVector(),
-                origin, size, initialType, visited, drop);
-        recurse(server, editSession, world, pos.add(0, 0, -1).toBlockVector(),
-                origin, size, initialType, visited, drop);
-        recurse(server, editSession, world, pos.add(0, 1, 0).toBlockVector(),
-                origin, size, initialType, visited, drop);
-        recurse(server, editSession, world, pos.add(0, -1, 0).toBlockVector(),
-                origin, size, initialType, visited, drop);
+        final FloodFill fill = new FloodFill(Connectivity.FACES) {
+            @Override
+            protected boolean visit(int x, int y, int z) throws MaxChangedBlocksException {
+                final double dx = x - origin.getX();
+                final double dy = y - origin.getY();
+                final double dz = z - origin.getZ();
+                final double distanceSq = dx * dx + dy * dy + dz * dz;
+                if (distanceSq > size * size) {
+                    return false;
+                }
+
+                if (editSession.getBlockType(x, y, z) != initialType) {
+                    return false;
+                }
+
+                final BlockVector pos = new BlockVector(x, y, z);
+                if (drop) {
+                    world.simulateBlockMine(pos);
+                }
+
+                world.queueBlockBreakEffect(server, pos, initialType, distanceSq);
+
+                editSession.setBlock(x, y, z, air);
+                return true;
+            }
+        };
+        fill.setMaxVisited(editSession.getFloodFillLimit());
+        fill.add(origin.getBlockX(), origin.getBlockY(), origin.getBlockZ());
+        fill.run();
     }
 
 }
@@ -27,6 +27,7 @@
  * 
  * @author sk89q
  */
+@EditsWorld
 public class SinglePickaxe implements BlockTool {
 
     public boolean canUse(LocalPlayer player) {
@@ -27,6 +27,7 @@
  * 
  * @author sk89q
  */
+@EditsWorld
 public class TreePlanter implements BlockTool {
     private TreeGenerator gen;
 
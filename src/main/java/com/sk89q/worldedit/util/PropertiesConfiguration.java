@@ -32,6 +32,7 @@
 import com.sk89q.util.StringUtil;
 import com.sk89q.worldedit.LocalConfiguration;
 import com.sk89q.worldedit.LocalSession;
+import com.sk89q.worldedit.expression.Expression;
 import com.sk89q.worldedit.snapshots.SnapshotRepository;
 
 /**
@@ -87,6 +88,7 @@ public void load() {
         maxPolyhedronPoints = getInt("max-polyhedron-points", maxPolyhedronPoints);
         shellSaveType = getString("shell-save-type", shellSaveType);
         maxRadius = getInt("max-radius", maxRadius);
+        maxFloodFillBlocks = Math.max(-1, getInt("max-flood-fill-blocks", maxFloodFillBlocks));
         maxSuperPickaxeSize = getInt("max-super-pickaxe-size", maxSuperPickaxeSize);
         maxBrushRadius = getInt("max-brush-radius", maxBrushRadius);
         logCommands = getBool("log-commands", logCommands);
@@ -105,14 +107,26 @@ public void load() {
         scriptTimeout = getInt("scripting-timeout", scriptTimeout);
         saveDir = getString("schematic-save-dir", saveDir);
         scriptsDir = getString("craftscript-dir", scriptsDir);
+        Expression.setCompilerEnabled(getBool("compile-expressions", true));
         butcherDefaultRadius = getInt("butcher-default-radius", butcherDefaultRadius);
         butcherMaxRadius = getInt("butcher-max-radius", butcherMaxRadius);
         allowSymlinks = getBool("allow-symbolic-links", allowSymlinks);
 
         LocalSession.MAX_HISTORY_SIZE = Math.max(15, getInt("history-size", 15));
+        int historyMemoryPerPlayerMb = getInt("history-memory-per-player", -1);
+        historyMemoryPerPlayer = historyMemoryPerPlayerMb < 0 ? -1 : historyMemoryPerPlayerMb * 1024L * 1024L;
+        int historyMemoryTotalMb = getInt("history-memory-total", -1);
+        historyMemoryTotal = historyMemoryTotalMb < 0 ? -1 : historyMemoryTotalMb * 1024L * 1024L;
+        historyJournal = getBool("history-journal", historyJournal);
+        historyJournalDir = getString("history-journal-dir", historyJournalDir);
+        operationTimePerTick = Math.max(0, getInt("operation-time-per-tick", operationTimePerTick));
 
         String snapshotsDir = getString("snapshots-dir", "");
         if (snapshotsDir.length() > 0) {
+            // Close the archives kept open by the repository being replaced
+            if (snapshotRepo != null) {
+                snapshotRepo.close();
+            }
             snapshotRepo = new SnapshotRepository(snapshotsDir);
         }
 
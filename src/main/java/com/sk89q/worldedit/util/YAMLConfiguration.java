@@ -26,6 +26,7 @@
 import com.sk89q.util.yaml.YAMLProcessor;
 import com.sk89q.worldedit.LocalConfiguration;
 import com.sk89q.worldedit.LocalSession;
+import com.sk89q.worldedit.expression.Expression;
 import com.sk89q.worldedit.snapshots.SnapshotRepository;
 
 /**
@@ -69,6 +70,7 @@ public void load() {
         maxPolyhedronPoints = Math.max(-1, config.getInt("limits.max-polyhedron-points.maximum", maxPolyhedronPoints));
 
         maxRadius = Math.max(-1, config.getInt("limits.max-radius", maxRadius));
+        maxFloodFillBlocks = Math.max(-1, config.getInt("limits.max-flood-fill-blocks", maxFloodFillBlocks));
         maxBrushRadius = config.getInt("limits.max-brush-radius", maxBrushRadius);
         maxSuperPickaxeSize = Math.max(1, config.getInt(
                 "limits.max-super-pickaxe-size", maxSuperPickaxeSize));
@@ -103,11 +105,19 @@ public void load() {
         scriptTimeout = config.getInt("scripting.timeout", scriptTimeout);
         scriptsDir = config.getString("scripting.dir", scriptsDir);
 
+        Expression.setCompilerEnabled(config.getBoolean("expressions.compile", true));
+
         saveDir = config.getString("saving.dir", saveDir);
 
         allowSymlinks = config.getBoolean("files.allow-symbolic-links", false);
         LocalSession.MAX_HISTORY_SIZE = Math.max(0, config.getInt("history.size", 15));
         LocalSession.EXPIRATION_GRACE = config.getInt("history.expiration", 10) * 60 * 1000;
+        historyMemoryPerPlayer = toBytes(config.getInt("history.memory.per-player", -1));
+        historyMemoryTotal = toBytes(config.getInt("history.memory.total", -1));
+        historyJournal = config.getBoolean("history.journal.enable", historyJournal);
+        historyJournalDir = config.getString("history.journal.dir", historyJournalDir);
+
+        operationTimePerTick = Math.max(0, config.getInt("scheduling.time-per-tick", operationTimePerTick));
 
         String snapshotsDir = config.getString("snapshots.directory", "");
         if (snapshotsDir.length() > 0) {
@@ -120,5 +130,18 @@ public void load() {
     }
 
     public void unload() {
+        if (snapshotRepo != null) {
+            snapshotRepo.close();
+        }
+    }
+
+    /**
+     * Convert a size in megabytes to bytes, keeping negative values as -1.
+     *
+     * @param megabytes size in megabytes
+     * @return size in bytes, or -1 for no limit
+     */
+    protected static long toBytes(int megabytes) {
+        return megabytes < 0 ? -1 : megabytes * 1024L * 1024L;
     }
 }
@@ -0,0 +1,112 @@
+package com.sk89q.jnbt;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class NBTInputStreamTest {
+    @Test
+    public void testReadAll() throws IOException {
+        final CompoundTag chunk = (CompoundTag) read(createChunk(), null);
+        final CompoundTag level = (CompoundTag) chunk.getValue().get("Level");
+        assertEquals(7, level.getValue().size());
+        assertArrayEquals(new int[] { 1, -2, 300000, Integer.MIN_VALUE },
+                ((IntArrayTag) level.getValue().get("HeightMap")).getValue());
+    }
+
+    @Test
+    public void testReadSelected() throws IOException {
+        final NBTSelection selection = new NBTSelection("Level/xPos", "Level/Sections/Blocks", "Level/TileEntities");
+        final CompoundTag chunk = (CompoundTag) read(createChunk(), selection);
+        assertEquals(1, chunk.getValue().size());
+
+        final Map<String, Tag> level = ((CompoundTag) chunk.getValue().get("Level")).getValue();
+        assertEquals(3, level.size());
+        assertEquals(-3, ((IntTag) level.get("xPos")).getValue().intValue());
+        assertFalse(level.containsKey("zPos"));
+        assertFalse(level.containsKey("Entities"));
+
+        final List<Tag> sections = ((ListTag) level.get("Sections")).getValue();
+        assertEquals(2, sections.size());
+        for (Tag section : sections) {
+            final Map<String, Tag> values = ((CompoundTag) section).getValue();
+            assertEquals(1, values.size());
+            assertEquals(4096, ((ByteArrayTag) values.get("Blocks")).getValue().length);
+        }
+
+        // Selected tags are read as a whole
+        final List<Tag> tileEntities = ((ListTag) level.get("TileEntities")).getValue();
+        assertEquals("Chest", ((StringTag) ((CompoundTag) tileEntities.get(0)).getValue().get("id")).getValue());
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws IOException {
+        final byte[] data = createChunk();
+        final byte[] truncated = new byte[data.length - 100];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        read(truncated, new NBTSelection("Level/xPos"));
+    }
+
+    private static Tag read(byte[] data, NBTSelection selection) throws IOException {
+        final NBTInputStream stream = new NBTInputStream(new ByteArrayInputStream(data));
+        try {
+            return selection == null ? stream.readTag() : stream.readTag(selection);
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static byte[] createChunk() throws IOException {
+        final List<Tag> sections = new ArrayList<Tag>();
+        for (int y = 0; y < 2; ++y) {
+            final Map<String, Tag> section = new HashMap<String, Tag>();
+            section.put("Y", new ByteTag("Y", (byte) y));
+            section.put("Blocks", new ByteArrayTag("Blocks", new byte[4096]));
+            section.put("Data", new ByteArrayTag("Data", new byte[2048]));
+            section.put("SkyLight", new ByteArrayTag("SkyLight", new byte[2048]));
+            sections.add(new CompoundTag("", section));
+        }
+
+        final Map<String, Tag> entity = new HashMap<String, Tag>();
+        entity.put("id", new StringTag("id", "Pig"));
+        final List<Tag> position = new ArrayList<Tag>();
+        position.add(new DoubleTag("", 1.5));
+        position.add(new DoubleTag("", 64));
+        position.add(new DoubleTag("", -8.25));
+        entity.put("Pos", new ListTag("Pos", DoubleTag.class, position));
+        final List<Tag> entities = new ArrayList<Tag>();
+        entities.add(new CompoundTag("", entity));
+
+        final Map<String, Tag> chest = new HashMap<String, Tag>();
+        chest.put("id", new StringTag("id", "Chest"));
+        chest.put("x", new IntTag("x", -40));
+        final List<Tag> tileEntities = new ArrayList<Tag>();
+        tileEntities.add(new CompoundTag("", chest));
+
+        final Map<String, Tag> level = new HashMap<String, Tag>();
+        level.put("xPos", new IntTag("xPos", -3));
+        level.put("zPos", new IntTag("zPos", 5));
+        level.put("LastUpdate", new LongTag("LastUpdate", 123456789L));
+        level.put("HeightMap", new IntArrayTag("HeightMap", new int[] { 1, -2, 300000, Integer.MIN_VALUE }));
+        level.put("Sections", new ListTag("Sections", CompoundTag.class, sections));
+        level.put("Entities", new ListTag("Entities", CompoundTag.class, entities));
+        level.put("TileEntities", new ListTag("TileEntities", CompoundTag.class, tileEntities));
+
+        final Map<String, Tag> root = new HashMap<String, Tag>();
+        root.put("Level", new CompoundTag("Level", level));
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final NBTOutputStream stream = new NBTOutputStream(out, false);
+        stream.writeTag(new CompoundTag("", root));
+        stream.close();
+        return out.toByteArray();
+    }
+}
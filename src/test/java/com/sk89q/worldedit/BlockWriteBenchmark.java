@@ -0,0 +1,235 @@
+package com.sk89q.worldedit;
+
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BaseItemStack;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.regions.Region;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compares flushing the queue of an edit session one block at a time with
+ * the chunk batches written in fast mode, in blocks per second. The blocks
+ * go to an in-memory world that looks chunks up in a map for every access,
+ * so the numbers show the overhead of the edit session rather than that of
+ * a server. Run with
+ * <code>java com.sk89q.worldedit.BlockWriteBenchmark [size]</code>.
+ */
+public class BlockWriteBenchmark {
+
+    public static void main(String[] args) {
+        final int size = args.length > 0 ? Integer.parseInt(args[0]) : 128;
+        final int blocks = size * size * 64;
+
+        // Warm up both, then measure
+        for (int i = 0; i < 3; ++i) {
+            flush(new MemoryWorld(), size, false);
+            flush(new MemoryWorld(), size, true);
+        }
+
+        final MemoryWorld perBlockWorld = new MemoryWorld();
+        final long perBlockTime = flush(perBlockWorld, size, false);
+        final MemoryWorld batchedWorld = new MemoryWorld();
+        final long batchedTime = flush(batchedWorld, size, true);
+
+        System.out.printf("per block %,12.0f blocks/s, %d block updates%n",
+                blocks * 1e9 / perBlockTime, perBlockWorld.updates);
+        System.out.printf("batched   %,12.0f blocks/s, %d chunk refreshes (%.1fx)%n",
+                blocks * 1e9 / batchedTime, batchedWorld.refreshes, (double) perBlockTime / batchedTime);
+    }
+
+    /**
+     * Queue a cuboid of stone and time the flush of the queue.
+     *
+     * @param world the world
+     * @param size the width and length of the cuboid
+     * @param fastMode whether to flush in fast mode, which writes batches
+     * @return the time taken in nanoseconds
+     */
+    private static long flush(MemoryWorld world, int size, boolean fastMode) {
+        final EditSession editSession = new EditSession(world, -1);
+        editSession.setFastMode(fastMode);
+        editSession.enableQueue();
+        final BaseBlock block = new BaseBlock(BlockID.STONE);
+        for (int y = 0; y < 64; ++y) {
+            for (int z = 0; z < size; ++z) {
+                for (int x = 0; x < size; ++x) {
+                    editSession.smartSetBlock(new Vector(x, y, z), block);
+                }
+            }
+        }
+
+        final long start = System.nanoTime();
+        editSession.flushQueue();
+        return System.nanoTime() - start;
+    }
+
+    private static class MemoryWorld extends LocalWorld {
+        private final Map<BlockVector2D, byte[][]> chunks = new HashMap<BlockVector2D, byte[][]>();
+        private int updates = 0;
+        private int refreshes = 0;
+
+        private byte[][] getChunk(int chunkX, int chunkZ) {
+            final BlockVector2D key = new BlockVector2D(chunkX, chunkZ);
+            byte[][] chunk = chunks.get(key);
+            if (chunk == null) {
+                chunk = new byte[][] { new byte[65536], new byte[65536] };
+                chunks.put(key, chunk);
+            }
+            return chunk;
+        }
+
+        private static int index(Vector pt) {
+            return pt.getBlockY() << 8 | (pt.getBlockZ() & 0xF) << 4 | (pt.getBlockX() & 0xF);
+        }
+
+        private boolean set(Vector pt, int type, int data) {
+            ++updates;
+            final byte[][] chunk = getChunk(pt.getBlockX() >> 4, pt.getBlockZ() >> 4);
+            final int index = index(pt);
+            final boolean changed = chunk[0][index] != (byte) type || chunk[1][index] != (byte) data;
+            chunk[0][index] = (byte) type;
+            chunk[1][index] = (byte) data;
+            return changed;
+        }
+
+        @Override
+        public int setBlocks(int chunkX, int chunkZ, int[] indices, int count, int[] types, byte[] data) {
+            final byte[][] chunk = getChunk(chunkX, chunkZ);
+            int changed = 0;
+            for (int i = 0; i < count; ++i) {
+                final int index = indices[i];
+                if (chunk[0][index] != (byte) types[index] || chunk[1][index] != data[index]) {
+                    chunk[0][index] = (byte) types[index];
+                    chunk[1][index] = data[index];
+                    ++changed;
+                }
+            }
+            if (changed > 0) {
+                ++refreshes;
+            }
+            return changed;
+        }
+
+        @Override
+        public boolean copySections(int chunkX, int chunkZ, short[][] types, byte[][] data) {
+            final byte[][] chunk = getChunk(chunkX, chunkZ);
+            for (int sectionY = 0; sectionY < types.length; ++sectionY) {
+                if (types[sectionY] == null) {
+                    continue;
+                }
+                for (int i = 0; i < 4096; ++i) {
+                    types[sectionY][i] = (short) (chunk[0][sectionY << 12 | i] & 0xFF);
+                    data[sectionY][i] = chunk[1][sectionY << 12 | i];
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void fixAfterFastMode(Iterable<BlockVector2D> chunks) {
+            for (BlockVector2D ignored : chunks) {
+                ++refreshes;
+            }
+        }
+
+        @Override
+        public boolean setTypeIdAndData(Vector pt, int type, int data) {
+            return set(pt, type, data);
+        }
+
+        @Override
+        public boolean setTypeIdAndDataFast(Vector pt, int type, int data) {
+            return set(pt, type, data);
+        }
+
+        @Override
+        public boolean setBlockType(Vector pt, int type) {
+            return set(pt, type, 0);
+        }
+
+        @Override
+        public boolean setBlockTypeFast(Vector pt, int type) {
+            return set(pt, type, 0);
+        }
+
+        @Override
+        public int getBlockType(Vector pt) {
+            return getChunk(pt.getBlockX() >> 4, pt.getBlockZ() >> 4)[0][index(pt)] & 0xFF;
+        }
+
+        @Override
+        public void setBlockData(Vector pt, int data) {
+            getChunk(pt.getBlockX() >> 4, pt.getBlockZ() >> 4)[1][index(pt)] = (byte) data;
+        }
+
+        @Override
+        public void setBlockDataFast(Vector pt, int data) {
+            setBlockData(pt, data);
+        }
+
+        @Override
+        public int getBlockData(Vector pt) {
+            return getChunk(pt.getBlockX() >> 4, pt.getBlockZ() >> 4)[1][index(pt)];
+        }
+
+        @Override
+        public String getName() {
+            return "memory";
+        }
+
+        @Override
+        public BiomeType getBiome(Vector2D pt) {
+            return null;
+        }
+
+        @Override
+        public void setBiome(Vector2D pt, BiomeType biome) {
+        }
+
+        @Override
+        public int getBlockLightLevel(Vector pt) {
+            return 0;
+        }
+
+        @Override
+        public boolean regenerate(Region region, EditSession editSession) {
+            return false;
+        }
+
+        @Override
+        public boolean copyToWorld(Vector pt, BaseBlock block) {
+            return false;
+        }
+
+        @Override
+        public boolean copyFromWorld(Vector pt, BaseBlock block) {
+            return false;
+        }
+
+        @Override
+        public boolean clearContainerBlockContents(Vector pt) {
+            return false;
+        }
+
+        @Override
+        public void dropItem(Vector pt, BaseItemStack item) {
+        }
+
+        @Override
+        public int removeEntities(EntityType type, Vector origin, int radius) {
+            return 0;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other == this;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this);
+        }
+    }
+}
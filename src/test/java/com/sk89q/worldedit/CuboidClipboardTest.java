@@ -1,23 +1,64 @@
-package com.sk89q.worldedit;
-
-import com.sk89q.worldedit.blocks.BaseBlock;
-import com.sk89q.worldedit.blocks.BlockID;
-import org.junit.Test;
-
-import static org.junit.Assert.*;
-
-public class CuboidClipboardTest {
-    @Test
-    public void testFlipCenterPlane() throws Exception {
-        testFlip(0, 1, CuboidClipboard.FlipDirection.UP_DOWN);
-        testFlip(2, 3, CuboidClipboard.FlipDirection.NORTH_SOUTH);
-        testFlip(4, 5, CuboidClipboard.FlipDirection.WEST_EAST);
-    }
-
-    private void testFlip(int data, int expectedDataAfterFlip, CuboidClipboard.FlipDirection flipDirection) {
-        final CuboidClipboard clipboard = new CuboidClipboard(new Vector(1, 1, 1));
-        clipboard.setBlock(Vector.ZERO, new BaseBlock(BlockID.PISTON_BASE, data));
-        clipboard.flip(flipDirection);
-        assertEquals(expectedDataAfterFlip, clipboard.getBlock(Vector.ZERO).getData());
-    }
-}
+package com.sk89q.worldedit;
+
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CuboidClipboardTest {
+    @Test
+    public void testFlipCenterPlane() throws Exception {
+        testFlip(0, 1, CuboidClipboard.FlipDirection.UP_DOWN);
+        testFlip(2, 3, CuboidClipboard.FlipDirection.NORTH_SOUTH);
+        testFlip(4, 5, CuboidClipboard.FlipDirection.WEST_EAST);
+    }
+
+    @Test
+    public void testRotateMovesBlocks() throws Exception {
+        final CuboidClipboard clipboard = new CuboidClipboard(new Vector(3, 1, 2));
+        clipboard.setBlock(new Vector(0, 0, 0), new BaseBlock(BlockID.STONE));
+        clipboard.setBlock(new Vector(2, 0, 1), new BaseBlock(BlockID.PISTON_BASE, 2));
+        clipboard.rotate2D(90);
+
+        assertEquals(new Vector(2, 1, 3), clipboard.getSize());
+        assertEquals(BlockID.STONE, clipboard.getBlock(new Vector(1, 0, 0)).getType());
+        final BaseBlock piston = clipboard.getBlock(new Vector(0, 0, 2));
+        assertEquals(BlockID.PISTON_BASE, piston.getType());
+        assertEquals(5, piston.getData());
+        assertNull(clipboard.getBlock(new Vector(0, 0, 0)));
+    }
+
+    @Test
+    public void testBlockDistribution() throws Exception {
+        final CuboidClipboard clipboard = new CuboidClipboard(new Vector(4, 4, 4));
+        for (int i = 0; i < 16; ++i) {
+            clipboard.setBlock(new Vector(i & 3, i >> 2, 0), new BaseBlock(BlockID.CLOTH, i));
+        }
+
+        assertEquals(1, clipboard.getBlockDistribution().size());
+        assertEquals(16, clipboard.getBlockDistribution().get(0).getAmount());
+        assertEquals(16, clipboard.getBlockDistributionWithData().size());
+    }
+
+    @Test
+    public void testChangesAreStoredWithSetBlock() throws Exception {
+        final CuboidClipboard clipboard = new CuboidClipboard(new Vector(2, 1, 1));
+        clipboard.setBlock(Vector.ZERO, new BaseBlock(BlockID.CLOTH, 1));
+
+        final BaseBlock block = clipboard.getBlock(Vector.ZERO);
+        block.setData(2);
+        assertEquals(1, clipboard.getBlock(Vector.ZERO).getData());
+
+        clipboard.setBlock(Vector.ZERO, block);
+        assertEquals(2, clipboard.getBlock(Vector.ZERO).getData());
+        assertEquals(BlockID.AIR, clipboard.getPoint(new Vector(1, 0, 0)).getType());
+    }
+
+    private void testFlip(int data, int expectedDataAfterFlip, CuboidClipboard.FlipDirection flipDirection) {
+        final CuboidClipboard clipboard = new CuboidClipboard(new Vector(1, 1, 1));
+        clipboard.setBlock(Vector.ZERO, new BaseBlock(BlockID.PISTON_BASE, data));
+        clipboard.flip(flipDirection);
+        assertEquals(expectedDataAfterFlip, clipboard.getBlock(Vector.ZERO).getData());
+    }
+}
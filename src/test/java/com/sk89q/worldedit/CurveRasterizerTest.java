@@ -0,0 +1,180 @@
+package com.sk89q.worldedit;
+
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.interpolation.Interpolation;
+import com.sk89q.worldedit.interpolation.KochanekBartelsInterpolation;
+import com.sk89q.worldedit.interpolation.Node;
+import com.sk89q.worldedit.patterns.SingleBlockPattern;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Compares the rasterizer with the ballooned and hollowed point sets that
+ * drawLine and drawSpline used to build.
+ */
+public class CurveRasterizerTest {
+    private static final double[] RADII = { 0, 1, 1.5, 2.7, 4 };
+
+    @Test
+    public void testLinesMatchBallooning() throws Exception {
+        final int[][] lines = {
+                { 0, 64, 0, 0, 64, 0 },
+                { 0, 64, 0, 20, 64, 0 },
+                { -5, 60, 3, 17, 71, -9 },
+                { 15, 15, 15, 16, 16, 16 },
+                { -30, 10, -30, -2, 40, 12 },
+                { 7, 80, -20, 7, 50, 20 },
+        };
+
+        for (int[] line : lines) {
+            final List<Vector> points = baselineLine(line[0], line[1], line[2], line[3], line[4], line[5]);
+            for (double radius : RADII) {
+                final CurveRasterizer rasterizer = new CurveRasterizer(radius);
+                rasterizer.addLine(line[0], line[1], line[2], line[3], line[4], line[5]);
+                assertSameBlocks(Arrays.toString(line) + " radius " + radius, rasterizer, points, radius);
+            }
+        }
+    }
+
+    @Test
+    public void testSplinesMatchBallooning() throws Exception {
+        final List<List<Vector>> splines = new ArrayList<List<Vector>>();
+        splines.add(Arrays.asList(new Vector(0, 64, 0), new Vector(10, 70, 5), new Vector(20, 64, -8)));
+        splines.add(Arrays.asList(new Vector(-17, 30, 4), new Vector(-3, 45, 19), new Vector(12, 33, 1),
+                new Vector(-5, 20, -14)));
+
+        for (List<Vector> nodes : splines) {
+            final List<Vector> points = baselineSpline(nodes, 1);
+            for (double radius : RADII) {
+                final CurveRasterizer rasterizer = new CurveRasterizer(radius);
+                for (Vector point : points) {
+                    rasterizer.addPoint(point.getBlockX(), point.getBlockY(), point.getBlockZ());
+                }
+                assertSameBlocks(nodes + " radius " + radius, rasterizer, points, radius);
+            }
+        }
+    }
+
+    private static void assertSameBlocks(String curve, CurveRasterizer rasterizer, List<Vector> points, double radius)
+            throws Exception {
+        final Set<Vector> ballooned = getBallooned(new HashSet<Vector>(points), radius);
+        assertEquals("filled " + curve, ballooned, apply(rasterizer, true));
+        assertEquals("hollow " + curve, getHollowed(ballooned), apply(rasterizer, false));
+    }
+
+    private static Set<Vector> apply(CurveRasterizer rasterizer, boolean filled) throws Exception {
+        final Set<Vector> set = new HashSet<Vector>();
+        final EditSession editSession = mock(EditSession.class);
+        when(editSession.setBlock(anyInt(), anyInt(), anyInt(), any(BaseBlock.class))).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                final Object[] args = invocation.getArguments();
+                assertTrue("block set twice", set.add(new Vector((Integer) args[0], (Integer) args[1], (Integer) args[2])));
+                return true;
+            }
+        });
+
+        final int affected = rasterizer.apply(editSession, new SingleBlockPattern(new BaseBlock(BlockID.STONE)), filled);
+        assertEquals(set.size(), affected);
+        return set;
+    }
+
+    // The point sets and the ballooning below are those drawLine and
+    // drawSpline used before the rasterizer
+
+    private static List<Vector> baselineLine(int x1, int y1, int z1, int x2, int y2, int z2) {
+        final List<Vector> points = new ArrayList<Vector>();
+        final int dx = Math.abs(x2 - x1), dy = Math.abs(y2 - y1), dz = Math.abs(z2 - z1);
+        final int max = Math.max(Math.max(dx, dy), dz);
+
+        if (dx + dy + dz == 0) {
+            points.add(new Vector(x1, y1, z1));
+        } else if (max == dx) {
+            for (int domstep = 0; domstep <= dx; domstep++) {
+                points.add(new Vector(x1 + domstep * (x2 - x1 > 0 ? 1 : -1),
+                        (int) Math.round(y1 + domstep * ((double) dy) / ((double) dx) * (y2 - y1 > 0 ? 1 : -1)),
+                        (int) Math.round(z1 + domstep * ((double) dz) / ((double) dx) * (z2 - z1 > 0 ? 1 : -1))));
+            }
+        } else if (max == dy) {
+            for (int domstep = 0; domstep <= dy; domstep++) {
+                points.add(new Vector((int) Math.round(x1 + domstep * ((double) dx) / ((double) dy) * (x2 - x1 > 0 ? 1 : -1)),
+                        y1 + domstep * (y2 - y1 > 0 ? 1 : -1),
+                        (int) Math.round(z1 + domstep * ((double) dz) / ((double) dy) * (z2 - z1 > 0 ? 1 : -1))));
+            }
+        } else {
+            for (int domstep = 0; domstep <= dz; domstep++) {
+                points.add(new Vector((int) Math.round(x1 + domstep * ((double) dx) / ((double) dz) * (x2 - x1 > 0 ? 1 : -1)),
+                        (int) Math.round(y1 + domstep * ((double) dy) / ((double) dz) * (y2 - y1 > 0 ? 1 : -1)),
+                        z1 + domstep * (z2 - z1 > 0 ? 1 : -1)));
+            }
+        }
+        return points;
+    }
+
+    private static List<Vector> baselineSpline(List<Vector> nodeVectors, double quality) {
+        final List<Node> nodes = new ArrayList<Node>();
+        for (Vector vector : nodeVectors) {
+            nodes.add(new Node(vector));
+        }
+
+        final Interpolation interpol = new KochanekBartelsInterpolation();
+        interpol.setNodes(nodes);
+        final double splinelength = interpol.arcLength(0, 1);
+
+        final List<Vector> points = new ArrayList<Vector>();
+        for (double loop = 0; loop <= 1; loop += 1D / splinelength / quality) {
+            final Vector tipv = interpol.getPosition(loop);
+            points.add(new Vector((int) Math.round(tipv.getX()), (int) Math.round(tipv.getY()),
+                    (int) Math.round(tipv.getZ())));
+        }
+        return points;
+    }
+
+    private static Set<Vector> getBallooned(Set<Vector> vset, double radius) {
+        final Set<Vector> returnset = new HashSet<Vector>();
+        final int ceilrad = (int) Math.ceil(radius);
+
+        for (Vector v : vset) {
+            final int tipx = v.getBlockX(), tipy = v.getBlockY(), tipz = v.getBlockZ();
+            for (int loopx = tipx - ceilrad; loopx <= tipx + ceilrad; loopx++) {
+                for (int loopy = tipy - ceilrad; loopy <= tipy + ceilrad; loopy++) {
+                    for (int loopz = tipz - ceilrad; loopz <= tipz + ceilrad; loopz++) {
+                        final double dx = loopx - tipx, dy = loopy - tipy, dz = loopz - tipz;
+                        if (Math.sqrt(Math.pow(dx, 2) + Math.pow(dy, 2) + Math.pow(dz, 2)) <= radius) {
+                            returnset.add(new Vector(loopx, loopy, loopz));
+                        }
+                    }
+                }
+            }
+        }
+        return returnset;
+    }
+
+    private static Set<Vector> getHollowed(Set<Vector> vset) {
+        final Set<Vector> returnset = new HashSet<Vector>();
+        for (Vector v : vset) {
+            final double x = v.getX(), y = v.getY(), z = v.getZ();
+            if (!(vset.contains(new Vector(x + 1, y, z))
+                    && vset.contains(new Vector(x - 1, y, z))
+                    && vset.contains(new Vector(x, y + 1, z))
+                    && vset.contains(new Vector(x, y - 1, z))
+                    && vset.contains(new Vector(x, y, z + 1))
+                    && vset.contains(new Vector(x, y, z - 1)))) {
+                returnset.add(v);
+            }
+        }
+        return returnset;
+    }
+}
@@ -0,0 +1,251 @@
+package com.sk89q.worldedit;
+
+import com.sk89q.worldedit.bags.BlockBag;
+import com.sk89q.worldedit.bags.BlockBagException;
+import com.sk89q.worldedit.bags.OutOfBlocksException;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BaseItem;
+import com.sk89q.worldedit.blocks.BaseItemStack;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.foundation.Block;
+import com.sk89q.worldedit.operation.ProgressiveOperation;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Region;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+public class EditSessionTest {
+    /**
+     * A 2x1x2 region, which a cuboid region walks in the order
+     * (0, 0, 0), (1, 0, 0), (0, 0, 1), (1, 0, 1).
+     */
+    private static final Region REGION = new CuboidRegion(new Vector(0, 0, 0), new Vector(1, 0, 1));
+
+    @Test
+    public void testMaterialBillShortfall() throws Exception {
+        final Map<BlockVector, BaseBlock> blocks = new HashMap<BlockVector, BaseBlock>();
+        final LocalWorld world = mockWorld(blocks);
+        // Stone can also be placed from the cobblestone it drops
+        final MemoryBlockBag bag = new MemoryBlockBag(
+                new BaseItemStack(BlockID.STONE, 2), new BaseItemStack(BlockID.COBBLESTONE, 1));
+        final EditSession editSession = new EditSession(world, -1, bag);
+
+        assertEquals(0, editSession.setBlocks(REGION, new BaseBlock(BlockID.STONE)));
+        assertEquals(1, (int) editSession.popMissingBlocks().get(BlockID.STONE));
+
+        // Nothing was placed or taken from the bag
+        assertTrue(blocks.isEmpty());
+        assertEquals(2, bag.getItemCount(new BaseItem(BlockID.STONE)));
+        assertEquals(1, bag.getItemCount(new BaseItem(BlockID.COBBLESTONE)));
+    }
+
+    @Test
+    public void testMaterialBillEnough() throws Exception {
+        final Map<BlockVector, BaseBlock> blocks = new HashMap<BlockVector, BaseBlock>();
+        final LocalWorld world = mockWorld(blocks);
+        final MemoryBlockBag bag = new MemoryBlockBag(
+                new BaseItemStack(BlockID.STONE, 3), new BaseItemStack(BlockID.COBBLESTONE, 1));
+        final EditSession editSession = new EditSession(world, -1, bag);
+
+        assertEquals(4, editSession.setBlocks(REGION, new BaseBlock(BlockID.STONE)));
+        assertTrue(editSession.popMissingBlocks().isEmpty());
+        assertEquals(0, bag.getPlaceableCount(BlockID.STONE, 0));
+    }
+
+    @Test
+    public void testBrokenBlocksCountAsSupply() throws Exception {
+        final Map<BlockVector, BaseBlock> blocks = new HashMap<BlockVector, BaseBlock>();
+        blocks.put(new BlockVector(0, 0, 0), new BaseBlock(BlockID.COBBLESTONE));
+        blocks.put(new BlockVector(1, 0, 0), new BaseBlock(BlockID.STONE));
+        blocks.put(new BlockVector(0, 0, 1), new BaseBlock(BlockID.COBBLESTONE));
+        final LocalWorld world = mockWorld(blocks);
+        final MemoryBlockBag bag = new MemoryBlockBag(new BaseItemStack(BlockID.STONE, 1));
+        final EditSession editSession = new EditSession(world, -1, bag);
+
+        // One stone in the bag and three blocks that drop cobblestone
+        assertEquals(4, editSession.setBlocks(REGION, new BaseBlock(BlockID.STONE)));
+        assertTrue(editSession.popMissingBlocks().isEmpty());
+        assertEquals(BlockID.STONE, blocks.get(new BlockVector(1, 0, 1)).getType());
+    }
+
+    @Test
+    public void testBrokenBlocksWithDamageValues() throws Exception {
+        final Map<BlockVector, BaseBlock> blocks = new HashMap<BlockVector, BaseBlock>();
+        blocks.put(new BlockVector(0, 0, 0), new BaseBlock(BlockID.CLOTH, 0));
+        blocks.put(new BlockVector(1, 0, 0), new BaseBlock(BlockID.CLOTH, 14));
+        blocks.put(new BlockVector(0, 0, 1), new BaseBlock(BlockID.CLOTH, 0));
+        blocks.put(new BlockVector(1, 0, 1), new BaseBlock(BlockID.CLOTH, 14));
+        final LocalWorld world = mockWorld(blocks);
+        final EditSession editSession = new EditSession(world, -1, new MemoryBlockBag());
+
+        // Wool is fetched as white wool, which the red wool doesn't drop
+        assertEquals(0, editSession.setBlocks(REGION, new BaseBlock(BlockID.CLOTH)));
+        assertEquals(2, (int) editSession.popMissingBlocks().get(BlockID.CLOTH));
+        assertEquals(14, blocks.get(new BlockVector(1, 0, 0)).getData());
+    }
+
+    @Test
+    public void testBrokenBlocksWithoutDamageValues() throws Exception {
+        final Map<BlockVector, BaseBlock> blocks = new HashMap<BlockVector, BaseBlock>();
+        blocks.put(new BlockVector(0, 0, 0), new BaseBlock(BlockID.COBBLESTONE, 3));
+        blocks.put(new BlockVector(1, 0, 0), new BaseBlock(BlockID.COBBLESTONE, 3));
+        blocks.put(new BlockVector(0, 0, 1), new BaseBlock(BlockID.COBBLESTONE, 5));
+        blocks.put(new BlockVector(1, 0, 1), new BaseBlock(BlockID.COBBLESTONE, 5));
+        final LocalWorld world = mockWorld(blocks);
+        final MemoryBlockBag bag = new MemoryBlockBag(new BaseItemStack(BlockID.COBBLESTONE, 1));
+        final EditSession editSession = new EditSession(world, -1, bag);
+
+        // Cobblestone ignores its data value, so every block supplies one
+        assertEquals(4, editSession.setBlocks(REGION, new BaseBlock(BlockID.COBBLESTONE)));
+        assertTrue(editSession.popMissingBlocks().isEmpty());
+        assertEquals(1, bag.getItemCount(new BaseItem(BlockID.COBBLESTONE)));
+    }
+
+    @Test
+    public void testFlushProgressCountsBlocksQueuedLater() throws Exception {
+        final Map<BlockVector, BaseBlock> blocks = new HashMap<BlockVector, BaseBlock>();
+        final EditSession editSession = new EditSession(mockWorld(blocks), -1);
+        editSession.enableQueue();
+        setBlocks(editSession, 0, 8192);
+
+        final ProgressiveOperation flush = editSession.createFlushOperation();
+        assertSame(flush, flush.resume());
+        assertEquals(0.5, flush.getProgress(), 1e-9);
+
+        setBlocks(editSession, 8192, 16384);
+        assertEquals(0.25, flush.getProgress(), 1e-9);
+    }
+
+    @Test
+    public void testMoveCuboidWithoutAirClearsOldBlocks() throws Exception {
+        final Map<BlockVector, BaseBlock> blocks = new HashMap<BlockVector, BaseBlock>();
+        blocks.put(new BlockVector(0, 10, 0), new BaseBlock(BlockID.STONE));
+        blocks.put(new BlockVector(2, 10, 0), new BaseBlock(BlockID.DIRT));
+        blocks.put(new BlockVector(3, 10, 0), new BaseBlock(BlockID.GLASS));
+        final EditSession editSession = new EditSession(mockWorld(blocks), -1);
+
+        final Region region = new CuboidRegion(new Vector(0, 10, 0), new Vector(3, 10, 0));
+        assertEquals(3, editSession.moveCuboidRegion(region, new Vector(1, 0, 0), 1,
+                false, new BaseBlock(BlockID.AIR)));
+
+        // The dirt is moved away even though air is moved onto it
+        assertEquals(BlockID.AIR, blocks.get(new BlockVector(0, 10, 0)).getType());
+        assertEquals(BlockID.STONE, blocks.get(new BlockVector(1, 10, 0)).getType());
+        assertEquals(BlockID.AIR, blocks.get(new BlockVector(2, 10, 0)).getType());
+        assertEquals(BlockID.DIRT, blocks.get(new BlockVector(3, 10, 0)).getType());
+        assertEquals(BlockID.GLASS, blocks.get(new BlockVector(4, 10, 0)).getType());
+    }
+
+    private static void setBlocks(EditSession editSession, int from, int to) throws MaxChangedBlocksException {
+        for (int i = from; i < to; ++i) {
+            editSession.setBlock(new Vector(i & 0xFF, 10, i >> 8), new BaseBlock(BlockID.STONE));
+        }
+    }
+
+    private static LocalWorld mockWorld(final Map<BlockVector, BaseBlock> blocks) {
+        final LocalWorld world = mock(LocalWorld.class);
+        when(world.getMaxY()).thenReturn(255);
+        when(world.isValidBlockType(anyInt())).thenReturn(true);
+        when(world.getBlockType(any(Vector.class))).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) {
+                final BaseBlock block = blocks.get(((Vector) invocation.getArguments()[0]).toBlockVector());
+                return block == null ? BlockID.AIR : block.getType();
+            }
+        });
+        when(world.getBlockData(any(Vector.class))).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) {
+                final BaseBlock block = blocks.get(((Vector) invocation.getArguments()[0]).toBlockVector());
+                return block == null ? 0 : block.getData();
+            }
+        });
+        when(world.setBlock(any(Vector.class), any(Block.class), anyBoolean())).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                final Block block = (Block) invocation.getArguments()[1];
+                blocks.put(((Vector) invocation.getArguments()[0]).toBlockVector(),
+                        new BaseBlock(block.getId(), block.getData()));
+                return true;
+            }
+        });
+        when(world.setBlockType(any(Vector.class), anyInt())).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                blocks.put(((Vector) invocation.getArguments()[0]).toBlockVector(),
+                        new BaseBlock((Integer) invocation.getArguments()[1]));
+                return true;
+            }
+        });
+        return world;
+    }
+
+    /**
+     * A bag of item stacks, which treats items the way
+     * {@link BlockBag#isSameItem(BaseItem, int, int)} does.
+     */
+    private static class MemoryBlockBag extends BlockBag {
+        private final List<BaseItemStack> stacks = new ArrayList<BaseItemStack>();
+
+        MemoryBlockBag(BaseItemStack... stacks) {
+            for (BaseItemStack stack : stacks) {
+                this.stacks.add(stack);
+            }
+        }
+
+        @Override
+        public void fetchItem(BaseItem item) throws BlockBagException {
+            for (Iterator<BaseItemStack> it = stacks.iterator(); it.hasNext(); ) {
+                final BaseItemStack stack = it.next();
+                if (isSameItem(stack, item.getType(), item.getData())) {
+                    stack.setAmount(stack.getAmount() - 1);
+                    if (stack.getAmount() == 0) {
+                        it.remove();
+                    }
+                    return;
+                }
+            }
+            throw new OutOfBlocksException();
+        }
+
+        @Override
+        public void storeItem(BaseItem item) throws BlockBagException {
+            final int amount = (item instanceof BaseItemStack) ? ((BaseItemStack) item).getAmount() : 1;
+            stacks.add(new BaseItemStack(item.getType(), amount, item.getData()));
+        }
+
+        @Override
+        public int getItemCount(BaseItem item) {
+            int count = 0;
+            for (BaseItemStack stack : stacks) {
+                if (isSameItem(stack, item.getType(), item.getData())) {
+                    count += stack.getAmount();
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public void flushChanges() {
+        }
+
+        @Override
+        public void addSourcePosition(WorldVector pos) {
+        }
+
+        @Override
+        public void addSingleSourcePosition(WorldVector pos) {
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.sk89q.worldedit;
+
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+public class LocalSessionTest {
+    @Test
+    public void testRememberAgainCountsGrowth() throws Exception {
+        final LocalWorld world = mockWorld();
+        final LocalSession session = new LocalSession(createConfiguration(-1));
+        final EditSession editSession = new EditSession(world, -1);
+
+        setBlocks(editSession, 0, 1);
+        session.remember(editSession);
+        final long first = session.getHistoryMemoryUsage();
+        assertEquals(getMemoryUsage(editSession), first);
+
+        // As an operation that finishes after its command does
+        setBlocks(editSession, 1, 5000);
+        session.remember(editSession);
+        assertTrue(session.getHistoryMemoryUsage() > first);
+        assertEquals(getMemoryUsage(editSession), session.getHistoryMemoryUsage());
+
+        session.clearHistory();
+        assertEquals(0, session.getHistoryMemoryUsage());
+    }
+
+    @Test
+    public void testRemovalSubtractsCountedMemory() throws Exception {
+        final LocalWorld world = mockWorld();
+        // Every session but the newest is over the budget and discarded
+        final LocalSession session = new LocalSession(createConfiguration(0));
+        final EditSession older = new EditSession(world, -1);
+        final EditSession newer = new EditSession(world, -1);
+
+        setBlocks(older, 0, 1);
+        session.remember(older);
+        // Grows after it was counted, without being remembered again
+        setBlocks(older, 1, 5000);
+
+        setBlocks(newer, 0, 1);
+        session.remember(newer);
+        assertEquals(1, session.getHistorySize());
+        assertEquals(getMemoryUsage(newer), session.getHistoryMemoryUsage());
+    }
+
+    private static void setBlocks(EditSession editSession, int from, int to) throws MaxChangedBlocksException {
+        for (int i = from; i < to; ++i) {
+            editSession.setBlock(new Vector(i % 64, 10, i / 64), new BaseBlock(BlockID.STONE));
+        }
+    }
+
+    private static long getMemoryUsage(EditSession editSession) {
+        return editSession.getOriginalChanges().getMemoryUsage()
+                + editSession.getCurrentChanges().getMemoryUsage();
+    }
+
+    private static LocalWorld mockWorld() {
+        final LocalWorld world = mock(LocalWorld.class);
+        when(world.getMaxY()).thenReturn(255);
+        when(world.isValidBlockType(anyInt())).thenReturn(true);
+        return world;
+    }
+
+    private static LocalConfiguration createConfiguration(final long historyMemoryPerPlayer) {
+        final LocalConfiguration config = new LocalConfiguration() {
+            @Override
+            public void load() {
+            }
+        };
+        config.historyMemoryPerPlayer = historyMemoryPerPlayer;
+        return config;
+    }
+}
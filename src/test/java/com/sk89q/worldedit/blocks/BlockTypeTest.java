@@ -0,0 +1,54 @@
+package com.sk89q.worldedit.blocks;
+
+import com.sk89q.worldedit.PlayerDirection;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BlockTypeTest {
+    @Test
+    public void testFromID() {
+        for (BlockType type : BlockType.values()) {
+            assertSame(type, BlockType.fromID(type.getID()));
+        }
+        assertNull(BlockType.fromID(-1));
+        assertNull(BlockType.fromID(4000));
+        assertNull(BlockType.fromID(100000));
+    }
+
+    @Test
+    public void testProperties() {
+        assertTrue(BlockType.shouldPlaceLast(BlockID.TORCH));
+        assertFalse(BlockType.shouldPlaceLast(BlockID.STONE));
+        assertTrue(BlockType.shouldPlaceFinal(BlockID.WOODEN_DOOR));
+        assertTrue(BlockType.isContainerBlock(BlockID.CHEST));
+        assertTrue(BlockType.isRedstoneBlock(BlockID.REDSTONE_WIRE));
+        assertTrue(BlockType.isRailBlock(BlockID.POWERED_RAIL));
+        assertTrue(BlockType.emitsLight(BlockID.LIGHTSTONE));
+        assertTrue(BlockType.isTranslucent(BlockID.GLASS));
+        assertFalse(BlockType.isTranslucent(BlockID.STONE));
+        assertTrue(BlockType.usesData(BlockID.CLOTH));
+        assertFalse(BlockType.usesData(BlockID.GLASS));
+        assertFalse(BlockType.isContainerBlock(-1));
+        assertFalse(BlockType.isContainerBlock(100000));
+    }
+
+    @Test
+    public void testDataProperties() {
+        assertTrue(BlockType.canPassThrough(BlockID.AIR, 0));
+        assertTrue(BlockType.canPassThrough(BlockID.AIR, 7));
+        assertFalse(BlockType.canPassThrough(BlockID.STONE, 0));
+        assertTrue(BlockType.isNaturalTerrainBlock(BlockID.STONE, 0));
+        assertFalse(BlockType.isNaturalTerrainBlock(BlockID.GLASS, 0));
+        assertEquals(BlockType.canPassThrough(BlockID.AIR), BlockType.canPassThrough(BlockID.AIR, -1));
+    }
+
+    @Test
+    public void testAttachment() {
+        assertEquals(PlayerDirection.DOWN, BlockType.getAttachment(BlockID.SAPLING, 0));
+        assertEquals(PlayerDirection.UP, BlockType.getAttachment(BlockID.PISTON_EXTENSION, 8));
+        assertEquals(PlayerDirection.DOWN, BlockType.getAttachment(BlockID.PISTON_EXTENSION, 1));
+        assertNull(BlockType.getAttachment(BlockID.STONE, 0));
+        assertNull(BlockType.getAttachment(100000, 0));
+    }
+}
@@ -0,0 +1,95 @@
+package com.sk89q.worldedit.blocks;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PalettedBlockArrayTest {
+    @Test
+    public void testEmptyCells() {
+        final PalettedBlockArray array = new PalettedBlockArray(8);
+        assertTrue(array.isEmpty(3));
+        assertNull(array.get(3));
+
+        array.set(3, BlockID.STONE, 0);
+        assertFalse(array.isEmpty(3));
+        assertEquals(BlockID.STONE, array.get(3).getType());
+
+        array.set(3, null);
+        assertTrue(array.isEmpty(3));
+    }
+
+    @Test
+    public void testWideningKeepsIndices() {
+        final PalettedBlockArray array = new PalettedBlockArray(70000);
+        for (int cell = 0; cell < array.getVolume(); ++cell) {
+            array.set(cell, cell % 4096, (cell / 4096) & 0xF);
+        }
+
+        assertEquals(65537, array.getPaletteSize());
+        for (int cell = 0; cell < array.getVolume(); ++cell) {
+            assertEquals(cell % 4096, array.getType(cell));
+            assertEquals((cell / 4096) & 0xF, array.getData(cell));
+        }
+    }
+
+    @Test
+    public void testCompact() {
+        final PalettedBlockArray array = new PalettedBlockArray(600);
+        for (int cell = 0; cell < array.getVolume(); ++cell) {
+            array.set(cell, cell, 0);
+        }
+        for (int cell = 0; cell < array.getVolume(); ++cell) {
+            array.set(cell, cell % 3, 1);
+        }
+        array.set(0, 1, 0);
+        final SignBlock sign = new SignBlock(BlockID.SIGN_POST, 1, new String[] { "a", "b", "c", "d" });
+        array.set(5, sign);
+        // Makes two used entries for the same block
+        array.setPaletteData(array.getIndex(1), 0);
+        assertEquals(605, array.getPaletteSize());
+
+        array.compact();
+        assertEquals(5, array.getPaletteSize());
+        assertEquals(600L + 16 * 4 + 32 * 8, array.getMemoryUsage());
+        assertEquals(array.getIndex(0), array.getIndex(1));
+        for (int cell = 1; cell < array.getVolume(); ++cell) {
+            if (cell != 5) {
+                assertEquals(cell % 3, array.getType(cell));
+                assertEquals(cell % 3 == 1 ? 0 : 1, array.getData(cell));
+            }
+        }
+        assertSame(sign, array.get(5));
+        assertEquals(array.getIndex(1), array.getPaletteIndex(1, 0));
+        assertEquals(5, array.getPaletteSize());
+    }
+
+    @Test
+    public void testPaletteChangeAffectsAllCells() {
+        final PalettedBlockArray array = new PalettedBlockArray(4);
+        array.set(0, BlockID.PISTON_BASE, 2);
+        array.set(1, BlockID.PISTON_BASE, 2);
+        final int index = array.getIndex(0);
+        array.setPaletteData(index, 3);
+
+        assertEquals(3, array.getData(1));
+        assertEquals(index, array.getPaletteIndex(BlockID.PISTON_BASE, 3));
+    }
+
+    @Test
+    public void testTileBlocksFollowCells() {
+        final PalettedBlockArray array = new PalettedBlockArray(4);
+        final SignBlock sign = new SignBlock(BlockID.SIGN_POST, 0, new String[] { "a", "b", "c", "d" });
+        array.set(0, sign);
+        array.set(1, new BaseBlock(BlockID.STONE));
+        assertTrue(array.hasTileBlock(0));
+        assertFalse(array.hasTileBlock(1));
+
+        array.swap(0, 1);
+        assertSame(sign, array.get(1));
+        assertEquals(BlockID.STONE, array.get(0).getType());
+
+        array.set(1, BlockID.DIRT, 0);
+        assertFalse(array.hasTileBlock(1));
+    }
+}
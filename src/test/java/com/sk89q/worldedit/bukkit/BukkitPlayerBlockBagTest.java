@@ -0,0 +1,177 @@
+/*
+ * WorldEdit
+ * Copyright (C) 2012 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.bukkit;
+
+import com.sk89q.worldedit.bags.OutOfBlocksException;
+import com.sk89q.worldedit.blocks.BaseItem;
+import com.sk89q.worldedit.blocks.BaseItemStack;
+import com.sk89q.worldedit.blocks.BlockID;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class BukkitPlayerBlockBagTest {
+    @Test
+    public void testItemCountAcrossSlots() {
+        final BukkitPlayerBlockBag bag = createBag(
+                new ItemStack(BlockID.COBBLESTONE, 10),
+                null,
+                new ItemStack(BlockID.COBBLESTONE, 64),
+                new ItemStack(BlockID.DIRT, 5));
+
+        assertEquals(74, bag.getItemCount(new BaseItem(BlockID.COBBLESTONE)));
+        assertEquals(5, bag.getItemCount(new BaseItem(BlockID.DIRT)));
+        assertEquals(0, bag.getItemCount(new BaseItem(BlockID.GLASS)));
+    }
+
+    @Test
+    public void testItemCountWithDamageValues() {
+        final BukkitPlayerBlockBag bag = createBag(
+                new ItemStack(BlockID.CLOTH, 3, (short) 14),
+                new ItemStack(BlockID.CLOTH, 2, (short) 0),
+                new ItemStack(BlockID.COBBLESTONE, 4, (short) 5));
+
+        // Wool uses its damage value, so each colour is counted on its own
+        assertEquals(2, bag.getItemCount(new BaseItem(BlockID.CLOTH)));
+        assertEquals(3, bag.getItemCount(new BaseItem(BlockID.CLOTH, (short) 14)));
+        assertEquals(0, bag.getItemCount(new BaseItem(BlockID.CLOTH, (short) 1)));
+
+        // Cobblestone doesn't, so its damage value is ignored
+        assertEquals(4, bag.getItemCount(new BaseItem(BlockID.COBBLESTONE)));
+        assertEquals(4, bag.getItemCount(new BaseItem(BlockID.COBBLESTONE, (short) 2)));
+    }
+
+    @Test
+    public void testUnlimitedItemCount() {
+        final BukkitPlayerBlockBag bag = createBag(
+                new ItemStack(BlockID.COBBLESTONE, 10),
+                new ItemStack(BlockID.COBBLESTONE, -1));
+
+        assertEquals(-1, bag.getItemCount(new BaseItem(BlockID.COBBLESTONE)));
+        assertEquals(-1, bag.getPlaceableCount(BlockID.COBBLESTONE, 0));
+    }
+
+    @Test
+    public void testPlaceableCount() {
+        final BukkitPlayerBlockBag bag = createBag(
+                new ItemStack(BlockID.STONE, 2),
+                new ItemStack(BlockID.COBBLESTONE, 7),
+                new ItemStack(BlockID.CLOTH, 3, (short) 14));
+
+        // Stone falls back to the cobblestone it drops
+        assertEquals(9, bag.getPlaceableCount(BlockID.STONE, 0));
+        assertEquals(7, bag.getPlaceableCount(BlockID.COBBLESTONE, 0));
+        assertEquals(3, bag.getPlaceableCount(BlockID.CLOTH, 14));
+        assertEquals(0, bag.getPlaceableCount(BlockID.CLOTH, 1));
+
+        // Liquids are free and bedrock can't be placed from a bag
+        assertEquals(-1, bag.getPlaceableCount(BlockID.WATER, 0));
+        assertEquals(-1, bag.getPlaceableCount(BlockID.BEDROCK, 0));
+    }
+
+    @Test
+    public void testFetchUsesFirstSlotAndFreesIt() throws Exception {
+        final ItemStack first = new ItemStack(BlockID.COBBLESTONE, 1);
+        final ItemStack second = new ItemStack(BlockID.COBBLESTONE, 3);
+        final PlayerInventory inventory = mockInventory(null, first, second);
+        final BukkitPlayerBlockBag bag = new BukkitPlayerBlockBag(mockPlayer(inventory));
+
+        bag.fetchItem(new BaseItem(BlockID.COBBLESTONE));
+        assertEquals(3, bag.getItemCount(new BaseItem(BlockID.COBBLESTONE)));
+        bag.fetchItem(new BaseItem(BlockID.COBBLESTONE));
+        assertEquals(2, second.getAmount());
+
+        // Stored items fill the free slots in order, including the emptied one
+        bag.storeItem(new BaseItemStack(BlockID.DIRT, 64));
+        bag.storeItem(new BaseItemStack(BlockID.DIRT, 1));
+        bag.flushChanges();
+
+        final ItemStack[] contents = captureContents(inventory);
+        assertEquals(BlockID.DIRT, contents[0].getTypeId());
+        assertEquals(64, contents[0].getAmount());
+        assertEquals(BlockID.DIRT, contents[1].getTypeId());
+        assertEquals(1, contents[1].getAmount());
+        assertSame(second, contents[2]);
+    }
+
+    @Test
+    public void testFetchWithDamageValues() throws Exception {
+        final BukkitPlayerBlockBag bag = createBag(
+                new ItemStack(BlockID.CLOTH, 1, (short) 14),
+                new ItemStack(BlockID.COBBLESTONE, 1, (short) 5));
+
+        try {
+            bag.fetchItem(new BaseItem(BlockID.CLOTH));
+            fail("white wool was fetched from red wool");
+        } catch (OutOfBlocksException expected) {
+        }
+
+        bag.fetchItem(new BaseItem(BlockID.CLOTH, (short) 14));
+        bag.fetchItem(new BaseItem(BlockID.COBBLESTONE));
+        assertEquals(0, bag.getItemCount(new BaseItem(BlockID.CLOTH, (short) 14)));
+        assertEquals(0, bag.getItemCount(new BaseItem(BlockID.COBBLESTONE)));
+    }
+
+    @Test
+    public void testStoreMergesIntoStacks() throws Exception {
+        final ItemStack partial = new ItemStack(BlockID.CLOTH, 60, (short) 14);
+        final PlayerInventory inventory = mockInventory(
+                new ItemStack(BlockID.CLOTH, 10, (short) 0), null, partial, null);
+        final BukkitPlayerBlockBag bag = new BukkitPlayerBlockBag(mockPlayer(inventory));
+
+        bag.storeItem(new BaseItemStack(BlockID.CLOTH, 6, (short) 14));
+        assertEquals(64, partial.getAmount());
+        assertEquals(66, bag.getItemCount(new BaseItem(BlockID.CLOTH, (short) 14)));
+        assertEquals(10, bag.getItemCount(new BaseItem(BlockID.CLOTH)));
+        bag.flushChanges();
+
+        final ItemStack[] contents = captureContents(inventory);
+        assertEquals(BlockID.CLOTH, contents[1].getTypeId());
+        assertEquals(14, contents[1].getDurability());
+        assertEquals(2, contents[1].getAmount());
+        assertNull(contents[3]);
+    }
+
+    private static BukkitPlayerBlockBag createBag(ItemStack... contents) {
+        return new BukkitPlayerBlockBag(mockPlayer(mockInventory(contents)));
+    }
+
+    private static PlayerInventory mockInventory(ItemStack... contents) {
+        final PlayerInventory inventory = mock(PlayerInventory.class);
+        when(inventory.getContents()).thenReturn(contents);
+        return inventory;
+    }
+
+    private static Player mockPlayer(PlayerInventory inventory) {
+        final Player player = mock(Player.class);
+        when(player.getInventory()).thenReturn(inventory);
+        return player;
+    }
+
+    private static ItemStack[] captureContents(PlayerInventory inventory) {
+        final ArgumentCaptor<ItemStack[]> captor = ArgumentCaptor.forClass(ItemStack[].class);
+        verify(inventory).setContents(captor.capture());
+        return captor.getValue();
+    }
+}
@@ -0,0 +1,76 @@
+package com.sk89q.worldedit.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ArchiveIndexTest {
+    private static final List<String> ENTRIES = Arrays.asList(
+            "world/", "world/level.dat", "world/region/", "world/region/r.0.0.mca", "world/region/r.-1.0.mca",
+            "world_nether/", "world_nether/level.dat", "world_nether/DIM-1/region/r.0.0.mca",
+            "world_the_end/", "plugins/WorldEdit/config.yml");
+
+    private File archive;
+
+    @Before
+    public void setUp() throws IOException {
+        archive = File.createTempFile("worldedit", ".zip");
+        write(archive, 16);
+    }
+
+    @After
+    public void tearDown() {
+        new File(archive.getParentFile(), "." + archive.getName() + ".index").delete();
+        archive.delete();
+    }
+
+    @Test
+    public void testFindRegionFolder() {
+        final ArchiveIndex index = ArchiveIndex.create(archive, ENTRIES);
+        assertTrue(index.hasRegionFiles());
+        assertEquals("world/region", index.findRegionFolder("world"));
+        assertEquals("world_nether/DIM-1/region", index.findRegionFolder("world_nether"));
+        assertNull(index.findRegionFolder("world_the_end"));
+        assertNull(index.findRegionFolder("plugins"));
+    }
+
+    @Test
+    public void testContainsWorld() {
+        final ArchiveIndex index = ArchiveIndex.create(archive, ENTRIES);
+        assertTrue(index.containsWorld("world"));
+        assertTrue(index.containsWorld("world_nether"));
+        assertTrue(index.containsWorld("world_the_end"));
+        assertFalse(index.containsWorld("creative"));
+    }
+
+    @Test
+    public void testSavedNextToArchive() {
+        ArchiveIndex.create(archive, ENTRIES);
+        assertTrue(new File(archive.getParentFile(), "." + archive.getName() + ".index").isFile());
+        assertNotNull(ArchiveIndex.get(archive));
+    }
+
+    @Test
+    public void testChangedArchiveIsScannedAgain() throws IOException {
+        ArchiveIndex.create(archive, ENTRIES);
+        write(archive, 32);
+        assertNull(ArchiveIndex.get(archive));
+    }
+
+    private static void write(File file, int length) throws IOException {
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[length]);
+        } finally {
+            out.close();
+        }
+    }
+}
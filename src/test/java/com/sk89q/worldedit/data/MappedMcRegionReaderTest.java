@@ -0,0 +1,33 @@
+package com.sk89q.worldedit.data;
+
+import com.sk89q.worldedit.Vector2D;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class MappedMcRegionReaderTest {
+    @Test
+    public void testOffsetBeyondFile() throws Exception {
+        assertCorrupt(0x00000301);
+    }
+
+    @Test
+    public void testOverflowingOffset() throws Exception {
+        // The start of this chunk doesn't fit in an int
+        assertCorrupt(0x80000001);
+        assertCorrupt(0xFFFFFF01);
+    }
+
+    private static void assertCorrupt(int offset) throws Exception {
+        final ByteBuffer data = ByteBuffer.allocate(2 * 4096);
+        data.putInt(0, offset);
+        final MappedMcRegionReader reader = new MappedMcRegionReader("r.0.0.mca", data);
+        try {
+            reader.getChunkInputStream(new Vector2D(0, 0));
+            fail("a chunk was read at offset " + Integer.toHexString(offset));
+        } catch (DataException expected) {
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.sk89q.worldedit.data;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class TarMcRegionChunkStoreTest {
+    private static final String LONG_FOLDER =
+            "nether/a-folder-name-that-is-long-enough-to-need-a-gnu-long-name-entry-in-the-tar-file/region";
+
+    private final List<File> files = new ArrayList<File>();
+
+    @After
+    public void tearDown() {
+        for (File file : files) {
+            new File(file.getParentFile(), "." + file.getName() + ".index").delete();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testReadPlainTar() throws Exception {
+        final File file = writeTar(".tar", false);
+        final TarMcRegionChunkStore store = new TarMcRegionChunkStore(file);
+        try {
+            assertTrue(store.isValid());
+            assertArrayEquals(region(2), read(store.getInputStream("r.1.0.mca", "world")));
+            assertArrayEquals(region(1), read(store.getInputStream("r.0.0.mca", "world")));
+            assertArrayEquals(region(3), read(store.getInputStream("r.0.0.mca", "nether")));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testReadCompressedTar() throws Exception {
+        final File file = writeTar(".tar.gz", true);
+        final TarMcRegionChunkStore store = new TarMcRegionChunkStore(file);
+        try {
+            // Reading an earlier entry again starts over from the start
+            assertArrayEquals(region(2), read(store.getInputStream("r.1.0.mca", "world")));
+            assertArrayEquals(region(1), read(store.getInputStream("r.0.0.mca", "world")));
+            assertArrayEquals(region(3), read(store.getInputStream("r.0.0.mca", "nether")));
+            assertArrayEquals(region(3), read(store.getInputStream("r.0.0.mca", "nether")));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testIndexKeepsPositions() throws Exception {
+        final File file = writeTar(".tar", false);
+        TarMcRegionChunkStore.getIndex(file);
+
+        final ArchiveIndex index = ArchiveIndex.get(file);
+        assertTrue(index.containsWorld("world"));
+        assertEquals("world/region", index.findRegionFolder("world"));
+        assertEquals(LONG_FOLDER, index.findRegionFolder("nether"));
+        assertEquals(1024, index.getPosition("world/region/r.0.0.mca").getOffset());
+        assertEquals(region(1).length, index.getPosition("world/region/r.0.0.mca").getSize());
+        assertNull(index.getPosition("world/level.dat"));
+    }
+
+    @Test
+    public void testMissingRegionFile() throws Exception {
+        final TarMcRegionChunkStore store = new TarMcRegionChunkStore(writeTar(".tar", false));
+        try {
+            store.getInputStream("r.5.5.mca", "world");
+            fail("a missing region file was read");
+        } catch (MissingChunkException expected) {
+        } finally {
+            store.close();
+        }
+    }
+
+    private File writeTar(String suffix, boolean compressed) throws IOException {
+        final File file = File.createTempFile("worldedit", suffix);
+        files.add(file);
+
+        final ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        writeEntry(tar, "./world/", '5', new byte[0]);
+        writeEntry(tar, "./world/region/r.0.0.mca", '0', region(1));
+        writeEntry(tar, "./world/level.dat", '0', new byte[100]);
+        writeEntry(tar, "./world/region/r.1.0.mca", '0', region(2));
+        writeEntry(tar, "././@LongLink", 'L', (LONG_FOLDER + "/r.0.0.mca\0").getBytes("UTF-8"));
+        writeEntry(tar, (LONG_FOLDER + "/r.0.0.mca").substring(0, 99), '0', region(3));
+        tar.write(new byte[1024]);
+
+        OutputStream out = new FileOutputStream(file);
+        try {
+            if (compressed) {
+                out = new GZIPOutputStream(out);
+            }
+            out.write(tar.toByteArray());
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static void writeEntry(ByteArrayOutputStream tar, String name, char type, byte[] data)
+            throws IOException {
+        final byte[] header = new byte[512];
+        final byte[] nameBytes = name.getBytes("UTF-8");
+        System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+        final byte[] size = String.format("%011o", data.length).getBytes("UTF-8");
+        System.arraycopy(size, 0, header, 124, size.length);
+        header[156] = (byte) type;
+        System.arraycopy("ustar".getBytes("UTF-8"), 0, header, 257, 5);
+        tar.write(header);
+        tar.write(data);
+        tar.write(new byte[(512 - data.length % 512) % 512]);
+    }
+
+    private static byte[] region(int seed) {
+        final byte[] data = new byte[4096 + 100 * seed];
+        Arrays.fill(data, (byte) seed);
+        return data;
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1000];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.sk89q.worldedit.expression;
+
+import com.sk89q.worldedit.expression.runtime.EvaluationException;
+
+/**
+ * Compares the bytecode compiler with the interpreter on expressions like
+ * the ones used by //generate and //deform. Run with
+ * <code>java com.sk89q.worldedit.expression.ExpressionBenchmark [evaluations]</code>.
+ */
+public class ExpressionBenchmark {
+    private static final String[] EXPRESSIONS = {
+            "x^2 + y^2 + z^2 < 1",
+            "(0.75 - sqrt(x^2 + y^2))^2 + z^2 < 0.25^2",
+            "rotate(x, z, y * 0.5); x*x + z*z < 0.5 + 0.2 * sin(y * 6)",
+            "y -= 0.2 * cos(x * 3) * sin(z * 3)",
+            "a = 0; for (i = 0; i < 8; ++i) { a += abs(sin(x * i + z)); } a > y * 4",
+    };
+
+    public static void main(String[] args) throws ExpressionException {
+        final int evaluations = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+
+        for (String expressionString : EXPRESSIONS) {
+            Expression.setCompilerEnabled(false);
+            final Expression interpreted = Expression.compile(expressionString, "x", "y", "z");
+            interpreted.optimize();
+
+            Expression.setCompilerEnabled(true);
+            final Expression compiled = Expression.compile(expressionString, "x", "y", "z");
+            compiled.optimize();
+
+            // Warm up both, then measure
+            run(interpreted, evaluations / 4);
+            run(compiled, evaluations / 4);
+            final long interpretedTime = run(interpreted, evaluations);
+            final long compiledTime = run(compiled, evaluations);
+
+            System.out.printf("%-65s interpreted %7.1f ns, compiled %7.1f ns (%.1fx)%s%n",
+                    expressionString,
+                    (double) interpretedTime / evaluations,
+                    (double) compiledTime / evaluations,
+                    (double) interpretedTime / compiledTime,
+                    compiled.isCompiled() ? "" : " [not compiled]");
+        }
+    }
+
+    private static long run(Expression expression, int evaluations) throws EvaluationException {
+        double sum = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < evaluations; ++i) {
+            final double x = ((i & 0x3F) - 32) / 32.0;
+            final double y = (((i >> 6) & 0x3F) - 32) / 32.0;
+            final double z = (((i >> 12) & 0x3F) - 32) / 32.0;
+            sum += expression.evaluate(x, y, z);
+        }
+        final long time = System.nanoTime() - start;
+        if (sum == Double.MIN_VALUE) {
+            System.out.println();
+        }
+        return time;
+    }
+}
@@ -142,6 +142,82 @@ public void testQuery() throws Exception {
         assertEquals(1, simpleEval("!queryRel(3,4,5,100,200)"), 0);
     }
 
+    @Test
+    public void testCompiler() throws ExpressionException {
+        final String[] expressions = {
+                "x^2 + y*z - x/3 % 2",
+                "!x + ~y + (x < y) + (x >= z) + (x ~= y) + (x && y || z) + (y << 2) + x!",
+                "sqrt(abs(x)) + atan2(y, z) + min(x, y, z) + max(x, y) + round(z) + ln(abs(x) + 1)",
+                "a = 0; for (i = 0; i < x; ++i) { if (i == 2) continue; if (i == 6) break; a += i; } a",
+                "a = 0; for (i = y, x) { a = a * 10 + i; } a",
+                "a = 0; while (x > 0) { --x; switch (x) { case 1: continue; case 3: a += 100; break; default: a++; } } a",
+                "if (y > 1) return z; z = megabuf(x) + y; x = z--; x + z",
+        };
+
+        for (String expressionString : expressions) {
+            final Expression compiled = compile(expressionString, "x", "y", "z");
+            assertTrue(expressionString, compiled.isCompiled());
+
+            Expression.setCompilerEnabled(false);
+            final Expression interpreted;
+            try {
+                interpreted = compile(expressionString, "x", "y", "z");
+            } finally {
+                Expression.setCompilerEnabled(true);
+            }
+            assertFalse(interpreted.isCompiled());
+
+            for (int x = -2; x <= 8; ++x) {
+                for (int y = -1; y <= 3; ++y) {
+                    final double z = x * 0.7 - y;
+                    assertEquals(expressionString, interpreted.evaluate(x, y, z), compiled.evaluate(x, y, z), 0);
+                    for (String name : new String[] { "x", "y", "z" }) {
+                        assertEquals(expressionString, interpreted.getVariable(name, false).getValue(), compiled.getVariable(name, false).getValue(), 0);
+                    }
+                }
+            }
+        }
+
+        try {
+            compile("a = 0; while (1) { ++a; }").evaluate();
+            fail("Error expected");
+        } catch (EvaluationException e) {
+            assertEquals("Error position", 7, e.getPosition());
+        }
+    }
+
+    @Test
+    public void testParallel() throws ExpressionException {
+        final Expression expression = compile("y = x * 2; sin(x) + y", "x", "y");
+        assertTrue(expression.isThreadSafe());
+        assertFalse(compile("megabuf(x)", "x").isThreadSafe());
+        assertFalse(compile("query(x, 0, 0, 0, 0)", "x").isThreadSafe());
+        // Values kept in other variables would differ between copies
+        assertFalse(compile("a += x; a", "x").isThreadSafe());
+        assertFalse(compile("for (i = 0; i < x; ++i) { } x", "x").isThreadSafe());
+        assertFalse(compile("for (i = 0, 3) { x = x + 1 } x", "x").isThreadSafe());
+        assertTrue(compile("x = -x; x > 0 ? x : 0", "x").isThreadSafe());
+
+        final int count = 5000;
+        final double[] inputs = new double[count * 2];
+        for (int i = 0; i < count; ++i) {
+            inputs[i * 2] = i;
+        }
+
+        final ParallelExpression parallel = new ParallelExpression(expression, "y");
+        final double[] outputs = new double[count * parallel.getOutputStride()];
+        try {
+            parallel.evaluate(inputs, outputs, count);
+        } finally {
+            parallel.shutdown();
+        }
+
+        for (int i = 0; i < count; ++i) {
+            assertEquals(sin(i) + i * 2, outputs[i * 2], 0);
+            assertEquals(i * 2, outputs[i * 2 + 1], 0);
+        }
+    }
+
     private double simpleEval(String expressionString) throws ExpressionException {
         final Expression expression = compile(expressionString);
 
@@ -0,0 +1,68 @@
+package com.sk89q.worldedit.filtering;
+
+import org.junit.Test;
+
+import java.awt.image.Kernel;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HeightMapFilterTest {
+    @Test
+    public void testFlatStaysFlat() {
+        final int[] data = new int[40 * 30];
+        Arrays.fill(data, 64);
+        assertArrayEquals(data, new HeightMapFilter(new GaussianKernel(5, 1.0)).filter(data, 40, 30));
+        assertArrayEquals(data, new HeightMapFilter(new LinearKernel(2)).filter(data, 40, 30));
+    }
+
+    @Test
+    public void testSeparableMatchesFullKernel() {
+        final Random random = new Random(42);
+        final int width = 97, height = 61;
+        final int[] data = new int[width * height];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = 40 + random.nextInt(40);
+        }
+
+        final GaussianKernel gaussian = new GaussianKernel(5, 1.0);
+        final int[] separable = new HeightMapFilter(gaussian).filter(data, width, height);
+        final int[] full = new HeightMapFilter(new Kernel(11, 11, gaussian.getKernelData(null))).filter(data, width, height);
+
+        // Only float rounding may differ
+        int different = 0;
+        for (int i = 0; i < data.length; ++i) {
+            assertTrue(Math.abs(separable[i] - full[i]) <= 1);
+            if (separable[i] != full[i]) {
+                ++different;
+            }
+        }
+        assertTrue(different < data.length / 100);
+    }
+
+    @Test
+    public void testLargeMapOnSeveralThreads() {
+        final int width = 300, height = 260;
+        final int[] data = new int[width * height];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (i % width) / 3 + (i / width) % 7;
+        }
+
+        final HeightMapFilter filter = new HeightMapFilter(new LinearKernel(3));
+        try {
+            final int[] filtered = filter.filter(data, width, height);
+            assertArrayEquals(filter.filter(data, width, height, false), filtered);
+
+            // The threads are kept for the next pass
+            final int[] twice = filter.filter(filtered, width, height);
+            assertArrayEquals(filter.filter(filtered, width, height, false), twice);
+
+            // A ramp along X is unchanged in the middle by an averaging kernel
+            final int x = 150, z = 130;
+            assertEquals(data[z * width + x], filtered[z * width + x], 1);
+        } finally {
+            filter.shutdown();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.sk89q.worldedit.floodfill;
+
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.MaxFloodFillBlocksException;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FloodFillTest {
+    @Test
+    public void testPacking() {
+        final int[][] positions = {
+            { 0, 0, 0 }, { -1, -1, -1 }, { 33554431, 2047, -33554432 }, { -30000000, 255, 30000000 },
+        };
+        for (int[] position : positions) {
+            final long packed = BlockPositionSet.pack(position[0], position[1], position[2]);
+            assertEquals(position[0], BlockPositionSet.unpackX(packed));
+            assertEquals(position[1], BlockPositionSet.unpackY(packed));
+            assertEquals(position[2], BlockPositionSet.unpackZ(packed));
+        }
+    }
+
+    @Test
+    public void testSet() {
+        final BlockPositionSet set = new BlockPositionSet();
+        for (int x = -50; x < 50; ++x) {
+            for (int z = -50; z < 50; ++z) {
+                assertTrue(set.add(x, x & 0xFF, z));
+            }
+        }
+        assertFalse(set.add(-50, -50 & 0xFF, -50));
+        assertTrue(set.contains(10, 10, -3));
+        assertFalse(set.contains(10, 11, -3));
+        assertEquals(10000, set.size());
+
+        assertFalse(set.contains(Long.MIN_VALUE));
+        assertTrue(set.add(Long.MIN_VALUE));
+        assertTrue(set.contains(Long.MIN_VALUE));
+        assertEquals(10001, set.size());
+    }
+
+    @Test
+    public void testQueue() {
+        final BlockPositionQueue queue = new BlockPositionQueue();
+        long next = 0;
+        for (int i = 0; i < 1000; ++i) {
+            queue.add(i);
+            if (i % 3 == 0) {
+                assertEquals(next++, queue.poll());
+            }
+        }
+        while (!queue.isEmpty()) {
+            assertEquals(next++, queue.poll());
+        }
+        assertEquals(1000, next);
+    }
+
+    @Test
+    public void testConnectivity() throws MaxChangedBlocksException {
+        assertEquals(4, FloodFill.Connectivity.HORIZONTAL.getNeighborCount());
+        assertEquals(6, FloodFill.Connectivity.FACES.getNeighborCount());
+        assertEquals(18, FloodFill.Connectivity.EDGES.getNeighborCount());
+        assertEquals(26, FloodFill.Connectivity.CORNERS.getNeighborCount());
+
+        assertEquals(11 * 11, fillCube(FloodFill.Connectivity.HORIZONTAL, -1));
+        assertEquals(11 * 11 * 11, fillCube(FloodFill.Connectivity.FACES, -1));
+        assertEquals(11 * 11 * 11, fillCube(FloodFill.Connectivity.CORNERS, -1));
+    }
+
+    @Test(expected = MaxFloodFillBlocksException.class)
+    public void testLimit() throws MaxChangedBlocksException {
+        fillCube(FloodFill.Connectivity.FACES, 100);
+    }
+
+    private static int fillCube(FloodFill.Connectivity connectivity, int limit) throws MaxChangedBlocksException {
+        final int[] visited = new int[1];
+        final FloodFill fill = new FloodFill(connectivity) {
+            @Override
+            protected boolean visit(int x, int y, int z) {
+                if (Math.abs(x) > 5 || Math.abs(y) > 5 || Math.abs(z) > 5) {
+                    return false;
+                }
+                ++visited[0];
+                return true;
+            }
+        };
+        fill.setMaxVisited(limit);
+        fill.add(0, 0, 0);
+        fill.run();
+        return visited[0];
+    }
+}
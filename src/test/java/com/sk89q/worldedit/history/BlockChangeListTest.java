@@ -0,0 +1,157 @@
+package com.sk89q.worldedit.history;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.blocks.SignBlock;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BlockChangeListTest {
+    @Test
+    public void testForwardOrder() {
+        final BlockChangeList list = new BlockChangeList(false);
+        list.put(1, 2, 3, BlockID.STONE, 0);
+        list.put(-1, 255, -17, BlockID.CLOTH, 14);
+        list.put(4, 5, 6, new BaseBlock(BlockID.LOG, 2));
+
+        final BlockChangeList.ChangeCursor cursor = list.cursor();
+        assertTrue(cursor.next());
+        assertChange(cursor, 1, 2, 3, BlockID.STONE, 0);
+        assertTrue(cursor.next());
+        assertChange(cursor, 4, 5, 6, BlockID.LOG, 2);
+        assertTrue(cursor.next());
+        assertChange(cursor, -1, 255, -17, BlockID.CLOTH, 14);
+        assertFalse(cursor.next());
+
+        assertEquals(3, list.size());
+        assertEquals(2, list.getChunkCount());
+    }
+
+    @Test
+    public void testReversedOrderWithinChunk() {
+        final BlockChangeList list = new BlockChangeList(true);
+        list.put(0, 64, 0, BlockID.DIRT, 0);
+        list.put(0, 64, 0, BlockID.GRASS, 0);
+        list.put(0, 64, 0, BlockID.AIR, 0);
+
+        final BlockChangeList.ChangeCursor cursor = list.cursor();
+        assertTrue(cursor.next());
+        assertEquals(BlockID.AIR, cursor.getType());
+        assertTrue(cursor.next());
+        assertEquals(BlockID.GRASS, cursor.getType());
+        assertTrue(cursor.next());
+        assertEquals(BlockID.DIRT, cursor.getType());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void testWildcardData() {
+        final BlockChangeList list = new BlockChangeList(false);
+        list.put(0, 0, 0, new BaseBlock(BlockID.STONE, -1));
+
+        final BlockChangeList.ChangeCursor cursor = list.cursor();
+        assertTrue(cursor.next());
+        assertEquals(-1, cursor.getData());
+    }
+
+    @Test
+    public void testExtraStateKept() {
+        final BlockChangeList list = new BlockChangeList(false);
+        final SignBlock sign = new SignBlock(BlockID.SIGN_POST, 0, new String[] { "a", "b", "c", "d" });
+        list.put(new BlockVector(7, 70, 7), new BaseBlock(BlockID.STONE));
+        list.put(new BlockVector(8, 70, 8), sign);
+
+        final BlockChangeList.ChangeCursor cursor = list.cursor();
+        assertTrue(cursor.next());
+        assertFalse(cursor.hasExtraState());
+        assertTrue(cursor.next());
+        assertTrue(cursor.hasExtraState());
+        assertSame(sign, cursor.getBlock());
+        assertEquals(new BlockVector(8, 70, 8), cursor.getPosition());
+    }
+
+    @Test
+    public void testPutAll() {
+        final int[] types = new int[16 * 16 * 256];
+        final byte[] data = new byte[16 * 16 * 256];
+        types[5 << 8 | 3 << 4 | 7] = BlockID.STONE;
+        data[5 << 8 | 3 << 4 | 7] = 2;
+        types[255 << 8 | 15 << 4 | 15] = BlockID.GLASS;
+
+        final BlockChangeList list = new BlockChangeList(false);
+        list.put(-32, 0, 16, BlockID.DIRT, 0);
+        list.putAll(-2, 1, new int[] { 5 << 8 | 3 << 4 | 7, 255 << 8 | 15 << 4 | 15, 0 }, 2, types, data);
+        assertEquals(3, list.size());
+
+        final BlockChangeList.ChangeCursor cursor = list.cursor();
+        assertTrue(cursor.next());
+        assertChange(cursor, -32, 0, 16, BlockID.DIRT, 0);
+        assertTrue(cursor.next());
+        assertChange(cursor, -25, 5, 19, BlockID.STONE, 2);
+        assertTrue(cursor.next());
+        assertChange(cursor, -17, 255, 31, BlockID.GLASS, 0);
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void testManyChunks() {
+        final BlockChangeList list = new BlockChangeList(false);
+        for (int x = -200; x < 200; ++x) {
+            for (int z = -200; z < 200; z += 3) {
+                list.put(x, x & 0xFF, z, x & 0xFF, z & 0xF);
+            }
+        }
+
+        final BlockChangeList.ChangeCursor cursor = list.cursor();
+        int count = 0;
+        while (cursor.next()) {
+            assertEquals(cursor.getX() & 0xFF, cursor.getY());
+            assertEquals(cursor.getX() & 0xFF, cursor.getType());
+            assertEquals(cursor.getZ() & 0xF, cursor.getData());
+            ++count;
+        }
+        assertEquals(list.size(), count);
+        assertEquals(26 * 26, list.getChunkCount());
+    }
+
+    @Test
+    public void testMemoryUsageCoversArrays() throws Exception {
+        final int count = 500000;
+        final BlockChangeList packed = new BlockChangeList(false);
+        for (int i = 0; i < count; ++i) {
+            packed.put(i & 0x7F, (i >> 14) & 0xFF, (i >> 7) & 0x7F, BlockID.STONE, 0);
+        }
+
+        // Sum up the arrays the list really holds on to
+        long arrayBytes = ((long[]) field(packed, "tableKeys")).length * 8L
+                + ((int[]) field(packed, "tableValues")).length * 4L;
+        final List<?> buckets = (List<?>) field(packed, "buckets");
+        for (Object bucket : buckets) {
+            arrayBytes += ((long[]) field(bucket, "entries")).length * 8L;
+        }
+
+        assertTrue("the estimate should cover the arrays", packed.getMemoryUsage() >= arrayBytes);
+        assertTrue("the estimate should only add a little per bucket",
+                packed.getMemoryUsage() <= arrayBytes + buckets.size() * 128L);
+        assertTrue("the arrays should hold at most 16 bytes per change", arrayBytes <= count * 16L);
+    }
+
+    private static Object field(Object object, String name) throws Exception {
+        final Field field = object.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(object);
+    }
+
+    private static void assertChange(BlockChangeList.ChangeCursor cursor, int x, int y, int z, int type, int data) {
+        assertEquals(x, cursor.getX());
+        assertEquals(y, cursor.getY());
+        assertEquals(z, cursor.getZ());
+        assertEquals(type, cursor.getType());
+        assertEquals(data, cursor.getData());
+    }
+}
@@ -0,0 +1,258 @@
+package com.sk89q.worldedit.history;
+
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BaseItemStack;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.blocks.ChestBlock;
+import com.sk89q.worldedit.blocks.ItemID;
+import com.sk89q.worldedit.blocks.SignBlock;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class HistoryJournalTest {
+    @Test
+    public void testAppendAndRead() throws IOException {
+        final File file = createTempFile();
+        try {
+            final HistoryJournal journal = HistoryJournal.open(file);
+            journal.append("world", changes(true, 0, BlockID.STONE), changes(false, 0, BlockID.AIR));
+            journal.append("nether", changes(true, 1, BlockID.NETHERRACK), changes(false, 1, BlockID.GLASS));
+            assertEquals(2, journal.size());
+
+            final HistoryJournal.Entry entry = journal.read(1);
+            assertEquals("nether", entry.getWorldName());
+            assertTrue(entry.getOriginal().isReversed());
+            assertFalse(entry.getCurrent().isReversed());
+            assertEquals(100, entry.getOriginal().size());
+
+            final BlockChangeList.ChangeCursor cursor = entry.getCurrent().cursor();
+            assertTrue(cursor.next());
+            assertEquals(1, cursor.getY());
+            assertEquals(BlockID.GLASS, cursor.getType());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testTileEntityData() throws IOException {
+        final File file = createTempFile();
+        try {
+            final BlockChangeList original = new BlockChangeList(true);
+            original.put(3, 64, 3, new SignBlock(BlockID.SIGN_POST, 4, new String[] { "one", "two", "", "" }));
+
+            final HistoryJournal journal = HistoryJournal.open(file);
+            journal.append("world", original, new BlockChangeList(false));
+
+            final BlockChangeList.ChangeCursor cursor = journal.read(0).getOriginal().cursor();
+            assertTrue(cursor.next());
+            assertTrue(cursor.hasExtraState());
+            final BaseBlock block = cursor.getBlock();
+            assertEquals(BlockID.SIGN_POST, block.getType());
+            assertEquals(4, block.getData());
+            final Tag text = block.getNbtData().getValue().get("Text2");
+            assertEquals("two", ((StringTag) text).getValue());
+            assertTrue(block instanceof SignBlock);
+            assertEquals("one", ((SignBlock) block).getText()[0]);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testContainerReadBackAsContainer() throws IOException {
+        final File file = createTempFile();
+        try {
+            final BaseItemStack[] items = new BaseItemStack[27];
+            items[0] = new BaseItemStack(ItemID.DIAMOND, 3);
+            final BlockChangeList original = new BlockChangeList(true);
+            original.put(1, 10, 1, new ChestBlock(2, items));
+
+            final HistoryJournal journal = HistoryJournal.open(file);
+            journal.append("world", original, new BlockChangeList(false));
+
+            final BlockChangeList.ChangeCursor cursor = journal.read(0).getOriginal().cursor();
+            assertTrue(cursor.next());
+            final BaseBlock block = cursor.getBlock();
+            assertTrue(block instanceof ChestBlock);
+            assertEquals(2, block.getData());
+            final BaseItemStack item = ((ChestBlock) block).getItems()[0];
+            assertEquals(ItemID.DIAMOND, item.getType());
+            assertEquals(3, item.getAmount());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testAppendLater() throws IOException {
+        final File file = createTempFile();
+        try {
+            final HistoryJournal journal = HistoryJournal.open(file);
+            final BlockChangeList original = changes(true, 7, BlockID.STONE);
+            journal.appendLater("world", original, changes(false, 7, BlockID.AIR));
+            journal.setPointer(1);
+
+            // Readable before and after it reaches the file
+            assertEquals(1, journal.size());
+            assertEquals(7, firstY(journal.read(0).getOriginal()));
+            journal.flush();
+            assertEquals(journal.getFileSize(), file.length());
+
+            final HistoryJournal reopened = HistoryJournal.open(file);
+            assertEquals(1, reopened.size());
+            assertEquals(1, reopened.getPointer());
+            assertEquals(7, firstY(reopened.read(0).getOriginal()));
+        } finally {
+            HistoryJournal.awaitWrites();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testNoEntriesTakenAfterFailure() throws IOException {
+        final File file = createTempFile();
+        try {
+            final HistoryJournal journal = HistoryJournal.open(file);
+            // A directory in place of the file makes every write fail
+            assertTrue(file.delete());
+            assertTrue(file.mkdir());
+
+            try {
+                journal.append("world", changes(true, 0, BlockID.STONE), changes(false, 0, BlockID.AIR));
+                fail("the write didn't fail");
+            } catch (IOException expected) {
+            }
+            assertNotNull(journal.getFailure());
+            assertEquals(1, journal.size());
+
+            for (int i = 0; i < 10; ++i) {
+                try {
+                    journal.appendLater("world", changes(true, i, BlockID.STONE), changes(false, i, BlockID.AIR));
+                    fail("an entry was taken after a failure");
+                } catch (IOException expected) {
+                }
+            }
+            assertEquals(1, journal.size());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testAppendLaterBeyondPendingLimit() throws IOException {
+        final File file = createTempFile();
+        try {
+            final HistoryJournal journal = HistoryJournal.open(file);
+            for (int i = 0; i < 20; ++i) {
+                journal.appendLater("world", changes(true, i, BlockID.STONE), changes(false, i, BlockID.AIR));
+            }
+            assertEquals(20, journal.size());
+            for (int i = 0; i < 20; ++i) {
+                assertEquals(i, firstY(journal.read(i).getOriginal()));
+            }
+
+            journal.flush();
+            assertEquals(20, HistoryJournal.open(file).size());
+        } finally {
+            HistoryJournal.awaitWrites();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        final File file = createTempFile();
+        try {
+            HistoryJournal journal = HistoryJournal.open(file);
+            for (int i = 0; i < 4; ++i) {
+                journal.append("world", changes(true, i, BlockID.STONE), changes(false, i, BlockID.AIR));
+            }
+            journal.removeFirst(1);
+            journal.setPointer(2);
+            journal.flush();
+
+            journal = HistoryJournal.open(file);
+            assertEquals(3, journal.size());
+            assertEquals(2, journal.getPointer());
+            assertEquals(1, firstY(journal.read(0).getOriginal()));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testTruncateAndCompact() throws IOException {
+        final File file = createTempFile();
+        try {
+            final HistoryJournal journal = HistoryJournal.open(file);
+            for (int i = 0; i < 5; ++i) {
+                journal.append("world", changes(true, i, BlockID.STONE), changes(false, i, BlockID.AIR));
+            }
+
+            journal.truncate(4);
+            assertEquals(4, journal.size());
+            final long length = journal.getFileSize();
+            assertEquals(length, file.length());
+
+            // Discarding most entries moves the rest to the front of the file
+            journal.removeFirst(3);
+            journal.flush();
+            assertEquals(1, journal.size());
+            assertTrue(journal.getFileSize() < length);
+            assertEquals(journal.getFileSize(), file.length());
+            assertEquals(3, firstY(journal.read(0).getOriginal()));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testIncompleteEntryDropped() throws IOException {
+        final File file = createTempFile();
+        try {
+            HistoryJournal journal = HistoryJournal.open(file);
+            journal.append("world", changes(true, 0, BlockID.STONE), changes(false, 0, BlockID.AIR));
+            journal.append("world", changes(true, 1, BlockID.STONE), changes(false, 1, BlockID.AIR));
+
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(raf.length() - 3);
+            raf.close();
+
+            journal = HistoryJournal.open(file);
+            assertEquals(1, journal.size());
+            assertEquals(journal.getFileSize(), file.length());
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static File createTempFile() throws IOException {
+        final File file = File.createTempFile("worldedit", ".journal");
+        file.delete();
+        return file;
+    }
+
+    private static BlockChangeList changes(boolean reversed, int y, int type) {
+        final BlockChangeList list = new BlockChangeList(reversed);
+        for (int x = 0; x < 10; ++x) {
+            for (int z = 0; z < 10; ++z) {
+                list.put(x, y, z, type, 0);
+            }
+        }
+        return list;
+    }
+
+    private static int firstY(BlockChangeList list) {
+        final BlockChangeList.ChangeCursor cursor = list.cursor();
+        assertTrue(cursor.next());
+        return cursor.getY();
+    }
+}
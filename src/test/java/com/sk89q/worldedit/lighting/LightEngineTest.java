@@ -0,0 +1,85 @@
+package com.sk89q.worldedit.lighting;
+
+import com.sk89q.worldedit.blocks.BlockID;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class LightEngineTest {
+    @Test
+    public void testBlockLightSpreads() {
+        final LightEngine engine = new LightEngine(0, 0, 2, 1, 256, false);
+        final short[] types = new short[LightEngine.COLUMN_SIZE];
+        types[index(15, 64, 8)] = BlockID.TORCH;
+        final byte[] block = new byte[LightEngine.COLUMN_SIZE];
+        final byte[] nextBlock = new byte[LightEngine.COLUMN_SIZE];
+        engine.addColumn(0, 0, types, new byte[LightEngine.COLUMN_SIZE], block, true);
+        engine.addColumn(1, 0, new short[LightEngine.COLUMN_SIZE], new byte[LightEngine.COLUMN_SIZE], nextBlock, true);
+        engine.compute();
+
+        assertEquals(14, block[index(15, 64, 8)]);
+        assertEquals(13, block[index(15, 65, 8)]);
+        assertEquals(9, block[index(10, 64, 8)]);
+        // Into the next column
+        assertEquals(13, nextBlock[index(0, 64, 8)]);
+        assertEquals(0, nextBlock[index(15, 64, 8)]);
+
+        assertTrue(engine.isChanged(0, 0, 4));
+        assertFalse(engine.isChanged(0, 0, 0));
+    }
+
+    @Test
+    public void testOpaqueBlocksStopLight() {
+        final LightEngine engine = new LightEngine(0, 0, 1, 1, 256, false);
+        final short[] types = new short[LightEngine.COLUMN_SIZE];
+        Arrays.fill(types, (short) BlockID.STONE);
+        types[index(4, 10, 4)] = BlockID.LIGHTSTONE;
+        types[index(5, 10, 4)] = BlockID.AIR;
+        final byte[] block = new byte[LightEngine.COLUMN_SIZE];
+        engine.addColumn(0, 0, types, new byte[LightEngine.COLUMN_SIZE], block, true);
+        engine.compute();
+
+        assertEquals(15, block[index(4, 10, 4)]);
+        assertEquals(14, block[index(5, 10, 4)]);
+        assertEquals(0, block[index(6, 10, 4)]);
+        assertEquals(0, block[index(3, 10, 4)]);
+    }
+
+    @Test
+    public void testSkyLightUnderRoof() {
+        // A relit column with a roof, surrounded by open columns that keep their light
+        final LightEngine engine = new LightEngine(-1, -1, 3, 3, 256, true);
+        final byte[] fullSky = new byte[LightEngine.COLUMN_SIZE];
+        Arrays.fill(fullSky, (byte) 15);
+        for (int chunkX = -1; chunkX <= 1; ++chunkX) {
+            for (int chunkZ = -1; chunkZ <= 1; ++chunkZ) {
+                if (chunkX != 0 || chunkZ != 0) {
+                    engine.addColumn(chunkX, chunkZ, new short[LightEngine.COLUMN_SIZE], fullSky.clone(),
+                            new byte[LightEngine.COLUMN_SIZE], false);
+                }
+            }
+        }
+
+        final short[] types = new short[LightEngine.COLUMN_SIZE];
+        for (int index = 0; index < 256; ++index) {
+            types[100 << 8 | index] = BlockID.STONE;
+        }
+        final byte[] sky = fullSky.clone();
+        engine.addColumn(0, 0, types, sky, new byte[LightEngine.COLUMN_SIZE], true);
+        engine.compute();
+
+        assertEquals(15, sky[index(8, 101, 8)]);
+        assertEquals(0, sky[index(8, 100, 8)]);
+        assertEquals(14, sky[index(0, 99, 8)]);
+        assertEquals(7, sky[index(8, 99, 8)]);
+        assertEquals(7, sky[index(8, 0, 8)]);
+        assertFalse(engine.isChanged(0, 0, 7));
+        assertTrue(engine.isChanged(0, 0, 6));
+    }
+
+    private static int index(int x, int y, int z) {
+        return y << 8 | z << 4 | x;
+    }
+}
@@ -0,0 +1,104 @@
+package com.sk89q.worldedit.lighting;
+
+import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldedit.LocalWorld;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+public class RelightOperationTest {
+    @Test
+    public void testChangedChunksSentOnce() throws Exception {
+        final LocalWorld world = mockWorld(true);
+        final List<BlockVector2D> sent = recordSent(world);
+        final BlockVector2D changed = new BlockVector2D(0, 0);
+        final List<BlockVector2D> chunks = Arrays.asList(changed, new BlockVector2D(1, 0));
+
+        final RelightOperation relight = new RelightOperation(world, chunks, Arrays.asList(changed));
+        runToEnd(relight);
+
+        // The light didn't change, so only the chunk with changed blocks is sent
+        assertEquals(Arrays.asList(changed), sent);
+    }
+
+    @Test
+    public void testChangedChunksSentWithoutLightSupport() throws Exception {
+        final LocalWorld world = mockWorld(false);
+        final List<BlockVector2D> sent = recordSent(world);
+        final BlockVector2D changed = new BlockVector2D(5, 5);
+
+        final RelightOperation relight = new RelightOperation(world, Arrays.asList(changed), Arrays.asList(changed));
+        runToEnd(relight);
+
+        verify(world).fixLighting(anyCollectionOf(BlockVector2D.class));
+        assertEquals(Arrays.asList(changed), sent);
+    }
+
+    @Test
+    public void testChangedChunksSentOnCancel() throws Exception {
+        final LocalWorld world = mockWorld(true);
+        final List<BlockVector2D> sent = recordSent(world);
+        final BlockVector2D changed = new BlockVector2D(2, 3);
+
+        final RelightOperation relight = new RelightOperation(world, Arrays.asList(changed), Arrays.asList(changed));
+        relight.resume();
+        relight.cancel();
+
+        assertEquals(Arrays.asList(changed), sent);
+    }
+
+    @Test
+    public void testProgressWithinRange() throws Exception {
+        final List<BlockVector2D> chunks = new ArrayList<BlockVector2D>();
+        for (int x = 0; x < 12; ++x) {
+            chunks.add(new BlockVector2D(x, 0));
+        }
+
+        final RelightOperation relight = new RelightOperation(mockWorld(true), chunks);
+        double progress = 0;
+        for (int i = 0; relight.resume() != null; ++i) {
+            assertTrue("relight should finish", i < 100000);
+            assertTrue(relight.getProgress() >= progress && relight.getProgress() <= 1);
+            progress = relight.getProgress();
+        }
+        assertEquals(1, relight.getProgress(), 0);
+    }
+
+    private static LocalWorld mockWorld(boolean copiesLight) {
+        final LocalWorld world = mock(LocalWorld.class);
+        when(world.getMaxY()).thenReturn(255);
+        when(world.hasSkyLight()).thenReturn(false);
+        when(world.copyLighting(anyInt(), anyInt(), any(short[].class), any(byte[].class), any(byte[].class))).thenReturn(copiesLight);
+        when(world.setLighting(anyInt(), anyInt(), anyInt(), any(byte[].class), any(byte[].class))).thenReturn(false);
+        return world;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<BlockVector2D> recordSent(LocalWorld world) {
+        final List<BlockVector2D> sent = new ArrayList<BlockVector2D>();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                for (BlockVector2D chunk : (Iterable<BlockVector2D>) invocation.getArguments()[0]) {
+                    sent.add(chunk);
+                }
+                return null;
+            }
+        }).when(world).fixAfterFastMode(any(Iterable.class));
+        return sent;
+    }
+
+    private static void runToEnd(RelightOperation relight) throws Exception {
+        for (int i = 0; relight.resume() != null; ++i) {
+            assertTrue("relight should finish", i < 100000);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.sk89q.worldedit.operation;
+
+import com.sk89q.worldedit.WorldEditException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class OperationQueueTest {
+    @Test
+    public void testUnlimitedBudget() {
+        final OperationQueue queue = new OperationQueue(0);
+        final List<String> log = new ArrayList<String>();
+
+        final OperationQueue.Job job = queue.submit("a", "test", new Steps("a", 1000, log), null);
+        assertTrue(job.isDone());
+        assertEquals(1000, log.size());
+        assertFalse(queue.hasJobs("a"));
+    }
+
+    @Test
+    public void testOwnersTakeTurns() {
+        final OperationQueue queue = new OperationQueue(1);
+        final List<String> log = new ArrayList<String>();
+
+        // The first step of each operation takes the whole budget
+        queue.submit("a", "first", new Steps("a", 3, log, 5), null);
+        queue.submit("a", "second", new Steps("a2", 1, log), null);
+        queue.submit("b", "third", new Steps("b", 2, log, 5), null);
+        assertEquals(2, queue.getJobs("a").size());
+        assertEquals(1, queue.getJobs("b").size());
+
+        queue.setBudget(0);
+        queue.tick();
+        assertEquals("[a, b, a, b, a, a2]", log.toString());
+        assertFalse(queue.hasJobs("a"));
+        assertFalse(queue.hasJobs("b"));
+    }
+
+    @Test
+    public void testCancel() {
+        final OperationQueue queue = new OperationQueue(1);
+        final List<String> log = new ArrayList<String>();
+        final List<String> events = new ArrayList<String>();
+
+        final Steps steps = new Steps("a", 100, log, 5);
+        final OperationQueue.Job job = queue.submit("a", "test", steps, new Recorder(events));
+        assertFalse(job.isDone());
+        assertEquals(0.01, job.getProgress(), 1e-9);
+
+        assertEquals(1, queue.cancel("a"));
+        assertTrue(job.isDone());
+        assertTrue(steps.cancelled);
+        assertEquals("[cancelled]", events.toString());
+        assertEquals(0, queue.cancel("a"));
+    }
+
+    @Test
+    public void testCompleteAndFailure() {
+        final OperationQueue queue = new OperationQueue(1);
+        final List<String> log = new ArrayList<String>();
+        final List<String> events = new ArrayList<String>();
+
+        queue.submit("a", "test", new Steps("a", 5, log, 5), new Recorder(events));
+        queue.submit("a", "failing", new Operation() {
+            @Override
+            public Operation resume() throws WorldEditException {
+                throw new WorldEditException("failed") {
+                };
+            }
+
+            @Override
+            public void cancel() {
+            }
+        }, new Recorder(events));
+
+        queue.complete("a");
+        assertEquals(5, log.size());
+        assertEquals("[completed, failed]", events.toString());
+        assertFalse(queue.hasJobs("a"));
+    }
+
+    @Test
+    public void testUnexpectedFailure() {
+        final OperationQueue queue = new OperationQueue(1);
+        final List<String> log = new ArrayList<String>();
+        final List<String> events = new ArrayList<String>();
+
+        final OperationQueue.Job failing = queue.submit("a", "failing", new Steps("a", 5, log, 5) {
+            @Override
+            public Operation resume() {
+                super.resume();
+                throw new IllegalStateException("broken");
+            }
+        }, new Recorder(events));
+        queue.submit("a", "next", new Steps("a2", 1, log), new Recorder(events));
+
+        queue.setBudget(0);
+        queue.tick();
+        assertTrue(failing.isDone());
+        assertEquals("[failed, completed]", events.toString());
+        assertEquals("[a, a2]", log.toString());
+        assertFalse(queue.hasJobs("a"));
+    }
+
+    private static class Steps implements ProgressiveOperation {
+        private final String name;
+        private final int count;
+        private final List<String> log;
+        private final long sleep;
+        private int done = 0;
+        private boolean cancelled = false;
+
+        private Steps(String name, int count, List<String> log) {
+            this(name, count, log, 0);
+        }
+
+        private Steps(String name, int count, List<String> log, long sleep) {
+            this.name = name;
+            this.count = count;
+            this.log = log;
+            this.sleep = sleep;
+        }
+
+        @Override
+        public Operation resume() {
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            log.add(name);
+            return ++done < count ? this : null;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public double getProgress() {
+            return (double) done / count;
+        }
+    }
+
+    private static class Recorder implements OperationQueue.Listener {
+        private final List<String> events;
+
+        private Recorder(List<String> events) {
+            this.events = events;
+        }
+
+        @Override
+        public void progress(OperationQueue.Job job) {
+        }
+
+        @Override
+        public void completed(OperationQueue.Job job) {
+            events.add("completed");
+        }
+
+        @Override
+        public void cancelled(OperationQueue.Job job) {
+            events.add("cancelled");
+        }
+
+        @Override
+        public void failed(OperationQueue.Job job, Exception e) {
+            events.add("failed");
+        }
+    }
+}
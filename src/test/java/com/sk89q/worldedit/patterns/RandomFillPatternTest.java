@@ -0,0 +1,87 @@
+package com.sk89q.worldedit.patterns;
+
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RandomFillPatternTest {
+    private static final BaseBlock STONE = new BaseBlock(BlockID.STONE);
+    private static final BaseBlock DIRT = new BaseBlock(BlockID.DIRT);
+    private static final BaseBlock GLASS = new BaseBlock(BlockID.GLASS);
+
+    @Test
+    public void testProportions() {
+        final RandomFillPattern pattern = new RandomFillPattern(chances(70, 20, 10));
+        final int samples = 200000;
+        int stone = 0;
+        int dirt = 0;
+        int glass = 0;
+        for (int i = 0; i < samples; ++i) {
+            final BaseBlock block = pattern.next(i, 0, 0);
+            if (block == STONE) {
+                ++stone;
+            } else if (block == DIRT) {
+                ++dirt;
+            } else if (block == GLASS) {
+                ++glass;
+            }
+        }
+        assertEquals(samples, stone + dirt + glass);
+        assertEquals(0.7, (double) stone / samples, 0.01);
+        assertEquals(0.2, (double) dirt / samples, 0.01);
+        assertEquals(0.1, (double) glass / samples, 0.01);
+    }
+
+    @Test
+    public void testSeededProportions() {
+        final RandomFillPattern pattern = new RandomFillPattern(chances(1, 1, 2), 42);
+        int glass = 0;
+        for (int x = 0; x < 100; ++x) {
+            for (int z = 0; z < 100; ++z) {
+                if (pattern.next(x, 64, z) == GLASS) {
+                    ++glass;
+                }
+            }
+        }
+        assertEquals(0.5, glass / 10000.0, 0.02);
+    }
+
+    @Test
+    public void testSeededIsDeterministic() {
+        final RandomFillPattern a = new RandomFillPattern(chances(1, 1, 1), 1234);
+        final RandomFillPattern b = new RandomFillPattern(chances(1, 1, 1), 1234);
+        for (int x = -20; x < 20; ++x) {
+            for (int y = 0; y < 20; ++y) {
+                assertSame(a.next(x, y, -x), b.next(x, y, -x));
+            }
+        }
+        assertSame(a.next(5, 6, 7), a.next(new Vector(5, 6, 7)));
+    }
+
+    @Test
+    public void testZeroChance() {
+        final RandomFillPattern pattern = new RandomFillPattern(chances(0, 1, 0));
+        for (int i = 0; i < 1000; ++i) {
+            assertSame(DIRT, pattern.next(null));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoChance() {
+        new RandomFillPattern(chances(0, 0, 0));
+    }
+
+    private static List<BlockChance> chances(double stone, double dirt, double glass) {
+        final List<BlockChance> chances = new ArrayList<BlockChance>();
+        chances.add(new BlockChance(STONE, stone));
+        chances.add(new BlockChance(DIRT, dirt));
+        chances.add(new BlockChance(GLASS, glass));
+        return chances;
+    }
+}
@@ -0,0 +1,155 @@
+package com.sk89q.worldedit.regions;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldedit.LocalWorld;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.Vector2D;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SpanCursorTest {
+    @Test
+    public void testCuboid() {
+        final CuboidRegion region = new CuboidRegion(new Vector(3, 10, -4), new Vector(-2, 12, 5));
+        assertSpansMatchContains(region);
+
+        final SpanCursor spans = region.spans();
+        assertTrue(spans.next());
+        assertEquals(-2, spans.getMinX());
+        assertEquals(3, spans.getMaxX());
+        assertEquals(10, spans.getY());
+        assertEquals(-4, spans.getZ());
+    }
+
+    @Test
+    public void testCylinders() {
+        final Random random = new Random(1);
+        for (int i = 0; i < 50; ++i) {
+            final Vector center = new Vector(random.nextInt(40) - 20, 0, random.nextInt(40) - 20);
+            final Vector2D radius = new Vector2D(random.nextInt(12) + random.nextInt(2) * 0.5, random.nextInt(12));
+            assertSpansMatchContains(new CylinderRegion(null, center, radius, 5, 5 + random.nextInt(3)));
+        }
+    }
+
+    @Test
+    public void testEllipsoids() {
+        final Random random = new Random(2);
+        for (int i = 0; i < 50; ++i) {
+            final Vector center = new Vector(random.nextInt(40) - 20, random.nextInt(40) + 20, random.nextInt(40) - 20);
+            final Vector radius = new Vector(random.nextInt(10), random.nextInt(10) + random.nextInt(2) * 0.5, random.nextInt(10));
+            assertSpansMatchContains(new EllipsoidRegion(null, center, radius));
+        }
+    }
+
+    @Test
+    public void testPolygons() {
+        final Random random = new Random(3);
+        for (int i = 0; i < 100; ++i) {
+            final List<BlockVector2D> points = new ArrayList<BlockVector2D>();
+            final int count = 3 + random.nextInt(8);
+            for (int j = 0; j < count; ++j) {
+                points.add(new BlockVector2D(random.nextInt(30) - 15, random.nextInt(30) - 15));
+            }
+            assertSpansMatchContains(new Polygonal2DRegion(null, points, 0, 2));
+        }
+    }
+
+    @Test
+    public void testPolyhedra() {
+        final Random random = new Random(4);
+        for (int i = 0; i < 30; ++i) {
+            final ConvexPolyhedralRegion region = new ConvexPolyhedralRegion((LocalWorld) null);
+            final int count = 4 + random.nextInt(8);
+            for (int j = 0; j < count; ++j) {
+                region.addVertex(new BlockVector(random.nextInt(20), random.nextInt(20), random.nextInt(20)));
+            }
+            assertSpansMatchContains(region);
+        }
+    }
+
+    @Test
+    public void testIteratorFollowsSpans() {
+        final EllipsoidRegion region = new EllipsoidRegion(null, new Vector(0, 64, 0), new Vector(4, 3, 5));
+        final Iterator<BlockVector> it = region.iterator();
+        final SpanCursor spans = region.spans();
+        int count = 0;
+        while (spans.next()) {
+            for (int x = spans.getMinX(); x <= spans.getMaxX(); ++x) {
+                assertEquals(new BlockVector(x, spans.getY(), spans.getZ()), it.next());
+                ++count;
+            }
+        }
+        assertFalse(it.hasNext());
+        assertTrue(count > 0);
+    }
+
+    @Test
+    public void testLimit() {
+        final EllipsoidRegion region = new EllipsoidRegion(null, new Vector(0, 64, 0), new Vector(9, 7, 8));
+        final SpanCursor spans = region.spans();
+        spans.limit(60, 62, -3, 100);
+        int count = 0;
+        while (spans.next()) {
+            assertTrue(spans.getY() >= 60 && spans.getY() <= 62);
+            assertTrue(spans.getZ() >= -3);
+            count += spans.getMaxX() - spans.getMinX() + 1;
+        }
+
+        int expected = 0;
+        for (int y = 60; y <= 62; ++y) {
+            for (int z = -3; z <= 8; ++z) {
+                for (int x = -9; x <= 9; ++x) {
+                    if (region.contains(new Vector(x, y, z))) {
+                        ++expected;
+                    }
+                }
+            }
+        }
+        assertEquals(expected, count);
+    }
+
+    private static void assertSpansMatchContains(Region region) {
+        final Vector min = region.getMinimumPoint();
+        final Vector max = region.getMaximumPoint();
+        final int minX = min.getBlockX();
+        final int width = max.getBlockX() - minX + 1;
+        final int minY = min.getBlockY();
+        final int height = max.getBlockY() - minY + 1;
+        final int minZ = min.getBlockZ();
+        final int length = max.getBlockZ() - minZ + 1;
+        final boolean[] visited = new boolean[width * height * length];
+
+        final SpanCursor spans = region.spans();
+        int lastY = Integer.MIN_VALUE;
+        int lastZ = Integer.MIN_VALUE;
+        int lastMaxX = Integer.MIN_VALUE;
+        while (spans.next()) {
+            final int y = spans.getY();
+            final int z = spans.getZ();
+            assertTrue(spans.getMinX() <= spans.getMaxX());
+            assertTrue("spans must be ordered", z > lastZ || (z == lastZ && (y > lastY || (y == lastY && spans.getMinX() > lastMaxX + 1))));
+            for (int x = spans.getMinX(); x <= spans.getMaxX(); ++x) {
+                visited[((z - minZ) * height + (y - minY)) * width + (x - minX)] = true;
+            }
+            lastY = y;
+            lastZ = z;
+            lastMaxX = spans.getMaxX();
+        }
+
+        for (int z = 0; z < length; ++z) {
+            for (int y = 0; y < height; ++y) {
+                for (int x = 0; x < width; ++x) {
+                    final Vector pt = new Vector(minX + x, minY + y, minZ + z);
+                    assertEquals(region + " at " + pt, region.contains(pt), visited[(z * height + y) * width + x]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.sk89q.worldedit.schematic;
+
+import com.sk89q.jnbt.ByteArrayTag;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.ListTag;
+import com.sk89q.jnbt.NBTInputStream;
+import com.sk89q.jnbt.NBTOutputStream;
+import com.sk89q.jnbt.ShortTag;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.CuboidClipboard;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.blocks.SignBlock;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class MCEditSchematicFormatTest {
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        final CuboidClipboard clipboard = new CuboidClipboard(new Vector(5, 3, 4), new Vector(10, 20, 30), new Vector(-1, 0, -2));
+        for (int x = 0; x < 5; ++x) {
+            for (int y = 0; y < 3; ++y) {
+                for (int z = 0; z < 4; ++z) {
+                    clipboard.setBlock(new Vector(x, y, z), new BaseBlock(BlockID.CLOTH, (x + y + z) & 0xF));
+                }
+            }
+        }
+        clipboard.setBlock(new Vector(4, 2, 3), new BaseBlock(300, 7));
+        clipboard.setBlock(new Vector(1, 1, 1), new SignBlock(BlockID.SIGN_POST, 3, new String[] { "a", "b", "c", "d" }));
+
+        final File file = File.createTempFile("worldedit", ".schematic");
+        try {
+            SchematicFormat.MCEDIT.save(clipboard, file);
+            final CuboidClipboard loaded = SchematicFormat.MCEDIT.load(file);
+
+            assertEquals(clipboard.getSize(), loaded.getSize());
+            assertEquals(new Vector(10, 20, 30), loaded.getOrigin());
+            assertEquals(new Vector(-1, 0, -2), loaded.getOffset());
+            assertEquals(new BaseBlock(BlockID.CLOTH, 2), loaded.getBlock(new Vector(0, 1, 1)));
+            assertEquals(new BaseBlock(300, 7), loaded.getBlock(new Vector(4, 2, 3)));
+
+            final BaseBlock sign = loaded.getBlock(new Vector(1, 1, 1));
+            assertEquals(BlockID.SIGN_POST, sign.getType());
+            assertEquals(3, sign.getData());
+            assertEquals("c", ((StringTag) sign.getNbtData().getValue().get("Text3")).getValue());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testLoadBlocksBeforeSize() throws Exception {
+        // Blocks come before the size, as happens with tags written in hash order
+        final Map<String, Tag> schematic = new LinkedHashMap<String, Tag>();
+        schematic.put("Blocks", new ByteArrayTag("Blocks", new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }));
+        schematic.put("AddBlocks", new ByteArrayTag("AddBlocks", new byte[] { 0x10, 0, 0, 0, 0 }));
+        schematic.put("Data", new ByteArrayTag("Data", new byte[] { 0, 1, 2, 3, 4, 5, 6, 7 }));
+        schematic.put("Width", new ShortTag("Width", (short) 2));
+        schematic.put("Height", new ShortTag("Height", (short) 2));
+        schematic.put("Length", new ShortTag("Length", (short) 2));
+        schematic.put("Materials", new StringTag("Materials", "Alpha"));
+        schematic.put("Entities", new ListTag("Entities", CompoundTag.class, new ArrayList<Tag>()));
+        schematic.put("TileEntities", new ListTag("TileEntities", CompoundTag.class, new ArrayList<Tag>()));
+
+        final File file = File.createTempFile("worldedit", ".schematic");
+        try {
+            final NBTOutputStream out = new NBTOutputStream(new FileOutputStream(file));
+            out.writeTag(new CompoundTag("Schematic", schematic));
+            out.close();
+
+            final CuboidClipboard loaded = SchematicFormat.MCEDIT.load(file);
+            assertEquals(new BaseBlock(1, 0), loaded.getBlock(new Vector(0, 0, 0)));
+            assertEquals(new BaseBlock(0x102, 1), loaded.getBlock(new Vector(1, 0, 0)));
+            assertEquals(new BaseBlock(8, 7), loaded.getBlock(new Vector(1, 1, 1)));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testLoadAndSaveKeepsPaletteSmall() throws Exception {
+        // 15 types with 16 data values each, with the data read before the
+        // types, as happens with tags written in hash order
+        final byte[] blocks = new byte[16 * 15];
+        final byte[] data = new byte[16 * 15];
+        for (int index = 0; index < blocks.length; ++index) {
+            blocks[index] = (byte) (index / 16 + 1);
+            data[index] = (byte) (index % 16);
+        }
+        final Map<String, Tag> schematic = new LinkedHashMap<String, Tag>();
+        schematic.put("Width", new ShortTag("Width", (short) 16));
+        schematic.put("Height", new ShortTag("Height", (short) 1));
+        schematic.put("Length", new ShortTag("Length", (short) 15));
+        schematic.put("AddBlocks", new ByteArrayTag("AddBlocks", new byte[blocks.length / 2 + 1]));
+        schematic.put("Data", new ByteArrayTag("Data", data));
+        schematic.put("Blocks", new ByteArrayTag("Blocks", blocks));
+        schematic.put("Materials", new StringTag("Materials", "Alpha"));
+        schematic.put("Entities", new ListTag("Entities", CompoundTag.class, new ArrayList<Tag>()));
+        schematic.put("TileEntities", new ListTag("TileEntities", CompoundTag.class, new ArrayList<Tag>()));
+
+        final File file = File.createTempFile("worldedit", ".schematic");
+        try {
+            final NBTOutputStream out = new NBTOutputStream(new FileOutputStream(file));
+            out.writeTag(new CompoundTag("Schematic", schematic));
+            out.close();
+
+            final CuboidClipboard loaded = SchematicFormat.MCEDIT.load(file);
+            assertEquals(16 * 15 + 1, loaded.getBlockArray().getPaletteSize());
+            assertEquals(new BaseBlock(3, 5), loaded.getBlock(new Vector(5, 0, 2)));
+
+            SchematicFormat.MCEDIT.save(loaded, file);
+            final NBTInputStream in = new NBTInputStream(new GZIPInputStream(new FileInputStream(file)));
+            final CompoundTag saved = (CompoundTag) in.readTag();
+            in.close();
+            assertFalse(saved.getValue().containsKey("AddBlocks"));
+            assertArrayEquals(blocks, ((ByteArrayTag) saved.getValue().get("Blocks")).getValue());
+            assertArrayEquals(data, ((ByteArrayTag) saved.getValue().get("Data")).getValue());
+
+            final CuboidClipboard reloaded = SchematicFormat.MCEDIT.load(file);
+            assertEquals(16 * 15 + 1, reloaded.getBlockArray().getPaletteSize());
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.sk89q.worldedit.snapshots;
+
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.IntTag;
+import com.sk89q.jnbt.NBTOutputStream;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.LocalWorld;
+import com.sk89q.worldedit.Vector2D;
+import com.sk89q.worldedit.data.ChunkStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ChunkStorePoolTest {
+    private File dir;
+    private SnapshotRepository repo;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("worldedit", "snapshots");
+        dir.delete();
+        dir.mkdir();
+        repo = new SnapshotRepository(dir);
+    }
+
+    @After
+    public void tearDown() {
+        repo.close();
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testRestoreTwoWorldsFromOneArchive() throws Exception {
+        final Map<String, Integer> worlds = new HashMap<String, Integer>();
+        worlds.put("world/region/", 1);
+        worlds.put("world_nether/DIM-1/region/", 2);
+        writeArchive(new File(dir, "nightly.zip"), worlds);
+        final Snapshot snapshot = repo.getSnapshot("nightly.zip");
+
+        assertEquals(1, readMarker(snapshot, "world"));
+        // The store is kept open and now serves another world
+        assertEquals(2, readMarker(snapshot, "world_nether"));
+        assertEquals(1, readMarker(snapshot, "world"));
+    }
+
+    @Test
+    public void testChangedArchiveIsReopened() throws Exception {
+        final File file = new File(dir, "nightly.zip");
+        final Map<String, Integer> worlds = new HashMap<String, Integer>();
+        worlds.put("world/region/", 1);
+        writeArchive(file, worlds);
+        final Snapshot snapshot = repo.getSnapshot("nightly.zip");
+        assertEquals(1, readMarker(snapshot, "world"));
+
+        worlds.put("world/region/", 3);
+        worlds.put("other/region/", 4);
+        writeArchive(file, worlds);
+        file.setLastModified(file.lastModified() + 2000);
+        assertEquals(3, readMarker(snapshot, "world"));
+    }
+
+    @Test
+    public void testStoreIsSharedUntilClosed() throws Exception {
+        final Map<String, Integer> worlds = new HashMap<String, Integer>();
+        worlds.put("world/region/", 1);
+        writeArchive(new File(dir, "nightly.zip"), worlds);
+        final Snapshot snapshot = repo.getSnapshot("nightly.zip");
+
+        final ChunkStore first = snapshot.getChunkStore();
+        final ChunkStore second = snapshot.getChunkStore();
+        first.close();
+        // Closing one restore's store leaves the other usable
+        assertEquals(1, getMarker(second, "world"));
+        second.close();
+    }
+
+    private static int readMarker(Snapshot snapshot, String worldName) throws Exception {
+        final ChunkStore store = snapshot.getChunkStore();
+        try {
+            return getMarker(store, worldName);
+        } finally {
+            store.close();
+        }
+    }
+
+    private static int getMarker(ChunkStore store, String worldName) throws Exception {
+        final LocalWorld world = mock(LocalWorld.class);
+        when(world.getName()).thenReturn(worldName);
+        final CompoundTag level = store.getChunkTag(new Vector2D(0, 0), world);
+        return ((IntTag) level.getValue().get("xPos")).getValue();
+    }
+
+    /**
+     * Write a zip with a region file for each folder, with the chunk at
+     * 0,0 holding a marker in place of its X position.
+     */
+    private static void writeArchive(File file, Map<String, Integer> worlds) throws IOException {
+        final ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            for (Map.Entry<String, Integer> world : worlds.entrySet()) {
+                zip.putNextEntry(new ZipEntry(world.getKey()));
+                zip.closeEntry();
+                zip.putNextEntry(new ZipEntry(world.getKey() + "r.0.0.mca"));
+                zip.write(createRegion(world.getValue()));
+                zip.closeEntry();
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static byte[] createRegion(int marker) throws IOException {
+        final Map<String, Tag> level = new HashMap<String, Tag>();
+        level.put("xPos", new IntTag("xPos", marker));
+        level.put("zPos", new IntTag("zPos", 0));
+        final Map<String, Tag> root = new HashMap<String, Tag>();
+        root.put("Level", new CompoundTag("Level", level));
+
+        final ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+        final NBTOutputStream nbt = new NBTOutputStream(new DeflaterOutputStream(chunk), false);
+        nbt.writeTag(new CompoundTag("", root));
+        nbt.close();
+
+        final ByteArrayOutputStream region = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(region);
+        // The chunk at 0,0 takes one sector after the two header sectors
+        out.writeInt((2 << 8) | 1);
+        out.write(new byte[8192 - 4]);
+        out.writeInt(chunk.size() + 1);
+        out.writeByte(2);
+        out.write(chunk.toByteArray());
+        out.write(new byte[12288 - region.size()]);
+        out.close();
+        return region.toByteArray();
+    }
+}